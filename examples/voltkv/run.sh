@@ -62,6 +62,14 @@ function server() {
     voltdb start -H $STARTUPLEADERHOST
 }
 
+# same as server, but the sites run up to 16 queued invocations of a single
+# statement insert or upsert procedure, like STORE.upsert, with one EE call;
+# compare async-benchmark-puts throughput and latency against server
+function server-batched() {
+    voltinit-ifneeded
+    VOLTDB_OPTS="$VOLTDB_OPTS -DSP_INVOCATION_BATCH_SIZE=16" voltdb start -H $STARTUPLEADERHOST
+}
+
 # load schema and procedures
 function init() {
     jars-ifneeded
@@ -101,6 +109,23 @@ function async-benchmark() {
 #        --ratelimit=100000
 }
 
+# only puts, which is the work server-batched batches
+function async-benchmark-puts() {
+    jars-ifneeded
+    java -classpath voltkv-client.jar:$CLIENTCLASSPATH voltkv.AsyncBenchmark \
+        --displayinterval=5 \
+        --duration=120 \
+        --servers=$SERVERS \
+        --poolsize=100000 \
+        --preload=false \
+        --getputratio=0 \
+        --keysize=32 \
+        --minvaluesize=128 \
+        --maxvaluesize=128 \
+        --entropy=127 \
+        --usecompression=false
+}
+
 # Multi-threaded synchronous benchmark sample
 # Use this target for argument help
 function sync-benchmark-help() {
@@ -148,8 +173,8 @@ function jdbc-benchmark() {
 }
 
 function help() {
-    echo "Usage: ./run.sh {clean|cleanall|jars|server|init|client|async-benchmark|aysnc-benchmark-help|...}"
-    echo "       {...|sync-benchmark|sync-benchmark-help|jdbc-benchmark|jdbc-benchmark-help}"
+    echo "Usage: ./run.sh {clean|cleanall|jars|server|server-batched|init|client|async-benchmark|aysnc-benchmark-help|...}"
+    echo "       {...|async-benchmark-puts|sync-benchmark|sync-benchmark-help|jdbc-benchmark|jdbc-benchmark-help}"
 }
 
 # Run the targets pass on the command line
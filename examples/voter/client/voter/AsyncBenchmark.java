@@ -143,6 +143,12 @@ public class AsyncBenchmark {
         @Option(desc = "Enable topology awareness")
         boolean topologyaware = false;
 
+        @Option(desc = "Coalesce invocations into batches of this many bytes per connection, 0 to disable.")
+        int batchbytes = 0;
+
+        @Option(desc = "Longest an invocation waits for its batch to fill, in microseconds.")
+        long batchdelay = 100;
+
         @Override
         public void validate() {
             if (duration <= 0) exitWithMessageAndUsage("duration must be > 0");
@@ -151,6 +157,8 @@ public class AsyncBenchmark {
             if (contestants <= 0) exitWithMessageAndUsage("contestants must be > 0");
             if (maxvotes <= 0) exitWithMessageAndUsage("maxvotes must be > 0");
             if (ratelimit <= 0) exitWithMessageAndUsage("ratelimit must be > 0");
+            if (batchbytes < 0) exitWithMessageAndUsage("batchbytes must be >= 0");
+            if (batchdelay < 0) exitWithMessageAndUsage("batchdelay must be >= 0");
         }
     }
 
@@ -188,6 +196,10 @@ public class AsyncBenchmark {
             clientConfig.setTopologyChangeAware(true);
         }
 
+        if (config.batchbytes > 0) {
+            clientConfig.enableInvocationBatching(config.batchbytes, config.batchdelay);
+        }
+
         client = ClientFactory.createClient(clientConfig);
 
         periodicStatsContext = client.createStatsContext();
@@ -97,6 +97,22 @@ function async-benchmark() {
         --maxvotes=2
 }
 
+# same as async-benchmark, but coalesces invocations into 16KB batches
+# written at least every 100us; compare throughput and 99th percentile
+# latency against async-benchmark
+function async-benchmark-batched() {
+    jars-ifneeded
+    java -classpath voter-client.jar:$CLIENTCLASSPATH voter.AsyncBenchmark \
+        --displayinterval=5 \
+        --warmup=5 \
+        --duration=120 \
+        --servers=$SERVERS \
+        --contestants=6 \
+        --maxvotes=2 \
+        --batchbytes=16384 \
+        --batchdelay=100
+}
+
 # trivial client code for illustration purposes
 function simple-benchmark() {
     jars-ifneeded
@@ -144,7 +160,7 @@ function jdbc-benchmark() {
 }
 
 function help() {
-    echo "Usage: ./run.sh {clean|cleanall|jars|server|init|client|async-benchmark|aysnc-benchmark-help|...}"
+    echo "Usage: ./run.sh {clean|cleanall|jars|server|init|client|async-benchmark|aysnc-benchmark-help|async-benchmark-batched|...}"
     echo "       {...|sync-benchmark|sync-benchmark-help|jdbc-benchmark|jdbc-benchmark-help|simple-benchmark}"
 }
 
@@ -0,0 +1,61 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serialized form of a message that is sent to more than one foreign host.
+ * Without this every ForeignHost flattens the message again on its network
+ * thread, so an MP fragment or completion bound for every host costs one
+ * serialization per host. The first network thread to get here flattens it,
+ * the others copy the bytes.
+ */
+final class FanoutSerialization {
+    private final VoltMessage m_message;
+    private int m_size = -1;
+    private ByteBuffer m_bytes;
+
+    FanoutSerialization(VoltMessage message) {
+        m_message = message;
+    }
+
+    synchronized int getSerializedSize() {
+        if (m_size < 0) {
+            m_size = m_message.getSerializedSize();
+        }
+        return m_size;
+    }
+
+    /**
+     * Copy the serialized message into buf
+     */
+    void serialize(ByteBuffer buf) throws IOException {
+        ByteBuffer bytes;
+        synchronized (this) {
+            if (m_bytes == null) {
+                m_bytes = ByteBuffer.allocate(getSerializedSize());
+                m_message.flattenToBuffer(m_bytes);
+                m_bytes.flip();
+            }
+            bytes = m_bytes;
+        }
+        buf.put(bytes.duplicate());
+    }
+}
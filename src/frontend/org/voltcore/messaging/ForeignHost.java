@@ -24,6 +24,7 @@ import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,6 +51,8 @@ public class ForeignHost {
 
     final PicoNetwork m_network;
     final FHInputHandler m_handler;
+    // null unless inter-node message batching is turned on
+    private final MessageBatcher m_batcher;
     private final HostMessenger m_hostMessenger;
     private final Integer m_hostId;
     final InetSocketAddress m_listeningAddress;
@@ -154,6 +157,13 @@ public class ForeignHost {
         m_deadHostTimeout = deadHostTimeout;
         m_listeningAddress = listeningAddress;
         m_network = network;
+        if (MessageBatcher.BATCH_DELAY_MICROS > 0) {
+            m_batcher = new MessageBatcher(network, MessageBatcher.BATCH_SIZE,
+                    TimeUnit.MICROSECONDS.toNanos(MessageBatcher.BATCH_DELAY_MICROS),
+                    host.getBatchFlushExecutor());
+        } else {
+            m_batcher = null;
+        }
 
         setLogRate(deadHostTimeout);
     }
@@ -214,6 +224,13 @@ public class ForeignHost {
 
     /** Send a message to the network. This public method is re-entrant. */
     void send(final long destinations[], final VoltMessage message) {
+        send(destinations, message, null);
+    }
+
+    /**
+     * @param shared  serialized form of the message shared with the other hosts it is sent to, may be null
+     */
+    void send(final long destinations[], final VoltMessage message, final FanoutSerialization shared) {
         if (!m_isUp) {
             hostLog.warn("Failed to send VoltMessage because connection to host " +
                     CoreUtils.getHostIdFromHSId(destinations[0])+ " is closed");
@@ -224,8 +241,8 @@ public class ForeignHost {
         }
 
         // if this link is "gone silent" for partition tests, just drop the message on the floor
-        if (!m_linkCutForTest.get()) {
-            m_network.enqueue(
+        if (!m_linkCutForTest.get() && !addToBatch(destinations, message, shared)) {
+            final DeferredSerialization ds =
                     new DeferredSerialization() {
                         @Override
                         public final void serialize(final ByteBuffer buf) throws IOException {
@@ -235,7 +252,11 @@ public class ForeignHost {
                             for (int ii = 0; ii < destinations.length; ii++) {
                                 buf.putLong(destinations[ii]);
                             }
-                            message.flattenToBuffer(buf);
+                            if (shared != null) {
+                                shared.serialize(buf);
+                            } else {
+                                message.flattenToBuffer(buf);
+                            }
                             buf.flip();
                         }
 
@@ -257,10 +278,15 @@ public class ForeignHost {
                                     + 8            /* source hsid */
                                     + 4            /* destinationCount */
                                     + 8 * destinations.length  /* destination list */
-                                    + message.getSerializedSize();
+                                    + (shared != null ? shared.getSerializedSize() : message.getSerializedSize());
                             return len;
                         }
-                    });
+                    };
+            if (m_batcher != null) {
+                m_batcher.enqueue(ds);
+            } else {
+                m_network.enqueue(ds);
+            }
         }
 
         long current_time = EstTime.currentTimeMillis();
@@ -407,6 +433,26 @@ public class ForeignHost {
 
     }
 
+    private boolean addToBatch(long destinations[], VoltMessage message, FanoutSerialization shared) {
+        if (m_batcher == null) {
+            return false;
+        }
+        try {
+            return m_batcher.add(destinations, message, shared);
+        } catch (IOException e) {
+            // Leave it to the unbatched path to fail on the network thread as it always has
+            return false;
+        }
+    }
+
+    /**
+     * @return batches written, messages in them, total and max nanoseconds of added latency,
+     * or null if this connection doesn't batch
+     */
+    long[] getBatchStats(boolean interval) {
+        return m_batcher == null ? null : m_batcher.getStats(interval);
+    }
+
     public void sendPoisonPill(String err, int cause) {
         // if this link is "gone silent" for partition tests, just drop the message on the floor
         if (m_linkCutForTest.get()) {
@@ -428,6 +474,9 @@ public class ForeignHost {
         message.put(errBytes);
         message.putInt(cause);
         message.flip();
+        if (m_batcher != null) {
+            m_batcher.flush();
+        }
         m_network.enqueue(message);
     }
 
@@ -29,6 +29,7 @@ import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,6 +44,7 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -301,6 +303,8 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
     private final Config m_config;
     private final SocketJoiner m_joiner;
     private final VoltNetworkPool m_network;
+    // Flushes partially filled inter-node message batches, created on first use
+    private ScheduledExecutorService m_batchFlushExecutor = null;
     // memoized InstanceId
     private InstanceId m_instanceId = null;
     private boolean m_shuttingDown = false;
@@ -1493,8 +1497,11 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
 
         if (foreignHosts.size() == 0) return;
 
+        // Flatten the message once rather than once per connection
+        final FanoutSerialization shared =
+            foreignHosts.size() > 1 ? new FanoutSerialization(message) : null;
         for (Entry<ForeignHost, ArrayList<Long>> e : foreignHosts.entrySet()) {
-            e.getKey().send(Longs.toArray(e.getValue()), message);
+            e.getKey().send(Longs.toArray(e.getValue()), message, shared);
         }
     }
 
@@ -1557,9 +1564,22 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         }
         m_joiner.shutdown();
         m_network.shutdown();
+        synchronized (this) {
+            if (m_batchFlushExecutor != null) {
+                m_batchFlushExecutor.shutdown();
+            }
+        }
         VERBOTEN_THREADS.clear();
     }
 
+    synchronized ScheduledExecutorService getBatchFlushExecutor() {
+        if (m_batchFlushExecutor == null) {
+            m_batchFlushExecutor = CoreUtils.getScheduledThreadPoolExecutor(
+                    "ForeignHost Batch Flusher", 1, CoreUtils.SMALL_STACK_SIZE);
+        }
+        return m_batchFlushExecutor;
+    }
+
     /*
      * Register a custom mailbox, optinally specifying what the hsid should be.
      */
@@ -1676,7 +1696,33 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
             picoNetworks.add(fh.m_network);
         }
 
-        return m_network.getIOStats(interval, picoNetworks);
+        Map<Long, Pair<String, long[]>> stats = m_network.getIOStats(interval, picoNetworks);
+
+        // Append the batching counters of each connection, zero when it isn't batching
+        long totals[] = new long[4];
+        for (ForeignHost fh : fhosts.values()) {
+            final long batchStats[] = fh.getBatchStats(interval);
+            final Pair<String, long[]> entry = stats.get(fh.m_handler.connectionId());
+            if (batchStats == null || entry == null) {
+                continue;
+            }
+            totals[0] += batchStats[0];
+            totals[1] += batchStats[1];
+            totals[2] += batchStats[2];
+            totals[3] = Math.max(totals[3], batchStats[3]);
+            stats.put(fh.m_handler.connectionId(), Pair.of(entry.getFirst(), appendBatchStats(entry.getSecond(), batchStats)));
+        }
+        final Pair<String, long[]> global = stats.get(-1L);
+        if (global != null) {
+            stats.put(-1L, Pair.of(global.getFirst(), appendBatchStats(global.getSecond(), totals)));
+        }
+        return stats;
+    }
+
+    private static long[] appendBatchStats(long counters[], long batchStats[]) {
+        long merged[] = Arrays.copyOf(counters, counters.length + batchStats.length);
+        System.arraycopy(batchStats, 0, merged, counters.length, batchStats.length);
+        return merged;
     }
 
     /**
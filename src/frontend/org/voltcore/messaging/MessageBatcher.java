@@ -0,0 +1,228 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.voltcore.network.PicoNetwork;
+import org.voltcore.utils.DeferredSerialization;
+
+/**
+ * Coalesces the frames sent on one ForeignHost connection into a single buffer
+ * so that a stream of small messages (acks, completion responses, truncation
+ * handles) costs one network thread wakeup and usually one packet per batch
+ * instead of one per message. Frames are serialized on the sending thread
+ * straight into the current batch, which is handed to the network when the
+ * next frame doesn't fit or when the first frame in it has waited for the
+ * flush delay.
+ *
+ * Off unless FOREIGN_HOST_BATCH_DELAY_MICROS is set, every message then waits
+ * up to that long before it is written.
+ */
+class MessageBatcher {
+
+    static final long BATCH_DELAY_MICROS = Long.getLong("FOREIGN_HOST_BATCH_DELAY_MICROS", 0);
+    static final int BATCH_SIZE = Integer.getInteger("FOREIGN_HOST_BATCH_SIZE", 64 * 1024);
+
+    // Enough to absorb a burst while the network thread drains the previous batches
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private final PicoNetwork m_network;
+    private final int m_maxBatchBytes;
+    private final long m_maxDelayNanos;
+    private final ScheduledExecutorService m_flushExecutor;
+
+    // Guarded by its own monitor, buffers come back on the network thread
+    private final ArrayDeque<ByteBuffer> m_pool = new ArrayDeque<>();
+    private ByteBuffer m_batch = null;
+    private int m_batchMessages = 0;
+    private long m_batchStartNanos = 0;
+    private boolean m_flushScheduled = false;
+
+    private long m_batches = 0;
+    private long m_batchedMessages = 0;
+    private long m_batchDelayNanos = 0;
+    private long m_maxBatchDelayNanos = 0;
+    private long m_lastBatches = 0;
+    private long m_lastBatchedMessages = 0;
+    private long m_lastBatchDelayNanos = 0;
+
+    private final Runnable m_timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MessageBatcher.this) {
+                m_flushScheduled = false;
+                flush();
+            }
+        }
+    };
+
+    /**
+     * @param network        Connection the batches are written to
+     * @param maxBatchBytes  Size of a batch buffer, frames larger than this are not batched
+     * @param maxDelayNanos  Longest a message waits in a partially filled batch
+     * @param flushExecutor  Runs the delayed flushes
+     */
+    MessageBatcher(PicoNetwork network, int maxBatchBytes, long maxDelayNanos,
+            ScheduledExecutorService flushExecutor) {
+        assert(maxBatchBytes > 0);
+        m_network = network;
+        m_maxBatchBytes = maxBatchBytes;
+        m_maxDelayNanos = maxDelayNanos;
+        m_flushExecutor = flushExecutor;
+    }
+
+    /**
+     * Serialize a message framed the way ForeignHost frames it into the current batch.
+     *
+     * @param shared  serialized form of the message shared with other connections, may be null
+     * @return false if the frame is too large to batch and the caller has to send it with {@link #enqueue}
+     */
+    synchronized boolean add(long[] destinations, VoltMessage message, FanoutSerialization shared)
+            throws IOException {
+        final int size = 4 + 8 + 4 + 8 * destinations.length
+                + (shared != null ? shared.getSerializedSize() : message.getSerializedSize());
+        if (size > m_maxBatchBytes) {
+            return false;
+        }
+
+        if (m_batch != null && m_batch.remaining() < size) {
+            flush();
+        }
+        if (m_batch == null) {
+            synchronized (m_pool) {
+                m_batch = m_pool.poll();
+            }
+            if (m_batch == null) {
+                m_batch = ByteBuffer.allocate(m_maxBatchBytes);
+            }
+            m_batchStartNanos = System.nanoTime();
+        }
+
+        // Messages check that they fill their buffer exactly, so give each frame its own slice
+        final int start = m_batch.position();
+        m_batch.limit(start + size);
+        final ByteBuffer frame = m_batch.slice();
+        m_batch.limit(m_batch.capacity());
+        frame.putInt(size - 4);
+        frame.putLong(message.m_sourceHSId);
+        frame.putInt(destinations.length);
+        for (long destination : destinations) {
+            frame.putLong(destination);
+        }
+        if (shared != null) {
+            shared.serialize(frame);
+        } else {
+            message.flattenToBuffer(frame);
+        }
+        m_batch.position(start + size);
+        m_batchMessages++;
+
+        if (!m_batch.hasRemaining()) {
+            flush();
+        } else if (!m_flushScheduled) {
+            try {
+                m_flushExecutor.schedule(m_timedFlush, m_maxDelayNanos, TimeUnit.NANOSECONDS);
+                m_flushScheduled = true;
+            } catch (RejectedExecutionException e) {
+                // Shutting down, nothing will flush this later
+                flush();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write something that wasn't batched, after everything that was.
+     */
+    synchronized void enqueue(DeferredSerialization ds) {
+        flush();
+        m_network.enqueue(ds);
+    }
+
+    /**
+     * Hand the current batch, if any, to the network.
+     */
+    synchronized void flush() {
+        if (m_batch == null || m_batchMessages == 0) {
+            return;
+        }
+        final long delay = System.nanoTime() - m_batchStartNanos;
+        m_batches++;
+        m_batchedMessages += m_batchMessages;
+        m_batchDelayNanos += delay;
+        m_maxBatchDelayNanos = Math.max(m_maxBatchDelayNanos, delay);
+
+        final ByteBuffer batch = m_batch;
+        m_batch = null;
+        m_batchMessages = 0;
+        batch.flip();
+        m_network.enqueue(new DeferredSerialization() {
+            @Override
+            public void serialize(ByteBuffer outbuf) throws IOException {
+                outbuf.put(batch);
+                recycle(batch);
+            }
+
+            @Override
+            public void cancel() {
+                recycle(batch);
+            }
+
+            @Override
+            public int getSerializedSize() {
+                return batch.remaining();
+            }
+        });
+    }
+
+    /**
+     * @return batches written, messages in them, total and max nanoseconds the
+     * first message of a batch waited for it to be written
+     */
+    synchronized long[] getStats(boolean interval) {
+        if (interval) {
+            final long[] stats = new long[] {
+                    m_batches - m_lastBatches,
+                    m_batchedMessages - m_lastBatchedMessages,
+                    m_batchDelayNanos - m_lastBatchDelayNanos,
+                    m_maxBatchDelayNanos };
+            m_lastBatches = m_batches;
+            m_lastBatchedMessages = m_batchedMessages;
+            m_lastBatchDelayNanos = m_batchDelayNanos;
+            m_maxBatchDelayNanos = 0;
+            return stats;
+        } else {
+            return new long[] { m_batches, m_batchedMessages, m_batchDelayNanos, m_maxBatchDelayNanos };
+        }
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        synchronized (m_pool) {
+            if (m_pool.size() < MAX_POOLED_BUFFERS) {
+                buffer.clear();
+                m_pool.offer(buffer);
+            }
+        }
+    }
+}
@@ -67,18 +67,66 @@ public class NIOReadStream {
         return m_totalAvailable;
     }
 
+    /**
+     * Read a big endian int from the stream without allocating. In the common case the
+     * whole int is in the head buffer and is read directly from it, otherwise it is
+     * assembled a byte at a time from the buffers it straddles.
+     */
     int getInt() {
-        // TODO: Optimize?
-        byte[] intbytes = new byte[4];
-        getBytes(intbytes);
+        if (m_totalAvailable < 4) {
+            throw new IllegalStateException("Requested 4 bytes; only have "
+                    + m_totalAvailable + " bytes; call tryRead() first");
+        }
+
+        BBContainer firstC = headContainer();
+        ByteBuffer first = firstC.b();
+        if (first.remaining() >= 4) {
+            final int output = first.getInt();
+            m_totalAvailable -= 4;
+            if (first.remaining() == 0) {
+                m_readBBContainers.poll();
+                firstC.discard();
+            }
+            return output;
+        }
+
         int output = 0;
-        for (int i = 0; i < intbytes.length; ++i) {
+        for (int i = 0; i < 4; ++i) {
             output <<= 8;
-            output |= (intbytes[i]) & 0xff;
+            output |= getByte() & 0xff;
+        }
+        return output;
+    }
+
+    private byte getByte() {
+        BBContainer firstC = headContainer();
+        ByteBuffer first = firstC.b();
+        assert first.remaining() > 0;
+        final byte output = first.get();
+        m_totalAvailable--;
+        if (first.remaining() == 0) {
+            m_readBBContainers.poll();
+            firstC.discard();
         }
         return output;
     }
 
+    /**
+     * @return the container at the head of the read buffers, stealing the
+     * buffer currently being filled by the network if there is no other
+     */
+    private BBContainer headContainer() {
+        BBContainer firstC = m_readBBContainers.peekFirst();
+        if (firstC == null) {
+            // Steal the write buffer
+            m_poolBBContainer.b().flip();
+            m_readBBContainers.add(m_poolBBContainer);
+            firstC = m_poolBBContainer;
+            m_poolBBContainer = null;
+        }
+        return firstC;
+    }
+
     /**
      * Move all bytes in current read buffers to output array, free read buffers
      * back to thread local memory pool.
@@ -92,14 +140,7 @@ public class NIOReadStream {
 
         int bytesCopied = 0;
         while (bytesCopied < output.length) {
-            BBContainer firstC = m_readBBContainers.peekFirst();
-            if (firstC == null) {
-                // Steal the write buffer
-                m_poolBBContainer.b().flip();
-                m_readBBContainers.add(m_poolBBContainer);
-                firstC = m_poolBBContainer;
-                m_poolBBContainer = null;
-            }
+            BBContainer firstC = headContainer();
             ByteBuffer first = firstC.b();
             assert first.remaining() > 0;
 
@@ -131,14 +172,7 @@ public class NIOReadStream {
         ImmutableList.Builder<ContainerSlice> slices = ImmutableList.builder();
         int bytesSliced = 0;
         while (bytesSliced < size) {
-            BBContainer firstC = m_readBBContainers.peekFirst();
-            if (firstC == null) {
-                // Steal the write buffer
-                m_poolBBContainer.b().flip();
-                m_readBBContainers.add(m_poolBBContainer);
-                firstC = m_poolBBContainer;
-                m_poolBBContainer = null;
-            }
+            BBContainer firstC = headContainer();
             ByteBuffer first = firstC.b();
             assert first.remaining() > 0 : "no remaining bytes to read";
 
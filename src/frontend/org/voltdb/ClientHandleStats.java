@@ -0,0 +1,72 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Reports the client transactions this host is waiting on, per partition, summed
+ * over all client connections and internal adapters. The counts are read from the
+ * ClientInterfaceHandleManagers without locking, so they are a snapshot that may
+ * be slightly stale.
+ */
+public class ClientHandleStats extends StatsSource
+{
+    private Map<Integer, long[]> m_handleCounts = new TreeMap<Integer, long[]>();
+
+    public ClientHandleStats() {
+        super(false);
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo(VoltSystemProcedure.CNAME_PARTITION_ID, VoltSystemProcedure.CTYPE_ID));
+        columns.add(new ColumnInfo("OUTSTANDING_READS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("OUTSTANDING_WRITES", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final long[] counts = m_handleCounts.get(rowKey);
+        rowValues[columnNameToIndex.get(VoltSystemProcedure.CNAME_PARTITION_ID)] = rowKey;
+        rowValues[columnNameToIndex.get("OUTSTANDING_READS")] = counts[0];
+        rowValues[columnNameToIndex.get("OUTSTANDING_WRITES")] = counts[1];
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval)
+    {
+        m_handleCounts = new TreeMap<Integer, long[]>();
+        ClientInterface ci = VoltDB.instance().getClientInterface();
+        if (ci != null) {
+            m_handleCounts.putAll(ci.getOutstandingHandlesByPartition());
+        }
+        @SuppressWarnings("rawtypes")
+        Iterator iter = m_handleCounts.keySet().iterator();
+        return (Iterator<Object>)iter;
+    }
+}
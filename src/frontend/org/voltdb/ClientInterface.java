@@ -1960,6 +1960,20 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         return client_stats;
     }
 
+    /**
+     * @return outstanding {reads, writes} per partition summed over all connections,
+     * including the internal adapters. Doesn't take any locks so the counts may be
+     * slightly stale.
+     */
+    public Map<Integer, long[]> getOutstandingHandlesByPartition()
+    {
+        final Map<Integer, long[]> counts = new HashMap<Integer, long[]>();
+        for (ClientInterfaceHandleManager cihm : m_cihm.values()) {
+            cihm.addOutstandingHandlesByPartition(counts);
+        }
+        return counts;
+    }
+
     public SnapshotDaemon getSnapshotDaemon() {
         return m_snapshotDaemon;
     }
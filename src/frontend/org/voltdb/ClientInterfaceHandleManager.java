@@ -54,7 +54,6 @@ public class ClientInterfaceHandleManager
     static final long PART_ID_SHIFT = 48;
     static final long SEQNUM_MAX = (1L << PART_ID_SHIFT) - 1L;
 
-    private long m_outstandingTxns;
     public final boolean isAdmin;
     public final Connection connection;
     public final ClientInterfaceRepairCallback repairCallback;
@@ -66,6 +65,8 @@ public class ClientInterfaceHandleManager
     private HandleGenerator m_shortCircuitHG = new HandleGenerator(SHORT_CIRCUIT_PART_ID);
 
     private final Map<Long, Iv2InFlight> m_shortCircuitReads = new HashMap<Long, Iv2InFlight>();
+    // Single writer (see PartitionData), read without locking for statistics
+    private volatile int m_shortCircuitCount = 0;
 
     private static class HandleGenerator
     {
@@ -121,17 +122,50 @@ public class ClientInterfaceHandleManager
         }
     }
 
+    /**
+     * Handles outstanding at one partition. The deques have a single writer at a
+     * time, either the network thread or, in the thread safe version, the holder
+     * of this object's monitor. The counts are published through volatiles so that
+     * statistics can read them without taking any lock.
+     */
     static class PartitionData {
         private final HandleGenerator m_generator;
         private final Deque<Iv2InFlight> m_reads = new ArrayDeque<Iv2InFlight>();
         private final Deque<Iv2InFlight> m_writes = new ArrayDeque<Iv2InFlight>();
+        private volatile int m_readCount = 0;
+        private volatile int m_writeCount = 0;
 
         private PartitionData(int partitionId) {
             m_generator = new HandleGenerator(partitionId);
         }
+
+        private Deque<Iv2InFlight> handles(boolean readOnly) {
+            return readOnly ? m_reads : m_writes;
+        }
+
+        private void offer(Iv2InFlight inFlight, boolean readOnly) {
+            handles(readOnly).offer(inFlight);
+            countChanged(readOnly);
+        }
+
+        /** Publish the size of a deque after it was modified */
+        private void countChanged(boolean readOnly) {
+            if (readOnly) {
+                m_readCount = m_reads.size();
+            } else {
+                m_writeCount = m_writes.size();
+            }
+        }
+
+        private void clear() {
+            m_reads.clear();
+            m_writes.clear();
+            m_readCount = 0;
+            m_writeCount = 0;
+        }
     }
 
-    private ImmutableMap<Integer, PartitionData> m_partitionStuff =
+    private volatile ImmutableMap<Integer, PartitionData> m_partitionStuff =
             new Builder<Integer, PartitionData>().build();
 
     ClientInterfaceHandleManager(boolean isAdmin, Connection connection, ClientInterfaceRepairCallback repairCallback, AdmissionControlGroup acg)
@@ -146,49 +180,137 @@ public class ClientInterfaceHandleManager
      * Factory to make a threadsafe version of CIHM. This is used
      * exclusively by some internal CI adapters that don't have
      * the natural thread-safety protocol/design of VoltNetwork.
+     *
+     * Locking is striped so that work for different partitions doesn't contend:
+     * each partition's handles are guarded by their PartitionData, short circuit
+     * reads by their own map, and only the creation of a new partition's data
+     * synchronizes on the manager. Outstanding counts are read without locks.
      */
     public static ClientInterfaceHandleManager makeThreadSafeCIHM(
             boolean isAdmin, Connection connection, ClientInterfaceRepairCallback callback, AdmissionControlGroup acg)
     {
         return new ClientInterfaceHandleManager(isAdmin, connection, callback, acg) {
             @Override
-            synchronized long getHandle(boolean isSinglePartition, int partitionId,
+            long getHandle(boolean isSinglePartition, int partitionId,
                     long clientHandle, int messageSize, long creationTimeNanos, String procName, long initiatorHSId,
                     boolean readOnly, boolean isShortCircuitRead) {
-                return super.getHandle(isSinglePartition, partitionId,
-                        clientHandle, messageSize, creationTimeNanos, procName, initiatorHSId, readOnly, isShortCircuitRead);
+                final Object stripe = isShortCircuitRead ? shortCircuitLock() :
+                    getOrCreatePartitionData(isSinglePartition ? partitionId : MP_PART_ID);
+                synchronized (stripe) {
+                    return super.getHandle(isSinglePartition, partitionId,
+                            clientHandle, messageSize, creationTimeNanos, procName, initiatorHSId, readOnly, isShortCircuitRead);
+                }
             }
             @Override
-            synchronized Iv2InFlight findHandle(long ciHandle) {
-                return super.findHandle(ciHandle);
+            Iv2InFlight removeShortCircuitRead(long ciHandle) {
+                synchronized (shortCircuitLock()) {
+                    return super.removeShortCircuitRead(ciHandle);
+                }
             }
             @Override
-            synchronized Iv2InFlight removeHandle(long ciHandle) {
-                return super.removeHandle(ciHandle);
+            Iv2InFlight findPartitionHandle(PartitionData partitionStuff, long ciHandle, boolean readOnly) {
+                synchronized (partitionStuff) {
+                    return super.findPartitionHandle(partitionStuff, ciHandle, readOnly);
+                }
             }
             @Override
-            synchronized long getOutstandingTxns() {
-                return super.getOutstandingTxns();
+            Iv2InFlight removePartitionHandle(PartitionData partitionStuff, long ciHandle, boolean readOnly) {
+                synchronized (partitionStuff) {
+                    return super.removePartitionHandle(partitionStuff, ciHandle, readOnly);
+                }
             }
             @Override
-            synchronized void freeOutstandingTxns() {
-                super.freeOutstandingTxns();
+            void freePartitionHandles(PartitionData partitionStuff) {
+                synchronized (partitionStuff) {
+                    super.freePartitionHandles(partitionStuff);
+                }
+            }
+            @Override
+            void freeShortCircuitReads() {
+                synchronized (shortCircuitLock()) {
+                    super.freeShortCircuitReads();
+                }
+            }
+            @Override
+            synchronized PartitionData createPartitionData(int partitionId) {
+                return super.createPartitionData(partitionId);
             }
 
             @Override
-            synchronized List<Iv2InFlight> removeHandlesForPartitionAndInitiator(Integer partitionId,
+            List<Iv2InFlight> removeHandlesForPartitionAndInitiator(Integer partitionId,
                     Long initiatorHSId) {
-                return super.removeHandlesForPartitionAndInitiator(partitionId, initiatorHSId);
+                PartitionData partitionStuff = getPartitionData(partitionId);
+                if (partitionStuff == null) {
+                    return new ArrayList<Iv2InFlight>();
+                }
+                synchronized (partitionStuff) {
+                    synchronized (shortCircuitLock()) {
+                        return super.removeHandlesForPartitionAndInitiator(partitionId, initiatorHSId);
+                    }
+                }
+            }
+
+            /*
+             * The stripes update the admission control group concurrently and it
+             * isn't thread safe, so all of them go through the group's monitor
+             */
+            @Override
+            void increaseBackpressure(int messageSize) {
+                synchronized (m_acg) {
+                    super.increaseBackpressure(messageSize);
+                }
+            }
+            @Override
+            void reduceBackpressure(int messageSize) {
+                synchronized (m_acg) {
+                    super.reduceBackpressure(messageSize);
+                }
             }
 
             @Override
-            synchronized boolean shouldCheckThreadIdAssertion()
+            boolean shouldCheckThreadIdAssertion()
             {
                 return false;
             }
         };
     }
 
+    void increaseBackpressure(int messageSize) {
+        m_acg.increaseBackpressure(messageSize);
+    }
+
+    void reduceBackpressure(int messageSize) {
+        m_acg.reduceBackpressure(messageSize);
+    }
+
+    Object shortCircuitLock() {
+        return m_shortCircuitReads;
+    }
+
+    PartitionData getPartitionData(int partitionId) {
+        return m_partitionStuff.get(partitionId);
+    }
+
+    PartitionData getOrCreatePartitionData(int partitionId) {
+        PartitionData partitionStuff = m_partitionStuff.get(partitionId);
+        if (partitionStuff == null) {
+            partitionStuff = createPartitionData(partitionId);
+        }
+        return partitionStuff;
+    }
+
+    PartitionData createPartitionData(int partitionId) {
+        PartitionData partitionStuff = m_partitionStuff.get(partitionId);
+        if (partitionStuff == null) {
+            partitionStuff = new PartitionData(partitionId);
+            m_partitionStuff =
+                    new Builder<Integer, PartitionData>().
+                        putAll(m_partitionStuff).
+                        put(partitionId, partitionStuff).build();
+        }
+        return partitionStuff;
+    }
+
     /**
      * Create a new handle for a transaction and store the client information
      * for that transaction in the internal structures.
@@ -212,28 +334,23 @@ public class ClientInterfaceHandleManager
             partitionId = MP_PART_ID;
         }
 
-        PartitionData partitionStuff = m_partitionStuff.get(partitionId);
-        if (partitionStuff == null) {
-            partitionStuff = new PartitionData(partitionId);
-            m_partitionStuff =
-                    new Builder<Integer, PartitionData>().
-                        putAll(m_partitionStuff).
-                        put(partitionId, partitionStuff).build();
-        }
-
-        long ciHandle =
-                isShortCircuitRead ? m_shortCircuitHG.getNextHandle() : partitionStuff.m_generator.getNextHandle();
-        Iv2InFlight inFlight =
-                new Iv2InFlight(ciHandle, clientHandle, messageSize, creationTimeNanos, procName, initiatorHSId);
-
+        long ciHandle;
         if (isShortCircuitRead) {
             /*
              * Short circuit reads don't use a handle that is partition specific
              * because ordering doesn't really matter since it isn't used for failure handling
              * because the read is local to this process
              */
+            ciHandle = m_shortCircuitHG.getNextHandle();
+            Iv2InFlight inFlight =
+                    new Iv2InFlight(ciHandle, clientHandle, messageSize, creationTimeNanos, procName, initiatorHSId);
             m_shortCircuitReads.put(ciHandle, inFlight);
+            m_shortCircuitCount = m_shortCircuitReads.size();
         } else {
+            PartitionData partitionStuff = getOrCreatePartitionData(partitionId);
+            ciHandle = partitionStuff.m_generator.getNextHandle();
+            Iv2InFlight inFlight =
+                    new Iv2InFlight(ciHandle, clientHandle, messageSize, creationTimeNanos, procName, initiatorHSId);
             /*
              * Reads are not ordered with writes, writes might block due to command logging
              * so track them separately because they will come back in mixed order
@@ -243,14 +360,11 @@ public class ClientInterfaceHandleManager
                  * Encode the read only-ness into the handle
                  */
                 ciHandle = setReadBit(ciHandle);
-                partitionStuff.m_reads.offer(inFlight);
-            } else {
-                partitionStuff.m_writes.offer(inFlight);
             }
+            partitionStuff.offer(inFlight, readOnly);
         }
 
-        m_outstandingTxns++;
-        m_acg.increaseBackpressure(messageSize);
+        increaseBackpressure(messageSize);
         return ciHandle;
     }
 
@@ -281,10 +395,8 @@ public class ClientInterfaceHandleManager
         /*
          * Check for a short circuit read
          */
-        Iv2InFlight inflight = m_shortCircuitReads.remove(ciHandle);
+        Iv2InFlight inflight = removeShortCircuitRead(ciHandle);
         if (inflight != null) {
-            m_acg.reduceBackpressure(inflight.m_messageSize);
-            m_outstandingTxns--;
             return inflight;
         }
 
@@ -299,8 +411,35 @@ public class ClientInterfaceHandleManager
             tmLog.error("Unable to find handle list for partition: " + partitionId);
             return null;
         }
+        return findPartitionHandle(partitionStuff, ciHandle, readOnly);
+    }
+
+    Iv2InFlight removeShortCircuitRead(long ciHandle)
+    {
+        if (m_shortCircuitCount == 0) {
+            return null;
+        }
+        Iv2InFlight inflight = m_shortCircuitReads.remove(ciHandle);
+        if (inflight != null) {
+            m_shortCircuitCount = m_shortCircuitReads.size();
+            reduceBackpressure(inflight.m_messageSize);
+        }
+        return inflight;
+    }
+
+    Iv2InFlight findPartitionHandle(PartitionData partitionStuff, long ciHandle, boolean readOnly)
+    {
+        final int partitionId = getPartIdFromHandle(ciHandle);
+        final Deque<Iv2InFlight> perPartDeque = partitionStuff.handles(readOnly);
+        try {
+            return pollPartitionHandle(perPartDeque, partitionId, ciHandle);
+        } finally {
+            partitionStuff.countChanged(readOnly);
+        }
+    }
 
-        final Deque<Iv2InFlight> perPartDeque = readOnly ? partitionStuff.m_reads : partitionStuff.m_writes;
+    private Iv2InFlight pollPartitionHandle(Deque<Iv2InFlight> perPartDeque, int partitionId, long ciHandle)
+    {
         while (perPartDeque.peekFirst() != null) {
             Iv2InFlight inFlight = perPartDeque.pollFirst();
             if (inFlight.m_ciHandle < ciHandle) {
@@ -318,8 +457,7 @@ public class ClientInterfaceHandleManager
                 errorResponse.flattenToBuffer(buf);
                 buf.flip();
                 connection.writeStream().enqueue(buf);
-                m_outstandingTxns--;
-                m_acg.reduceBackpressure(inFlight.m_messageSize);
+                reduceBackpressure(inFlight.m_messageSize);
             }
             else if (inFlight.m_ciHandle > ciHandle) {
                 // we've gone too far, need to jam this back into the front of the deque and run away.
@@ -329,8 +467,7 @@ public class ClientInterfaceHandleManager
                 break;
             }
             else {
-                m_acg.reduceBackpressure(inFlight.m_messageSize);
-                m_outstandingTxns--;
+                reduceBackpressure(inFlight.m_messageSize);
                 return inFlight;
             }
         }
@@ -350,10 +487,8 @@ public class ClientInterfaceHandleManager
         // Shouldn't see any reads in this path, since the whole point of this
         // method is to remove writes during replay which aren't going to get
         // done.  However, this is logically correct, so go ahead and allow it.
-        Iv2InFlight inflight = m_shortCircuitReads.remove(ciHandle);
+        Iv2InFlight inflight = removeShortCircuitRead(ciHandle);
         if (inflight != null) {
-            m_acg.reduceBackpressure(inflight.m_messageSize);
-            m_outstandingTxns--;
             return inflight;
         }
 
@@ -368,8 +503,12 @@ public class ClientInterfaceHandleManager
             tmLog.error("Unable to find handle list for partition: " + partitionId);
             return null;
         }
+        return removePartitionHandle(partitionStuff, ciHandle, readOnly);
+    }
 
-        final Deque<Iv2InFlight> perPartDeque = readOnly ? partitionStuff.m_reads : partitionStuff.m_writes;
+    Iv2InFlight removePartitionHandle(PartitionData partitionStuff, long ciHandle, boolean readOnly)
+    {
+        final Deque<Iv2InFlight> perPartDeque = partitionStuff.handles(readOnly);
         Iterator<Iv2InFlight> iter = perPartDeque.iterator();
         while (iter.hasNext()) {
             Iv2InFlight inFlight = iter.next();
@@ -380,9 +519,9 @@ public class ClientInterfaceHandleManager
                 break;
             }
             else if (inFlight.m_ciHandle == ciHandle) {
-                m_acg.reduceBackpressure(inFlight.m_messageSize);
-                m_outstandingTxns--;
+                reduceBackpressure(inFlight.m_messageSize);
                 iter.remove();
+                partitionStuff.countChanged(readOnly);
                 return inFlight;
             }
         }
@@ -390,10 +529,40 @@ public class ClientInterfaceHandleManager
         return null;
     }
 
-    /** Return a map of ConnectionId::(adminmode, txn count) */
+    /**
+     * @return the number of transactions outstanding for this connection. Safe to call
+     * from any thread, it doesn't lock and may be slightly stale.
+     */
     long getOutstandingTxns()
     {
-        return m_outstandingTxns;
+        long outstanding = m_shortCircuitCount;
+        for (PartitionData pd : m_partitionStuff.values()) {
+            outstanding += pd.m_readCount + pd.m_writeCount;
+        }
+        return outstanding;
+    }
+
+    /**
+     * Add this connection's outstanding reads and writes per partition to the given map.
+     * Short circuit reads are not tracked per partition and are left out. Like {@link #getOutstandingTxns()} this is lock free and may be slightly stale.
+     */
+    void addOutstandingHandlesByPartition(Map<Integer, long[]> counts)
+    {
+        for (Map.Entry<Integer, PartitionData> e : m_partitionStuff.entrySet()) {
+            final PartitionData pd = e.getValue();
+            final int readCount = pd.m_readCount;
+            final int writeCount = pd.m_writeCount;
+            if (readCount == 0 && writeCount == 0) {
+                continue;
+            }
+            long[] partitionCounts = counts.get(e.getKey());
+            if (partitionCounts == null) {
+                partitionCounts = new long[2];
+                counts.put(e.getKey(), partitionCounts);
+            }
+            partitionCounts[0] += readCount;
+            partitionCounts[1] += writeCount;
+        }
     }
 
     /**
@@ -405,19 +574,27 @@ public class ClientInterfaceHandleManager
     void freeOutstandingTxns() {
         assert(!shouldCheckThreadIdAssertion() || m_expectedThreadId == Thread.currentThread().getId());
         for (PartitionData pd : m_partitionStuff.values()) {
-            for (Iv2InFlight inflight : pd.m_reads) {
-                m_outstandingTxns--;
-                m_acg.reduceBackpressure(inflight.m_messageSize);
-            }
-            for (Iv2InFlight inflight : pd.m_writes) {
-                m_outstandingTxns--;
-                m_acg.reduceBackpressure(inflight.m_messageSize);
-            }
+            freePartitionHandles(pd);
         }
+        freeShortCircuitReads();
+    }
+
+    void freePartitionHandles(PartitionData partitionStuff) {
+        for (Iv2InFlight inflight : partitionStuff.m_reads) {
+            reduceBackpressure(inflight.m_messageSize);
+        }
+        for (Iv2InFlight inflight : partitionStuff.m_writes) {
+            reduceBackpressure(inflight.m_messageSize);
+        }
+        partitionStuff.clear();
+    }
+
+    void freeShortCircuitReads() {
         for (Iv2InFlight inflight : m_shortCircuitReads.values()) {
-            m_outstandingTxns--;
-            m_acg.reduceBackpressure(inflight.m_messageSize);
+            reduceBackpressure(inflight.m_messageSize);
         }
+        m_shortCircuitReads.clear();
+        m_shortCircuitCount = 0;
     }
 
     List<Iv2InFlight> removeHandlesForPartitionAndInitiator(Integer partitionId,
@@ -438,10 +615,10 @@ public class ClientInterfaceHandleManager
             if (entry.m_initiatorHSId != initiatorHSId) {
                 i.remove();
                 retval.add(entry);
-                m_outstandingTxns--;
-                m_acg.reduceBackpressure(entry.m_messageSize);
+                reduceBackpressure(entry.m_messageSize);
             }
         }
+        partitionStuff.countChanged(true);
 
         /*
          * MP short circuit reads can be remote, which necessitate repair
@@ -456,10 +633,10 @@ public class ClientInterfaceHandleManager
                 if (entry.m_initiatorHSId != initiatorHSId) {
                     itr.remove();
                     retval.add(entry);
-                    m_outstandingTxns--;
-                    m_acg.reduceBackpressure(entry.m_messageSize);
+                    reduceBackpressure(entry.m_messageSize);
                 }
             }
+            m_shortCircuitCount = m_shortCircuitReads.size();
         }
 
         /*
@@ -472,10 +649,10 @@ public class ClientInterfaceHandleManager
             if (entry.m_initiatorHSId != initiatorHSId) {
                 i.remove();
                 retval.add(entry);
-                m_outstandingTxns--;
-                m_acg.reduceBackpressure(entry.m_messageSize);
+                reduceBackpressure(entry.m_messageSize);
             }
         }
+        partitionStuff.countChanged(false);
         return retval;
     }
 
@@ -28,8 +28,10 @@ public abstract class Consistency {
 
     public enum ReadLevel {
         FAST (0),   // send reads everywhere, no waiting or queue, return response to clients immediately.
-        SAFE (1);   // send reads to primary, do not replicate them to replicas, but don't lose them to
+        SAFE (1),   // send reads to primary, do not replicate them to replicas, but don't lose them to
                     // clients until any previous writes have been ack-ed of the repair log.
+        SAFE_REPLICA (2);   // send reads to any local replica, hold the response until the leader's
+                            // truncation handle shows every write the read could have seen was ack-ed.
 
 
         private final int m_value;
@@ -44,6 +46,20 @@ public abstract class Consistency {
             return m_value;
         }
 
+        /**
+         * @return true if read responses wait for the writes before them to be ack-ed by every replica
+         */
+        public boolean isSafe() {
+            return this != FAST;
+        }
+
+        /**
+         * @return true if single partition reads may run at a replica rather than the partition leader
+         */
+        public boolean readsFromReplicas() {
+            return this != SAFE;
+        }
+
         public static ReadLevel fromInt(int value) {
             if (value == FAST.m_value) {
                 return FAST;
@@ -51,6 +67,9 @@ public abstract class Consistency {
             if (value == SAFE.m_value) {
                 return SAFE;
             }
+            if (value == SAFE_REPLICA.m_value) {
+                return SAFE_REPLICA;
+            }
             throw new IllegalArgumentException(
                     String.format("No Consistency.ReadLevel with value: %d", value));
         }
@@ -62,6 +81,9 @@ public abstract class Consistency {
             if (value == ReadlevelType.SAFE) {
                 return SAFE;
             }
+            if (value == ReadlevelType.SAFE_REPLICA) {
+                return SAFE_REPLICA;
+            }
             throw new IllegalArgumentException(
                     String.format("No Consistency.ReadLevel with value: %s", value.toString()));
         }
@@ -73,6 +95,9 @@ public abstract class Consistency {
             if (this == SAFE) {
                 return ReadlevelType.SAFE;
             }
+            if (this == SAFE_REPLICA) {
+                return ReadlevelType.SAFE_REPLICA;
+            }
             throw new IllegalArgumentException(
                     String.format("No ReadlevelType mapping for Consistency.ReadLevel: %s", toString()));
         }
@@ -22,8 +22,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -55,7 +60,8 @@ import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 import com.google_voltpatches.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google_voltpatches.common.util.concurrent.MoreExecutors;
-import com.google_voltpatches.common.util.concurrent.UnsynchronizedRateLimiter;
+import com.google_voltpatches.common.util.concurrent.RateLimiter;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
 
 
 public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
@@ -86,7 +92,11 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
 
     private volatile long m_bytesWritten = 0;
 
-    private static final Semaphore m_bytesAllowedBeforeSync = new Semaphore((1024 * 1024) * 256);
+    /*
+     * Bytes written by all targets that haven't been synced yet, writers block once it runs out
+     */
+    static final int BYTES_ALLOWED_BEFORE_SYNC = (1024 * 1024) * 256;
+    static final Semaphore m_bytesAllowedBeforeSync = new Semaphore(BYTES_ALLOWED_BEFORE_SYNC);
     private final AtomicInteger m_bytesWrittenSinceLastSync = new AtomicInteger(0);
 
     private final ScheduledFuture<?> m_syncTask;
@@ -100,21 +110,94 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     @SuppressWarnings("unused")
     private final String m_tableName;
 
+    final ListeningExecutorService m_writeService;
+    private final int m_writeGatherChunks;
+    private final SyncPolicy m_syncPolicy;
+    private final ConcurrentLinkedQueue<ChunkWrite> m_pendingWrites = new ConcurrentLinkedQueue<ChunkWrite>();
+    private final Runnable m_writePendingTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
     private final AtomicInteger m_outstandingWriteTasks = new AtomicInteger(0);
     private final ReentrantLock m_outstandingWriteTasksLock = new ReentrantLock();
     private final Condition m_noMoreOutstandingWriteTasksCondition =
             m_outstandingWriteTasksLock.newCondition();
 
-    private static final ListeningExecutorService m_es = CoreUtils.getListeningSingleThreadExecutor("Snapshot write service ");
+    static final ListeningExecutorService m_es = CoreUtils.getListeningSingleThreadExecutor("Snapshot write service ");
     static final ListeningScheduledExecutorService m_syncService = MoreExecutors.listeningDecorator(
             Executors.newSingleThreadScheduledExecutor(CoreUtils.getThreadFactory("Snapshot sync service")));
 
+    /*
+     * With a writer per volume the targets on each file system get a write service thread
+     * of their own so that snapshots spread over several disks write to all of them at once.
+     * Otherwise every target shares m_es.
+     */
+    public static final boolean SNAPSHOT_WRITER_PER_VOLUME = Boolean.getBoolean("SNAPSHOT_WRITER_PER_VOLUME");
+    private static final ConcurrentHashMap<FileStore, ListeningExecutorService> m_volumeWriters =
+            new ConcurrentHashMap<FileStore, ListeningExecutorService>();
+
+    /*
+     * Up to this many chunks of a target that are compressed and waiting are written
+     * with a single gathering write
+     */
+    public static final int SNAPSHOT_WRITE_GATHER_CHUNKS =
+            Math.max(1, Integer.getInteger("SNAPSHOT_WRITE_GATHER_CHUNKS", 1));
+
+    /*
+     * A gathering write takes the bytes allowed before sync for all of its chunks at once,
+     * so it stops gathering before it could need more than this. Only tests change it.
+     */
+    static volatile int m_writeGatherBytes = BYTES_ALLOWED_BEFORE_SYNC / 4;
+
+    /**
+     * How written data is pushed to disk while the snapshot is in progress. It is always
+     * forced when the target is closed.
+     */
+    public enum SyncPolicy {
+        // sync_file_range the written data and drop it from the page cache
+        RANGE,
+        // fsync the file, for file systems where sync_file_range isn't enough
+        FSYNC,
+        // Leave it to the OS until the target is closed
+        NONE
+    }
+
+    public static final SyncPolicy SNAPSHOT_SYNC_POLICY;
+    public static final int SNAPSHOT_SYNC_BYTES;
     public static final int SNAPSHOT_SYNC_FREQUENCY = Integer.getInteger("SNAPSHOT_SYNC_FREQUENCY", 500);
     public static final int SNAPSHOT_FADVISE_BYTES = Integer.getInteger("SNAPSHOT_FADVISE_BYTES", 1024 * 1024 * 2);
     public static final int SNAPSHOT_RATELIMIT_MEGABYTES;
     public static final boolean USE_SNAPSHOT_RATELIMIT;
 
     static {
+        SyncPolicy policy = SyncPolicy.RANGE;
+        final String policyName = System.getProperty("SNAPSHOT_SYNC_POLICY");
+        if (policyName != null) {
+            try {
+                policy = SyncPolicy.valueOf(policyName.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                SNAP_LOG.warn("Invalid snapshot sync policy " + policyName + ", " + policy + " will be used");
+            }
+        }
+        SNAPSHOT_SYNC_POLICY = policy;
+
+        /*
+         * A target only syncs once it has more than this many bytes written, so it has to be
+         * well short of the bytes all targets may have written before a sync
+         */
+        final int defaultSyncBytes = 1024 * 1024 * 4;
+        final int syncBytes = Integer.getInteger("SNAPSHOT_SYNC_BYTES", defaultSyncBytes);
+        if (syncBytes < 1 || syncBytes > BYTES_ALLOWED_BEFORE_SYNC / 4) {
+            SNAP_LOG.warn("Invalid snapshot sync bytes " + syncBytes + ", it must be between 1 and " +
+                    BYTES_ALLOWED_BEFORE_SYNC / 4 + ", " + defaultSyncBytes + " will be used");
+            SNAPSHOT_SYNC_BYTES = defaultSyncBytes;
+        } else {
+            SNAPSHOT_SYNC_BYTES = syncBytes;
+        }
+
         int limit = Integer.getInteger("SNAPSHOT_RATELIMIT_MEGABYTES", Integer.MAX_VALUE);
         if (limit < 1) {
             SNAP_LOG.warn("Invalid snapshot rate limit " + limit + ", no limit will be applied");
@@ -130,8 +213,13 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         }
     }
 
-    public static final UnsynchronizedRateLimiter SNAPSHOT_RATELIMITER =
-            UnsynchronizedRateLimiter.create(SNAPSHOT_RATELIMIT_MEGABYTES * 1024.0 * 1024.0, 1, TimeUnit.SECONDS);
+    /*
+     * Shared by the write service threads of every volume and target type. It only holds
+     * its own lock while reserving permits and sleeps outside of it, so a throttled writer
+     * doesn't hold up the other writers or a rate change.
+     */
+    public static final RateLimiter SNAPSHOT_RATELIMITER =
+            RateLimiter.create(SNAPSHOT_RATELIMIT_MEGABYTES * 1024.0 * 1024.0, 1, TimeUnit.SECONDS);
 
     public static void enforceSnapshotRateLimit(int permits) {
         if (USE_SNAPSHOT_RATELIMIT) {
@@ -139,6 +227,78 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         }
     }
 
+    /**
+     * A buffer waiting for the write service, queued in the order the writes were requested
+     */
+    private static class ChunkWrite {
+        private final BBContainer m_tupleData;
+        // Null when the tuple data is written as is, like the header
+        private final Future<BBContainer> m_compression;
+        private final SettableFuture<Object> m_future = SettableFuture.create();
+        private BBContainer m_payload = null;
+
+        private ChunkWrite(BBContainer tupleData, Future<BBContainer> compression) {
+            m_tupleData = tupleData;
+            m_compression = compression;
+        }
+
+        private boolean isReady() {
+            return m_compression == null || m_compression.isDone();
+        }
+
+        /*
+         * The bytes this chunk takes from the bytes allowed before sync once it is ready.
+         * A failed compression counts as nothing, the write reports the failure.
+         */
+        private int payloadBytes() {
+            if (m_compression == null) {
+                return 0;
+            }
+            try {
+                return m_compression.get().b().limit();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+
+        private void discard() {
+            try {
+                if (m_payload != null) {
+                    m_payload.discard();
+                } else if (m_compression != null) {
+                    // Not written, still return the compressed buffer to the pool
+                    m_compression.get().discard();
+                }
+            } catch (Exception e) {
+                SNAP_LOG.debug("Failed to compress snapshot chunk that was not written", e);
+            } finally {
+                m_tupleData.discard();
+            }
+        }
+    }
+
+    private static ListeningExecutorService getWriteService(File file, boolean writerPerVolume) {
+        if (!writerPerVolume) {
+            return m_es;
+        }
+        try {
+            final FileStore store = Files.getFileStore(file.toPath());
+            ListeningExecutorService writer = m_volumeWriters.get(store);
+            if (writer == null) {
+                writer = CoreUtils.getListeningSingleThreadExecutor("Snapshot write service " + store + " ");
+                final ListeningExecutorService existing = m_volumeWriters.putIfAbsent(store, writer);
+                if (existing != null) {
+                    writer.shutdown();
+                    writer = existing;
+                }
+            }
+            return writer;
+        } catch (IOException e) {
+            SNAP_LOG.warn("Unable to find the volume of snapshot file " + file + ", using the shared writer", e);
+            return m_es;
+        }
+    }
+
     public DefaultSnapshotDataTarget(
             final File file,
             final int hostId,
@@ -180,11 +340,49 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             final long timestamp,
             int version[]
             ) throws IOException {
+        this(
+                file,
+                hostId,
+                clusterName,
+                databaseName,
+                tableName,
+                numPartitions,
+                isReplicated,
+                partitionIds,
+                schemaTable,
+                txnId,
+                timestamp,
+                version,
+                SNAPSHOT_WRITER_PER_VOLUME,
+                SNAPSHOT_WRITE_GATHER_CHUNKS,
+                SNAPSHOT_SYNC_POLICY);
+    }
+
+    DefaultSnapshotDataTarget(
+            final File file,
+            final int hostId,
+            final String clusterName,
+            final String databaseName,
+            final String tableName,
+            final int numPartitions,
+            final boolean isReplicated,
+            final List<Integer> partitionIds,
+            final VoltTable schemaTable,
+            final long txnId,
+            final long timestamp,
+            int version[],
+            boolean writerPerVolume,
+            int writeGatherChunks,
+            SyncPolicy syncPolicy
+            ) throws IOException {
         String hostname = CoreUtils.getHostnameOrAddress();
         m_file = file;
         m_tableName = tableName;
         m_fos = new FileOutputStream(file);
         m_channel = m_fos.getChannel();
+        m_writeService = getWriteService(file, writerPerVolume);
+        m_writeGatherChunks = writeGatherChunks;
+        m_syncPolicy = syncPolicy;
         m_needsFinalClose = !isReplicated;
         final FastSerializer fs = new FastSerializer();
         fs.writeInt(0);//CRC
@@ -281,58 +479,69 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         }
 
         ScheduledFuture<?> syncTask = null;
-        syncTask = m_syncService.scheduleAtFixedRate(new Runnable() {
-            private long fadvisedBytes = 0;
-            private long syncedBytes = 0;
-            @Override
-            public void run() {
-                //Only sync for at least 4 megabyte of data, enough to amortize the cost of seeking
-                //on ye olden platters. Since we are appending to a file it's actually 2 seeks.
-                while (m_bytesWrittenSinceLastSync.get() > (1024 * 1024 * 4)) {
-                    final int bytesSinceLastSync = m_bytesWrittenSinceLastSync.getAndSet(0);
-                    long positionAtSync = 0;
-                    try {
-                        positionAtSync = m_channel.position();
-                        final long syncStart = syncedBytes;
-                        syncedBytes = Bits.sync_file_range(SNAP_LOG, m_fos.getFD(), m_channel, syncStart, positionAtSync);
-                    } catch (IOException e) {
-                        if (!(e instanceof java.nio.channels.AsynchronousCloseException )) {
-                            SNAP_LOG.error("Error syncing snapshot", e);
-                        } else {
-                            SNAP_LOG.debug("Asynchronous close syncing snasphot data, presumably graceful", e);
+        if (m_syncPolicy != SyncPolicy.NONE) {
+            syncTask = m_syncService.scheduleAtFixedRate(new Runnable() {
+                private long fadvisedBytes = 0;
+                private long syncedBytes = 0;
+                @Override
+                public void run() {
+                    //Only sync for at least 4 megabyte of data by default, enough to amortize the cost of seeking
+                    //on ye olden platters. Since we are appending to a file it's actually 2 seeks.
+                    //Writers blocked on the bytes allowed before sync may be waiting on targets that
+                    //haven't reached that, so sync whatever there is for them.
+                    while (m_bytesWrittenSinceLastSync.get() > SNAPSHOT_SYNC_BYTES ||
+                            (m_bytesWrittenSinceLastSync.get() > 0 && m_bytesAllowedBeforeSync.hasQueuedThreads())) {
+                        final int bytesSinceLastSync = m_bytesWrittenSinceLastSync.getAndSet(0);
+                        long positionAtSync = 0;
+                        try {
+                            positionAtSync = m_channel.position();
+                            if (m_syncPolicy == SyncPolicy.FSYNC) {
+                                m_channel.force(false);
+                                syncedBytes = positionAtSync;
+                            } else {
+                                final long syncStart = syncedBytes;
+                                syncedBytes = Bits.sync_file_range(SNAP_LOG, m_fos.getFD(), m_channel, syncStart, positionAtSync);
+                            }
+                        } catch (IOException e) {
+                            if (!(e instanceof java.nio.channels.AsynchronousCloseException )) {
+                                SNAP_LOG.error("Error syncing snapshot", e);
+                            } else {
+                                SNAP_LOG.debug("Asynchronous close syncing snasphot data, presumably graceful", e);
+                            }
                         }
-                    }
-                    m_bytesAllowedBeforeSync.release(bytesSinceLastSync);
+                        m_bytesAllowedBeforeSync.release(bytesSinceLastSync);
 
-                    /*
-                     * Don't pollute the page cache with snapshot data, use fadvise
-                     * to periodically request the kernel drop pages we have written
-                     */
-                    try {
-                        if (positionAtSync - fadvisedBytes > SNAPSHOT_FADVISE_BYTES) {
-                            //Get aligned start and end position
-                            final long fadviseStart = fadvisedBytes;
-                            //-1 because we don't want to drop the last page because
-                            //we might modify it while appending
-                            fadvisedBytes = ((positionAtSync / Bits.pageSize()) - 1) * Bits.pageSize();
-                            final long retval = PosixAdvise.fadvise(
-                                    m_fos.getFD(),
-                                    fadviseStart,
-                                    fadvisedBytes - fadviseStart,
-                                    PosixAdvise.POSIX_FADV_DONTNEED );
-                            if (retval != 0) {
-                                SNAP_LOG.error("Error fadvising snapshot data: " + retval);
-                                SNAP_LOG.error(
-                                        "Params offset " + fadviseStart +
-                                        " length " + (fadvisedBytes - fadviseStart));
+                        /*
+                         * Don't pollute the page cache with snapshot data, use fadvise
+                         * to periodically request the kernel drop pages we have written
+                         */
+                        try {
+                            if (m_syncPolicy == SyncPolicy.RANGE &&
+                                    positionAtSync - fadvisedBytes > SNAPSHOT_FADVISE_BYTES) {
+                                //Get aligned start and end position
+                                final long fadviseStart = fadvisedBytes;
+                                //-1 because we don't want to drop the last page because
+                                //we might modify it while appending
+                                fadvisedBytes = ((positionAtSync / Bits.pageSize()) - 1) * Bits.pageSize();
+                                final long retval = PosixAdvise.fadvise(
+                                        m_fos.getFD(),
+                                        fadviseStart,
+                                        fadvisedBytes - fadviseStart,
+                                        PosixAdvise.POSIX_FADV_DONTNEED );
+                                if (retval != 0) {
+                                    SNAP_LOG.error("Error fadvising snapshot data: " + retval);
+                                    SNAP_LOG.error(
+                                            "Params offset " + fadviseStart +
+                                            " length " + (fadvisedBytes - fadviseStart));
+                                }
                             }
+                        } catch (Throwable t) {
+                            SNAP_LOG.error("Error fadvising snapshot data", t);
                         }
-                    } catch (Throwable t) {
-                        SNAP_LOG.error("Error fadvising snapshot data", t);
                     }
                 }
-            }
-        }, SNAPSHOT_SYNC_FREQUENCY, SNAPSHOT_SYNC_FREQUENCY, TimeUnit.MILLISECONDS);
+            }, SNAPSHOT_SYNC_FREQUENCY, SNAPSHOT_SYNC_FREQUENCY, TimeUnit.MILLISECONDS);
+        }
         m_syncTask = syncTask;
     }
 
@@ -358,18 +567,20 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             } finally {
                 m_outstandingWriteTasksLock.unlock();
             }
-            m_syncTask.cancel(false);
-            ListenableFuture<?> task = m_syncService.submit(new Runnable() {
-                @Override
-                public void run() {
-                    // Empty task to wait on 'cancel' above, since m_syncTask.get()
-                    // will immediately throw a CancellationException
+            if (m_syncTask != null) {
+                m_syncTask.cancel(false);
+                ListenableFuture<?> task = m_syncService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Empty task to wait on 'cancel' above, since m_syncTask.get()
+                        // will immediately throw a CancellationException
+                    }
+                });
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    SNAP_LOG.error("Error waiting on snapshot sync task cancellation", e);
                 }
-            });
-            try {
-                task.get();
-            } catch (ExecutionException e) {
-                SNAP_LOG.error("Error waiting on snapshot sync task cancellation", e);
             }
             m_channel.force(false);
         } finally {
@@ -447,91 +658,154 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             cont.b().position(12);
             compressionTask = CompressionService.compressAndCRC32cBufferAsync(tupleData, cont);
         }
-        final Future<BBContainer> compressionTaskFinal = compressionTask;
 
-        ListenableFuture<?> writeTask = m_es.submit(new Callable<Object>() {
-            @Override
-            public Object call() throws Exception {
-                try {
-                    if (m_acceptOneWrite) {
-                        m_acceptOneWrite = false;
-                    } else {
-                        if (m_simulateBlockedWrite != null) {
-                            m_simulateBlockedWrite.await();
-                        }
-                        if (m_simulateFullDiskWritingChunk) {
-                            //Make sure to consume the result of the compression
-                            compressionTaskFinal.get().discard();
-                            throw new IOException("Disk full");
-                        }
-                    }
+        final ChunkWrite chunk = new ChunkWrite(tupleDataCont, compressionTask);
+        m_pendingWrites.offer(chunk);
+        m_writeService.execute(m_writePendingTask);
+        return chunk.m_future;
+    }
 
-                    final ByteBuffer tupleData = tupleDataCont.b();
-                    int totalWritten = 0;
-                    if (prependLength) {
-                        BBContainer payloadContainer = compressionTaskFinal.get();
-                        try {
-                            final ByteBuffer payloadBuffer = payloadContainer.b();
-                            payloadBuffer.position(0);
-
-                            ByteBuffer lengthPrefix = ByteBuffer.allocate(12);
-                            m_bytesAllowedBeforeSync.acquire(payloadBuffer.remaining());
-                            //Length prefix does not include 4 header items, just compressd payload
-                            //that follows
-                            lengthPrefix.putInt(payloadBuffer.remaining() - 16);//length prefix
-                            lengthPrefix.putInt(tupleData.getInt(0)); // partitionId
-
-                            /*
-                             * Checksum the header and put it in the payload buffer
-                             */
-                            PureJavaCrc32C crc = new PureJavaCrc32C();
-                            crc.update(lengthPrefix.array(), 0, 8);
-                            lengthPrefix.putInt((int)crc.getValue());
-                            lengthPrefix.flip();
-                            payloadBuffer.put(lengthPrefix);
-                            payloadBuffer.position(0);
-
-                            enforceSnapshotRateLimit(payloadBuffer.remaining());
-
-                            /*
-                             * Write payload to file
-                             */
-                            while (payloadBuffer.hasRemaining()) {
-                                totalWritten += m_channel.write(payloadBuffer);
-                            }
-                        } finally {
-                            payloadContainer.discard();
-                        }
+    /*
+     * Runs on the write service, once for each chunk queued. Takes the oldest chunk and the
+     * compressed chunks right behind it, so the chunks are written in the order they were
+     * queued and a later run finds nothing left to do. The chunks after the first are only
+     * taken while their payload fits in m_writeGatherBytes.
+     */
+    private void writePending() {
+        final ChunkWrite first = m_pendingWrites.poll();
+        if (first == null) {
+            return;
+        }
+        final List<ChunkWrite> chunks = new ArrayList<ChunkWrite>(m_writeGatherChunks);
+        chunks.add(first);
+        final int gatherBytes = m_writeGatherBytes;
+        long payloadBytes = first.isReady() ? first.payloadBytes() : 0;
+        while (chunks.size() < m_writeGatherChunks) {
+            final ChunkWrite next = m_pendingWrites.peek();
+            if (next == null || !next.isReady()) {
+                break;
+            }
+            payloadBytes += next.payloadBytes();
+            if (payloadBytes > gatherBytes) {
+                break;
+            }
+            chunks.add(m_pendingWrites.poll());
+        }
+
+        try {
+            writeChunks(chunks);
+            for (ChunkWrite chunk : chunks) {
+                chunk.m_future.set(null);
+            }
+        } catch (Throwable t) {
+            for (ChunkWrite chunk : chunks) {
+                chunk.m_future.setException(t);
+            }
+        }
+    }
+
+    private void writeChunks(List<ChunkWrite> chunks) throws Exception {
+        try {
+            if (m_acceptOneWrite) {
+                m_acceptOneWrite = false;
+            } else {
+                if (m_simulateBlockedWrite != null) {
+                    m_simulateBlockedWrite.await();
+                }
+                if (m_simulateFullDiskWritingChunk) {
+                    throw new IOException("Disk full");
+                }
+            }
+
+            final ByteBuffer buffers[] = new ByteBuffer[chunks.size()];
+            long bytes = 0;
+            int payloadBytes = 0;
+            for (int ii = 0; ii < buffers.length; ii++) {
+                final ChunkWrite chunk = chunks.get(ii);
+                final ByteBuffer tupleData = chunk.m_tupleData.b();
+                if (chunk.m_compression == null) {
+                    buffers[ii] = tupleData;
+                } else {
+                    chunk.m_payload = chunk.m_compression.get();
+                    final ByteBuffer payloadBuffer = chunk.m_payload.b();
+                    payloadBuffer.position(0);
+
+                    ByteBuffer lengthPrefix = ByteBuffer.allocate(12);
+                    //Length prefix does not include 4 header items, just compressd payload
+                    //that follows
+                    lengthPrefix.putInt(payloadBuffer.remaining() - 16);//length prefix
+                    lengthPrefix.putInt(tupleData.getInt(0)); // partitionId
+
+                    /*
+                     * Checksum the header and put it in the payload buffer
+                     */
+                    PureJavaCrc32C crc = new PureJavaCrc32C();
+                    crc.update(lengthPrefix.array(), 0, 8);
+                    lengthPrefix.putInt((int)crc.getValue());
+                    lengthPrefix.flip();
+                    payloadBuffer.put(lengthPrefix);
+                    payloadBuffer.position(0);
+
+                    payloadBytes += payloadBuffer.remaining();
+                    buffers[ii] = payloadBuffer;
+                }
+                bytes += buffers[ii].remaining();
+            }
+
+            /*
+             * Take the bytes allowed before sync for the whole batch in one go, a writer
+             * holding part of what it needs could keep every writer waiting. The sync task
+             * only gives back bytes that were written, so give them back here if the write fails.
+             */
+            if (m_syncPolicy != SyncPolicy.NONE && payloadBytes > 0) {
+                m_bytesAllowedBeforeSync.acquire(payloadBytes);
+            }
+            boolean written = false;
+            try {
+                if (payloadBytes > 0) {
+                    enforceSnapshotRateLimit(payloadBytes);
+                }
+
+                /*
+                 * Write the chunks to file
+                 */
+                long totalWritten = 0;
+                while (totalWritten < bytes) {
+                    totalWritten += m_channel.write(buffers);
+                }
+                m_bytesWritten += totalWritten;
+                written = true;
+            } finally {
+                if (m_syncPolicy != SyncPolicy.NONE && payloadBytes > 0) {
+                    if (written) {
+                        // Only the chunks took bytes allowed before sync, the header didn't
+                        m_bytesWrittenSinceLastSync.addAndGet(payloadBytes);
                     } else {
-                        while (tupleData.hasRemaining()) {
-                            totalWritten += m_channel.write(tupleData);
-                        }
+                        m_bytesAllowedBeforeSync.release(payloadBytes);
                     }
-                    m_bytesWritten += totalWritten;
-                    m_bytesWrittenSinceLastSync.addAndGet(totalWritten);
-                } catch (IOException e) {
-                    m_writeException = e;
-                    SNAP_LOG.error("Error while attempting to write snapshot data to file " + m_file, e);
-                    m_writeFailed = true;
-                    throw e;
-                } finally {
-                    try {
-                        tupleDataCont.discard();
-                    } finally {
-                        m_outstandingWriteTasksLock.lock();
-                        try {
-                            if (m_outstandingWriteTasks.decrementAndGet() == 0) {
-                                m_noMoreOutstandingWriteTasksCondition.signalAll();
-                            }
-                        } finally {
-                            m_outstandingWriteTasksLock.unlock();
-                        }
+                }
+            }
+        } catch (IOException e) {
+            m_writeException = e;
+            SNAP_LOG.error("Error while attempting to write snapshot data to file " + m_file, e);
+            m_writeFailed = true;
+            throw e;
+        } finally {
+            try {
+                for (ChunkWrite chunk : chunks) {
+                    chunk.discard();
+                }
+            } finally {
+                m_outstandingWriteTasksLock.lock();
+                try {
+                    if (m_outstandingWriteTasks.addAndGet(-chunks.size()) == 0) {
+                        m_noMoreOutstandingWriteTasksCondition.signalAll();
                     }
+                } finally {
+                    m_outstandingWriteTasksLock.unlock();
                 }
-                return null;
             }
-        });
-        return writeTask;
+        }
     }
 
     @Override
@@ -575,15 +849,11 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     }
 
     public static void setRate(final Integer megabytesPerSecond) {
-        m_es.execute(new Runnable() {
-            @Override
-            public void run() {
-                if (megabytesPerSecond == null) {
-                    SNAPSHOT_RATELIMITER.setRate(SNAPSHOT_RATELIMIT_MEGABYTES * 1024.0 * 1024.0);
-                } else {
-                    SNAPSHOT_RATELIMITER.setRate(megabytesPerSecond * 1024.0 * 1024.0);
-                }
-            }
-        });
+        // Not queued behind the writes, the new rate applies to the next permits reserved
+        if (megabytesPerSecond == null) {
+            SNAPSHOT_RATELIMITER.setRate(SNAPSHOT_RATELIMIT_MEGABYTES * 1024.0 * 1024.0);
+        } else {
+            SNAPSHOT_RATELIMITER.setRate(megabytesPerSecond * 1024.0 * 1024.0);
+        }
     }
 }
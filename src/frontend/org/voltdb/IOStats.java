@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.voltdb.VoltTable.ColumnInfo;
 import org.voltcore.utils.Pair;
@@ -69,7 +70,10 @@ public class IOStats extends StatsSource {
         columns.add(new ColumnInfo("MESSAGES_READ", VoltType.BIGINT));
         columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
         columns.add(new ColumnInfo("MESSAGES_WRITTEN", VoltType.BIGINT));
-
+        columns.add(new ColumnInfo("BATCHES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BATCHED_MESSAGES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_BATCH_DELAY_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MAX_BATCH_DELAY_MICROS", VoltType.BIGINT));
     }
 
     @Override
@@ -83,6 +87,15 @@ public class IOStats extends StatsSource {
         rowValues[columnNameToIndex.get("MESSAGES_READ")] = counters[1];
         rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = counters[2];
         rowValues[columnNameToIndex.get("MESSAGES_WRITTEN")] = counters[3];
+        // Only inter-node connections with batching turned on carry batch counters
+        final boolean batched = counters.length > 4;
+        final long batches = batched ? counters[4] : 0;
+        rowValues[columnNameToIndex.get("BATCHES_WRITTEN")] = batches;
+        rowValues[columnNameToIndex.get("BATCHED_MESSAGES")] = batched ? counters[5] : 0;
+        rowValues[columnNameToIndex.get("AVG_BATCH_DELAY_MICROS")] =
+                batches > 0 ? TimeUnit.NANOSECONDS.toMicros(counters[6] / batches) : 0;
+        rowValues[columnNameToIndex.get("MAX_BATCH_DELAY_MICROS")] =
+                batched ? TimeUnit.NANOSECONDS.toMicros(counters[7]) : 0;
         super.updateStatsRow(rowKey, rowValues);
     }
 
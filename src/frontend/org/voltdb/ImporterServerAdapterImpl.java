@@ -22,6 +22,7 @@ import org.voltdb.importer.AbstractImporter;
 import org.voltdb.importer.ImporterServerAdapter;
 import org.voltdb.importer.ImporterStatsCollector;
 
+import java.util.List;
 import java.util.function.Function;
 
 /**
@@ -48,6 +49,13 @@ public class ImporterServerAdapterImpl implements ImporterServerAdapter {
                 .callProcedure(importer, backPressurePredicate, m_statsCollector, procCallback, proc, fieldList);
     }
 
+    @Override
+    public boolean[] callProcedures(AbstractImporter importer, Function<Integer, Boolean> backPressurePredicate,
+            String proc, List<Object[]> rows, List<? extends ProcedureCallback> callbacks) {
+        return getInternalConnectionHandler()
+                .callProcedures(importer, backPressurePredicate, m_statsCollector, proc, rows, callbacks);
+    }
+
     private InternalConnectionHandler getInternalConnectionHandler() {
         return VoltDB.instance().getClientInterface().getInternalConnectionHandler();
     }
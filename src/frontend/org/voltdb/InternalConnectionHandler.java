@@ -17,19 +17,27 @@
 
 package org.voltdb;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltdb.AuthSystem.AuthUser;
+import org.voltdb.catalog.Column;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
 import org.voltdb.client.BatchTimeoutOverrideType;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.ProcedureCallback;
-import org.voltdb.utils.MiscUtils;
+import org.voltdb.iv2.MpInitiator;
+import org.voltdb.utils.CatalogUtil;
 
 import com.google_voltpatches.common.collect.ImmutableMap;
 
@@ -47,6 +55,10 @@ public class InternalConnectionHandler {
     private final AtomicLong m_failedCount = new AtomicLong();
     private final AtomicLong m_submitSuccessCount = new AtomicLong();
     private volatile Map<Integer, InternalClientResponseAdapter> m_adapters = ImmutableMap.of();
+    // Resubmits the rows of failed bulk loads one at a time. Waiting out back pressure here keeps
+    // it off the response threads, the thread goes away when there is nothing to retry.
+    private final ExecutorService m_retryExecutor =
+            CoreUtils.getCachedSingleThreadExecutor("Importer bulk load retries", 60000);
 
     // Synchronized in case multiple partitions are added concurrently.
     public synchronized void addAdapter(int pid, InternalClientResponseAdapter adapter)
@@ -111,10 +123,9 @@ public class InternalConnectionHandler {
 
         StoredProcedureInvocation task = new StoredProcedureInvocation();
         task.setProcName(procName);
-        task.setParams(args);
 
         try {
-            task = MiscUtils.roundTripForCL(task);
+            task.setSerializedParams(args);
         } catch (Exception e) {
             String fmt = "Cannot invoke procedure %s. failed to create task.";
             m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, procName);
@@ -164,9 +175,9 @@ public class InternalConnectionHandler {
         StoredProcedureInvocation task = new StoredProcedureInvocation();
 
         task.setProcName(proc);
-        task.setParams(fieldList);
+        // Serialized once here for the command log, the partition is read back from the buffer
         try {
-            task = MiscUtils.roundTripForCL(task);
+            task.setSerializedParams(fieldList);
         } catch (Exception e) {
             String fmt = "Cannot invoke procedure %s from streaming interface %s. failed to create task.";
             m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, proc, caller);
@@ -195,4 +206,222 @@ public class InternalConnectionHandler {
         m_submitSuccessCount.incrementAndGet();
         return true;
     }
+
+    /**
+     * Invoke a procedure once for each row on behalf of an importer. If the procedure is the
+     * default insert or upsert procedure of a table the rows are loaded with one
+     * {@code @LoadSinglepartitionTable} transaction per partition, or one
+     * {@code @LoadMultipartitionTable} transaction for a replicated table, rather than one
+     * transaction per row. The callback of each row gets the response of the transaction that
+     * loaded it. If a load fails its rows are retried one at a time, so only the offending rows
+     * fail. Any other procedure is invoked once per row.
+     *
+     * @param callbacks one callback per row, or null
+     * @return for each row whether it was queued
+     */
+    public boolean[] callProcedures(InternalConnectionContext caller,
+                                    Function<Integer, Boolean> backPressurePredicate,
+                                    InternalConnectionStatsCollector statsCollector,
+                                    String proc, List<Object[]> rows,
+                                    List<? extends ProcedureCallback> callbacks) {
+        final boolean[] queued = new boolean[rows.size()];
+        final CatalogContext context = getCatalogContext();
+        final Procedure catProc = InvocationDispatcher.getProcedureFromName(proc, context);
+        final Table table = rows.size() > 1 ? getBulkLoadTable(catProc, context) : null;
+        if (table == null) {
+            for (int ii = 0; ii < rows.size(); ii++) {
+                queued[ii] = callProcedure(caller, backPressurePredicate, statsCollector,
+                        callbackAt(callbacks, ii), proc, rows.get(ii));
+            }
+            return queued;
+        }
+
+        final List<Column> columns = CatalogUtil.getSortedCatalogItems(table.getColumns(), "index");
+        final VoltType[] types = new VoltType[columns.size()];
+        final VoltTable.ColumnInfo[] columnInfo = new VoltTable.ColumnInfo[columns.size()];
+        for (int ii = 0; ii < types.length; ii++) {
+            types[ii] = VoltType.get((byte)columns.get(ii).getType());
+            columnInfo[ii] = new VoltTable.ColumnInfo(columns.get(ii).getTypeName(), types[ii]);
+        }
+        final int partitionIndex = table.getIsreplicated() ? -1 : table.getPartitioncolumn().getIndex();
+
+        final Map<Integer, BulkLoadCallback> loads = new HashMap<>();
+        for (int ii = 0; ii < rows.size(); ii++) {
+            final Object[] row = rows.get(ii);
+            if (row.length != types.length) {
+                queued[ii] = callProcedure(caller, backPressurePredicate, statsCollector,
+                        callbackAt(callbacks, ii), proc, row);
+                continue;
+            }
+            try {
+                final Object[] converted = new Object[types.length];
+                for (int col = 0; col < types.length; col++) {
+                    converted[col] = ParameterConverter.tryToMakeCompatible(types[col].classFromType(), row[col]);
+                }
+                int partition = MpInitiator.MP_INIT_PID;
+                if (partitionIndex >= 0) {
+                    partition = TheHashinator.getPartitionForParameter(types[partitionIndex], converted[partitionIndex]);
+                }
+                BulkLoadCallback load = loads.get(partition);
+                if (load == null) {
+                    load = new BulkLoadCallback(caller, backPressurePredicate, statsCollector, proc, rows, callbacks,
+                            new VoltTable(columnInfo));
+                    loads.put(partition, load);
+                }
+                load.m_table.addRow(converted);
+                load.m_rows.add(ii);
+                if (partitionIndex >= 0 && load.m_partitionParam == null) {
+                    load.m_partitionParam = VoltType.valueToBytes(converted[partitionIndex]);
+                }
+            } catch (Exception e) {
+                // Bad row, let the regular path report why
+                queued[ii] = callProcedure(caller, backPressurePredicate, statsCollector,
+                        callbackAt(callbacks, ii), proc, row);
+            }
+        }
+
+        final byte upsertMode = (byte)(catProc.getTypeName().toLowerCase().endsWith(".upsert") ? 1 : 0);
+        for (Map.Entry<Integer, BulkLoadCallback> e : loads.entrySet()) {
+            final BulkLoadCallback load = e.getValue();
+            if (submitBulkLoad(caller, backPressurePredicate, e.getKey(), table.getTypeName(), upsertMode, load)) {
+                for (int row : load.m_rows) {
+                    queued[row] = true;
+                }
+            }
+        }
+        return queued;
+    }
+
+    private static ProcedureCallback callbackAt(List<? extends ProcedureCallback> callbacks, int index) {
+        return callbacks == null ? null : callbacks.get(index);
+    }
+
+    /**
+     * @return the table the procedure inserts into or upserts into if its rows can be loaded in bulk, null otherwise
+     */
+    private static Table getBulkLoadTable(Procedure catProc, CatalogContext context) {
+        if (catProc == null || !catProc.getDefaultproc()) {
+            return null;
+        }
+        final String name = catProc.getTypeName().toLowerCase();
+        if (!name.endsWith(".insert") && !name.endsWith(".upsert")) {
+            return null;
+        }
+        final Table table = catProc.getPartitiontable();
+        if (table == null || CatalogUtil.isTableExportOnly(context.database, table)) {
+            return null;
+        }
+        return table;
+    }
+
+    private boolean submitBulkLoad(InternalConnectionContext caller,
+                                   Function<Integer, Boolean> backPressurePredicate,
+                                   int partition, String tableName, byte upsertMode, BulkLoadCallback load) {
+        final CatalogContext context = getCatalogContext();
+        final String loadProc;
+        final StoredProcedureInvocation task = new StoredProcedureInvocation();
+        try {
+            if (load.m_partitionParam != null) {
+                loadProc = "@LoadSinglepartitionTable";
+                task.setSerializedParams(load.m_partitionParam, tableName, upsertMode, load.m_table);
+            } else {
+                loadProc = "@LoadMultipartitionTable";
+                task.setSerializedParams(tableName, upsertMode, load.m_table);
+            }
+        } catch (IOException e) {
+            String fmt = "Cannot load %d rows into %s from streaming interface %s. failed to create task.";
+            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, e, fmt, load.m_rows.size(), tableName, caller);
+            m_failedCount.incrementAndGet();
+            return false;
+        }
+        task.setProcName(loadProc);
+
+        final InternalClientResponseAdapter adapter = m_adapters.get(partition);
+        InternalAdapterTaskAttributes kattrs = new InternalAdapterTaskAttributes(caller, adapter.connectionId());
+
+        // The load sysprocs require admin, which the importer user doesn't have. Running them as the
+        // internal admin grants nothing more: the load is built here, not by the importer, and only holds
+        // rows for the default insert or upsert procedure of the same table, which the importer user may
+        // always call since it has the DEFAULTPROC permission. Completions are reported per row by the callback.
+        final AuthUser user = context.authSystem.getInternalAdminUser();
+        if (!adapter.createTransaction(kattrs, loadProc, InvocationDispatcher.getProcedureFromName(loadProc, context),
+                load, null, task, user, partition, false, backPressurePredicate)) {
+            m_failedCount.incrementAndGet();
+            return false;
+        }
+        m_submitSuccessCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Hands the response of a bulk load to the callbacks of the rows in it.
+     */
+    private class BulkLoadCallback implements ProcedureCallback {
+        private final InternalConnectionContext m_caller;
+        private final Function<Integer, Boolean> m_backPressurePredicate;
+        private final InternalConnectionStatsCollector m_statsCollector;
+        private final String m_proc;
+        private final List<Object[]> m_allRows;
+        private final List<? extends ProcedureCallback> m_callbacks;
+        final VoltTable m_table;
+        final List<Integer> m_rows = new ArrayList<>();
+        byte[] m_partitionParam = null;
+
+        BulkLoadCallback(InternalConnectionContext caller, Function<Integer, Boolean> backPressurePredicate,
+                InternalConnectionStatsCollector statsCollector, String proc, List<Object[]> allRows,
+                List<? extends ProcedureCallback> callbacks, VoltTable table) {
+            m_caller = caller;
+            m_backPressurePredicate = backPressurePredicate;
+            m_statsCollector = statsCollector;
+            m_proc = proc;
+            m_allRows = allRows;
+            m_callbacks = callbacks;
+            m_table = table;
+        }
+
+        @Override
+        public void clientCallback(ClientResponse response) throws Exception {
+            final byte status = response.getStatus();
+            if (status == ClientResponse.RESPONSE_UNKNOWN) {
+                // The adapter resubmits the load
+                return;
+            }
+            if (status != ClientResponse.SUCCESS && status != ClientResponse.SERVER_UNAVAILABLE) {
+                // Find the rows that failed. Not from the response thread, which must not wait
+                // for back pressure, nor touch this class
+                m_retryExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        retryRows(response);
+                    }
+                });
+                return;
+            }
+            for (int row : m_rows) {
+                final ProcedureCallback cb = callbackAt(m_callbacks, row);
+                if (cb != null) {
+                    cb.clientCallback(response);
+                }
+                if (m_statsCollector != null) {
+                    m_statsCollector.reportCompletion(m_caller.getName(), m_proc, response);
+                }
+            }
+        }
+
+        private void retryRows(ClientResponse response) {
+            for (int row : m_rows) {
+                final ProcedureCallback cb = callbackAt(m_callbacks, row);
+                if (!callProcedure(m_caller, m_backPressurePredicate, m_statsCollector, cb, m_proc, m_allRows.get(row))
+                        && cb != null) {
+                    try {
+                        cb.clientCallback(response);
+                    } catch (Exception e) {
+                        m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, e,
+                                "Callback of a row that failed to load into %s from streaming interface %s failed",
+                                m_proc, m_caller);
+                    }
+                }
+            }
+        }
+    }
 }
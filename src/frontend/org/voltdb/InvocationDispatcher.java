@@ -59,7 +59,6 @@ import org.voltcore.utils.RateLimitedLogger;
 import org.voltcore.zk.ZKUtil;
 import org.voltdb.AuthSystem.AuthUser;
 import org.voltdb.ClientInterface.ExplainMode;
-import org.voltdb.Consistency.ReadLevel;
 import org.voltdb.SystemProcedureCatalog.Config;
 import org.voltdb.catalog.CatalogMap;
 import org.voltdb.catalog.Column;
@@ -1923,9 +1922,12 @@ public final class InvocationDispatcher {
          *
          * ReadLevel.SAFE:
          * Send the read to the partition leader only
+         *
+         * ReadLevel.SAFE_REPLICA:
+         * Same as FAST, the replica holds the response until it is safe
          */
         if (isSinglePartition && !isEveryPartition) {
-            if (isReadOnly && (m_defaultConsistencyReadLevel == ReadLevel.FAST)) {
+            if (isReadOnly && m_defaultConsistencyReadLevel.readsFromReplicas()) {
                 initiatorHSId = m_localReplicas.get().get(partition);
             }
             if (initiatorHSId != null) {
@@ -48,6 +48,7 @@ public class JdbcDatabaseMetaDataGenerator
     public static final String JSON_PARTITION_PARAMETER_TYPE = "partitionParameterType";
     public static final String JSON_SINGLE_PARTITION = "singlePartition";
     public static final String JSON_READ_ONLY = "readOnly";
+    public static final String JSON_TRANSACTIONAL = "transactional";
     public static final String JSON_PARTITION_COLUMN = "partitionColumn";
     public static final String JSON_SOURCE_TABLE = "sourceTable";
     public static final String JSON_LIMIT_PARTITION_ROWS_DELETE_STMT = "limitPartitionRowsDeleteStmt";
@@ -596,6 +597,10 @@ public class JdbcDatabaseMetaDataGenerator
                     jsObj.put(JSON_PARTITION_PARAMETER, proc.getPartitionparameter());
                     jsObj.put(JSON_PARTITION_PARAMETER_TYPE, proc.getPartitioncolumn().getType());
                 }
+                // NT procedures run on the host that receives them, let clients know
+                if (!proc.getTransactional()) {
+                    jsObj.put(JSON_TRANSACTIONAL, false);
+                }
                 remark = jsObj.toString();
             } catch (JSONException e) {
                 hostLog.warn("You have encountered an unexpected error while generating results for the " +
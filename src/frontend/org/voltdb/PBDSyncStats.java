@@ -0,0 +1,78 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.utils.PBDSyncScheduler;
+
+/**
+ * Reports, per volume, how the fsyncs of persistent binary deques (export overflow)
+ * are being batched by the PBDSyncScheduler and how long callers wait for them.
+ */
+public class PBDSyncStats extends StatsSource
+{
+    private Map<String, long[]> m_volumeStats = new TreeMap<String, long[]>();
+
+    public PBDSyncStats() {
+        super(false);
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("VOLUME", VoltType.STRING));
+        columns.add(new ColumnInfo("SYNC_REQUESTS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("SYNC_BATCHES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("FSYNCS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BYTES_SYNCED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_BYTES_PER_FSYNC", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_LATENCY_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MAX_LATENCY_MICROS", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final long[] stats = m_volumeStats.get(rowKey);
+        final long requests = stats[0];
+        final long fsyncs = stats[2];
+        rowValues[columnNameToIndex.get("VOLUME")] = rowKey;
+        rowValues[columnNameToIndex.get("SYNC_REQUESTS")] = requests;
+        rowValues[columnNameToIndex.get("SYNC_BATCHES")] = stats[1];
+        rowValues[columnNameToIndex.get("FSYNCS")] = fsyncs;
+        rowValues[columnNameToIndex.get("BYTES_SYNCED")] = stats[3];
+        rowValues[columnNameToIndex.get("AVG_BYTES_PER_FSYNC")] = fsyncs > 0 ? stats[3] / fsyncs : 0;
+        rowValues[columnNameToIndex.get("AVG_LATENCY_MICROS")] = requests > 0 ? stats[4] / requests / 1000 : 0;
+        rowValues[columnNameToIndex.get("MAX_LATENCY_MICROS")] = stats[5] / 1000;
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval)
+    {
+        m_volumeStats = PBDSyncScheduler.instance().getStats(interval);
+        @SuppressWarnings("rawtypes")
+        Iterator iter = m_volumeStats.keySet().iterator();
+        return (Iterator<Object>)iter;
+    }
+}
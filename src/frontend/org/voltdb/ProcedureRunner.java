@@ -32,17 +32,21 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
 import org.voltdb.CatalogContext.ProcedurePartitionInfo;
 import org.voltdb.StatementStats.SingleCallStatsToken;
 import org.voltdb.VoltProcedure.VoltAbortException;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
 import org.voltdb.catalog.PlanFragment;
 import org.voltdb.catalog.ProcParameter;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.StmtParameter;
+import org.voltdb.catalog.Table;
 import org.voltdb.client.BatchTimeoutOverrideType;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.compiler.AdHocPlannedStatement;
@@ -61,6 +65,7 @@ import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.planner.ActivePlanRepository;
 import org.voltdb.sysprocs.AdHocBase;
+import org.voltdb.types.QueryType;
 import org.voltdb.types.TimestampType;
 import org.voltdb.utils.Encoder;
 import org.voltdb.utils.MiscUtils;
@@ -79,7 +84,7 @@ public class ProcedureRunner {
     // SQL statement queue info
     //
     // This must be less than or equal to MAX_BATCH_COUNT in src/ee/execution/VoltDBEngine.h
-    final static int MAX_BATCH_SIZE = 200;
+    public final static int MAX_BATCH_SIZE = 200;
     static class QueuedSQL {
         SQLStmt stmt;
         ParameterSet params;
@@ -133,6 +138,8 @@ public class ProcedureRunner {
     protected final boolean m_isSinglePartition;
     protected final boolean m_hasJava;
     protected final boolean m_isReadOnly;
+    // see isBatchable()
+    private final boolean m_isBatchable;
     protected final int m_partitionColumn;
     protected final VoltType m_partitionColumnType;
 
@@ -149,6 +156,10 @@ public class ProcedureRunner {
     /** boolean flag to mark whether the previous batch execution has EE exception or not.*/
     private long m_spBigBatchBeginToken;
 
+    // Functions that take the time from the unique id of the transaction
+    private static final Pattern TIME_FUNCTIONS =
+            Pattern.compile("\\b(NOW|CURRENT_TIMESTAMP)\\b", Pattern.CASE_INSENSITIVE);
+
     // Used to get around the "abstract" for StmtProcedures.
     // Path of least resistance?
     static class StmtProcedure extends VoltProcedure {
@@ -200,6 +211,7 @@ public class ProcedureRunner {
         // the SQLStmts defined in the stored procedure.
         // The variable names are used in the granular statistics.
         ArrayList<String> stmtList = reflect();
+        m_isBatchable = checkBatchable();
 
         // Normally m_statsCollector is returned as it is and there is no affect to assign it to itself.
         // Sometimes when this procedure statistics needs to reuse the existing one, the old stats gets returned.
@@ -315,6 +327,195 @@ public class ProcedureRunner {
         return result;
     }
 
+    /**
+     * Invocations of single statement single partition procedures that only insert can
+     * run through {@link #callBatch}, as long as the statement doesn't depend on which
+     * transaction it runs in, the way the current time comes from its unique id. That
+     * includes columns it leaves to a NOW or CURRENT_TIMESTAMP default.
+     */
+    private boolean checkBatchable() {
+        if (m_hasJava || m_isSysProc || !m_isSinglePartition || m_isReadOnly) {
+            return false;
+        }
+        Statement stmt = m_catProc.getStatements().get(VoltDB.ANON_STMT_NAME);
+        if (stmt == null || stmt.getFragments().size() != 1) {
+            return false;
+        }
+        QueryType type = QueryType.get(stmt.getQuerytype());
+        if (type != QueryType.INSERT && type != QueryType.UPSERT) {
+            return false;
+        }
+        if (TIME_FUNCTIONS.matcher(stmt.getSqltext()).find()) {
+            return false;
+        }
+        final Database db = (Database) m_catProc.getParent();
+        boolean hasTarget = false;
+        for (String tableName : stmt.getTablesupdated().split(",")) {
+            if (tableName.isEmpty()) {
+                continue;
+            }
+            final Table table = db.getTables().getIgnoreCase(tableName);
+            if (table == null || hasTimeDefault(table)) {
+                return false;
+            }
+            hasTarget = true;
+        }
+        return hasTarget;
+    }
+
+    /**
+     * @return true if a column of the table defaults to a function, which can only be NOW or
+     *         CURRENT_TIMESTAMP, rather than a timestamp literal. The EE fills those from the
+     *         unique id of the transaction.
+     */
+    private static boolean hasTimeDefault(Table table) {
+        for (Column column : table.getColumns()) {
+            if (column.getDefaulttype() != VoltType.TIMESTAMP.getValue()) {
+                continue;
+            }
+            // The same way ParsedInsertStmt tells the default formats apart
+            final String defaultValue = column.getDefaultvalue();
+            try {
+                Long.parseLong(defaultValue);
+                continue;
+            } catch (NumberFormatException e) {}
+            try {
+                java.sql.Timestamp.valueOf(defaultValue);
+                continue;
+            } catch (IllegalArgumentException e) {}
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isBatchable() {
+        return m_isBatchable && getNonVoltDBBackendIfExists() == null;
+    }
+
+    /**
+     * Run several single partition transactions invoking this procedure with one call into
+     * the EE, in order, each getting the response and hash call() would have given it.
+     *
+     * The transactions share one undo quantum, there are no undo boundaries between them,
+     * so if any of the statements fails, or anything else goes wrong running the batch, the
+     * whole batch is rolled back. Then, and if the
+     * parameters of any invocation don't convert, null is returned with nothing changed and
+     * the caller runs the transactions one at a time, which gives each its own outcome.
+     *
+     * @param paramLists  The parameters of each invocation
+     * @param txnId       Transaction id of the last transaction, the batch runs as that one
+     * @param spHandle    SpHandle of the last transaction
+     * @param uniqueId    Unique id of the last transaction
+     */
+    public ClientResponseImpl[] callBatch(List<Object[]> paramLists, long txnId, long spHandle, long uniqueId) {
+        assert(m_isBatchable);
+        assert(paramLists.size() <= MAX_BATCH_SIZE);
+        assert(m_batch.size() == 0);
+        final int count = paramLists.size();
+        final SQLStmt stmt = m_cachedSingleStmt.stmt;
+        final long[] fragmentIds = new long[count];
+        final ParameterSet[] paramSets = new ParameterSet[count];
+        final Object[] params = new Object[count];
+        final String[] sqlTexts = new String[count];
+        // Hashes are taken per invocation here, nothing is left for the EE to add up
+        final boolean[] isWriteFrag = new boolean[count];
+        final int[] hashes = new int[count];
+        final HybridCrc32 crc = new HybridCrc32();
+
+        for (int i = 0; i < count; i++) {
+            final Object[] paramList = paramLists.get(i);
+            if (paramList.length != m_paramTypes.length) {
+                return null;
+            }
+            try {
+                for (int j = 0; j < m_paramTypes.length; j++) {
+                    paramList[j] = ParameterConverter.tryToMakeCompatible(m_paramTypes[j], paramList[j]);
+                }
+                paramSets[i] = getCleanParams(stmt, false, paramList);
+                // The same bytes and hash the EE would have taken from the parameter set
+                ByteBuffer buf = ByteBuffer.allocate(paramSets[i].getSerializedSize());
+                paramSets[i].flattenToBuffer(buf);
+                crc.reset();
+                crc.updateFromPosition(0, buf);
+                hashes[i] = (int) crc.getValue();
+                buf.flip();
+                params[i] = buf;
+            } catch (Exception e) {
+                return null;
+            }
+            fragmentIds[i] = stmt.aggregator.id;
+            sqlTexts[i] = stmt.getText();
+        }
+
+        final SingleCallStatsToken[] statsTokens = new SingleCallStatsToken[count];
+        for (int i = 0; i < count; i++) {
+            statsTokens[i] = m_statsCollector.beginProcedure();
+            statsTokens[i].setParameterSize(paramSets[i].getSerializedSize());
+        }
+
+        m_site.setProcedureName(m_procedureName);
+        m_site.setBatch(0);
+        final long priorUndoToken = m_site.getLatestUndoToken();
+        final VoltTable[] results;
+        try {
+            getExecutionEngine().setPerFragmentTimingEnabled(false);
+            FastDeserializer fragResult = m_site.executePlanFragments(
+                    count,
+                    fragmentIds,
+                    null,
+                    params,
+                    isWriteFrag,
+                    m_inputCRC,
+                    sqlTexts,
+                    txnId,
+                    spHandle,
+                    uniqueId,
+                    false,
+                    VoltTrace.log(VoltTrace.Category.EE) != null);
+            final int totalSize;
+            try {
+                totalSize = fragResult.readInt();
+            } catch (final IOException ex) {
+                log.error("Failed to deserialze result table" + ex);
+                throw new EEException(ExecutionEngine.ERRORCODE_WRONG_SERIALIZED_BYTES);
+            }
+            final ByteBuffer rawDataBuff = m_site.usingFallbackBuffer() ?
+                    fragResult.readBuffer(totalSize) : fragResult.buffer();
+            results = convertTablesToHeapBuffers(TableHelper.convertBackedBufferToTables(rawDataBuff, count));
+        } catch (RuntimeException ex) {
+            // Not only EE errors, none of the transactions would get a response otherwise
+            if (!(ex instanceof SerializableException)) {
+                log.warn("Failed to run a batch of " + count + " invocations of " + m_procedureName +
+                        ", running them one at a time", ex);
+            }
+            // Only roll back if the EE got as far as taking an undo token for the batch
+            if (m_site.getLatestUndoToken() != priorUndoToken) {
+                m_site.truncateUndoLog(true, m_site.getLatestUndoToken(), spHandle, null);
+            }
+            return null;
+        } finally {
+            m_inputCRC.reset();
+            m_site.setProcedureName(null);
+        }
+
+        final ClientResponseImpl[] responses = new ClientResponseImpl[count];
+        for (int i = 0; i < count; i++) {
+            statsTokens[i].recordStatementStats(stmt.getStmtName(), false, false, 0, results[i], paramSets[i]);
+            responses[i] = new ClientResponseImpl(
+                    ClientResponse.SUCCESS,
+                    ClientResponse.UNINITIALIZED_APP_STATUS_CODE,
+                    null,
+                    new VoltTable[] { results[i] },
+                    null);
+            if (hashes[i] != 0) {
+                responses[i].setHash(hashes[i]);
+            }
+            statsTokens[i].setResultSize(responses[i].getResults());
+            m_statsCollector.endProcedure(false, false, statsTokens[i]);
+        }
+        return responses;
+    }
+
     /**
      * @return Custom batch timeout value or 0 if there isn't one.
      */
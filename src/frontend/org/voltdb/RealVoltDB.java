@@ -1256,6 +1256,8 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
             m_initiatorStats = new InitiatorStats(m_myHostId);
             m_liveClientsStats = new LiveClientsStats();
             getStatsAgent().registerStatsSource(StatsSelector.LIVECLIENTS, 0, m_liveClientsStats);
+            getStatsAgent().registerStatsSource(StatsSelector.CLIENTHANDLES, 0, new ClientHandleStats());
+            getStatsAgent().registerStatsSource(StatsSelector.PBDSYNC, 0, new PBDSyncStats());
             m_latencyStats = new LatencyStats(m_myHostId);
             getStatsAgent().registerStatsSource(StatsSelector.LATENCY, 0, m_latencyStats);
             m_latencyHistogramStats = new LatencyHistogramStats(m_myHostId);
@@ -0,0 +1,115 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of snapshot buffers outstanding across all the sites of a host.
+ *
+ * A buffer is outstanding from the time a site takes it to serialize a block until
+ * the data target is done with it. When the budget is allowed to vary the limit is
+ * adjusted after every round of returned buffers: it grows by one while sites were
+ * turned away and the round trip time stays close to the best seen, which means
+ * the writers keep up and are waiting on the sites, and it shrinks by a quarter when
+ * the round trip time doubles, which means buffers are queueing up behind the disk.
+ */
+class SnapshotBufferBudget {
+
+    private final int m_minBuffers;
+    private final int m_maxBuffers;
+    private volatile int m_limit;
+    private final AtomicInteger m_inUse = new AtomicInteger(0);
+    // Set when a request was turned away since the last adjustment
+    private volatile boolean m_starved = false;
+
+    // Guarded by this
+    private long m_roundLatencyNanos = 0;
+    private int m_roundBuffers = 0;
+    private long m_baseLatencyNanos = Long.MAX_VALUE;
+
+    SnapshotBufferBudget(int minBuffers, int maxBuffers) {
+        assert(minBuffers > 0);
+        m_minBuffers = minBuffers;
+        m_maxBuffers = Math.max(minBuffers, maxBuffers);
+        m_limit = minBuffers;
+    }
+
+    /**
+     * Reserve buffers. A request is always granted when no buffers are outstanding
+     * so that a table with more targets than the limit can make progress.
+     *
+     * @return false if the buffers are not available
+     */
+    boolean tryAcquire(int count) {
+        while (true) {
+            final int inUse = m_inUse.get();
+            if (inUse > 0 && inUse + count > m_limit) {
+                m_starved = true;
+                return false;
+            }
+            if (m_inUse.compareAndSet(inUse, inUse + count)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return a buffer.
+     *
+     * @param latencyNanos  How long the buffer was outstanding
+     */
+    void release(long latencyNanos) {
+        m_inUse.decrementAndGet();
+        if (m_minBuffers == m_maxBuffers) {
+            return;
+        }
+
+        synchronized (this) {
+            m_roundLatencyNanos += Math.max(latencyNanos, 0);
+            if (++m_roundBuffers < m_limit) {
+                return;
+            }
+            final long latency = m_roundLatencyNanos / m_roundBuffers;
+            m_roundLatencyNanos = 0;
+            m_roundBuffers = 0;
+
+            // Let the base creep up so one unusually fast round doesn't shrink the budget for good
+            if (m_baseLatencyNanos == Long.MAX_VALUE) {
+                m_baseLatencyNanos = latency;
+            } else {
+                m_baseLatencyNanos = Math.min(latency, m_baseLatencyNanos + (m_baseLatencyNanos >> 4));
+            }
+
+            if (latency > 2 * m_baseLatencyNanos) {
+                m_limit = Math.max(m_minBuffers, m_limit - Math.max(1, m_limit / 4));
+            } else if (m_starved && latency < m_baseLatencyNanos + (m_baseLatencyNanos >> 1)) {
+                m_limit = Math.min(m_maxBuffers, m_limit + 1);
+            }
+            m_starved = false;
+        }
+    }
+
+    int getLimit() {
+        return m_limit;
+    }
+
+    int getInUse() {
+        return m_inUse.get();
+    }
+}
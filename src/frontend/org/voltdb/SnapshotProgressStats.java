@@ -0,0 +1,85 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Reports how far a site got with the current or last snapshot, how fast it went and
+ * how the snapshot buffers shared by the sites of the host are being used.
+ */
+public class SnapshotProgressStats extends SiteStatsSource {
+
+    private final int m_partitionId;
+    private final SnapshotSiteProcessor m_processor;
+
+    public SnapshotProgressStats(long siteId, int partitionId, SnapshotSiteProcessor processor) {
+        super(siteId, false);
+        m_partitionId = partitionId;
+        m_processor = processor;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo(VoltSystemProcedure.CNAME_PARTITION_ID, VoltSystemProcedure.CTYPE_ID));
+        columns.add(new ColumnInfo("TABLES_TOTAL", VoltType.INTEGER));
+        columns.add(new ColumnInfo("TABLES_REMAINING", VoltType.INTEGER));
+        columns.add(new ColumnInfo("BYTES_SERIALIZED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("ELAPSED_MILLIS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("THROUGHPUT_MBPS", VoltType.FLOAT));
+        columns.add(new ColumnInfo("AVG_SERIALIZE_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BUFFERS_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_BUFFER_LATENCY_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("HOST_BUFFERS_IN_USE", VoltType.INTEGER));
+        columns.add(new ColumnInfo("HOST_BUFFER_LIMIT", VoltType.INTEGER));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+        final long bytes = m_processor.getBytesSerialized();
+        final long elapsedNanos = m_processor.getSnapshotElapsedNanos();
+        final long buffers = m_processor.getBuffersReturned();
+        final long bufferLatencyNanos = m_processor.getBufferLatencyNanos();
+        final SnapshotBufferBudget budget = SnapshotSiteProcessor.getBufferBudget();
+        rowValues[columnNameToIndex.get(VoltSystemProcedure.CNAME_PARTITION_ID)] = m_partitionId;
+        rowValues[columnNameToIndex.get("TABLES_TOTAL")] = m_processor.getTablesTotal();
+        rowValues[columnNameToIndex.get("TABLES_REMAINING")] = m_processor.getTablesRemaining();
+        rowValues[columnNameToIndex.get("BYTES_SERIALIZED")] = bytes;
+        rowValues[columnNameToIndex.get("ELAPSED_MILLIS")] = elapsedNanos / 1000000;
+        rowValues[columnNameToIndex.get("THROUGHPUT_MBPS")] =
+                elapsedNanos > 0 ? (bytes / (1024.0 * 1024.0)) / (elapsedNanos / 1000000000.0) : 0.0;
+        rowValues[columnNameToIndex.get("AVG_SERIALIZE_MICROS")] = m_processor.getSerializeMicros();
+        rowValues[columnNameToIndex.get("BUFFERS_WRITTEN")] = buffers;
+        rowValues[columnNameToIndex.get("AVG_BUFFER_LATENCY_MICROS")] =
+                buffers > 0 ? bufferLatencyNanos / buffers / 1000 : 0L;
+        rowValues[columnNameToIndex.get("HOST_BUFFERS_IN_USE")] = budget.getInUse();
+        rowValues[columnNameToIndex.get("HOST_BUFFER_LIMIT")] = budget.getLimit();
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        // One row with the totals of the current or last snapshot, interval makes no difference
+        return Collections.<Object>singletonList(m_partitionId).iterator();
+    }
+}
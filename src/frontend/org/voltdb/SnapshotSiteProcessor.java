@@ -35,7 +35,7 @@ import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.zookeeper_voltpatches.KeeperException;
@@ -145,9 +145,22 @@ public class SnapshotSiteProcessor {
         CompressionService.maxCompressedLength(m_snapshotBufferLength);
 
     /**
-     * Limit the number of buffers that are outstanding at any given time
+     * Limit the number of buffers that are outstanding at any given time. The limit stays
+     * at the minimum unless the maximum is set higher, then it adapts to how long the
+     * targets take to hand the buffers back.
      */
-    private static final AtomicInteger m_availableSnapshotBuffers = new AtomicInteger(16);
+    private static final int MIN_SNAPSHOT_BUFFERS = Integer.getInteger("SNAPSHOT_MIN_BUFFERS", 16);
+    private static final int MAX_SNAPSHOT_BUFFERS = Integer.getInteger("SNAPSHOT_MAX_BUFFERS", MIN_SNAPSHOT_BUFFERS);
+    private static final SnapshotBufferBudget m_snapshotBufferBudget =
+            new SnapshotBufferBudget(MIN_SNAPSHOT_BUFFERS, MAX_SNAPSHOT_BUFFERS);
+
+    /**
+     * When positive, the longest a snapshot should add to the 99th percentile latency of
+     * the transactions on a busy site. A transaction that arrives while the site serializes
+     * a block waits for it, so once blocks take longer than this the site spaces them out
+     * to spend no more than 1% of its time on them.
+     */
+    private static final long MAX_LATENCY_IMPACT_MICROS = Long.getLong("SNAPSHOT_MAX_LATENCY_IMPACT_MICROS", 0);
 
     /**
      * The last EE out has to shut off the lights. Cache a list
@@ -195,6 +208,20 @@ public class SnapshotSiteProcessor {
 
     private final IdlePredicate m_idlePredicate;
 
+    /*
+     * Progress of the current or last snapshot on this site. Updated by the site thread
+     * except for the buffer counts, which are updated as the targets return buffers.
+     */
+    private volatile long m_snapshotStartNanos = 0;
+    private volatile long m_snapshotEndNanos = 0;
+    private volatile int m_tablesTotal = 0;
+    private volatile int m_tablesRemaining = 0;
+    private volatile long m_bytesSerialized = 0;
+    // Moving average of the time spent serializing a block
+    private volatile long m_serializeMicros = 0;
+    private final AtomicLong m_buffersReturned = new AtomicLong(0);
+    private final AtomicLong m_bufferLatencyNanos = new AtomicLong(0);
+
     /*
      * Synchronization is handled by SnapshotSaveAPI.startSnapshotting
      * Store the export sequence numbers for every table and partition. This will
@@ -270,6 +297,46 @@ public class SnapshotSiteProcessor {
     }
 
 
+    /*
+     * Progress of the current or last snapshot, for SnapshotProgressStats
+     */
+
+    long getSnapshotElapsedNanos() {
+        if (m_snapshotStartNanos == 0) {
+            return 0;
+        }
+        final long endNanos = m_snapshotEndNanos;
+        return (endNanos == 0 ? System.nanoTime() : endNanos) - m_snapshotStartNanos;
+    }
+
+    int getTablesTotal() {
+        return m_tablesTotal;
+    }
+
+    int getTablesRemaining() {
+        return m_tablesRemaining;
+    }
+
+    long getBytesSerialized() {
+        return m_bytesSerialized;
+    }
+
+    long getSerializeMicros() {
+        return m_serializeMicros;
+    }
+
+    long getBuffersReturned() {
+        return m_buffersReturned.get();
+    }
+
+    long getBufferLatencyNanos() {
+        return m_bufferLatencyNanos.get();
+    }
+
+    static SnapshotBufferBudget getBufferBudget() {
+        return m_snapshotBufferBudget;
+    }
+
     public static boolean isSnapshotInProgress()
     {
         final int numSitesSnapshotting = SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.size();
@@ -284,12 +351,16 @@ public class SnapshotSiteProcessor {
 
     private BBContainer createNewBuffer(final BBContainer origin, final boolean noSchedule)
     {
+        final long acquiredNanos = System.nanoTime();
         return new BBContainer(origin.b()) {
             @Override
             public void discard() {
                 checkDoubleFree();
                 origin.discard();
-                m_availableSnapshotBuffers.incrementAndGet();
+                final long latencyNanos = System.nanoTime() - acquiredNanos;
+                m_buffersReturned.incrementAndGet();
+                m_bufferLatencyNanos.addAndGet(latencyNanos);
+                m_snapshotBufferBudget.release(latencyNanos);
 
                 if (!noSchedule) {
                     rescheduleSnapshotWork();
@@ -311,7 +382,7 @@ public class SnapshotSiteProcessor {
          * If snapshot priority is 0 then running the jigger immediately is the specified
          * policy anyways. 10 would be the largest delay
          */
-        if (m_snapshotPriority > 0) {
+        if (m_snapshotPriority > 0 || MAX_LATENCY_IMPACT_MICROS > 0) {
             final long now = System.currentTimeMillis();
             //Ask if the site is idle, and if it is queue the work immediately
             if (m_idlePredicate.idle(now)) {
@@ -339,9 +410,7 @@ public class SnapshotSiteProcessor {
                 //since the execution site only interacts with one snapshot data target at a time
                 //except when it is switching tables. It doesn't really matter if it is wrong
                 //it will just result in a little extra snapshot work being done close together
-                m_quietUntil =
-                        System.currentTimeMillis() +
-                                (5 * m_snapshotPriority) + ((long)(m_random.nextDouble() * 15));
+                m_quietUntil = System.currentTimeMillis() + quietPeriod();
             } else {
                 //Schedule it to happen after the quiet period has elapsed
                 VoltDB.instance().schedulePriorityWork(
@@ -362,15 +431,29 @@ public class SnapshotSiteProcessor {
                          * and we need to move further past it since we just scheduled snapshot work
                          * at the end of the current quietUntil value
                          */
-                m_quietUntil =
-                        quietUntil +
-                                (5 * m_snapshotPriority) + ((long)(m_random.nextDouble() * 15));
+                m_quietUntil = quietUntil + quietPeriod();
             }
         } else {
             m_siteTaskerQueue.offer(new SnapshotTask());
         }
     }
 
+    /**
+     * @return how long in milliseconds to wait before the next block of snapshot work
+     */
+    private long quietPeriod() {
+        long quietPeriod = 0;
+        if (m_snapshotPriority > 0) {
+            quietPeriod = (5 * m_snapshotPriority) + ((long)(m_random.nextDouble() * 15));
+        }
+        final long serializeMicros = m_serializeMicros;
+        if (MAX_LATENCY_IMPACT_MICROS > 0 && serializeMicros > MAX_LATENCY_IMPACT_MICROS) {
+            // Wait 99 times as long as a block takes, so 1% of the time goes to snapshot work
+            quietPeriod = Math.max(quietPeriod, TimeUnit.MICROSECONDS.toMillis(serializeMicros * 99));
+        }
+        return quietPeriod;
+    }
+
     public void initiateSnapshots(
             SystemProcedureExecutionContext context,
             SnapshotFormat format,
@@ -387,6 +470,11 @@ public class SnapshotSiteProcessor {
         m_streamers = Maps.newHashMap();
         m_snapshotTargetTerminators = new ArrayList<Thread>();
         m_extraSnapshotData = extraSnapshotData;
+        m_snapshotStartNanos = System.nanoTime();
+        m_snapshotEndNanos = 0;
+        m_bytesSerialized = 0;
+        m_buffersReturned.set(0);
+        m_bufferLatencyNanos.set(0);
 
         // Table doesn't implement hashCode(), so use the table ID as key
         for (Map.Entry<Integer, byte[]> tablePredicates : makeTablesAndPredicatesToSnapshot(tasks).entrySet()) {
@@ -399,6 +487,8 @@ public class SnapshotSiteProcessor {
             }
             m_streamers.put(tableId, streamer);
         }
+        m_tablesTotal = m_streamers.size();
+        m_tablesRemaining = m_tablesTotal;
 
         /*
          * Resize the buffer pool to contain enough buffers for the number of tasks. The buffer
@@ -487,15 +577,9 @@ public class SnapshotSiteProcessor {
      */
     private List<BBContainer> getOutputBuffers(Collection<SnapshotTableTask> tableTasks, boolean noSchedule)
     {
-        final int desired = tableTasks.size();
-        while (true) {
-            int available = m_availableSnapshotBuffers.get();
-
-            //Limit the number of buffers used concurrently
-            if (desired > available) {
-                return null;
-            }
-            if (m_availableSnapshotBuffers.compareAndSet(available, available - desired)) break;
+        //Limit the number of buffers used concurrently
+        if (!m_snapshotBufferBudget.tryAcquire(tableTasks.size())) {
+            return null;
         }
 
         List<BBContainer> outputBuffers = new ArrayList<BBContainer>(tableTasks.size());
@@ -584,8 +668,13 @@ public class SnapshotSiteProcessor {
 
 
             // Stream more and add a listener to handle any failures
-            Pair<ListenableFuture, Boolean> streamResult =
-                    m_streamers.get(tableId).streamMore(context, outputBuffers, null);
+            final TableStreamer streamer = m_streamers.get(tableId);
+            final long serializedBytes = streamer.getSerializedBytes();
+            final long startNanos = System.nanoTime();
+            Pair<ListenableFuture, Boolean> streamResult = streamer.streamMore(context, outputBuffers, null);
+            final long serializeMicros = (System.nanoTime() - startNanos) / 1000;
+            m_serializeMicros = m_serializeMicros == 0 ? serializeMicros : (m_serializeMicros * 7 + serializeMicros) / 8;
+            m_bytesSerialized += streamer.getSerializedBytes() - serializedBytes;
             if (streamResult.getFirst() != null) {
                 final ListenableFuture writeFutures = streamResult.getFirst();
                 writeFutures.addListener(new Runnable() {
@@ -618,6 +707,7 @@ public class SnapshotSiteProcessor {
                 // XXX: Guava's multimap will clear the tableTasks collection when the entry is
                 // removed from the containing map, so don't use the collection after removal!
                 taskIter.remove();
+                m_tablesRemaining = m_snapshotTableTasks.keySet().size();
                 SNAP_LOG.debug("Finished snapshot tasks for table " + tableId +
                                ": " + tableTasks);
             } else {
@@ -631,6 +721,8 @@ public class SnapshotSiteProcessor {
          */
         if (m_snapshotTableTasks.isEmpty()) {
             SNAP_LOG.debug("Finished with tasks");
+            m_snapshotEndNanos = System.nanoTime();
+            m_tablesRemaining = 0;
             // In case this is a non-blocking snapshot, do the post-snapshot tasks here.
             runPostSnapshotTasks(context);
             final ArrayList<SnapshotDataTarget> snapshotTargets = m_snapshotTargets;
@@ -66,9 +66,12 @@ public class StarvationTracker extends SiteStatsSource {
         m_starvationStartTime = System.nanoTime();
     }
 
-    public void endStarvation() {
+    /**
+     * @return how long the starvation that just ended lasted in nanoseconds, 0 if there was none
+     */
+    public long endStarvation() {
         if (!m_starved) {
-            return;
+            return 0;
         }
         m_starved = false;
         m_count++;
@@ -79,6 +82,7 @@ public class StarvationTracker extends SiteStatsSource {
         m_lastMax = Math.max(m_lastMax, delta);
         m_min = Math.min(m_min, delta);
         m_lastMin = Math.min(m_lastMin, delta);
+        return delta;
     }
 
     @Override
@@ -568,6 +568,27 @@ public class StatsAgent extends OpsAgent
         case GC:
             stats = collectStats(StatsSelector.GC, interval);
             break;
+        case CLIENTHANDLES:
+            stats = collectStats(StatsSelector.CLIENTHANDLES, false);
+            break;
+        case PBDSYNC:
+            stats = collectStats(StatsSelector.PBDSYNC, interval);
+            break;
+        case MPREADPOOL:
+            stats = collectStats(StatsSelector.MPREADPOOL, interval);
+            break;
+        case REPAIRLOG:
+            stats = collectStats(StatsSelector.REPAIRLOG, interval);
+            break;
+        case TASKQUEUE:
+            stats = collectStats(StatsSelector.TASKQUEUE, interval);
+            break;
+        case REPLICARESULTS:
+            stats = collectStats(StatsSelector.REPLICARESULTS, interval);
+            break;
+        case SNAPSHOTPROGRESS:
+            stats = collectStats(StatsSelector.SNAPSHOTPROGRESS, interval);
+            break;
         default:
             // Should have been successfully groomed in collectStatsImpl().  Log something
             // for our information but let the null check below return harmlessly
@@ -58,5 +58,12 @@ public enum StatsSelector {
     GC,             // return GC Stats
 
     COMMANDLOG,     // return number of outstanding bytes and txns on this node
-    IMPORTER
+    IMPORTER,
+    CLIENTHANDLES,  // return the client transactions outstanding per partition on this node
+    PBDSYNC,        // return fsync batching and latency of persistent binary deques per volume on this node
+    MPREADPOOL,     // return size, utilization and queueing of the MP read-only site pool on this node
+    REPAIRLOG,      // return depth and off-heap memory of the repair log per partition on this node
+    TASKQUEUE,      // return queue time per priority lane of the site task queues on this node
+    REPLICARESULTS, // return result bytes replicas sent to their leaders as hashes per partition on this node
+    SNAPSHOTPROGRESS // return progress and throughput of the current or last snapshot per site on this node
 }
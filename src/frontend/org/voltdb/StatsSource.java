@@ -15,10 +15,13 @@
  * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
  */
 package org.voltdb;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltdb.VoltTable.ColumnInfo;
 
 /**
@@ -37,6 +40,12 @@ public abstract class StatsSource {
     //Volatile for safe publication of the table objects
     private volatile VoltTable m_table = null;
 
+    /**
+     * Pooled direct buffer backing m_table when it was set from a table in a buffer
+     * shared with the EE. Guarded by this.
+     */
+    private BBContainer m_tableContainer = null;
+
     /**
      * Column schema for statistical result rows
      */
@@ -146,6 +155,16 @@ public abstract class StatsSource {
      *         getStatsRows()
      */
     public VoltTable getStatsTable() {
+        synchronized (this) {
+            if (m_tableContainer != null) {
+                // The pooled buffer is recycled on the next update, copy before it escapes
+                final ByteBuffer pooled = m_table.getBuffer();
+                final ByteBuffer copy = ByteBuffer.allocate(pooled.remaining());
+                copy.put(pooled);
+                copy.flip();
+                return new VoltTable(copy, true);
+            }
+        }
         //Create a view for thread safety even though stats are retrieved single threaded right now
         return new VoltTable(m_table.getBuffer(), true);
     }
@@ -157,19 +176,47 @@ public abstract class StatsSource {
      * @param statsTable
      *            The VoltTable which contains the statistics.
      */
-    public void setStatsTable(VoltTable statsTable) {
+    public synchronized void setStatsTable(VoltTable statsTable) {
+        releaseTableContainer();
         m_table = statsTable;
     }
 
+    /**
+     * Sets the statistics from a table that is only valid until the next call into
+     * the EE, such as one returned by ExecutionEngine.getStatsShared(). The table is
+     * copied into a pooled direct buffer that is reused across updates instead of
+     * allocating a new heap copy every time the statistics are refreshed.
+     *
+     * @param sharedTable
+     *            Table backed by a buffer shared with the EE.
+     */
+    public synchronized void setStatsTableFromSharedBuffer(VoltTable sharedTable) {
+        final ByteBuffer shared = sharedTable.getBuffer();
+        final BBContainer cont = DBBPool.allocateDirectAndPool(shared.remaining());
+        cont.b().put(shared);
+        cont.b().flip();
+        releaseTableContainer();
+        m_tableContainer = cont;
+        m_table = new VoltTable(cont.b(), true);
+    }
+
     /**
      * Reset the VoltTable which contains the statistics.  Only sources which use
      * VoltTable to keep track of statistics need to use this.  Allows
      * clients to reset the tracking table without having to build an empty stats table and call setStatsTable()
      */
-    public void resetStatsTable() {
+    public synchronized void resetStatsTable() {
+        releaseTableContainer();
         m_table = new VoltTable(columns.toArray(new ColumnInfo[columns.size()]));
     }
 
+    private void releaseTableContainer() {
+        if (m_tableContainer != null) {
+            m_tableContainer.discard();
+            m_tableContainer = null;
+        }
+    }
+
     private Long now = System.currentTimeMillis();
 
     /**
@@ -124,6 +124,29 @@ public class StoredProcedureInvocation implements JSONString {
         serializedParams = null;
     }
 
+    /**
+     * Serialize the parameters now and keep only the serialized form, leaving the
+     * invocation as if it had been read off the wire. Invocations created on the server
+     * need serialized parameters for command logging, and this saves flattening and
+     * re-parsing the whole invocation to get them.
+     *
+     * The array is not copied, the caller must not change it.
+     */
+    public void setSerializedParams(Object... parameters) throws IOException {
+        final ParameterSet pset = ParameterSet.fromArrayNoCopy(parameters);
+        final ByteBuffer buf = ByteBuffer.allocate(pset.getSerializedSize());
+        pset.flattenToBuffer(buf);
+        buf.flip();
+        serializedParams = buf;
+        final ByteBuffer duplicate = buf.duplicate();
+        params = new FutureTask<ParameterSet>(new Callable<ParameterSet>() {
+            @Override
+            public ParameterSet call() throws Exception {
+                return ParameterSet.fromByteBuffer(duplicate);
+            }
+        });
+    }
+
     public ProcedureInvocationType getType() {
         return type;
     }
@@ -51,6 +51,8 @@ public class TableStreamer {
     private final int m_tableId;
     private final TableStreamType m_type;
     private final ImmutableList<SnapshotTableTask> m_tableTasks;
+    // Tuple data serialized for all the targets so far
+    private long m_serializedBytes = 0;
 
     public TableStreamer(int tableId, TableStreamType type, List<SnapshotTableTask> tableTasks)
     {
@@ -120,6 +122,9 @@ public class TableStreamer {
             return Pair.of(null, false);
         }
 
+        for (int bytes : serializeResult.getSecond()) {
+            m_serializedBytes += bytes;
+        }
         if (serializeResult.getSecond()[0] > 0) {
             if (rowCountAccumulator != null && rowCountAccumulator.length == 1) {
                 rowCountAccumulator[0] += getTupleDataRowCount(outputBuffers);
@@ -135,6 +140,14 @@ public class TableStreamer {
         return Pair.of(writeFuture, serializeResult.getFirst() > 0);
     }
 
+    /**
+     * @return the number of bytes of tuple data serialized by {@link #streamMore} for all targets
+     */
+    public long getSerializedBytes()
+    {
+        return m_serializedBytes;
+    }
+
     /**
      * Get the number of rows contained of rows contained within the given list of {@link BBContainer}
      * @param outputBuffers a list of tuple data BBContainers
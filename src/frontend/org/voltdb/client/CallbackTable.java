@@ -0,0 +1,299 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.client;
+
+import java.util.List;
+
+/**
+ * Table of in-flight invocations keyed by primitive client handle.
+ *
+ * Entries are chained intrusively both into a hash bucket and into a slot of
+ * a hashed timer wheel, so an invocation costs one allocation (the entry
+ * itself) and expiring calls only visits the wheel slots whose tick has come
+ * due rather than every outstanding call. The table is split into segments
+ * that are locked independently so the caller threads adding work, the network
+ * thread removing responses and the reaper expiring calls rarely contend.
+ *
+ * Each entry is removed exactly once, by whichever of {@link #remove(long)},
+ * {@link #expire(long, List)} or {@link #drain(List)} gets to it first.
+ */
+final class CallbackTable<E extends CallbackTable.Entry> {
+
+    /**
+     * Base class for values stored in the table. The handle and deadline are
+     * fixed at construction, the links are owned by the segment lock.
+     */
+    static abstract class Entry {
+        final long handle;
+        final long deadlineNanos;
+
+        private Entry m_hashNext;
+        private Entry m_wheelPrev;
+        private Entry m_wheelNext;
+        private int m_wheelSlot = -1;
+
+        Entry(long handle, long deadlineNanos) {
+            this.handle = handle;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    // Both must be powers of two
+    private static final int SEGMENT_COUNT = 16;
+    static final int WHEEL_SLOTS = 256;
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final long m_originNanos;
+    private final long m_tickNanos;
+    private final Segment[] m_segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * @param nowNanos    System.nanoTime() at creation, ticks are counted from here
+     * @param tickNanos   Granularity of the timer wheel. There is no point making
+     *                    this finer than the interval at which {@link #expire} is called.
+     */
+    CallbackTable(long nowNanos, long tickNanos) {
+        assert(tickNanos > 0);
+        m_originNanos = nowNanos;
+        m_tickNanos = tickNanos;
+        for (int ii = 0; ii < SEGMENT_COUNT; ii++) {
+            m_segments[ii] = new Segment();
+        }
+    }
+
+    private static int hash(long handle) {
+        int h = (int)(handle ^ (handle >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return m_segments[hash & (SEGMENT_COUNT - 1)];
+    }
+
+    private long tickOf(long nanos) {
+        return Math.max(0, nanos - m_originNanos) / m_tickNanos;
+    }
+
+    void put(E entry) {
+        final int hash = hash(entry.handle);
+        segmentFor(hash).put(entry, hash >>> 4, tickOf(entry.deadlineNanos));
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(long handle) {
+        final int hash = hash(handle);
+        return (E)segmentFor(hash).get(handle, hash >>> 4);
+    }
+
+    boolean containsKey(long handle) {
+        return get(handle) != null;
+    }
+
+    /**
+     * @return the entry for the handle or null if it was already removed, expired or drained
+     */
+    @SuppressWarnings("unchecked")
+    E remove(long handle) {
+        final int hash = hash(handle);
+        return (E)segmentFor(hash).remove(handle, hash >>> 4);
+    }
+
+    /**
+     * Remove every entry whose deadline is before nowNanos and add it to expired.
+     * Only wheel slots between the previous sweep and now are visited.
+     */
+    void expire(long nowNanos, List<? super E> expired) {
+        final long currentTick = tickOf(nowNanos);
+        for (Segment s : m_segments) {
+            s.expire(nowNanos, currentTick, expired);
+        }
+    }
+
+    /**
+     * Remove every entry and add it to drained.
+     */
+    void drain(List<? super E> drained) {
+        for (Segment s : m_segments) {
+            s.drain(drained);
+        }
+    }
+
+    /**
+     * @return the number of entries in the table. Not a consistent snapshot across segments.
+     */
+    int size() {
+        int size = 0;
+        for (Segment s : m_segments) {
+            size += s.m_count;
+        }
+        return size;
+    }
+
+    private static final class Segment {
+        private Entry[] m_buckets = new Entry[INITIAL_BUCKETS];
+        private final Entry[] m_wheel = new Entry[WHEEL_SLOTS];
+        // First tick not yet fully swept, entries are never scheduled before it
+        private long m_nextTick = 0;
+        private volatile int m_count = 0;
+
+        synchronized void put(Entry entry, int hash, long deadlineTick) {
+            assert(find(entry.handle, hash) == null);
+            final int index = hash & (m_buckets.length - 1);
+            entry.m_hashNext = m_buckets[index];
+            m_buckets[index] = entry;
+            link(entry, deadlineTick);
+            if (++m_count > (m_buckets.length >> 1) + (m_buckets.length >> 2)) {
+                resize();
+            }
+        }
+
+        synchronized Entry get(long handle, int hash) {
+            return find(handle, hash);
+        }
+
+        synchronized Entry remove(long handle, int hash) {
+            final int index = hash & (m_buckets.length - 1);
+            Entry prev = null;
+            for (Entry e = m_buckets[index]; e != null; e = e.m_hashNext) {
+                if (e.handle == handle) {
+                    if (prev == null) {
+                        m_buckets[index] = e.m_hashNext;
+                    } else {
+                        prev.m_hashNext = e.m_hashNext;
+                    }
+                    e.m_hashNext = null;
+                    unlink(e);
+                    m_count--;
+                    return e;
+                }
+                prev = e;
+            }
+            return null;
+        }
+
+        // The caller only ever puts E, so handing entries back out as E is safe
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        synchronized void expire(long nowNanos, long currentTick, List expired) {
+            if (currentTick < m_nextTick) {
+                return;
+            }
+            final long ticks = Math.min(currentTick - m_nextTick + 1, WHEEL_SLOTS);
+            for (long tick = m_nextTick; tick < m_nextTick + ticks; tick++) {
+                Entry e = m_wheel[(int)(tick & (WHEEL_SLOTS - 1))];
+                while (e != null) {
+                    final Entry next = e.m_wheelNext;
+                    // Entries further out than the wheel span stay for a later rotation
+                    if (nowNanos - e.deadlineNanos > 0) {
+                        removeFromBucket(e);
+                        unlink(e);
+                        m_count--;
+                        expired.add(e);
+                    }
+                    e = next;
+                }
+            }
+            // The current tick may still receive entries, so revisit it next time
+            m_nextTick = currentTick;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        synchronized void drain(List drained) {
+            for (int ii = 0; ii < m_buckets.length; ii++) {
+                Entry e = m_buckets[ii];
+                m_buckets[ii] = null;
+                while (e != null) {
+                    final Entry next = e.m_hashNext;
+                    e.m_hashNext = null;
+                    unlink(e);
+                    drained.add(e);
+                    e = next;
+                }
+            }
+            m_count = 0;
+        }
+
+        private Entry find(long handle, int hash) {
+            for (Entry e = m_buckets[hash & (m_buckets.length - 1)]; e != null; e = e.m_hashNext) {
+                if (e.handle == handle) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        private void removeFromBucket(Entry entry) {
+            final int index = (hash(entry.handle) >>> 4) & (m_buckets.length - 1);
+            Entry prev = null;
+            for (Entry e = m_buckets[index]; e != null; e = e.m_hashNext) {
+                if (e == entry) {
+                    if (prev == null) {
+                        m_buckets[index] = e.m_hashNext;
+                    } else {
+                        prev.m_hashNext = e.m_hashNext;
+                    }
+                    e.m_hashNext = null;
+                    return;
+                }
+                prev = e;
+            }
+            assert(false);
+        }
+
+        private void resize() {
+            final Entry[] old = m_buckets;
+            final Entry[] buckets = new Entry[old.length << 1];
+            for (Entry head : old) {
+                Entry e = head;
+                while (e != null) {
+                    final Entry next = e.m_hashNext;
+                    final int index = (hash(e.handle) >>> 4) & (buckets.length - 1);
+                    e.m_hashNext = buckets[index];
+                    buckets[index] = e;
+                    e = next;
+                }
+            }
+            m_buckets = buckets;
+        }
+
+        private void link(Entry entry, long deadlineTick) {
+            final long tick = Math.max(deadlineTick, m_nextTick);
+            final int slot = (int)(tick & (WHEEL_SLOTS - 1));
+            entry.m_wheelSlot = slot;
+            entry.m_wheelPrev = null;
+            entry.m_wheelNext = m_wheel[slot];
+            if (m_wheel[slot] != null) {
+                m_wheel[slot].m_wheelPrev = entry;
+            }
+            m_wheel[slot] = entry;
+        }
+
+        private void unlink(Entry entry) {
+            if (entry.m_wheelPrev == null) {
+                m_wheel[entry.m_wheelSlot] = entry.m_wheelNext;
+            } else {
+                entry.m_wheelPrev.m_wheelNext = entry.m_wheelNext;
+            }
+            if (entry.m_wheelNext != null) {
+                entry.m_wheelNext.m_wheelPrev = entry.m_wheelPrev;
+            }
+            entry.m_wheelPrev = null;
+            entry.m_wheelNext = null;
+            entry.m_wheelSlot = -1;
+        }
+    }
+}
@@ -24,6 +24,9 @@ package org.voltdb.client;
  * the the client believes it found a replica for.  Round-robin stats reflect
  * the client's lack of information when client affinity is on and indicate
  * transactions that were routed using the default round-robin algorithm.
+ * Least-loaded stats track multi-partition reads and non-transactional procedures
+ * that could not be, or need not be, sent to the multi-partition initiator's host
+ * and went to the connection with the least outstanding work instead.
  */
 public class ClientAffinityStats {
 
@@ -32,15 +35,25 @@ public class ClientAffinityStats {
     private long m_rrWrites;
     private long m_affinityReads;
     private long m_rrReads;
+    private long m_leastLoadedWrites;
+    private long m_leastLoadedReads;
 
     ClientAffinityStats(int partitionId, long affinityWrites, long rrWrites,
             long affinityReads, long rrReads)
+    {
+        this(partitionId, affinityWrites, rrWrites, affinityReads, rrReads, 0, 0);
+    }
+
+    ClientAffinityStats(int partitionId, long affinityWrites, long rrWrites,
+            long affinityReads, long rrReads, long leastLoadedWrites, long leastLoadedReads)
     {
         m_partitionId = partitionId;
         m_affinityWrites = affinityWrites;
         m_rrWrites = rrWrites;
         m_affinityReads = affinityReads;
         m_rrReads = rrReads;
+        m_leastLoadedWrites = leastLoadedWrites;
+        m_leastLoadedReads = leastLoadedReads;
     }
 
     /**
@@ -59,7 +72,9 @@ public class ClientAffinityStats {
                 newer.m_affinityWrites - older.m_affinityWrites,
                 newer.m_rrWrites - older.m_rrWrites,
                 newer.m_affinityReads - older.m_affinityReads,
-                newer.m_rrReads - older.m_rrReads);
+                newer.m_rrReads - older.m_rrReads,
+                newer.m_leastLoadedWrites - older.m_leastLoadedWrites,
+                newer.m_leastLoadedReads - older.m_leastLoadedReads);
         return retval;
     }
 
@@ -69,7 +84,7 @@ public class ClientAffinityStats {
     @Override
     protected Object clone() {
         return new ClientAffinityStats(m_partitionId, m_affinityWrites, m_rrWrites, m_affinityReads,
-               m_rrReads);
+               m_rrReads, m_leastLoadedWrites, m_leastLoadedReads);
     }
 
     void addAffinityWrite()
@@ -134,12 +149,45 @@ public class ClientAffinityStats {
         return m_rrReads;
     }
 
+    void addLeastLoadedWrite()
+    {
+        m_leastLoadedWrites++;
+    }
+
+    /**
+     * Get the number of writes that were sent to the least loaded
+     * connection for this time period.
+     *
+     * @return The count as a long.
+     */
+    public long getLeastLoadedWrites()
+    {
+        return m_leastLoadedWrites;
+    }
+
+    void addLeastLoadedRead()
+    {
+        m_leastLoadedReads++;
+    }
+
+    /**
+     * Get the number of reads that were sent to the least loaded
+     * connection for this time period.
+     *
+     * @return The count as a long.
+     */
+    public long getLeastLoadedReads()
+    {
+        return m_leastLoadedReads;
+    }
+
     @Override
     public String toString()
     {
         String afdisplay = "Partition ID %d:  %d affinity writes, %d affinity reads, " +
-            "%d round-robin writes, %d round-robin reads";
+            "%d round-robin writes, %d round-robin reads, " +
+            "%d least-loaded writes, %d least-loaded reads";
         return String.format(afdisplay, m_partitionId, m_affinityWrites, m_affinityReads,
-                m_rrWrites, m_rrReads);
+                m_rrWrites, m_rrReads, m_leastLoadedWrites, m_leastLoadedReads);
     }
 }
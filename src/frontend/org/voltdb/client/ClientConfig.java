@@ -67,6 +67,8 @@ public class ClientConfig {
     boolean m_sendReadsToReplicasBytDefaultIfCAEnabled = false;
     SslConfig m_sslConfig;
     boolean m_topologyChangeAware = false;
+    int m_invocationBatchMaxBytes = 0;
+    long m_invocationBatchDelayNanos = 0;
     boolean m_enableSSL = false;
     String m_sslPropsFile = null;
 
@@ -363,6 +365,31 @@ public class ClientConfig {
         m_topologyChangeAware = enabled;
     }
 
+    /**
+     * <p>Coalesce procedure invocations sent on each connection into batches, trading a
+     * small amount of latency for throughput when issuing many small asynchronous calls.
+     * A batch is written when it reaches the given size or when the first invocation in it
+     * has waited for the given delay. Invocations larger than a batch are sent on their own.</p>
+     *
+     * <p>Disabled by default.</p>
+     *
+     * @param maxBatchBytes Size of the batch buffer kept for each connection, in bytes.
+     * @param maxDelayMicros Longest an invocation waits for a batch to fill, in microseconds.
+     * 0 writes every invocation as soon as it is serialized.
+     */
+    public void enableInvocationBatching(int maxBatchBytes, long maxDelayMicros) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException(
+                    "Batch size must be greater than 0, " + maxBatchBytes + " was specified");
+        }
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException(
+                    "Batch delay must not be negative, " + maxDelayMicros + " was specified");
+        }
+        m_invocationBatchMaxBytes = maxBatchBytes;
+        m_invocationBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
     /**
      * <p>By default, reads are sent to the leader replica for each partition. This
      * is usually optimal for the default read consistency value, SAFE. If you are
@@ -22,11 +22,21 @@ class ClientIOStats {
     long m_connectionId;
     long m_bytesSent;
     long m_bytesReceived;
+    // gauges, not diffed
+    long m_callsInFlight;
+    long m_expirationSweepNanos;
 
     ClientIOStats(long connectionId, long bytesSent, long bytesReceived) {
+        this(connectionId, bytesSent, bytesReceived, 0, 0);
+    }
+
+    ClientIOStats(long connectionId, long bytesSent, long bytesReceived,
+                  long callsInFlight, long expirationSweepNanos) {
         m_connectionId = connectionId;
         m_bytesSent = bytesSent;
         m_bytesReceived = bytesReceived;
+        m_callsInFlight = callsInFlight;
+        m_expirationSweepNanos = expirationSweepNanos;
     }
 
     public static ClientIOStats diff(ClientIOStats newer, ClientIOStats older) {
@@ -36,7 +46,9 @@ class ClientIOStats {
 
         ClientIOStats retval = new ClientIOStats(older.m_connectionId,
                                                  newer.m_bytesSent - older.m_bytesSent,
-                                                 newer.m_bytesReceived - older.m_bytesReceived);
+                                                 newer.m_bytesReceived - older.m_bytesReceived,
+                                                 newer.m_callsInFlight,
+                                                 newer.m_expirationSweepNanos);
         return retval;
     }
 
@@ -45,6 +57,7 @@ class ClientIOStats {
      */
     @Override
     protected Object clone() {
-        return new ClientIOStats(m_connectionId, m_bytesSent, m_bytesReceived);
+        return new ClientIOStats(m_connectionId, m_bytesSent, m_bytesReceived,
+                                 m_callsInFlight, m_expirationSweepNanos);
     }
 }
@@ -74,6 +74,10 @@ public class ClientStats {
     long m_bytesSent;
     long m_bytesReceived;
 
+    // point in time values recorded per connection, not per procedure
+    long m_callsInFlight;
+    long m_expirationSweepNanos;
+
     private static final long LOWEST_TRACKABLE = 50;
     private static final long HIGHEST_TRACKABLE = 10L * (1000L * 1000L);
     private static final int SIGNIFICANT_VALUE_DIGITS = 2;
@@ -96,6 +100,7 @@ public class ClientStats {
         m_invocationsCompleted = m_invocationAborts = m_invocationErrors = 0;
         m_roundTripTimeNanos = m_clusterRoundTripTime = 0;
         m_bytesSent = m_bytesReceived = 0;
+        m_callsInFlight = m_expirationSweepNanos = 0;
         m_latencyHistogram = constructHistogram();
     }
 
@@ -116,6 +121,8 @@ public class ClientStats {
         m_latencyHistogram.reestablishTotalCount();
         m_bytesSent = other.m_bytesSent;
         m_bytesReceived = other.m_bytesReceived;
+        m_callsInFlight = other.m_callsInFlight;
+        m_expirationSweepNanos = other.m_expirationSweepNanos;
     }
 
     static ClientStats diff(ClientStats newer, ClientStats older) {
@@ -147,6 +154,10 @@ public class ClientStats {
         retval.m_bytesSent = newer.m_bytesSent - older.m_bytesSent;
         retval.m_bytesReceived = newer.m_bytesReceived - older.m_bytesReceived;
 
+        // gauges are not diffed
+        retval.m_callsInFlight = newer.m_callsInFlight;
+        retval.m_expirationSweepNanos = newer.m_expirationSweepNanos;
+
         return retval;
     }
 
@@ -195,6 +206,9 @@ public class ClientStats {
 
         m_bytesSent += other.m_bytesSent;
         m_bytesReceived += other.m_bytesReceived;
+
+        m_callsInFlight += other.m_callsInFlight;
+        m_expirationSweepNanos = Math.max(other.m_expirationSweepNanos, m_expirationSweepNanos);
     }
 
     void update(long roundTripTimeNanos, int clusterRoundTripTime, boolean abort, boolean error, boolean timeout) {
@@ -448,6 +462,28 @@ public class ClientStats {
         return m_bytesReceived;
     }
 
+    /**
+     * Return the number of invocations that were waiting for a response when
+     * the statistics were fetched. This can be specific to a connection or global,
+     * but is not recorded for per-procedure statistics.
+     *
+     * @return The number of outstanding invocations or 0 for per-procedure statistics.
+     */
+    public long getCallsInFlight() {
+        return m_callsInFlight;
+    }
+
+    /**
+     * Return how long the most recent pass looking for timed out invocations took, in
+     * nanoseconds. This can be specific to a connection or global (the slowest connection),
+     * but is not recorded for per-procedure statistics.
+     *
+     * @return The duration of the last expiration sweep or 0 for per-procedure statistics.
+     */
+    public long getExpirationSweepNanos() {
+        return m_expirationSweepNanos;
+    }
+
     /**
      * <p>Using the latency bucketing statistics gathered by the client, estimate
      * the k-percentile latency value for the time period covered by this stats
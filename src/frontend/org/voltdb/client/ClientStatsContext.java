@@ -160,6 +160,8 @@ public class ClientStatsContext {
             if (cios != null) {
                 cs.m_bytesReceived = cios.m_bytesReceived;
                 cs.m_bytesSent = cios.m_bytesSent;
+                cs.m_callsInFlight = cios.m_callsInFlight;
+                cs.m_expirationSweepNanos = cios.m_expirationSweepNanos;
             }
             retval.put(e.getKey(), cs);
         }
@@ -224,7 +226,7 @@ public class ClientStatsContext {
     }
 
     /**
-     * Roll up the per-partition affinity stats and return the totals for each of the four
+     * Roll up the per-partition affinity stats and return the totals for each of the
      * categories. Will only be populated if client affinity is enabled.
      *
      * @return A {@link ClientAffinityStats} instance covering all partitions.
@@ -235,15 +237,19 @@ public class ClientStatsContext {
         long afReads = 0;
         long rrWrites = 0;
         long rrReads = 0;
+        long llWrites = 0;
+        long llReads = 0;
         Map<Integer, ClientAffinityStats> affinityStats = getAffinityStats();
         for (Entry<Integer, ClientAffinityStats> e : affinityStats.entrySet()) {
             afWrites += e.getValue().getAffinityWrites();
             afReads += e.getValue().getAffinityReads();
             rrWrites += e.getValue().getRrWrites();
             rrReads += e.getValue().getRrReads();
+            llWrites += e.getValue().getLeastLoadedWrites();
+            llReads += e.getValue().getLeastLoadedReads();
         }
         ClientAffinityStats retval = new ClientAffinityStats(Integer.MAX_VALUE, afWrites, rrWrites,
-               afReads, rrReads);
+               afReads, rrReads, llWrites, llReads);
         return retval;
     }
 
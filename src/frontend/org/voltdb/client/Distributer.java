@@ -33,8 +33,6 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -120,14 +118,18 @@ class Distributer {
         final static int PARAMETER_NONE = -1;
         private final boolean multiPart;
         private final boolean readOnly;
+        // NT procedures run on whichever host receives them
+        private final boolean nonTransactional;
         private final int partitionParameter;
         private final int partitionParameterType;
         private Procedure(boolean multiPart,
                 boolean readOnly,
+                boolean nonTransactional,
                 int partitionParameter,
                 int partitionParameterType) {
             this.multiPart = multiPart;
             this.readOnly = readOnly;
+            this.nonTransactional = nonTransactional;
             this.partitionParameter = multiPart? PARAMETER_NONE : partitionParameter;
             this.partitionParameterType = multiPart ? PARAMETER_NONE : partitionParameterType;
         }
@@ -147,6 +149,8 @@ class Distributer {
     //This is a global timeout that will be used if a per-procedure timeout is not provided with the procedure call.
     private final long m_procedureCallTimeoutNanos;
     private static final long MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS = 30 * 60 * 1000; // 30 minutes
+    // period of CallExpiration, also the tick of the callback table timer wheels
+    private static final long EXPIRATION_SWEEP_INTERVAL_SECONDS = 1;
     private final long m_connectionResponseTimeoutNanos;
     private final Map<Integer, ClientAffinityStats> m_clientAffinityStats =
         new HashMap<>();
@@ -156,6 +160,10 @@ class Distributer {
     private final AtomicReference<ImmutableSet<Integer>> m_unconnectedHosts = new AtomicReference<ImmutableSet<Integer>>();
     private AtomicBoolean m_createConnectionUponTopoChangeInProgress = new AtomicBoolean(false);
     private boolean m_topologyChangeAware;
+    private int m_invocationBatchMaxBytes = 0;
+    private long m_invocationBatchDelayNanos = 0;
+    // Runs the delayed batch flushes so that slow callbacks on m_ex can't hold them up
+    private ScheduledExecutorService m_batchFlusher = null;
 
     //private final Timer m_timer;
     private final ScheduledExecutorService m_ex =
@@ -326,6 +334,7 @@ class Distributer {
                 }
 
                 final long nowNanos = System.nanoTime();
+                final List<CallbackBookeeping> expired = new ArrayList<>();
 
                 // for each connection
                 for (final NodeConnection c : connections) {
@@ -345,26 +354,17 @@ class Distributer {
                         c.sendPing();
                     }
 
-                    // for each outstanding procedure
-                    for (final Map.Entry<Long, CallbackBookeeping> e : c.m_callbacks.entrySet()) {
-                        final long handle = e.getKey();
-                        final CallbackBookeeping cb = e.getValue();
-
-                        // if the timeout is expired, call the callback and remove the
-                        // bookeeping data
-                        final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
-                        if (deltaNanos > cb.procedureTimeoutNanos) {
-
-                            //For expected long operations don't use the default timeout
-                            //unless it is > MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS
-                            final boolean isLongOp = isLongOp(cb.name);
-                            if (isLongOp && (deltaNanos < TimeUnit.MILLISECONDS.toNanos(MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS))) {
-                                continue;
-                            }
+                    // remove the outstanding procedures whose deadline has passed,
+                    // only the timer wheel slots that came due since the last sweep are visited
+                    final long sweepStartNanos = System.nanoTime();
+                    c.m_callbacks.expire(nowNanos, expired);
+                    c.m_lastExpirationSweepNanos = System.nanoTime() - sweepStartNanos;
 
-                            c.handleTimedoutCallback(handle, nowNanos);
-                        }
+                    // call the callbacks outside of the table locks
+                    for (final CallbackBookeeping cb : expired) {
+                        c.invokeTimedoutCallback(cb, nowNanos);
                     }
+                    expired.clear();
                 }
             } catch (Throwable t) {
                 t.printStackTrace();
@@ -388,8 +388,20 @@ class Distributer {
         return false;
     }
 
-    class CallbackBookeeping {
-        public CallbackBookeeping(long timestampNanos, ProcedureCallback callback, String name, long timeoutNanos, boolean ignoreBackpressure) {
+    /*
+     * The deadline tracked by the callback table. For expected long operations don't use
+     * the default timeout unless it is > MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS
+     */
+    private static long expirationDeadline(long timestampNanos, String procName, long timeoutNanos) {
+        if (isLongOp(procName)) {
+            timeoutNanos = Math.max(timeoutNanos, TimeUnit.MILLISECONDS.toNanos(MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS));
+        }
+        return timestampNanos + timeoutNanos;
+    }
+
+    class CallbackBookeeping extends CallbackTable.Entry {
+        public CallbackBookeeping(long handle, long timestampNanos, ProcedureCallback callback, String name, long timeoutNanos, boolean ignoreBackpressure) {
+            super(handle, expirationDeadline(timestampNanos, name, timeoutNanos));
             assert(callback != null);
             this.timestampNanos = timestampNanos;
             this.callback = callback;
@@ -407,9 +419,14 @@ class Distributer {
 
     class NodeConnection extends VoltProtocolHandler implements org.voltcore.network.QueueMonitor {
         private final AtomicInteger m_callbacksToInvoke = new AtomicInteger(0);
-        private final ConcurrentMap<Long, CallbackBookeeping> m_callbacks = new ConcurrentHashMap<>();
+        private final CallbackTable<CallbackBookeeping> m_callbacks =
+                new CallbackTable<>(System.nanoTime(), TimeUnit.SECONDS.toNanos(EXPIRATION_SWEEP_INTERVAL_SECONDS));
+        // how long the last CallExpiration pass spent sweeping m_callbacks
+        volatile long m_lastExpirationSweepNanos = 0;
         private final NonBlockingHashMap<String, ClientStats> m_stats = new NonBlockingHashMap<>();
         private Connection m_connection;
+        // null unless invocation batching is enabled
+        private InvocationBatcher m_batcher;
         private volatile boolean m_isConnected = true;
 
         volatile long m_lastResponseTimeNanos = System.nanoTime();
@@ -426,6 +443,23 @@ class Distributer {
          */
         public void createWork(final long nowNanos, long handle, String name, ByteBuffer c,
                 ProcedureCallback callback, boolean ignoreBackpressure, long timeoutNanos) {
+            assert(c != null);
+            createWork(nowNanos, handle, name, c, null, callback, ignoreBackpressure, timeoutNanos);
+        }
+
+        /*
+         * Same as above, but the invocation is serialized only once the callback is tracked,
+         * straight into the batch buffer of the connection
+         */
+        public void createWork(final long nowNanos, ProcedureInvocation invocation,
+                ProcedureCallback callback, boolean ignoreBackpressure, long timeoutNanos) {
+            createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), null, invocation,
+                    callback, ignoreBackpressure, timeoutNanos);
+        }
+
+        private void createWork(final long nowNanos, long handle, String name, ByteBuffer c,
+                ProcedureInvocation invocation, ProcedureCallback callback, boolean ignoreBackpressure,
+                long timeoutNanos) {
             assert(callback != null);
 
             //How long from the starting point in time to wait to get this stuff done
@@ -463,7 +497,7 @@ class Distributer {
             assert(callbacksToInvoke >= 0);
 
             //Optimistically submit the task
-            m_callbacks.put(handle, new CallbackBookeeping(nowNanos, callback, name, timeoutNanos, ignoreBackpressure));
+            m_callbacks.put(new CallbackBookeeping(handle, nowNanos, callback, name, timeoutNanos, ignoreBackpressure));
 
             //Schedule the timeout to fire relative to the amount of time
             //spent getting to this point. Might fire immediately
@@ -499,8 +533,28 @@ class Distributer {
                 //for bookkeeping, but it feels dishonest to call this here
                 m_rateLimiter.transactionResponseReceived(nowNanos, -1, ignoreBackpressure);
                 return;
+            } else if (c != null) {
+                if (m_batcher != null) {
+                    // Don't overtake invocations waiting in the batch
+                    m_batcher.enqueueUnbatched(c);
+                } else {
+                    m_connection.writeStream().enqueue(c);
+                }
             } else {
-                m_connection.writeStream().enqueue(c);
+                try {
+                    if (!m_batcher.add(invocation)) {
+                        m_batcher.enqueueUnbatched(serializeSPI(invocation));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    //Nothing was sent, so stop tracking the callback unless it already timed out
+                    if (m_callbacks.remove(handle) != null) {
+                        final int remainingToInvoke = m_callbacksToInvoke.decrementAndGet();
+                        assert(remainingToInvoke >= 0);
+                        m_rateLimiter.transactionResponseReceived(nowNanos, -1, ignoreBackpressure);
+                    }
+                    Throwables.throwIfUnchecked(e);
+                    throw new RuntimeException(e);
+                }
             }
         }
 
@@ -538,9 +592,16 @@ class Distributer {
                 return;
             }
 
+            invokeTimedoutCallback(cb, nowNanos);
+        }
+
+        /*
+         * Invoke the timeout for a callback that the caller has already removed from the callback table
+         */
+        void invokeTimedoutCallback(CallbackBookeeping cb, long nowNanos) {
             final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
 
-            invokeCallbackWithTimeout(cb.name, cb.callback, deltaNanos, nowNanos, cb.procedureTimeoutNanos, handle, cb.ignoreBackpressure);
+            invokeCallbackWithTimeout(cb.name, cb.callback, deltaNanos, nowNanos, cb.procedureTimeoutNanos, cb.handle, cb.ignoreBackpressure);
         }
 
         /*
@@ -828,12 +889,10 @@ class Distributer {
                         ClientResponse.CONNECTION_LOST, new VoltTable[0],
                         "Connection to database host (" + m_connection.getHostnameAndIPAndPort() +
                 ") was lost before a response was received");
-            for (Map.Entry<Long, CallbackBookeeping> e : m_callbacks.entrySet()) {
-                //Check for race with other threads
-                if (m_callbacks.remove(e.getKey()) == null) {
-                    continue;
-                }
-                final CallbackBookeeping callBk = e.getValue();
+            //Anything racing with this drain has already been removed by the other thread
+            final List<CallbackBookeeping> outstanding = new ArrayList<>();
+            m_callbacks.drain(outstanding);
+            for (final CallbackBookeeping callBk : outstanding) {
                 try {
                     callBk.callback.clientCallback(r);
                 }
@@ -878,13 +937,14 @@ class Distributer {
             return this;
         }
 
-        private int m_queuedBytes = 0;
+        // written by the network thread and by the batcher for invocations waiting in a batch,
+        // read when picking the least loaded connection
+        private final AtomicInteger m_queuedBytes = new AtomicInteger(0);
         private final int m_maxQueuedBytes = 262144;
 
         @Override
         public boolean queue(int bytes) {
-            m_queuedBytes += bytes;
-            if (m_queuedBytes > m_maxQueuedBytes) {
+            if (m_queuedBytes.addAndGet(bytes) > m_maxQueuedBytes) {
                 return true;
             }
             return false;
@@ -898,6 +958,12 @@ class Distributer {
     void drain() throws InterruptedException {
         boolean more;
         long sleep = 500;
+        // don't wait out the batching delay
+        for (NodeConnection cxn : m_connections) {
+            if (cxn.m_batcher != null) {
+                cxn.m_batcher.flush();
+            }
+        }
         do {
             more = false;
             for (NodeConnection cxn : m_connections) {
@@ -955,7 +1021,8 @@ class Distributer {
         m_sendReadsToReplicasBytDefaultIfCAEnabled = sendReadsToReplicasBytDefault;
 
         // schedule the task that looks for timed-out proc calls and connections
-        m_timeoutReaperHandle = m_ex.scheduleAtFixedRate(new CallExpiration(), 1, 1, TimeUnit.SECONDS);
+        m_timeoutReaperHandle = m_ex.scheduleAtFixedRate(new CallExpiration(),
+                EXPIRATION_SWEEP_INTERVAL_SECONDS, EXPIRATION_SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
         m_subject = subject;
     }
 
@@ -1009,6 +1076,10 @@ class Distributer {
             Throwables.propagate(e);
         }
         cxn.m_connection = c;
+        if (m_invocationBatchMaxBytes > 0) {
+            cxn.m_batcher = new InvocationBatcher(c.writeStream(), cxn,
+                    m_invocationBatchMaxBytes, m_invocationBatchDelayNanos, m_batchFlusher);
+        }
 
         synchronized (this) {
 
@@ -1113,6 +1184,32 @@ class Distributer {
         }
     }
 
+    /*
+     * Pick the connected node connection with the fewest bytes waiting to be written,
+     * breaking ties by the number of callbacks still outstanding. Starts at the next
+     * round-robin position so that idle connections share the work. Returns null if every
+     * connection has backpressure and ignoreBackpressure is false.
+     * Must be called while synchronized on this.
+     */
+    private NodeConnection leastLoadedConnection(boolean ignoreBackpressure) {
+        final int totalConnections = m_connections.size();
+        final int start = Math.abs(++m_nextConnection % totalConnections);
+        NodeConnection best = null;
+        for (int i = 0; i < totalConnections; ++i) {
+            NodeConnection cxn = m_connections.get((start + i) % totalConnections);
+            if (!cxn.m_isConnected || (cxn.hadBackPressure() && !ignoreBackpressure)) {
+                continue;
+            }
+            if (best == null ||
+                    cxn.m_queuedBytes.get() < best.m_queuedBytes.get() ||
+                    (cxn.m_queuedBytes.get() == best.m_queuedBytes.get() &&
+                     cxn.m_callbacksToInvoke.get() < best.m_callbacksToInvoke.get())) {
+                best = cxn;
+            }
+        }
+        return best;
+    }
+
     /**
      * Queue invocation on first node connection without backpressure. If there is none with without backpressure
      * then return false and don't queue the invocation
@@ -1158,6 +1255,7 @@ class Distributer {
                     procedureInfo = procedures.get(invocation.getProcName());
                 }
                 Integer hashedPartition = -1;
+                boolean leastLoaded = false;
 
                 if (procedureInfo != null) {
                     hashedPartition = Constants.MP_INIT_PID;
@@ -1169,11 +1267,22 @@ class Distributer {
                                 procedureInfo.partitionParameterType,
                                 invocation.getPartitionParamValue(procedureInfo.partitionParameter));
                     }
+                    /*
+                     * NT procedures run on the host that receives them, so there is no master
+                     * to find. Spread them by load.
+                     */
+                    if (procedureInfo.nonTransactional) {
+                        cxn = leastLoadedConnection(ignoreBackpressure);
+                        leastLoaded = true;
+                        if (cxn != null) {
+                            backpressure = false;
+                        }
+                    }
                     /*
                      * If the procedure is read only and single part and the user wants it, load balance across replicas
                      * This is probably slower for SAFE consistency.
                      */
-                    if (!procedureInfo.multiPart && procedureInfo.readOnly && m_sendReadsToReplicasBytDefaultIfCAEnabled) {
+                    else if (!procedureInfo.multiPart && procedureInfo.readOnly && m_sendReadsToReplicasBytDefaultIfCAEnabled) {
                         NodeConnection partitionReplicas[] = m_partitionReplicas.get(hashedPartition);
                         if (partitionReplicas != null && partitionReplicas.length > 0) {
                             cxn = partitionReplicas[ThreadLocalRandom.current().nextInt(partitionReplicas.length)];
@@ -1195,7 +1304,19 @@ class Distributer {
                          * For writes or SAFE reads, this is the best way to go
                          */
                         cxn = m_partitionMasters.get(hashedPartition);
-                        if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
+                        /*
+                         * MP reads go to the MPI host to save the hop it would otherwise forward them over.
+                         * If that host isn't connected or is backed up, the least loaded connection is
+                         * a better bet than whichever is next round-robin.
+                         */
+                        if (procedureInfo.multiPart && procedureInfo.readOnly &&
+                                (cxn == null || !cxn.m_isConnected || (cxn.hadBackPressure() && !ignoreBackpressure))) {
+                            cxn = leastLoadedConnection(ignoreBackpressure);
+                            leastLoaded = true;
+                            if (cxn != null) {
+                                backpressure = false;
+                            }
+                        } else if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
                             backpressure = false;
                         }
                     }
@@ -1211,7 +1332,15 @@ class Distributer {
                     stats = new ClientAffinityStats(hashedPartition, 0, 0, 0, 0);
                     m_clientAffinityStats.put(hashedPartition, stats);
                 }
-                if (cxn != null) {
+                if (cxn != null && leastLoaded) {
+                    if (procedureInfo.readOnly) {
+                        stats.addLeastLoadedRead();
+                    }
+                    else {
+                        stats.addLeastLoadedWrite();
+                    }
+                }
+                else if (cxn != null) {
                     if (procedureInfo != null && procedureInfo.readOnly) {
                         stats.addAffinityRead();
                     }
@@ -1251,16 +1380,21 @@ class Distributer {
 
         /*
          * Do the heavy weight serialization outside the synchronized block.
-         * createWork synchronizes on an individual connection which allows for more concurrency
+         * createWork synchronizes on an individual connection which allows for more concurrency.
+         * With invocation batching createWork serializes straight into the connection's batch.
          */
         if (cxn != null) {
-            ByteBuffer buf = null;
-            try {
-                buf = serializeSPI(invocation);
-            } catch (Exception e) {
-                Throwables.propagate(e);
+            if (cxn.m_batcher != null) {
+                cxn.createWork(nowNanos, invocation, cb, ignoreBackpressure, timeoutNanos);
+            } else {
+                ByteBuffer buf = null;
+                try {
+                    buf = serializeSPI(invocation);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                cxn.createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure, timeoutNanos);
             }
-            cxn.createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure, timeoutNanos);
         }
         if (m_topologyChangeAware) {
             createConnectionsUponTopologyChange();
@@ -1283,6 +1417,11 @@ class Distributer {
             m_ex.awaitTermination(365, TimeUnit.DAYS);
         }
 
+        if (m_batchFlusher != null) {
+            m_batchFlusher.shutdown();
+            m_batchFlusher.awaitTermination(1, TimeUnit.SECONDS);
+        }
+
         m_network.shutdown();
         if (m_cipherService != null) {
             m_cipherService.shutdown();
@@ -1358,7 +1497,8 @@ class Distributer {
             long read = perConnIOStats.getSecond()[0];
             long write = perConnIOStats.getSecond()[2];
 
-            ClientIOStats cios = new ClientIOStats(conn.connectionId(), read, write);
+            ClientIOStats cios = new ClientIOStats(conn.connectionId(), read, write,
+                    conn.m_callbacks.size(), conn.m_lastExpirationSweepNanos);
             retval.put(conn.connectionId(), cios);
         }
 
@@ -1477,16 +1617,18 @@ class Distributer {
                 String procedureName = vt.getString(2);
                 JSONObject jsObj = new JSONObject(jsString);
                 boolean readOnly = jsObj.getBoolean(Constants.JSON_READ_ONLY);
+                // Only present, and false, for NT procedures
+                boolean nonTransactional = !jsObj.optBoolean(Constants.JSON_TRANSACTIONAL, true);
                 if (jsObj.getBoolean(Constants.JSON_SINGLE_PARTITION)) {
                     int partitionParameter = jsObj.getInt(Constants.JSON_PARTITION_PARAMETER);
                     int partitionParameterType =
                         jsObj.getInt(Constants.JSON_PARTITION_PARAMETER_TYPE);
                     procs.put(procedureName,
-                            new Procedure(false,readOnly, partitionParameter, partitionParameterType));
+                            new Procedure(false, readOnly, nonTransactional, partitionParameter, partitionParameterType));
                 } else {
                     // Multi Part procedure JSON descriptors omit the partitionParameter
-                    procs.put(procedureName, new Procedure(true, readOnly, Procedure.PARAMETER_NONE,
-                                Procedure.PARAMETER_NONE));
+                    procs.put(procedureName, new Procedure(true, readOnly, nonTransactional,
+                                Procedure.PARAMETER_NONE, Procedure.PARAMETER_NONE));
                 }
 
             } catch (JSONException e) {
@@ -1602,6 +1744,20 @@ class Distributer {
         m_topologyChangeAware = topoAware;
     }
 
+    /**
+     * Coalesce invocations on each connection created after this call.
+     * @param maxBatchBytes size of the per connection batch buffer, 0 disables batching
+     * @param maxDelayNanos how long a partial batch can wait before it is written
+     */
+    void setInvocationBatching(int maxBatchBytes, long maxDelayNanos) {
+        m_invocationBatchMaxBytes = maxBatchBytes;
+        m_invocationBatchDelayNanos = maxDelayNanos;
+        if (maxBatchBytes > 0 && m_batchFlusher == null) {
+            m_batchFlusher = Executors.newSingleThreadScheduledExecutor(
+                    CoreUtils.getThreadFactory("VoltDB Client Batch Flusher"));
+        }
+    }
+
     void createConnectionsUponTopologyChange() {
 
         if(!m_topologyChangeAware || m_createConnectionUponTopoChangeInProgress.get()) {
@@ -0,0 +1,194 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.voltcore.network.QueueMonitor;
+import org.voltcore.network.WriteStream;
+import org.voltcore.utils.DeferredSerialization;
+
+/**
+ * Coalesces invocations bound for one connection into a single buffer so that
+ * a burst of small procedure calls costs one write stream enqueue instead of
+ * one per call. Invocations are serialized straight into the current batch
+ * buffer, which is handed to the write stream when it fills up or when the
+ * first invocation in it has waited for the configured delay.
+ *
+ * Batch buffers are recycled once the network thread has copied them out.
+ * Invocations count toward the connection's queued bytes from the time they
+ * are added to a batch, so backpressure covers the ones still waiting in it.
+ */
+class InvocationBatcher {
+
+    // Enough to absorb a burst while the network thread drains the previous batches
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private final WriteStream m_writeStream;
+    private final QueueMonitor m_monitor;
+    private final int m_maxBatchBytes;
+    private final long m_maxDelayNanos;
+    private final ScheduledExecutorService m_flushExecutor;
+
+    // Guarded by its own monitor, buffers come back from the network thread which may
+    // hold the write stream lock while this holds the batcher lock to enqueue
+    private final ArrayDeque<ByteBuffer> m_pool = new ArrayDeque<>();
+    private ByteBuffer m_batch = null;
+    private int m_batchInvocations = 0;
+    private int m_batchBytes = 0;
+    private boolean m_flushScheduled = false;
+
+    private final Runnable m_timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (InvocationBatcher.this) {
+                m_flushScheduled = false;
+                flush();
+            }
+        }
+    };
+
+    /**
+     * @param writeStream    Stream of the connection the batches are written to
+     * @param monitor        Queued bytes of the connection, batched invocations are counted until written
+     * @param maxBatchBytes  Size of a batch buffer, invocations larger than this are not batched
+     * @param maxDelayNanos  Longest an invocation waits in a partially filled batch
+     * @param flushExecutor  Runs the delayed flushes
+     */
+    InvocationBatcher(WriteStream writeStream, QueueMonitor monitor, int maxBatchBytes, long maxDelayNanos,
+            ScheduledExecutorService flushExecutor) {
+        assert(maxBatchBytes > 0);
+        m_writeStream = writeStream;
+        m_monitor = monitor;
+        m_maxBatchBytes = maxBatchBytes;
+        m_maxDelayNanos = maxDelayNanos;
+        m_flushExecutor = flushExecutor;
+    }
+
+    /**
+     * Serialize an invocation, length prefixed, into the current batch.
+     *
+     * @return false if the invocation is too large to batch and the caller has to write it itself
+     */
+    synchronized boolean add(ProcedureInvocation invocation) throws IOException {
+        final int size = 4 + invocation.getSerializedSize();
+        if (size > m_maxBatchBytes) {
+            return false;
+        }
+
+        if (m_batch != null && m_batch.remaining() < size) {
+            flush();
+        }
+        if (m_batch == null) {
+            synchronized (m_pool) {
+                m_batch = m_pool.poll();
+            }
+            if (m_batch == null) {
+                m_batch = ByteBuffer.allocate(m_maxBatchBytes);
+            }
+        }
+
+        final int start = m_batch.position();
+        try {
+            m_batch.putInt(size - 4);
+            invocation.flattenToBuffer(m_batch);
+        } catch (IOException | RuntimeException e) {
+            // Don't leave a partial invocation in the batch
+            m_batch.position(start);
+            throw e;
+        }
+        m_batchInvocations++;
+        m_batchBytes += size;
+        m_monitor.queue(size);
+
+        if (m_maxDelayNanos == 0 || !m_batch.hasRemaining()) {
+            flush();
+        } else if (!m_flushScheduled) {
+            try {
+                m_flushExecutor.schedule(m_timedFlush, m_maxDelayNanos, TimeUnit.NANOSECONDS);
+                m_flushScheduled = true;
+            } catch (RejectedExecutionException e) {
+                // Shutting down, nothing will flush this later
+                flush();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hand the current batch, if any, to the write stream.
+     */
+    synchronized void flush() {
+        if (m_batch == null || m_batchInvocations == 0) {
+            return;
+        }
+        final ByteBuffer batch = m_batch;
+        final int batchBytes = m_batchBytes;
+        m_batch = null;
+        m_batchInvocations = 0;
+        m_batchBytes = 0;
+        batch.flip();
+        m_writeStream.enqueue(new DeferredSerialization() {
+            @Override
+            public void serialize(ByteBuffer outbuf) throws IOException {
+                outbuf.put(batch);
+                recycle(batch);
+                // The write stream counts the bytes from here on
+                m_monitor.queue(-batchBytes);
+            }
+
+            @Override
+            public void cancel() {
+                recycle(batch);
+                m_monitor.queue(-batchBytes);
+            }
+
+            @Override
+            public int getSerializedSize() throws IOException {
+                return batch.remaining();
+            }
+        });
+    }
+
+    /**
+     * Write an already serialized invocation behind the ones waiting in the batch,
+     * for invocations that are not batched, so they don't overtake the batch.
+     */
+    synchronized void enqueueUnbatched(ByteBuffer buf) {
+        flush();
+        m_writeStream.enqueue(buf);
+    }
+
+    synchronized int pendingInvocations() {
+        return m_batchInvocations;
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        synchronized (m_pool) {
+            if (m_pool.size() < MAX_POOLED_BUFFERS) {
+                buffer.clear();
+                m_pool.offer(buffer);
+            }
+        }
+    }
+}
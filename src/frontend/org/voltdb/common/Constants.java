@@ -51,6 +51,7 @@ public class Constants
     public static final String JSON_PARTITION_PARAMETER_TYPE = "partitionParameterType";
     public static final String JSON_SINGLE_PARTITION = "singlePartition";
     public static final String JSON_READ_ONLY = "readOnly";
+    public static final String JSON_TRANSACTIONAL = "transactional";
 
     // The transaction id layout.
     static final long UNUSED_SIGN_BITS = 1;
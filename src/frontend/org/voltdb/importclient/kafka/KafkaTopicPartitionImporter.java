@@ -22,6 +22,7 @@ import static java.util.Collections.singletonMap;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -83,6 +84,8 @@ public class KafkaTopicPartitionImporter extends AbstractImporter
     private final TopicAndPartition m_topicAndPartition;
     private final CommitTracker m_gapTracker;
     private final int m_gapFullWait = Integer.getInteger("KAFKA_IMPORT_GAP_WAIT", 2_000);
+    //Messages of a fetch submitted together, the server may load them in fewer transactions.
+    private final int m_batchSize = Integer.getInteger("KAFKA_IMPORT_BATCH_SIZE", 1);
     private final KafkaStreamImporterConfig m_config;
     private HostAndPort m_coordinator;
     private final FetchRequestBuilder m_fetchRequestBuilder;
@@ -378,6 +381,8 @@ public class KafkaTopicPartitionImporter extends AbstractImporter
         AtomicLong cbcnt = new AtomicLong(0);
         @SuppressWarnings("unchecked")
         Formatter formatter = m_config.getFormatterBuilder().create();
+        List<Object[]> batchParams = new ArrayList<>();
+        List<TopicPartitionInvocationCallback> batchCallbacks = new ArrayList<>();
         try {
             //Start with the starting leader.
             resetLeader();
@@ -463,10 +468,17 @@ public class KafkaTopicPartitionImporter extends AbstractImporter
                     try {
                         m_gapTracker.submit(messageAndOffset.nextOffset());
                         params = formatter.transform(payload);
-                        Invocation invocation = new Invocation(m_config.getProcedure(), params);
                         TopicPartitionInvocationCallback cb = new TopicPartitionInvocationCallback(messageAndOffset.offset(),
                                 messageAndOffset.nextOffset(), cbcnt, m_gapTracker, m_dead, m_pauseOffset);
-                         if (!noTransaction && !callProcedure(invocation, cb)) {
+                        if (m_batchSize > 1) {
+                            if (!noTransaction) {
+                                batchParams.add(params);
+                                batchCallbacks.add(cb);
+                                if (batchParams.size() >= m_batchSize) {
+                                    submitBatch(batchParams, batchCallbacks);
+                                }
+                            }
+                        } else if (!noTransaction && !callProcedure(new Invocation(m_config.getProcedure(), params), cb)) {
                               if (isDebugEnabled()) {
                                  debug(null, "Failed to process Invocation possibly bad data: " + Arrays.toString(params));
                               }
@@ -482,6 +494,7 @@ public class KafkaTopicPartitionImporter extends AbstractImporter
                         break;
                     }
                 }
+                submitBatch(batchParams, batchCallbacks);
                 if (!shouldRun()) {
                     break;
                 }
@@ -698,6 +711,24 @@ public class KafkaTopicPartitionImporter extends AbstractImporter
         return getName() + " - " + (m_topicAndPartition == null ? "Unknown" : m_topicAndPartition.toString());
     }
 
+    private void submitBatch(List<Object[]> params, List<TopicPartitionInvocationCallback> callbacks)
+    {
+        if (params.isEmpty()) {
+            return;
+        }
+        boolean[] queued = callProcedures(m_config.getProcedure(), params, callbacks);
+        for (int i = 0; i < queued.length; i++) {
+            if (!queued[i]) {
+                if (isDebugEnabled()) {
+                    debug(null, "Failed to process Invocation possibly bad data: " + Arrays.toString(params.get(i)));
+                }
+                m_gapTracker.commit(callbacks.get(i).m_nextoffset);
+            }
+        }
+        params.clear();
+        callbacks.clear();
+    }
+
     @Override
     protected void stop()
     {
@@ -38,6 +38,9 @@ import org.voltdb.importer.formatter.Formatter;
  */
 public class ServerSocketImporter extends AbstractImporter {
 
+    //Lines already received are submitted together, up to this many, the server may load them in fewer transactions.
+    private static final int BATCH_SIZE = Integer.getInteger("SOCKET_IMPORT_BATCH_SIZE", 1);
+
     private final ServerSocketImporterConfig m_config;
     private List<ClientConnectionHandler> m_clients = new ArrayList<>();
 
@@ -112,19 +115,26 @@ public class ServerSocketImporter extends AbstractImporter {
                         new InputStreamReader(m_clientSocket.getInputStream()));
                 Formatter formatter = m_config.getFormatterBuilder().create();
                 Object params[] = null;
+                List<Object[]> batch = new ArrayList<>();
                 while (shouldRun()) {
                     String line = in.readLine();
                     try{
                         params = formatter.transform(ByteBuffer.wrap(line.getBytes()));
                         //You should convert your data to params here.
-                        if (params == null) continue;
-                        Invocation invocation = new Invocation(m_procedure, params);
-                        if (!callProcedure(invocation)) {
-                            rateLimitedLog(Level.ERROR, null, "Socket importer insertion failed");
+                        if (params != null) {
+                            if (BATCH_SIZE > 1) {
+                                batch.add(params);
+                            } else if (!callProcedure(new Invocation(m_procedure, params))) {
+                                rateLimitedLog(Level.ERROR, null, "Socket importer insertion failed");
+                            }
                         }
                    } catch (FormatException e){
                        rateLimitedLog(Level.ERROR, e, "Failed to tranform data: %s" ,line);
                   }
+                    //Don't hold a partial batch waiting for lines that haven't arrived
+                    if (!batch.isEmpty() && (batch.size() >= BATCH_SIZE || !in.ready())) {
+                        submitBatch(batch);
+                    }
                 }
             } catch (IOException ioe) {
                 error(ioe, "IO exception reading from client socket connection in socket importer");
@@ -138,6 +148,16 @@ public class ServerSocketImporter extends AbstractImporter {
             }
         }
 
+        private void submitBatch(List<Object[]> batch)
+        {
+            for (boolean queued : callProcedures(m_procedure, batch, null)) {
+                if (!queued) {
+                    rateLimitedLog(Level.ERROR, null, "Socket importer insertion failed");
+                }
+            }
+            batch.clear();
+        }
+
         public void stopClient()
         {
             // nothing to do for now
@@ -18,6 +18,7 @@
 package org.voltdb.importer;
 
 import java.net.URI;
+import java.util.List;
 import java.util.function.Function;
 
 import org.voltcore.logging.Level;
@@ -114,6 +115,34 @@ public abstract class AbstractImporter
         }
     }
 
+    /**
+     * This should be used by importer implementations to execute a stored procedure once
+     * for each of a batch of rows. The server may load several rows in one transaction,
+     * which is much cheaper than a transaction per row when the procedure is the default
+     * insert or upsert procedure of a table.
+     *
+     * @param procedure the name of the procedure to execute
+     * @param rows the parameters of each execution
+     * @param callbacks one callback per row, each receives the status of the transaction
+     * that executed its row. May be null.
+     * @return for each row, true if its execution was queued successfully; false otherwise
+     */
+    protected final boolean[] callProcedures(String procedure, List<Object[]> rows,
+            List<? extends ProcedureCallback> callbacks)
+    {
+        boolean[] result;
+        try {
+            result = m_importServerAdapter.callProcedures(this, m_backPressurePredicate, procedure, rows, callbacks);
+        } catch (Exception ex) {
+            rateLimitedLog(Level.ERROR, ex, "%s: Error trying to import", getName());
+            result = new boolean[rows.size()];
+        }
+        for (boolean queued : result) {
+            reportStat(queued, procedure);
+        }
+        return result;
+    }
+
     /**
      * Called to stop the importer from processing more data.
      */
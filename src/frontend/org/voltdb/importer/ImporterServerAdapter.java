@@ -19,6 +19,7 @@ package org.voltdb.importer;
 
 import org.voltdb.client.ProcedureCallback;
 
+import java.util.List;
 import java.util.function.Function;
 
 
@@ -49,6 +50,29 @@ public interface ImporterServerAdapter {
      */
     public boolean callProcedure(AbstractImporter importer, Function<Integer, Boolean> backPressurePredicate, ProcedureCallback callback, String proc, Object... fieldList);
 
+    /**
+     * This is used by importers to execute a procedure once for each of a batch of rows. The server
+     * may execute several rows in one transaction, for example all the rows of a partition when the
+     * procedure is a table's default insert procedure, in which case each of those rows' callbacks
+     * receives the response of that transaction.
+     *
+     * @param importer the calling importer instance
+     * @param backPressurePredicate see {@link #callProcedure}
+     * @param proc the name of the procedure that is to be executed
+     * @param rows the parameters of each execution
+     * @param callbacks one callback per row, or null for no callbacks
+     * @return for each row, true if its execution was queued successfully; false otherwise.
+     */
+    public default boolean[] callProcedures(AbstractImporter importer, Function<Integer, Boolean> backPressurePredicate,
+            String proc, List<Object[]> rows, List<? extends ProcedureCallback> callbacks) {
+        final boolean[] queued = new boolean[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            queued[i] = callProcedure(importer, backPressurePredicate,
+                    callbacks == null ? null : callbacks.get(i), proc, rows.get(i));
+        }
+        return queued;
+    }
+
     /**
      * This should be used by importers to report failure while trying to execute a procedure.
      *
@@ -59,7 +59,7 @@ public abstract class BaseInitiator implements Initiator
     protected Term m_term = null;
     protected Site m_executionSite = null;
     protected Thread m_siteThread = null;
-    protected final RepairLog m_repairLog = new RepairLog();
+    protected final RepairLog m_repairLog;
 
     public BaseInitiator(String zkMailboxNode, HostMessenger messenger, Integer partition,
             Scheduler scheduler, String whoamiPrefix, StatsAgent agent,
@@ -69,6 +69,8 @@ public abstract class BaseInitiator implements Initiator
         m_messenger = messenger;
         m_partitionId = partition;
         m_scheduler = scheduler;
+        // The MPI logs little and on its own thread, only SP partitions go off heap
+        m_repairLog = new RepairLog(RepairLog.OFF_HEAP && m_partitionId != MpInitiator.MP_INIT_PID);
         JoinProducerBase joinProducer;
 
         if (startAction == StartAction.JOIN) {
@@ -108,6 +110,17 @@ public abstract class BaseInitiator implements Initiator
         agent.registerStatsSource(StatsSelector.STARVATION,
                                   getInitiatorHSId(),
                                   st);
+        if (m_scheduler.getQueue().hasPriorityLanes()) {
+            agent.registerStatsSource(StatsSelector.TASKQUEUE,
+                                      getInitiatorHSId(),
+                                      new SiteTaskerQueueStats(getInitiatorHSId(), m_partitionId,
+                                                               m_scheduler.getQueue()));
+        }
+        if (m_partitionId != MpInitiator.MP_INIT_PID) {
+            agent.registerStatsSource(StatsSelector.REPAIRLOG,
+                                      getInitiatorHSId(),
+                                      new RepairLogStats(getInitiatorHSId(), m_partitionId, m_repairLog));
+        }
 
         String partitionString = " ";
         if (m_partitionId != -1) {
@@ -200,6 +213,13 @@ public abstract class BaseInitiator implements Initiator
                 tmLog.info("Interrupted during shutdown", e);
             }
         }
+
+        if (m_initiatorMailbox != null) {
+            // Messages are delivered to the repair log under the mailbox lock
+            synchronized (m_initiatorMailbox) {
+                m_repairLog.shutdown();
+            }
+        }
     }
 
     @Override
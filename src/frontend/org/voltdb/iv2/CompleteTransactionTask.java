@@ -57,6 +57,11 @@ public class CompleteTransactionTask extends TransactionTask
                                                        "partition", Integer.toString(siteConnection.getCorrespondingPartitionId())));
         }
 
+        final boolean speculation = TransactionTaskQueue.SPECULATIVE_EXECUTION && m_queue != null;
+        if (speculation && (m_completeMsg.isRollback() || m_completeMsg.isRestart())) {
+            // Undo the single parts that ran behind this first, their quanta are the newest
+            m_queue.abortSpeculation(siteConnection, getTxnId());
+        }
         if (!m_txnState.isReadOnly()) {
             // the truncation point token SHOULD be part of m_txn. However, the
             // legacy interaces don't work this way and IV2 hasn't changed this
@@ -73,6 +78,12 @@ public class CompleteTransactionTask extends TransactionTask
             // Log invocation to DR
             logToDR(siteConnection.getDRGateway());
             hostLog.debug("COMPLETE: " + this);
+
+            if (speculation) {
+                for (SpProcedureTask task : m_queue.commitSpeculation(getTxnId())) {
+                    task.completeSpeculation(siteConnection);
+                }
+            }
         }
         else
         {
@@ -19,13 +19,15 @@ package org.voltdb.iv2;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.messaging.VoltMessage;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.RateLimitedLogger;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.StoredProcedureInvocation;
-import org.voltdb.VoltTable;
 import org.voltdb.messaging.CompleteTransactionResponseMessage;
 import org.voltdb.messaging.DummyTransactionResponseMessage;
 import org.voltdb.messaging.FragmentResponseMessage;
@@ -36,6 +38,10 @@ import org.voltdb.messaging.Iv2InitiateTaskMessage;
 /**
  * Track responses from each partition. This should be subsumed
  * by proper response tracking for the usual replication case?
+ *
+ * Replicas answer replicated work with a hash of their result tables rather
+ * than the tables, so only the one response that carries results (the
+ * leader's own) is kept to be sent on.
  */
 public class DuplicateCounter
 {
@@ -47,8 +53,8 @@ public class DuplicateCounter
 
     final long m_destinationId;
     Long m_responseHash = null;
+    Integer m_resultHash = null;
     protected VoltMessage m_lastResponse = null;
-    protected VoltTable m_lastResultTables[] = null;
     final List<Long> m_expectedHSIds;
     final long m_txnId;
     final VoltMessage m_openMessage;
@@ -130,7 +136,17 @@ public class DuplicateCounter
         return "UNKNOWN_PROCEDURE_NAME";
     }
 
-    protected int checkCommon(long hash, boolean rejoining, VoltTable resultTables[], VoltMessage message)
+    protected int checkCommon(long hash, boolean rejoining, VoltMessage message)
+    {
+        return checkCommon(hash, null, false, rejoining, message);
+    }
+
+    /**
+     * @param resultHash     hash of the result tables, null if they aren't compared
+     * @param resultsHashed  true if the message carries only the hash of its result tables
+     */
+    protected int checkCommon(long hash, Integer resultHash, boolean resultsHashed,
+            boolean rejoining, VoltMessage message)
     {
         if (!rejoining) {
             if (m_responseHash == null) {
@@ -143,8 +159,24 @@ public class DuplicateCounter
                 logRelevantMismatchInformation(hash, message);
                 return MISMATCH;
             }
-            m_lastResponse = message;
-            m_lastResultTables = resultTables;
+            if (resultHash != null) {
+                if (m_resultHash == null) {
+                    m_resultHash = resultHash;
+                }
+                else if (!m_resultHash.equals(resultHash)) {
+                    // Same SQL but different results means the procedure computed its
+                    // return value non-deterministically, the data is still consistent
+                    RateLimitedLogger.tryLogForMessage(System.currentTimeMillis(),
+                            60, TimeUnit.SECONDS, tmLog, Level.WARN,
+                            "Stored procedure %s returned different results at different replicas"
+                            + " of the same partition. This log message is rate limited to once every 60 seconds.",
+                            getStoredProcedureName());
+                }
+            }
+            // Never let a response without its results replace one with them
+            if (!resultsHashed || m_lastResponse == null) {
+                m_lastResponse = message;
+            }
         }
 
         /*
@@ -155,7 +187,6 @@ public class DuplicateCounter
          */
         if (m_lastResponse == null) {
             m_lastResponse = message;
-            m_lastResultTables = resultTables;
         }
 
         m_expectedHSIds.remove(message.m_sourceHSId);
@@ -176,22 +207,24 @@ public class DuplicateCounter
         if (sqlHash != null) {
             hash = sqlHash.intValue();
         }
-        return checkCommon(hash, message.isRecovering(), r.getResults(), message);
+        return checkCommon(hash, message.getResultHash(), message.hasHashedResults(),
+                message.isRecovering(), message);
     }
 
     int offer(FragmentResponseMessage message)
     {
-        return checkCommon(0, message.isRecovering(), null, message);
+        return checkCommon(0, message.getDependencyHash(), message.hasHashedDependencies(),
+                message.isRecovering(), message);
     }
 
     int offer(CompleteTransactionResponseMessage message)
     {
-        return checkCommon(0, message.isRecovering(), null, message);
+        return checkCommon(0, message.isRecovering(), message);
     }
 
     int offer(DummyTransactionResponseMessage message)
     {
-        return checkCommon(0, false, null, message);
+        return checkCommon(0, false, message);
     }
 
     VoltMessage getLastResponse()
@@ -127,6 +127,11 @@ public class FragmentTask extends TransactionTask
                                                        "partition", Integer.toString(siteConnection.getCorrespondingPartitionId())));
         }
 
+        // More work for a transaction that was thought to be done, take back what ran behind it
+        if (TransactionTaskQueue.SPECULATIVE_EXECUTION && m_queue != null) {
+            m_queue.abortSpeculation(siteConnection, getTxnId());
+        }
+
         // if this has a procedure name from the initiation bundled,
         // inform the site connection here
         String procName = m_fragmentMsg.getProcedureName();
@@ -161,6 +166,12 @@ public class FragmentTask extends TransactionTask
 
         completeFragment();
 
+        // Nothing left to do here but wait for the outcome, let the single parts behind run meanwhile
+        if (m_fragmentMsg.isFinalTask() && !m_txnState.isReadOnly() &&
+                m_queue != null && m_queue.canSpeculate(siteConnection)) {
+            m_queue.speculate(this, siteConnection.getLatestUndoToken() + 1);
+        }
+
         if (hostLog.isDebugEnabled()) {
             hostLog.debug("COMPLETE: " + this);
         }
@@ -305,6 +305,10 @@ public class InitiatorMailbox implements Mailbox
         }
         else if (message instanceof RepairLogTruncationMessage) {
             m_repairLog.deliver(message);
+            // Replicas serving SAFE_REPLICA reads release them as the leader's handle advances
+            if (canDeliver) {
+                m_scheduler.deliver(message);
+            }
             return;
         }
         m_repairLog.deliver(message);
@@ -20,6 +20,8 @@ package org.voltdb.iv2;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.zookeeper_voltpatches.KeeperException;
 import org.apache.zookeeper_voltpatches.ZooKeeper;
@@ -34,6 +36,7 @@ import org.voltdb.ProducerDRGateway;
 import org.voltdb.Promotable;
 import org.voltdb.StartAction;
 import org.voltdb.StatsAgent;
+import org.voltdb.StatsSelector;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltZK;
 import org.voltdb.iv2.RepairAlgo.RepairResult;
@@ -49,6 +52,10 @@ public class MpInitiator extends BaseInitiator implements Promotable
 {
     public static final int MP_INIT_PID = TxnEgo.PARTITIONID_MAX_VALUE;
 
+    // How often idle MP read sites are looked for between transaction completions
+    private static final long SITE_POOL_TRIM_INTERVAL_SECONDS = 10;
+    private ScheduledFuture<?> m_sitePoolTrim = null;
+
     public MpInitiator(HostMessenger messenger, List<Long> buddyHSIds, StatsAgent agent)
     {
         super(VoltZK.iv2mpi,
@@ -57,7 +64,7 @@ public class MpInitiator extends BaseInitiator implements Promotable
                 new MpScheduler(
                     MP_INIT_PID,
                     buddyHSIds,
-                    new SiteTaskerQueue()),
+                    SiteTaskerQueue.create()),
                 "MP",
                 agent,
                 StartAction.CREATE /* never for rejoin */);
@@ -85,7 +92,7 @@ public class MpInitiator extends BaseInitiator implements Promotable
         super.configureCommon(backend, catalogContext, serializedCatalog,
                 csp, numberOfPartitions, startAction, null, null, cl, coreBindIds, false);
         // Hacky
-        MpScheduler sched = (MpScheduler)m_scheduler;
+        final MpScheduler sched = (MpScheduler)m_scheduler;
         MpRoSitePool sitePool = new MpRoSitePool(m_initiatorMailbox.getHSId(),
                 backend,
                 catalogContext,
@@ -93,6 +100,16 @@ public class MpInitiator extends BaseInitiator implements Promotable
                 m_initiatorMailbox,
                 csp);
         sched.setMpRoSitePool(sitePool);
+        agent.registerStatsSource(StatsSelector.MPREADPOOL,
+                getInitiatorHSId(),
+                new MpRoSitePoolStats(getInitiatorHSId(), sitePool));
+        m_sitePoolTrim = VoltDB.instance().scheduleWork(new Runnable() {
+                @Override
+                public void run()
+                {
+                    sched.trimMpRoSitePool();
+                }
+            }, SITE_POOL_TRIM_INTERVAL_SECONDS, SITE_POOL_TRIM_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
         // add ourselves to the ephemeral node list which BabySitters will watch for this
         // partition
@@ -101,6 +118,15 @@ public class MpInitiator extends BaseInitiator implements Promotable
                 Long.toString(getInitiatorHSId()), null);
     }
 
+    @Override
+    public void shutdown()
+    {
+        if (m_sitePoolTrim != null) {
+            m_sitePoolTrim.cancel(false);
+        }
+        super.shutdown();
+    }
+
     @Override
     public void initDRGateway(StartAction startAction, ProducerDRGateway nodeDRGateway, boolean createMpDRGateway)
     {
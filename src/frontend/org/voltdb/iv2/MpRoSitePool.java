@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
@@ -36,12 +37,19 @@ import org.voltdb.StarvationTracker;
  * Provide a pool of MP Read-only sites to do MP RO work.
  * This should be owned by the MpTransactionTaskQueue and expects all operations
  * to be done while holding its lock.
+ *
+ * The pool grows on demand up to its maximum size and shrinks back towards its
+ * minimum size by retiring sites that have been idle for longer than the idle
+ * timeout, so a burst of reads doesn't hold threads and EEs forever. Counters
+ * for the MPREADPOOL statistics are guarded by the pool's own monitor since the
+ * stats agent reads them without the queue lock.
  */
 class MpRoSitePool {
     final static VoltLogger tmLog = new VoltLogger("TM");
 
     static int DEFAULT_MAX_POOL_SIZE = 20;
     static int INITIAL_POOL_SIZE = 1;
+    static long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
 
     class MpRoSiteContext {
         final private SiteTaskerQueue m_queue;
@@ -49,6 +57,8 @@ class MpRoSitePool {
         final private CatalogContext m_catalogContext;
         final private LoadedProcedureSet m_loadedProcedures;
         final private Thread m_siteThread;
+        // When the site last went idle or started a transaction
+        private long m_lastTransition = System.nanoTime();
 
         MpRoSiteContext(long siteId, BackendTarget backend,
                 CatalogContext context, int partitionId,
@@ -56,7 +66,7 @@ class MpRoSitePool {
                 ThreadFactory threadFactory)
         {
             m_catalogContext = context;
-            m_queue = new SiteTaskerQueue();
+            m_queue = SiteTaskerQueue.create();
             // IZZY: Just need something non-null for now
             m_queue.setStarvationTracker(new StarvationTracker(siteId));
             m_site = new MpRoSite(m_queue, siteId, backend, m_catalogContext, partitionId);
@@ -93,7 +103,7 @@ class MpRoSitePool {
         }
     }
 
-    // Stack of idle MpRoSites
+    // Stack of idle MpRoSites, the one idle the longest is at the bottom
     private Deque<MpRoSiteContext> m_idleSites = new ArrayDeque<MpRoSiteContext>();
     // Active sites, hashed by the txnID they're working on
     private Map<Long, MpRoSiteContext> m_busySites = new HashMap<Long, MpRoSiteContext>();
@@ -107,6 +117,34 @@ class MpRoSitePool {
     private CatalogSpecificPlanner m_csp;
     private ThreadFactory m_poolThreadFactory;
     private final int m_poolSize;
+    private final int m_minPoolSize;
+    private final long m_idleTimeoutNanos;
+    private boolean m_shutdown = false;
+
+    /**
+     * Indexes of the values returned by {@link #getStats(boolean)}. The counters
+     * are reset by interval requests, the last three are current values.
+     */
+    enum StatsField {
+        SITES_CREATED,
+        SITES_RETIRED,
+        READS_STARTED,
+        REJECTIONS,
+        QUEUE_WAIT_NANOS,
+        MAX_QUEUE_WAIT_NANOS,
+        BUSY_NANOS,
+        // Site-nanoseconds the pool has held, integrated over its changing size
+        CAPACITY_NANOS,
+        POOL_SIZE,
+        BUSY_SITES,
+        MAX_POOL_SIZE
+    }
+
+    // Statistics, guarded by this
+    private final long[] m_stats = new long[StatsField.values().length];
+    private final long[] m_lastStats = new long[StatsField.values().length];
+    private long m_lastMaxQueueWaitNanos = 0;
+    private long m_lastSizeChange = System.nanoTime();
 
     MpRoSitePool(
             long siteId,
@@ -131,19 +169,57 @@ class MpRoSitePool {
             poolSize = DEFAULT_MAX_POOL_SIZE;
         }
         m_poolSize = poolSize;
-        tmLog.info("Setting maximum size of MPI read pool to: " + m_poolSize);
+        m_minPoolSize = Math.max(0, Math.min(m_poolSize,
+                    Integer.getInteger("mpiReadPoolMinSize", INITIAL_POOL_SIZE)));
+        m_idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.getLong("mpiReadPoolIdleTimeoutMs", DEFAULT_IDLE_TIMEOUT_MS));
+        tmLog.info("Setting size of MPI read pool to between " + m_minPoolSize + " and " + m_poolSize +
+                " sites, retiring sites idle for " + TimeUnit.NANOSECONDS.toMillis(m_idleTimeoutNanos) + " ms");
 
         // Construct the initial pool
-        for (int i = 0; i < INITIAL_POOL_SIZE; i++) {
-            m_idleSites.push(new MpRoSiteContext(m_siteId,
-                        m_backend,
-                        m_catalogContext,
-                        m_partitionId,
-                        m_initiatorMailbox,
-                        m_csp,
-                        m_poolThreadFactory));
+        for (int i = 0; i < m_minPoolSize; i++) {
+            m_idleSites.push(createSite());
+        }
+    }
+
+    private MpRoSiteContext createSite()
+    {
+        MpRoSiteContext site = new MpRoSiteContext(m_siteId,
+                m_backend,
+                m_catalogContext,
+                m_partitionId,
+                m_initiatorMailbox,
+                m_csp,
+                m_poolThreadFactory);
+        synchronized (this) {
+            m_stats[StatsField.SITES_CREATED.ordinal()]++;
+        }
+        sizeChanged(1);
+        return site;
+    }
+
+    private void retireSite(MpRoSiteContext site)
+    {
+        site.shutdown();
+        synchronized (this) {
+            m_stats[StatsField.SITES_RETIRED.ordinal()]++;
         }
+        sizeChanged(-1);
+    }
+
+    private synchronized void sizeChanged(int delta)
+    {
+        final long now = System.nanoTime();
+        m_stats[StatsField.CAPACITY_NANOS.ordinal()] +=
+            m_stats[StatsField.POOL_SIZE.ordinal()] * (now - m_lastSizeChange);
+        m_lastSizeChange = now;
+        m_stats[StatsField.POOL_SIZE.ordinal()] += delta;
+    }
 
+    private boolean isCurrent(MpRoSiteContext site)
+    {
+        return site.getCatalogCRC() == m_catalogContext.getCatalogCRC()
+            && site.getCatalogVersion() == m_catalogContext.catalogVersion;
     }
 
     /**
@@ -156,15 +232,21 @@ class MpRoSitePool {
         // Wipe out all the idle sites with stale catalogs.
         // Non-idle sites will get killed and replaced when they finish
         // whatever they started before the catalog update
+        int stale = 0;
         Iterator<MpRoSiteContext> siterator = m_idleSites.iterator();
         while (siterator.hasNext()) {
             MpRoSiteContext site = siterator.next();
-            if (site.getCatalogCRC() != m_catalogContext.getCatalogCRC()
-                    || site.getCatalogVersion() != m_catalogContext.catalogVersion) {
-                site.shutdown();
-                m_idleSites.remove(site);
+            if (!isCurrent(site)) {
+                siterator.remove();
+                retireSite(site);
+                stale++;
             }
         }
+        // Replace them now with sites that have the new procedures loaded, rather
+        // than making the first reads after the update wait for that
+        for (int i = 0; i < stale; i++) {
+            m_idleSites.addLast(createSite());
+        }
     }
 
     /**
@@ -219,21 +301,41 @@ class MpRoSitePool {
         }
         else {
             if (m_idleSites.isEmpty()) {
-                m_idleSites.push(new MpRoSiteContext(m_siteId,
-                            m_backend,
-                            m_catalogContext,
-                            m_partitionId,
-                            m_initiatorMailbox,
-                            m_csp,
-                            m_poolThreadFactory));
+                m_idleSites.push(createSite());
             }
             site = m_idleSites.pop();
             m_busySites.put(txnId, site);
+            site.m_lastTransition = System.nanoTime();
+            synchronized (this) {
+                m_stats[StatsField.READS_STARTED.ordinal()]++;
+                m_stats[StatsField.BUSY_SITES.ordinal()]++;
+            }
         }
         site.offer(task);
         return true;
     }
 
+    /**
+     * Record how long a read waited in the MPI backlog before it got a site.
+     */
+    synchronized void recordQueueWait(long waitNanos)
+    {
+        m_stats[StatsField.QUEUE_WAIT_NANOS.ordinal()] += waitNanos;
+        m_stats[StatsField.MAX_QUEUE_WAIT_NANOS.ordinal()] =
+            Math.max(m_stats[StatsField.MAX_QUEUE_WAIT_NANOS.ordinal()], waitNanos);
+        m_lastMaxQueueWaitNanos = Math.max(m_lastMaxQueueWaitNanos, waitNanos);
+    }
+
+    /**
+     * Record that the read at the head of the backlog is waiting because every site the pool
+     * may have is busy. Each read is recorded at most once, the reads queued behind it are
+     * recorded if they are still held up when they reach the head.
+     */
+    synchronized void recordRejection()
+    {
+        m_stats[StatsField.REJECTIONS.ordinal()]++;
+    }
+
     /**
      * Inform the pool that the work associated with the given txnID is complete
      */
@@ -243,20 +345,67 @@ class MpRoSitePool {
         if (site == null) {
             throw new RuntimeException("No busy site for txnID: " + txnId + " found, shouldn't happen.");
         }
+        final long now = System.nanoTime();
+        synchronized (this) {
+            m_stats[StatsField.BUSY_NANOS.ordinal()] += now - site.m_lastTransition;
+            m_stats[StatsField.BUSY_SITES.ordinal()]--;
+        }
+        site.m_lastTransition = now;
         // check the catalog versions, only push back onto idle if the catalog hasn't changed
         // otherwise, just let it get garbage collected and let doWork() construct new ones for the
         // pool with the updated catalog.
-        if (site.getCatalogCRC() == m_catalogContext.getCatalogCRC()
-                && site.getCatalogVersion() == m_catalogContext.catalogVersion) {
+        if (isCurrent(site)) {
             m_idleSites.push(site);
         }
         else {
-            site.shutdown();
+            retireSite(site);
+        }
+        trimIdleSites(now);
+    }
+
+    /**
+     * Retire sites that have been idle longer than the idle timeout, down to the minimum pool size.
+     */
+    void trimIdleSites(long now)
+    {
+        if (m_shutdown) {
+            return;
+        }
+        while (m_idleSites.size() + m_busySites.size() > m_minPoolSize) {
+            MpRoSiteContext oldest = m_idleSites.peekLast();
+            if (oldest == null || now - oldest.m_lastTransition < m_idleTimeoutNanos) {
+                break;
+            }
+            m_idleSites.pollLast();
+            retireSite(oldest);
+        }
+    }
+
+    /**
+     * @return the values indexed by {@link StatsField}, counted either since startup
+     * or since the last interval request
+     */
+    synchronized long[] getStats(boolean interval)
+    {
+        sizeChanged(0);
+        m_stats[StatsField.MAX_POOL_SIZE.ordinal()] = m_poolSize;
+        final long[] stats = m_stats.clone();
+        if (interval) {
+            for (StatsField field : StatsField.values()) {
+                if (field.ordinal() < StatsField.POOL_SIZE.ordinal()) {
+                    stats[field.ordinal()] -= m_lastStats[field.ordinal()];
+                }
+            }
+            stats[StatsField.MAX_QUEUE_WAIT_NANOS.ordinal()] = m_lastMaxQueueWaitNanos;
+            System.arraycopy(m_stats, 0, m_lastStats, 0, m_stats.length);
+            m_lastMaxQueueWaitNanos = 0;
         }
+        return stats;
     }
 
     void shutdown()
     {
+        m_shutdown = true;
         // Shutdown all, then join all, hopefully save some shutdown time for tests.
         for (MpRoSiteContext site : m_idleSites) {
             site.shutdown();
@@ -0,0 +1,107 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.voltdb.SiteStatsSource;
+import org.voltdb.VoltType;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.iv2.MpRoSitePool.StatsField;
+
+/**
+ * Reports how large the MPI's read-only site pool is, how busy its sites are,
+ * how long MP reads wait in the backlog for a site and how often they found
+ * the pool at its maximum size.
+ */
+class MpRoSitePoolStats extends SiteStatsSource {
+
+    private final MpRoSitePool m_pool;
+    private long[] m_stats;
+
+    MpRoSitePoolStats(long siteId, MpRoSitePool pool) {
+        super(siteId, false);
+        m_pool = pool;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("POOL_SIZE", VoltType.INTEGER));
+        columns.add(new ColumnInfo("BUSY_SITES", VoltType.INTEGER));
+        columns.add(new ColumnInfo("MAX_POOL_SIZE", VoltType.INTEGER));
+        columns.add(new ColumnInfo("UTILIZATION", VoltType.FLOAT));
+        columns.add(new ColumnInfo("READS_STARTED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_QUEUE_WAIT_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MAX_QUEUE_WAIT_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("REJECTIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("SITES_CREATED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("SITES_RETIRED", VoltType.BIGINT));
+    }
+
+    private long get(StatsField field) {
+        return m_stats[field.ordinal()];
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+        final long reads = get(StatsField.READS_STARTED);
+        final long capacity = get(StatsField.CAPACITY_NANOS);
+        rowValues[columnNameToIndex.get("POOL_SIZE")] = (int)get(StatsField.POOL_SIZE);
+        rowValues[columnNameToIndex.get("BUSY_SITES")] = (int)get(StatsField.BUSY_SITES);
+        rowValues[columnNameToIndex.get("MAX_POOL_SIZE")] = (int)get(StatsField.MAX_POOL_SIZE);
+        rowValues[columnNameToIndex.get("UTILIZATION")] =
+            capacity > 0 ? get(StatsField.BUSY_NANOS) / (capacity / 100.0) : 0.0;
+        rowValues[columnNameToIndex.get("READS_STARTED")] = reads;
+        rowValues[columnNameToIndex.get("AVG_QUEUE_WAIT_MICROS")] =
+            reads > 0 ? get(StatsField.QUEUE_WAIT_NANOS) / reads / 1000 : 0L;
+        rowValues[columnNameToIndex.get("MAX_QUEUE_WAIT_MICROS")] = get(StatsField.MAX_QUEUE_WAIT_NANOS) / 1000;
+        rowValues[columnNameToIndex.get("REJECTIONS")] = get(StatsField.REJECTIONS);
+        rowValues[columnNameToIndex.get("SITES_CREATED")] = get(StatsField.SITES_CREATED);
+        rowValues[columnNameToIndex.get("SITES_RETIRED")] = get(StatsField.SITES_RETIRED);
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(final boolean interval) {
+        m_stats = m_pool.getStats(interval);
+        return new Iterator<Object>() {
+            boolean returnRow = true;
+            @Override
+            public boolean hasNext() {
+                return returnRow;
+            }
+
+            @Override
+            public Object next() {
+                if (returnRow) {
+                    returnRow = false;
+                    return new Object();
+                } else {
+                    return null;
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -46,6 +46,11 @@ public class MpTransactionTaskQueue extends TransactionTaskQueue
     private final Map<Long, TransactionTask> m_currentWrites = new HashMap<Long, TransactionTask>();
     private final Map<Long, TransactionTask> m_currentReads = new HashMap<Long, TransactionTask>();
     private Deque<TransactionTask> m_backlog = new ArrayDeque<TransactionTask>();
+    // When each backlog task was offered, kept in step with m_backlog
+    private Deque<Long> m_backlogOfferTimes = new ArrayDeque<Long>();
+    // Last read counted as held up by a full site pool, so that it isn't counted again
+    // on every pass over the backlog while it waits
+    private long m_lastRejectedTxnId = Long.MIN_VALUE;
 
     private MpRoSitePool m_sitePool = null;
 
@@ -69,6 +74,11 @@ public class MpTransactionTaskQueue extends TransactionTaskQueue
         m_sitePool.updateSettings(context, csp);
     }
 
+    synchronized void trimSitePool()
+    {
+        m_sitePool.trimIdleSites(System.nanoTime());
+    }
+
     void shutdown()
     {
         if (m_sitePool != null) {
@@ -88,6 +98,7 @@ public class MpTransactionTaskQueue extends TransactionTaskQueue
     {
         Iv2Trace.logTransactionTaskQueueOffer(task);
         m_backlog.addLast(task);
+        m_backlogOfferTimes.addLast(System.nanoTime());
         taskQueueOffer();
         return true;
     }
@@ -189,6 +200,7 @@ public class MpTransactionTaskQueue extends TransactionTaskQueue
             if (!task.getTransactionState().isReadOnly()) {
                 if (m_currentReads.isEmpty() && m_currentWrites.isEmpty()) {
                     task = m_backlog.pollFirst();
+                    m_backlogOfferTimes.pollFirst();
                     m_currentWrites.put(task.getTxnId(), task);
                     taskQueueOffer(task);
                     retval = true;
@@ -200,6 +212,7 @@ public class MpTransactionTaskQueue extends TransactionTaskQueue
                 {
                     task = m_backlog.pollFirst();
                     assert(task.getTransactionState().isReadOnly());
+                    m_sitePool.recordQueueWait(System.nanoTime() - m_backlogOfferTimes.pollFirst());
                     m_currentReads.put(task.getTxnId(), task);
                     taskQueueOffer(task);
                     retval = true;
@@ -207,6 +220,12 @@ public class MpTransactionTaskQueue extends TransactionTaskQueue
                     // task will be null
                     task = m_backlog.peekFirst();
                 }
+                if (task != null && task.getTransactionState().isReadOnly() &&
+                        task.getTxnId() != m_lastRejectedTxnId) {
+                    // The read at the head is left waiting on a pool at its maximum size
+                    m_lastRejectedTxnId = task.getTxnId();
+                    m_sitePool.recordRejection();
+                }
             }
         }
         return retval;
@@ -17,6 +17,8 @@
 
 package org.voltdb.iv2;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -29,13 +31,17 @@ import java.util.List;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.messaging.VoltMessage;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltdb.TheHashinator;
+import org.voltdb.VoltDB;
 import org.voltdb.messaging.CompleteTransactionMessage;
 import org.voltdb.messaging.DumpMessage;
 import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
 import org.voltdb.messaging.Iv2RepairLogResponseMessage;
 import org.voltdb.messaging.RepairLogTruncationMessage;
+import org.voltdb.messaging.VoltDbMessageFactory;
 
 /**
  * The repair log stores messages received from a partition initiator (leader) in case
@@ -43,12 +49,28 @@ import org.voltdb.messaging.RepairLogTruncationMessage;
  * initiator (leader) shed its mortal coil.  This includes recording and sharing messages
  * starting and completing multipartition transactions so that a new MPI can repair the
  * cluster state on promotion.
+ *
+ * A log can keep its messages serialized in off-heap segments instead of on the heap,
+ * so that a replica falling behind doesn't grow the heap of the leader feeding it.
+ * Messages are only deserialized again when the log contents are requested for repair.
+ * The segments of a log are capped by REPAIR_LOG_MAX_OFF_HEAP_BYTES. A log that hits the cap
+ * belongs to a replica whose truncation point has stopped moving, and it crashes the node
+ * rather than exhausting direct memory.
  */
 public class RepairLog
 {
     private static final boolean IS_SP = true;
     private static final boolean IS_MP = false;
 
+    // Whether SP initiators keep their repair log off heap
+    static final boolean OFF_HEAP = Boolean.valueOf(System.getProperty("REPAIR_LOG_OFF_HEAP", "true"));
+    // Size of the off-heap segments, larger messages get a segment of their own
+    static final int SEGMENT_SIZE = Integer.getInteger("REPAIR_LOG_SEGMENT_SIZE", 256 * 1024);
+    // Most off-heap segment bytes a single log may allocate
+    static final long MAX_OFF_HEAP_BYTES = Long.getLong("REPAIR_LOG_MAX_OFF_HEAP_BYTES", 1024L * 1024 * 1024);
+
+    private static final VoltDbMessageFactory m_messageFactory = new VoltDbMessageFactory();
+
     VoltLogger tmLog = new VoltLogger("TM");
 
     // Initialize to Long MAX_VALUE to prevent feeding a newly joined node
@@ -118,12 +140,90 @@ public class RepairLog
         }
     }
 
+    // Off-heap buffer that serialized messages are appended to
+    private static class Segment
+    {
+        final BBContainer m_container;
+        int m_position = 0;
+        // freed once this drops to zero and the segment is no longer appended to
+        int m_liveItems = 0;
+
+        Segment(int capacity)
+        {
+            m_container = DBBPool.allocateDirect(capacity);
+        }
+
+        int capacity()
+        {
+            return m_container.b().capacity();
+        }
+    }
+
+    // An item whose message is serialized in a segment
+    static class StoredItem extends Item
+    {
+        final Segment m_segment;
+        final int m_offset;
+        final int m_length;
+        final long m_sourceHSId;
+
+        StoredItem(boolean type, long handle, long txnId, Segment segment, int offset, int length, long sourceHSId)
+        {
+            super(type, null, handle, txnId);
+            m_segment = segment;
+            m_offset = offset;
+            m_length = length;
+            m_sourceHSId = sourceHSId;
+        }
+
+        @Override
+        VoltMessage getMessage()
+        {
+            // Copy to the heap first, the message may outlive the segment
+            final ByteBuffer src = m_segment.m_container.bD();
+            src.limit(m_offset + m_length);
+            src.position(m_offset);
+            final ByteBuffer buf = ByteBuffer.allocate(m_length);
+            buf.put(src);
+            buf.flip();
+            try {
+                return m_messageFactory.createMessageFromBuffer(buf, m_sourceHSId);
+            } catch (IOException e) {
+                VoltDB.crashLocalVoltDB("Unable to deserialize a repair log message", true, e);
+                return null;
+            }
+        }
+    }
+
     // log storage.
     final Deque<Item> m_logSP;
     final Deque<Item> m_logMP;
 
+    // off-heap storage, only touched under the initiator mailbox lock
+    private boolean m_offHeap;
+    private final long m_maxOffHeapBytes;
+    private Segment m_segment = null;
+
+    // Read by the stats thread
+    private volatile int m_spDepth = 0;
+    private volatile int m_mpDepth = 0;
+    private volatile long m_storedBytes = 0;
+    private volatile long m_allocatedBytes = 0;
+
     RepairLog()
     {
+        this(false);
+    }
+
+    RepairLog(boolean offHeap)
+    {
+        this(offHeap, MAX_OFF_HEAP_BYTES);
+    }
+
+    RepairLog(boolean offHeap, long maxOffHeapBytes)
+    {
+        m_offHeap = offHeap;
+        m_maxOffHeapBytes = maxOffHeapBytes;
         m_logSP = new ArrayDeque<Item>();
         m_logMP = new ArrayDeque<Item>();
     }
@@ -161,7 +261,8 @@ public class RepairLog
 
             m_lastSpHandle = m.getSpHandle();
             truncate(m.getTruncationHandle(), IS_SP);
-            m_logSP.add(new Item(IS_SP, m, m.getSpHandle(), m.getTxnId()));
+            m_logSP.add(makeItem(IS_SP, m, m.getSpHandle(), m.getTxnId()));
+            m_spDepth = m_logSP.size();
         } else if (msg instanceof FragmentTaskMessage) {
             final FragmentTaskMessage m = (FragmentTaskMessage) msg;
 
@@ -173,7 +274,8 @@ public class RepairLog
             truncate(m.getTruncationHandle(), IS_MP);
             // only log the first fragment of a procedure (and handle 1st case)
             if (m.getTxnId() > m_lastMpHandle || m_lastMpHandle == Long.MAX_VALUE) {
-                m_logMP.add(new Item(IS_MP, m, m.getSpHandle(), m.getTxnId()));
+                m_logMP.add(makeItem(IS_MP, m, m.getSpHandle(), m.getTxnId()));
+                m_mpDepth = m_logMP.size();
                 m_lastMpHandle = m.getTxnId();
                 m_lastSpHandle = m.getSpHandle();
             }
@@ -189,7 +291,8 @@ public class RepairLog
             }
 
             truncate(ctm.getTruncationHandle(), IS_MP);
-            m_logMP.add(new Item(IS_MP, ctm, ctm.getSpHandle(), ctm.getTxnId()));
+            m_logMP.add(makeItem(IS_MP, ctm, ctm.getSpHandle(), ctm.getTxnId()));
+            m_mpDepth = m_logMP.size();
             //Restore will send a complete transaction message with a lower mp transaction id because
             //the restore transaction precedes the loading of the right mp transaction id from the snapshot
             //Hence Math.max
@@ -235,11 +338,121 @@ public class RepairLog
         RepairLog.Item item = null;
         while ((item = deq.peek()) != null) {
             if (item.canTruncate(handle)) {
-                deq.poll();
+                release(deq.poll());
             } else {
                 break;
             }
         }
+        m_spDepth = m_logSP.size();
+        m_mpDepth = m_logMP.size();
+    }
+
+    private Item makeItem(boolean type, VoltMessage msg, long handle, long txnId)
+    {
+        if (!m_offHeap) {
+            return new Item(type, msg, handle, txnId);
+        }
+
+        final int size;
+        final Segment segment;
+        final int offset;
+        try {
+            size = msg.getSerializedSize();
+            segment = segmentFor(size);
+            offset = segment.m_position;
+            // Messages check that they fill their buffer exactly
+            final ByteBuffer buf = segment.m_container.bD();
+            buf.limit(offset + size);
+            buf.position(offset);
+            msg.flattenToBuffer(buf.slice());
+        } catch (IOException e) {
+            // Keeping it on heap beats not being able to repair it
+            tmLog.warn("Unable to serialize " + msg + " into the repair log, keeping it on heap", e);
+            return new Item(type, msg, handle, txnId);
+        }
+        segment.m_position += size;
+        segment.m_liveItems++;
+        m_storedBytes += size;
+        return new StoredItem(type, handle, txnId, segment, offset, size, msg.m_sourceHSId);
+    }
+
+    private Segment segmentFor(int size)
+    {
+        if (m_segment != null && m_segment.m_liveItems == 0) {
+            // Everything in it was truncated, start over
+            m_segment.m_position = 0;
+        }
+        if (m_segment == null || m_segment.capacity() - m_segment.m_position < size) {
+            if (m_segment != null && m_segment.m_liveItems == 0) {
+                // Only happens when size is larger than the segment
+                discard(m_segment);
+            }
+            final int capacity = Math.max(SEGMENT_SIZE, size);
+            if (m_allocatedBytes + capacity > m_maxOffHeapBytes) {
+                // Blocking here would stall the partition and dropping messages would leave
+                // the log unable to repair, so take this replica out instead
+                VoltDB.crashLocalVoltDB("Repair log of " + CoreUtils.hsIdToString(m_HSId) + " holds "
+                        + m_logSP.size() + " SP and " + m_logMP.size() + " MP messages in "
+                        + m_allocatedBytes + " bytes of off-heap segments and would exceed "
+                        + "REPAIR_LOG_MAX_OFF_HEAP_BYTES (" + m_maxOffHeapBytes + "). "
+                        + "The log is not being truncated, the replica is not keeping up with its leader.",
+                        false, null);
+            }
+            m_segment = new Segment(capacity);
+            m_allocatedBytes += m_segment.capacity();
+        }
+        return m_segment;
+    }
+
+    private void release(Item item)
+    {
+        if (!(item instanceof StoredItem)) {
+            return;
+        }
+        final StoredItem stored = (StoredItem)item;
+        m_storedBytes -= stored.m_length;
+        if (--stored.m_segment.m_liveItems == 0 && stored.m_segment != m_segment) {
+            discard(stored.m_segment);
+        }
+    }
+
+    private void discard(Segment segment)
+    {
+        m_allocatedBytes -= segment.capacity();
+        segment.m_container.discard();
+    }
+
+    /**
+     * Free the off-heap segments. Anything delivered afterwards is kept on heap.
+     */
+    void shutdown()
+    {
+        if (!m_offHeap) {
+            return;
+        }
+        m_offHeap = false;
+        for (Item item : m_logSP) {
+            release(item);
+        }
+        for (Item item : m_logMP) {
+            release(item);
+        }
+        m_logSP.clear();
+        m_logMP.clear();
+        m_spDepth = 0;
+        m_mpDepth = 0;
+        if (m_segment != null) {
+            discard(m_segment);
+            m_segment = null;
+        }
+    }
+
+    /**
+     * @return SP items, MP items, bytes of messages held off heap and bytes of off-heap segments allocated
+     */
+    long[] getStats()
+    {
+        return new long[] { m_spDepth, m_mpDepth, m_storedBytes, m_allocatedBytes };
     }
 
     // return the last seen SP handle
@@ -0,0 +1,89 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.voltdb.SiteStatsSource;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltType;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Reports how many transactions the repair log of a partition replica holds and
+ * how much off-heap memory it takes up.
+ */
+class RepairLogStats extends SiteStatsSource {
+
+    private final int m_partitionId;
+    private final RepairLog m_repairLog;
+    private long[] m_stats;
+
+    RepairLogStats(long siteId, int partitionId, RepairLog repairLog) {
+        super(siteId, false);
+        m_partitionId = partitionId;
+        m_repairLog = repairLog;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo(VoltSystemProcedure.CNAME_PARTITION_ID, VoltSystemProcedure.CTYPE_ID));
+        columns.add(new ColumnInfo("SP_DEPTH", VoltType.INTEGER));
+        columns.add(new ColumnInfo("MP_DEPTH", VoltType.INTEGER));
+        columns.add(new ColumnInfo("BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("ALLOCATED_BYTES", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+        rowValues[columnNameToIndex.get(VoltSystemProcedure.CNAME_PARTITION_ID)] = m_partitionId;
+        rowValues[columnNameToIndex.get("SP_DEPTH")] = (int)m_stats[0];
+        rowValues[columnNameToIndex.get("MP_DEPTH")] = (int)m_stats[1];
+        rowValues[columnNameToIndex.get("BYTES")] = m_stats[2];
+        rowValues[columnNameToIndex.get("ALLOCATED_BYTES")] = m_stats[3];
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(final boolean interval) {
+        m_stats = m_repairLog.getStats();
+        return new Iterator<Object>() {
+            boolean returnRow = true;
+            @Override
+            public boolean hasNext() {
+                return returnRow;
+            }
+
+            @Override
+            public Object next() {
+                if (returnRow) {
+                    returnRow = false;
+                    return new Object();
+                } else {
+                    return null;
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.voltdb.SiteStatsSource;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltType;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Reports how many responses a partition replica sent to its leader with a hash
+ * in place of the result tables, and how many serialized result bytes that saved.
+ */
+class ReplicaResultStats extends SiteStatsSource {
+
+    private final int m_partitionId;
+    private final SpScheduler m_scheduler;
+    // Totals as of the last interval read
+    private long m_lastResponses = 0;
+    private long m_lastBytesSaved = 0;
+    private long m_responses;
+    private long m_bytesSaved;
+
+    ReplicaResultStats(long siteId, int partitionId, SpScheduler scheduler) {
+        super(siteId, false);
+        m_partitionId = partitionId;
+        m_scheduler = scheduler;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo(VoltSystemProcedure.CNAME_PARTITION_ID, VoltSystemProcedure.CTYPE_ID));
+        columns.add(new ColumnInfo("HASHED_RESPONSES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("RESULT_BYTES_SAVED", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+        rowValues[columnNameToIndex.get(VoltSystemProcedure.CNAME_PARTITION_ID)] = m_partitionId;
+        rowValues[columnNameToIndex.get("HASHED_RESPONSES")] = m_responses;
+        rowValues[columnNameToIndex.get("RESULT_BYTES_SAVED")] = m_bytesSaved;
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(final boolean interval) {
+        final long responses = m_scheduler.getReplicaHashedResponses();
+        final long bytesSaved = m_scheduler.getReplicaResultBytesSaved();
+        if (interval) {
+            m_responses = responses - m_lastResponses;
+            m_bytesSaved = bytesSaved - m_lastBytesSaved;
+            m_lastResponses = responses;
+            m_lastBytesSaved = bytesSaved;
+        } else {
+            m_responses = responses;
+            m_bytesSaved = bytesSaved;
+        }
+        return new Iterator<Object>() {
+            boolean returnRow = true;
+            @Override
+            public boolean hasNext() {
+                return returnRow;
+            }
+
+            @Override
+            public Object next() {
+                if (returnRow) {
+                    returnRow = false;
+                    return new Object();
+                } else {
+                    return null;
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,212 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.voltcore.utils.CoreUtils;
+
+/**
+ * SiteTaskerQueue backed by a pre-allocated multi-producer, single-consumer
+ * array ring, so offering a task doesn't allocate a queue node. Producers
+ * claim a slot by advancing the tail and publish it through the slot's
+ * sequence number. The site thread is the only consumer.
+ *
+ * Offers never fail. When the ring is full tasks spill into an overflow queue,
+ * and while the overflow holds anything every new task goes there too, which
+ * keeps the tasks of any one producer in order. The consumer drains the ring
+ * before the overflow.
+ *
+ * A site thread with nothing to do spins, then yields, then parks. How long it
+ * spins adapts to the starvation periods it sees: when tasks keep arriving
+ * within the spin window the window grows, when the thread keeps ending up
+ * parked it shrinks so an idle site doesn't burn a core.
+ */
+class RingSiteTaskerQueue extends SiteTaskerQueue
+{
+    private static final long MIN_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_SPIN_NANOS = Math.max(CoreUtils.QUEUE_SPIN_MICROSECONDS,
+            TimeUnit.MICROSECONDS.toNanos(Integer.getInteger("SITE_TASKER_MAX_SPIN_MICROS", 100)));
+
+    private final int m_mask;
+    private final AtomicReferenceArray<SiteTasker> m_slots;
+    // Slot i is free for position p when its sequence is p, and holds the task for p when it is p + 1
+    private final AtomicLongArray m_sequences;
+    private final AtomicLong m_tail = new AtomicLong();
+    // Only advanced by the consumer, atomic so isEmpty() can be called from elsewhere
+    private final AtomicLong m_head = new AtomicLong();
+    private final ConcurrentLinkedQueue<SiteTasker> m_overflow = new ConcurrentLinkedQueue<SiteTasker>();
+
+    // Consumer state
+    private volatile SiteTasker m_peeked = null;
+    private long m_spinNanos = MAX_SPIN_NANOS / 4;
+
+    private volatile Thread m_parked = null;
+
+    RingSiteTaskerQueue(int size)
+    {
+        this(size, false);
+    }
+
+    RingSiteTaskerQueue(int size, boolean priorityLanes)
+    {
+        super(null, priorityLanes);
+        final int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        m_mask = capacity - 1;
+        m_slots = new AtomicReferenceArray<SiteTasker>(capacity);
+        m_sequences = new AtomicLongArray(capacity);
+        for (int ii = 0; ii < capacity; ii++) {
+            m_sequences.set(ii, ii);
+        }
+    }
+
+    @Override
+    protected boolean offerOrdered(SiteTasker task)
+    {
+        if (!m_overflow.isEmpty() || !offerToRing(task)) {
+            m_overflow.offer(task);
+        }
+        final Thread parked = m_parked;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+        return true;
+    }
+
+    private boolean offerToRing(SiteTasker task)
+    {
+        for (;;) {
+            final long pos = m_tail.get();
+            final int index = (int)pos & m_mask;
+            final long diff = m_sequences.get(index) - pos;
+            if (diff == 0) {
+                if (m_tail.compareAndSet(pos, pos + 1)) {
+                    m_slots.lazySet(index, task);
+                    // A full volatile write, the check for a parked consumer must not be ordered before it
+                    m_sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // The consumer hasn't freed this slot from the previous lap
+                return false;
+            }
+            // Another producer claimed the position, retry at the new tail
+        }
+    }
+
+    private SiteTasker next()
+    {
+        final long pos = m_head.get();
+        final int index = (int)pos & m_mask;
+        if (m_sequences.get(index) == pos + 1) {
+            final SiteTasker task = m_slots.get(index);
+            m_slots.lazySet(index, null);
+            m_sequences.lazySet(index, pos + m_mask + 1);
+            m_head.lazySet(pos + 1);
+            return task;
+        }
+        // A producer claimed the head slot but hasn't filled it yet. Its task
+        // and everything behind it in the ring go before the overflow.
+        if (m_tail.get() != pos) {
+            return null;
+        }
+        return m_overflow.poll();
+    }
+
+    @Override
+    protected SiteTasker awaitOrdered() throws InterruptedException
+    {
+        final long spinUntil = System.nanoTime() + m_spinNanos;
+        final long yieldUntil = spinUntil + m_spinNanos;
+        for (;;) {
+            SiteTasker task = next();
+            if (task != null) {
+                return task;
+            }
+            final long now = System.nanoTime();
+            if (now - spinUntil < 0) {
+                continue;
+            }
+            if (now - yieldUntil < 0) {
+                Thread.yield();
+                continue;
+            }
+            // Check again once producers can see we are parked, or a wakeup could be missed
+            m_parked = Thread.currentThread();
+            task = next();
+            if (task == null) {
+                LockSupport.park(this);
+                task = next();
+            }
+            m_parked = null;
+            if (task != null) {
+                return task;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    protected void starvationEnded(long starvedNanos)
+    {
+        if (starvedNanos <= m_spinNanos) {
+            m_spinNanos = Math.min(m_spinNanos << 1, MAX_SPIN_NANOS);
+        } else if (starvedNanos > m_spinNanos << 1) {
+            m_spinNanos = Math.max(m_spinNanos >> 1, MIN_SPIN_NANOS);
+        }
+    }
+
+    long getSpinNanos()
+    {
+        return m_spinNanos;
+    }
+
+    @Override
+    protected SiteTasker pollOrdered()
+    {
+        SiteTasker task = m_peeked;
+        if (task != null) {
+            m_peeked = null;
+            return task;
+        }
+        return next();
+    }
+
+    // Removes the head from the ring so the following poll() returns the same task
+    @Override
+    protected SiteTasker peekOrdered()
+    {
+        if (m_peeked == null) {
+            m_peeked = next();
+        }
+        return m_peeked;
+    }
+
+    @Override
+    protected boolean isOrderedEmpty()
+    {
+        return m_peeked == null && m_tail.get() == m_head.get() && m_overflow.isEmpty();
+    }
+}
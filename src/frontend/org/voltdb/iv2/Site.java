@@ -20,6 +20,7 @@ package org.voltdb.iv2;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
@@ -60,6 +61,7 @@ import org.voltdb.SiteProcedureConnection;
 import org.voltdb.SiteSnapshotConnection;
 import org.voltdb.SnapshotDataTarget;
 import org.voltdb.SnapshotFormat;
+import org.voltdb.SnapshotProgressStats;
 import org.voltdb.SnapshotSiteProcessor;
 import org.voltdb.SnapshotTableTask;
 import org.voltdb.StartAction;
@@ -119,6 +121,12 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     private static final double m_taskLogReplayRatio =
             Double.valueOf(System.getProperty("TASKLOG_REPLAY_RATIO", "0.6"));
 
+    // Longest run of queued invocations of one procedure to execute as a single EE batch,
+    // see SpProcedureTask.runBatch(). Off when 1 or less. A batch shares one undo quantum,
+    // there are no undo boundaries between its invocations.
+    static final int SP_BATCH_SIZE =
+            Math.min(Integer.getInteger("SP_INVOCATION_BATCH_SIZE", 0), ProcedureRunner.MAX_BATCH_SIZE);
+
     // Set to false trigger shutdown.
     volatile boolean m_shouldContinue = true;
 
@@ -241,6 +249,35 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         return m_latestUndoToken;
     }
 
+    /**
+     * Run the task together with the invocations of the same procedure queued right behind it.
+     * @return the last task run
+     */
+    static SpProcedureTask runSpBatch(SiteProcedureConnection siteConnection, SiteTaskerQueue scheduler,
+            SpProcedureTask first, int maxBatchSize)
+    {
+        if (!first.isBatchable(siteConnection)) {
+            first.run(siteConnection);
+            return first;
+        }
+        final List<SpProcedureTask> batch = new ArrayList<SpProcedureTask>(maxBatchSize);
+        batch.add(first);
+        while (batch.size() < maxBatchSize) {
+            final SiteTasker next = scheduler.peek();
+            if (!(next instanceof SpProcedureTask) || !first.canBatchWith((SpProcedureTask)next)) {
+                break;
+            }
+            scheduler.poll();
+            batch.add((SpProcedureTask)next);
+        }
+        if (batch.size() == 1) {
+            first.run(siteConnection);
+        } else {
+            SpProcedureTask.runBatch(siteConnection, batch);
+        }
+        return batch.get(batch.size() - 1);
+    }
+
     // Advanced in complete transaction.
     long m_lastCommittedSpHandle = 0;
     long m_spHandleForSnapshotDigest = 0;
@@ -721,6 +758,11 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                 return (now - 5) > m_lastTxnTime;
             }
         });
+        if (m_tableStats != null) {
+            VoltDB.instance().getStatsAgent().registerStatsSource(StatsSelector.SNAPSHOTPROGRESS,
+                    m_siteId,
+                    new SnapshotProgressStats(m_siteId, m_partitionId, m_snapshotter));
+        }
     }
 
     /** Create a native VoltDB execution engine */
@@ -819,7 +861,12 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                         m_currentTxnId = ((TransactionTask)task).getTxnId();
                         m_lastTxnTime = EstTime.currentTimeMillis();
                     }
-                    task.run(getSiteProcedureConnection());
+                    if (SP_BATCH_SIZE > 1 && task instanceof SpProcedureTask) {
+                        m_currentTxnId = runSpBatch(getSiteProcedureConnection(), m_scheduler,
+                                (SpProcedureTask)task, SP_BATCH_SIZE).getTxnId();
+                    } else {
+                        task.run(getSiteProcedureConnection());
+                    }
                 } else if (m_rejoinState == kStateReplayingRejoin) {
                     // Rejoin operation poll and try to do some catchup work. Tasks
                     // are responsible for logging any rejoin work they might have.
@@ -1124,7 +1171,7 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
      * @param undoLog
      * @param undo
      */
-    private static void handleUndoLog(List<UndoAction> undoLog, boolean undo) {
+    static void handleUndoLog(List<UndoAction> undoLog, boolean undo) {
         if (undoLog == null) return;
 
         for (final ListIterator<UndoAction> iterator = undoLog.listIterator(undoLog.size()); iterator.hasPrevious();) {
@@ -1279,7 +1326,7 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
 
             // update table stats
             final VoltTable[] s1 =
-                m_ee.getStats(StatsSelector.TABLE, tableIds, false, time);
+                m_ee.getStatsShared(StatsSelector.TABLE, tableIds, false, time);
             if ((s1 != null) && (s1.length > 0)) {
                 VoltTable stats = s1[0];
                 assert(stats != null);
@@ -1301,7 +1348,7 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                 }
                 stats.resetRowPosition();
 
-                m_tableStats.setStatsTable(stats);
+                m_tableStats.setStatsTableFromSharedBuffer(stats);
             }
             else {
                 // the EE returned no table stats, which means there are no tables.
@@ -1311,7 +1358,7 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
 
             // update index stats
             final VoltTable[] s2 =
-                m_ee.getStats(StatsSelector.INDEX, tableIds, false, time);
+                m_ee.getStatsShared(StatsSelector.INDEX, tableIds, false, time);
             if ((s2 != null) && (s2.length > 0)) {
                 VoltTable stats = s2[0];
                 assert(stats != null);
@@ -1324,7 +1371,7 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                 }
                 stats.resetRowPosition();
 
-                m_indexStats.setStatsTable(stats);
+                m_indexStats.setStatsTableFromSharedBuffer(stats);
             }
             else {
                 // the EE returned no index stats, which means there are no indexes.
@@ -38,6 +38,17 @@ public abstract class SiteTasker {
         }
     }
 
+    // When this was last offered, only kept with priority lanes
+    long m_queuedNanos;
+
+    /**
+     * The SiteTaskerQueue lane this waits in when priority lanes are enabled.
+     * Anything that may depend on the order tasks were offered in stays in the ordered lane.
+     */
+    public SiteTaskerQueue.Lane getLane() {
+        return SiteTaskerQueue.Lane.ORDERED;
+    }
+
     /**
      * Run executes the task. Run is called on the ExecutionSite thread
      * and has exclusive access to the ee. Tasks are not preempted.
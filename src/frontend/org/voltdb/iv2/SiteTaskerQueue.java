@@ -17,54 +17,287 @@
 
 package org.voltdb.iv2;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.HdrHistogram_voltpatches.Histogram;
+import org.HdrHistogram_voltpatches.Recorder;
 import org.voltcore.utils.CoreUtils;
 import org.voltdb.StarvationTracker;
+import org.voltdb.dtxn.LatencyStats;
 
 /** SiteTaskerScheduler orders SiteTaskers for execution. */
 public class SiteTaskerQueue
 {
-    private final LinkedTransferQueue<SiteTasker> m_tasks = new LinkedTransferQueue<SiteTasker>();
-    private StarvationTracker m_starvationTracker;
+    /*
+     * When positive the site queues are backed by a pre-allocated ring of this
+     * many slots (rounded up to a power of two) instead of a linked queue.
+     */
+    static final int RING_SIZE = Integer.getInteger("SITE_TASKER_RING_SIZE", 0);
+
+    /*
+     * When set, tasks that don't have to run in the order they were offered
+     * wait in lanes of their own, see Lane, and the time tasks spend queued is
+     * recorded per lane.
+     */
+    static final boolean PRIORITY_LANES = Boolean.getBoolean("SITE_TASKER_PRIORITY_LANES");
+    // Longest a bulk task waits behind ordered tasks before it goes first
+    static final long BULK_MAX_DELAY_NANOS =
+            TimeUnit.MICROSECONDS.toNanos(Long.getLong("SITE_TASKER_BULK_MAX_DELAY_MICROS", 10000));
+
+    /**
+     * Transactions have to run in the order their spHandles were assigned, on the
+     * leader and the replicas alike, so they and any task that may depend on that
+     * order share the ordered lane. Only work that stands on its own is moved
+     * ahead of it or held back behind it.
+     */
+    public enum Lane {
+        // Housekeeping to get to promptly, like the tick
+        SYSTEM,
+        // Transactions and everything else that runs in the order offered
+        ORDERED,
+        // Background work that can wait for the transactions, like snapshot copying
+        BULK
+    }
+
+    // Offered to the ordered lane to wake up a site waiting on it when a task is added to another lane
+    private static final SiteTasker LANE_WAKEUP = new SiteTasker.SiteTaskerRunnable() {
+        @Override
+        void run() {}
+    };
+
+    private final LinkedTransferQueue<SiteTasker> m_tasks;
+    protected StarvationTracker m_starvationTracker;
+
+    // Only with priority lanes
+    private final ConcurrentLinkedQueue<SiteTasker> m_systemLane;
+    private final ConcurrentLinkedQueue<SiteTasker> m_bulkLane;
+    // Recorded by the site thread without locking, drained into the totals by whoever reads them
+    private final Recorder[] m_queueRecorders;
+    // Guarded by m_queueTimes, along with the drained interval histograms kept for reuse
+    private final AbstractHistogram[] m_queueTimes;
+    private final Histogram[] m_drainedQueueTimes;
+    private volatile SiteTasker m_peeked = null;
+
+    /**
+     * Create the queue implementation configured for this process.
+     */
+    public static SiteTaskerQueue create()
+    {
+        if (RING_SIZE > 0) {
+            return new RingSiteTaskerQueue(RING_SIZE, PRIORITY_LANES);
+        }
+        return new SiteTaskerQueue(PRIORITY_LANES);
+    }
+
+    public SiteTaskerQueue()
+    {
+        this(false);
+    }
+
+    public SiteTaskerQueue(boolean priorityLanes)
+    {
+        this(new LinkedTransferQueue<SiteTasker>(), priorityLanes);
+    }
+
+    // For subclasses that keep the tasks somewhere else
+    protected SiteTaskerQueue(LinkedTransferQueue<SiteTasker> tasks, boolean priorityLanes)
+    {
+        m_tasks = tasks;
+        if (priorityLanes) {
+            m_systemLane = new ConcurrentLinkedQueue<SiteTasker>();
+            m_bulkLane = new ConcurrentLinkedQueue<SiteTasker>();
+            m_queueRecorders = new Recorder[Lane.values().length];
+            m_queueTimes = new AbstractHistogram[Lane.values().length];
+            m_drainedQueueTimes = new Histogram[Lane.values().length];
+            for (int ii = 0; ii < m_queueTimes.length; ii++) {
+                m_queueTimes[ii] = LatencyStats.constructHistogram(false);
+                m_queueRecorders[ii] = new Recorder(m_queueTimes[ii].getHighestTrackableValue(),
+                        m_queueTimes[ii].getNumberOfSignificantValueDigits());
+            }
+        } else {
+            m_systemLane = null;
+            m_bulkLane = null;
+            m_queueRecorders = null;
+            m_queueTimes = null;
+            m_drainedQueueTimes = null;
+        }
+    }
+
+    boolean hasPriorityLanes()
+    {
+        return m_queueTimes != null;
+    }
 
     public boolean offer(SiteTasker task)
     {
-        return m_tasks.offer(task);
+        if (m_queueTimes != null) {
+            // Shared tasks like Scheduler.m_nullTask may be queued twice, their times are approximate
+            task.m_queuedNanos = System.nanoTime();
+            final Lane lane = task.getLane();
+            if (lane != Lane.ORDERED) {
+                (lane == Lane.SYSTEM ? m_systemLane : m_bulkLane).offer(task);
+                return offerOrdered(LANE_WAKEUP);
+            }
+        }
+        return offerOrdered(task);
     }
 
     // Block on the site tasker queue.
     public SiteTasker take() throws InterruptedException
     {
-        SiteTasker task = m_tasks.poll();
-        if (task == null) {
-            m_starvationTracker.beginStarvation();
-        } else {
+        SiteTasker task = poll();
+        if (task != null) {
             return task;
         }
+        m_starvationTracker.beginStarvation();
         try {
-            return CoreUtils.queueSpinTake(m_tasks);
+            for (;;) {
+                task = awaitOrdered();
+                if (m_queueTimes == null) {
+                    return task;
+                }
+                if (task == LANE_WAKEUP) {
+                    // The task that woke us up may have been taken already
+                    task = pollLanes();
+                }
+                if (task != null) {
+                    recordQueueTime(task);
+                    return task;
+                }
+            }
         } finally {
-            m_starvationTracker.endStarvation();
+            starvationEnded(m_starvationTracker.endStarvation());
         }
     }
 
     // Non-blocking poll on the site tasker queue.
     public SiteTasker poll()
     {
-        return m_tasks.poll();
+        if (m_queueTimes == null) {
+            return pollOrdered();
+        }
+        SiteTasker task = m_peeked;
+        if (task != null) {
+            m_peeked = null;
+            return task;
+        }
+        task = pollLanes();
+        if (task != null) {
+            recordQueueTime(task);
+        }
+        return task;
     }
 
     // Non-blocking peek on the site tasker queue.
     public SiteTasker peek()
     {
-        return m_tasks.peek();
+        if (m_queueTimes == null) {
+            return peekOrdered();
+        }
+        // Take the task out so the following poll() returns the same one
+        if (m_peeked == null) {
+            m_peeked = poll();
+        }
+        return m_peeked;
     }
 
     public boolean isEmpty() {
+        if (m_queueTimes == null) {
+            return isOrderedEmpty();
+        }
+        return m_peeked == null && m_systemLane.isEmpty() && m_bulkLane.isEmpty() && isOrderedEmpty();
+    }
+
+    /**
+     * System tasks go first, then bulk tasks that waited too long, then the ordered
+     * lane, and bulk tasks when there is nothing else to do.
+     */
+    private SiteTasker pollLanes()
+    {
+        for (;;) {
+            SiteTasker task = m_systemLane.poll();
+            if (task != null) {
+                return task;
+            }
+            task = m_bulkLane.peek();
+            if (task != null && System.nanoTime() - task.m_queuedNanos > BULK_MAX_DELAY_NANOS) {
+                return m_bulkLane.poll();
+            }
+            task = pollOrdered();
+            if (task == null) {
+                return m_bulkLane.poll();
+            }
+            if (task != LANE_WAKEUP) {
+                return task;
+            }
+        }
+    }
+
+    private void recordQueueTime(SiteTasker task)
+    {
+        final long micros = (System.nanoTime() - task.m_queuedNanos) / 1000;
+        m_queueRecorders[task.getLane().ordinal()].recordValue(
+                Math.min(Math.max(micros, 0), m_queueTimes[0].getHighestTrackableValue()));
+    }
+
+    /**
+     * @return a copy of the queue time histogram of the lane, in microseconds,
+     *         or null without priority lanes
+     */
+    AbstractHistogram getQueueTimes(Lane lane)
+    {
+        if (m_queueTimes == null) {
+            return null;
+        }
+        // Copying a histogram that is being recorded into gives inconsistent counts,
+        // add what was recorded since the last call to the totals and copy those
+        synchronized (m_queueTimes) {
+            final int ii = lane.ordinal();
+            m_drainedQueueTimes[ii] = m_queueRecorders[ii].getIntervalHistogram(m_drainedQueueTimes[ii]);
+            m_queueTimes[ii].add(m_drainedQueueTimes[ii]);
+            return m_queueTimes[ii].copy();
+        }
+    }
+
+    /*
+     * The ordered lane, which is the whole queue without priority lanes.
+     * Subclasses keeping the tasks somewhere else override all of these.
+     */
+
+    protected boolean offerOrdered(SiteTasker task)
+    {
+        return m_tasks.offer(task);
+    }
+
+    protected SiteTasker pollOrdered()
+    {
+        return m_tasks.poll();
+    }
+
+    protected SiteTasker peekOrdered()
+    {
+        return m_tasks.peek();
+    }
+
+    protected boolean isOrderedEmpty()
+    {
         return m_tasks.isEmpty();
     }
 
+    // Block until there is an ordered task, called with the starvation tracker started
+    protected SiteTasker awaitOrdered() throws InterruptedException
+    {
+        return CoreUtils.queueSpinTake(m_tasks);
+    }
+
+    // How long the site waited in take()
+    protected void starvationEnded(long starvedNanos)
+    {
+    }
+
     public void setStarvationTracker(StarvationTracker tracker) {
         m_starvationTracker = tracker;
     }
@@ -0,0 +1,111 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.voltdb.SiteStatsSource;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltType;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.iv2.SiteTaskerQueue.Lane;
+
+/**
+ * Reports, per priority lane of a site's task queue, how many tasks were taken
+ * from it and how long they were queued.
+ */
+class SiteTaskerQueueStats extends SiteStatsSource {
+
+    private final int m_partitionId;
+    private final SiteTaskerQueue m_queue;
+    // Totals as of the last interval read, per lane
+    private final AbstractHistogram[] m_lastTimes = new AbstractHistogram[Lane.values().length];
+    private final AbstractHistogram[] m_times = new AbstractHistogram[Lane.values().length];
+
+    SiteTaskerQueueStats(long siteId, int partitionId, SiteTaskerQueue queue) {
+        super(siteId, false);
+        m_partitionId = partitionId;
+        m_queue = queue;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo(VoltSystemProcedure.CNAME_PARTITION_ID, VoltSystemProcedure.CTYPE_ID));
+        columns.add(new ColumnInfo("LANE", VoltType.STRING));
+        columns.add(new ColumnInfo("TASKS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_QUEUE_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P50_QUEUE_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P99_QUEUE_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MAX_QUEUE_MICROS", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+        final Lane lane = (Lane)rowKey;
+        final AbstractHistogram times = m_times[lane.ordinal()];
+        final long tasks = times.getTotalCount();
+        rowValues[columnNameToIndex.get(VoltSystemProcedure.CNAME_PARTITION_ID)] = m_partitionId;
+        rowValues[columnNameToIndex.get("LANE")] = lane.name();
+        rowValues[columnNameToIndex.get("TASKS")] = tasks;
+        rowValues[columnNameToIndex.get("AVG_QUEUE_MICROS")] = tasks > 0 ? (long)times.getMean() : 0L;
+        rowValues[columnNameToIndex.get("P50_QUEUE_MICROS")] = tasks > 0 ? times.getValueAtPercentile(50.0) : 0L;
+        rowValues[columnNameToIndex.get("P99_QUEUE_MICROS")] = tasks > 0 ? times.getValueAtPercentile(99.0) : 0L;
+        rowValues[columnNameToIndex.get("MAX_QUEUE_MICROS")] = tasks > 0 ? times.getMaxValue() : 0L;
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(final boolean interval) {
+        for (Lane lane : Lane.values()) {
+            final AbstractHistogram total = m_queue.getQueueTimes(lane);
+            final AbstractHistogram times = total.copy();
+            final AbstractHistogram last = m_lastTimes[lane.ordinal()];
+            if (interval) {
+                if (last != null) {
+                    times.subtract(last);
+                }
+                m_lastTimes[lane.ordinal()] = total;
+            }
+            m_times[lane.ordinal()] = times;
+        }
+        return new Iterator<Object>() {
+            int m_lane = 0;
+            @Override
+            public boolean hasNext() {
+                return m_lane < m_times.length;
+            }
+
+            @Override
+            public Object next() {
+                if (m_lane < m_times.length) {
+                    return Lane.values()[m_lane++];
+                } else {
+                    return null;
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
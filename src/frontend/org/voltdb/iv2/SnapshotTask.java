@@ -31,6 +31,13 @@ public class SnapshotTask extends SiteTasker
         siteConnection.doSnapshotWork();
     }
 
+    // Copy-on-write keeps the snapshot consistent whatever runs in between
+    @Override
+    public SiteTaskerQueue.Lane getLane()
+    {
+        return SiteTaskerQueue.Lane.BULK;
+    }
+
     @Override
     public void runForRejoin(SiteProcedureConnection siteConnection, TaskLog taskLog)
     throws IOException
@@ -35,6 +35,7 @@ import org.voltdb.Promotable;
 import org.voltdb.SnapshotCompletionMonitor;
 import org.voltdb.StartAction;
 import org.voltdb.StatsAgent;
+import org.voltdb.StatsSelector;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltZK;
 import org.voltdb.export.ExportManager;
@@ -76,10 +77,13 @@ public class SpInitiator extends BaseInitiator implements Promotable
             StartAction startAction)
     {
         super(VoltZK.iv2masters, messenger, partition,
-                new SpScheduler(partition, new SiteTaskerQueue(), snapMonitor),
+                new SpScheduler(partition, SiteTaskerQueue.create(), snapMonitor),
                 "SP", agent, startAction);
         m_leaderCache = new LeaderCache(messenger.getZK(), VoltZK.iv2appointees, m_leadersChangeHandler);
         m_tickProducer = new TickProducer(m_scheduler.m_tasks);
+        agent.registerStatsSource(StatsSelector.REPLICARESULTS,
+                                  getInitiatorHSId(),
+                                  new ReplicaResultStats(getInitiatorHSId(), partition, (SpScheduler)m_scheduler));
     }
 
     @Override
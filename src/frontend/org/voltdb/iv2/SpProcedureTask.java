@@ -18,6 +18,8 @@
 package org.voltdb.iv2;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.voltcore.logging.Level;
 import org.voltcore.messaging.Mailbox;
@@ -25,10 +27,12 @@ import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.LatencyWatchdog;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.PartitionDRGateway;
+import org.voltdb.ProcedureRunner;
 import org.voltdb.SiteProcedureConnection;
 import org.voltdb.VoltTable;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.BatchTimeoutOverrideType;
+import org.voltdb.dtxn.UndoAction;
 import org.voltdb.messaging.InitiateResponseMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
 import org.voltdb.rejoin.TaskLog;
@@ -51,12 +55,49 @@ public class SpProcedureTask extends ProcedureTask
         HOST_TRACE_ENABLED = hostLog.isTraceEnabled();
     }
 
+    // Set while this runs behind an uncommitted multi-part, see TransactionTaskQueue.speculate()
+    private boolean m_speculative = false;
+    private InitiateResponseMessage m_heldResponse = null;
+
     public SpProcedureTask(Mailbox initiator, String procName, TransactionTaskQueue queue,
                   Iv2InitiateTaskMessage msg)
     {
        super(initiator, procName, new SpTransactionState(msg), queue);
     }
 
+    void setSpeculative(boolean speculative)
+    {
+        m_speculative = speculative;
+        if (!speculative) {
+            // Running again from scratch
+            m_heldResponse = null;
+            m_txnState.setNeedsRollback(false);
+            m_txnState.setBeginUndoToken(Site.kInvalidUndoToken);
+        }
+    }
+
+    boolean hasRunSpeculatively()
+    {
+        return m_heldResponse != null;
+    }
+
+    /**
+     * The multi-part this ran speculatively behind is not going to commit. Its EE quanta are
+     * undone along with the other speculated tasks', undo what it did at the java level too.
+     */
+    void undoSpeculation()
+    {
+        assert(m_speculative && m_heldResponse != null);
+        final List<UndoAction> undoLog = m_txnState.getUndoLog();
+        if (undoLog != null) {
+            // A procedure that rolled itself back already ran its undo actions
+            if (!m_txnState.needsRollback()) {
+                Site.handleUndoLog(undoLog, true);
+            }
+            undoLog.clear();
+        }
+    }
+
     @Override
     protected void durabilityTraceEnd() {
         final VoltTrace.TraceEventBatch traceLog = VoltTrace.log(VoltTrace.Category.SPI);
@@ -84,7 +125,10 @@ public class SpProcedureTask extends ProcedureTask
         }
 
         if (!m_txnState.isReadOnly()) {
-            m_txnState.setBeginUndoToken(siteConnection.getLatestUndoToken());
+            // When speculating, the latest token belongs to the multi-part this runs behind
+            // and rolling this back must not undo it
+            m_txnState.setBeginUndoToken(m_speculative ?
+                    siteConnection.getLatestUndoToken() + 1 : siteConnection.getLatestUndoToken());
         }
 
         // cast up here .. ugly.
@@ -109,8 +153,26 @@ public class SpProcedureTask extends ProcedureTask
         if (!response.shouldCommit()) {
             m_txnState.setNeedsRollback(true);
         }
-        completeInitiateTask(siteConnection);
         response.m_sourceHSId = m_initiator.getHSId();
+        if (m_speculative) {
+            // A rollback only undoes this procedure's quanta. A commit is left to the multi-part,
+            // which releases these quanta with its own, and the response waits for it.
+            if (!m_txnState.isReadOnly() && m_txnState.needsRollback()) {
+                siteConnection.truncateUndoLog(true,
+                        m_txnState.getBeginUndoToken(),
+                        m_txnState.m_spHandle,
+                        m_txnState.getUndoLog());
+            }
+            m_heldResponse = response;
+            if (HOST_DEBUG_ENABLED) {
+                hostLog.debug("SPECULATED: " + this);
+            }
+            if (traceLog != null) {
+                traceLog.add(VoltTrace::endDuration);
+            }
+            return;
+        }
+        completeInitiateTask(siteConnection);
         m_initiator.deliver(response);
         if (EXEC_TRACE_ENABLED) {
             execLog.l7dlog( Level.TRACE, LogKeys.org_voltdb_ExecutionSite_SendingCompletedWUToDtxn.name(), null);
@@ -125,6 +187,124 @@ public class SpProcedureTask extends ProcedureTask
         logToDR(siteConnection.getDRGateway(), txnState, response);
     }
 
+    /**
+     * The multi-part this ran speculatively behind committed, finish up as run() would have.
+     */
+    void completeSpeculation(SiteProcedureConnection siteConnection)
+    {
+        assert(m_speculative && m_heldResponse != null);
+        if (!m_txnState.isReadOnly() && !m_txnState.needsRollback()) {
+            // The EE quanta were released with the multi-part's, releasing them again here
+            // would trip the EE, so only record the commit and release the java undo actions
+            siteConnection.truncateUndoLog(false,
+                    Site.kInvalidUndoToken,
+                    m_txnState.m_spHandle,
+                    null);
+            Site.handleUndoLog(m_txnState.getUndoLog(), false);
+        }
+        doCommonSPICompleteActions();
+        final InitiateResponseMessage response = m_heldResponse;
+        m_heldResponse = null;
+        m_speculative = false;
+        m_initiator.deliver(response);
+        if (HOST_DEBUG_ENABLED) {
+            hostLog.debug("COMPLETE: " + this);
+        }
+
+        logToDR(siteConnection.getDRGateway(), (SpTransactionState)m_txnState, response);
+    }
+
+    private boolean hasBatchTimeout()
+    {
+        return BatchTimeoutOverrideType.isUserSetTimeout(m_txnState.getInvocation().getBatchTimeout());
+    }
+
+    /**
+     * Whether this can start a batch of invocations of its procedure, see runBatch()
+     */
+    boolean isBatchable(SiteProcedureConnection siteConnection)
+    {
+        if (m_speculative || m_txnState.isReadOnly() || m_queue == null || hasBatchTimeout()) {
+            return false;
+        }
+        final ProcedureRunner runner = siteConnection.getProcedureRunner(m_procName);
+        return runner != null && runner.isBatchable() && m_queue.hasNoStreams(siteConnection);
+    }
+
+    /**
+     * Whether the next task can join a batch this one started
+     */
+    boolean canBatchWith(SpProcedureTask next)
+    {
+        return next.m_procName.equals(m_procName) && !next.m_speculative && !next.hasBatchTimeout();
+    }
+
+    /**
+     * Run consecutive invocations of one batchable procedure with a single call into the EE,
+     * see ProcedureRunner.callBatch(). Each transaction still completes and responds on its own.
+     * If the batch can't run as a whole the tasks run one at a time instead.
+     */
+    static void runBatch(SiteProcedureConnection siteConnection, List<SpProcedureTask> batch)
+    {
+        LatencyWatchdog.pet();
+
+        final SpProcedureTask last = batch.get(batch.size() - 1);
+        final ProcedureRunner runner = siteConnection.getProcedureRunner(last.m_procName);
+        List<Object[]> params = new ArrayList<Object[]>(batch.size());
+        for (SpProcedureTask task : batch) {
+            task.waitOnDurabilityBackpressureFuture();
+            if (params == null) {
+                continue;
+            }
+            try {
+                if (runner.checkPartition(task.m_txnState, siteConnection.getCurrentHashinator())) {
+                    params.add(((SpTransactionState)task.m_txnState).m_initiationMsg.getParameters());
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                // Corrupt parameters or a misrouted procedure, run() reports it
+            }
+            params = null;
+        }
+
+        final long beginUndoToken = siteConnection.getLatestUndoToken();
+        final ClientResponseImpl[] responses = params == null ? null :
+            runner.callBatch(params, last.getTxnId(), last.getSpHandle(), last.m_txnState.uniqueId);
+        if (responses == null) {
+            for (SpProcedureTask task : batch) {
+                task.run(siteConnection);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            // The quantum of the batch is released with the last transaction
+            batch.get(i).completeBatched(siteConnection, responses[i],
+                    batch.get(i) == last ? beginUndoToken : Site.kInvalidUndoToken);
+        }
+    }
+
+    private void completeBatched(SiteProcedureConnection siteConnection, ClientResponseImpl cr,
+            long beginUndoToken)
+    {
+        final SpTransactionState txnState = (SpTransactionState)m_txnState;
+        final InitiateResponseMessage response = new InitiateResponseMessage(txnState.m_initiationMsg);
+        response.setResults(cr);
+        m_txnState.setHash(cr.getHash());
+        m_txnState.storeResults(cr);
+        response.m_sourceHSId = m_initiator.getHSId();
+
+        m_txnState.setBeginUndoToken(beginUndoToken);
+        siteConnection.truncateUndoLog(false, beginUndoToken, m_txnState.m_spHandle, m_txnState.getUndoLog());
+        doCommonSPICompleteActions();
+        m_initiator.deliver(response);
+        if (HOST_DEBUG_ENABLED) {
+            hostLog.debug("COMPLETE: " + this);
+        }
+
+        logToDR(siteConnection.getDRGateway(), txnState, response);
+    }
+
     @Override
     public void runForRejoin(SiteProcedureConnection siteConnection, TaskLog taskLog)
     throws IOException
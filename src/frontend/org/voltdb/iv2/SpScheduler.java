@@ -30,6 +30,7 @@ import java.util.Queue;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.messaging.HostMessenger;
@@ -142,6 +143,10 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         new HashMap<Long, TransactionState>();
     private final Map<DuplicateCounterKey, DuplicateCounter> m_duplicateCounters =
         new TreeMap<DuplicateCounterKey, DuplicateCounter>();
+    // Responses this replica sent to the leader with a hash of the results, and the
+    // serialized result bytes that saved. Read by the REPLICARESULTS stats source.
+    private final AtomicLong m_replicaHashedResponses = new AtomicLong();
+    private final AtomicLong m_replicaResultBytesSaved = new AtomicLong();
     // MP fragment tasks or completion tasks pending durability
     private final Map<Long, Queue<TransactionTask>> m_mpsPendingDurability =
         new HashMap<Long, Queue<TransactionTask>>();
@@ -165,6 +170,8 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
     long m_lastSentTruncationHandle = Long.MIN_VALUE;
     // the max schedule transaction sphandle, multi-fragments mp txn counts one
     long m_maxScheduledTxnSpHandle = Long.MIN_VALUE;
+    // the latest truncation handle heard from the leader, used by replicas to release SAFE_REPLICA reads
+    long m_leaderTruncationHandle = Long.MIN_VALUE;
 
     SpScheduler(int partitionId, SiteTaskerQueue taskQueue, SnapshotCompletionMonitor snapMonitor)
     {
@@ -176,12 +183,13 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 
         // try to get the global default setting for read consistency, but fall back to SAFE
         m_defaultConsistencyReadLevel = VoltDB.Configuration.getDefaultReadConsistencyLevel();
-        if (m_defaultConsistencyReadLevel == ReadLevel.SAFE) {
+        if (m_defaultConsistencyReadLevel.isSafe()) {
             m_bufferedReadLog = new BufferedReadLog();
         }
         m_repairLogTruncationHandle = getCurrentTxnId();
         // initialized as current txn id in order to release the initial reads into the system
         m_maxScheduledTxnSpHandle = getCurrentTxnId();
+        m_leaderTruncationHandle = getCurrentTxnId();
     }
 
     @Override
@@ -406,6 +414,11 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         else if (message instanceof DummyTransactionResponseMessage) {
             handleDummyTransactionResponseMessage((DummyTransactionResponseMessage)message);
         }
+        else if (message instanceof RepairLogTruncationMessage) {
+            if (!m_isLeader) {
+                setLeaderTruncationHandle(((RepairLogTruncationMessage) message).getHandle());
+            }
+        }
         else {
             throw new RuntimeException("UNKNOWN MESSAGE TYPE, BOOM!");
         }
@@ -537,6 +550,8 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                             msg.isForReplay());
                 // Update the handle in the copy since the constructor doesn't set it
                 replmsg.setSpHandle(newSpHandle);
+                // Only the leader's results go back to the client
+                replmsg.setShouldReturnResultTables(false);
                 m_mailbox.send(m_sendToHSIds, replmsg);
 
                 DuplicateCounter counter = new DuplicateCounter(
@@ -551,6 +566,9 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         else {
             setMaxSeenTxnId(msg.getSpHandle());
             newSpHandle = msg.getSpHandle();
+            // Reads run here after this write, so they can't be released before it is acked everywhere
+            updateMaxScheduledTransactionSpHandle(newSpHandle);
+            setLeaderTruncationHandle(msg.getTruncationHandle());
 
             // Don't update the uniqueID if this is a run-everywhere txn, because it has an MPI unique ID.
             if (UniqueIdGenerator.getPartitionIdFromUniqueId(msg.getUniqueId()) == m_partitionId) {
@@ -743,11 +761,13 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                 return;
             }
 
-            if (m_defaultConsistencyReadLevel == ReadLevel.SAFE) {
-                // InvocationDispatcher routes SAFE reads to SPI only
-                assert(m_isLeader);
+            if (m_defaultConsistencyReadLevel.isSafe()) {
+                // InvocationDispatcher routes SAFE reads to SPI only, SAFE_REPLICA reads
+                // may run at a replica which only knows what the leader has told it
+                assert(m_isLeader || m_defaultConsistencyReadLevel == ReadLevel.SAFE_REPLICA);
                 assert(m_bufferedReadLog != null);
-                m_bufferedReadLog.offer(m_mailbox, message, m_repairLogTruncationHandle);
+                m_bufferedReadLog.offer(m_mailbox, message,
+                        m_isLeader ? m_repairLogTruncationHandle : m_leaderTruncationHandle);
                 return;
             }
         }
@@ -781,6 +801,9 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
             // this will be on SPI without k-safety or replica only with k-safety
             assert(!message.isReadOnly());
             setRepairLogTruncationHandle(spHandle);
+            if (message.shouldHashResultTables()) {
+                replicaResultHashed(message.hashResultTables());
+            }
             m_mailbox.send(message.getInitiatorHSId(), message);
         }
     }
@@ -896,6 +919,11 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                 FragmentTaskMessage replmsg =
                     new FragmentTaskMessage(m_mailbox.getHSId(),
                             m_mailbox.getHSId(), msg);
+                // Per-site sysprocs aggregate every replica's tables, everything else
+                // only needs the leader's dependencies
+                if (msg.getFragmentTaskType() != FragmentTaskMessage.SYS_PROC_PER_SITE) {
+                    replmsg.setShouldReturnResultTables(false);
+                }
                 m_mailbox.send(m_sendToHSIds,
                         replmsg);
                 DuplicateCounter counter;
@@ -924,6 +952,9 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         else {
             newSpHandle = msg.getSpHandle();
             setMaxSeenTxnId(newSpHandle);
+            if (!msg.isReadOnly() && m_outstandingTxns.get(msg.getTxnId()) == null) {
+                updateMaxScheduledTransactionSpHandle(newSpHandle);
+            }
         }
         Iv2Trace.logFragmentTaskMessage(message, m_mailbox.getHSId(), newSpHandle, false);
         doLocalFragmentOffer(msg);
@@ -1117,7 +1148,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 
         // No k-safety means no replica: read/write queries on master.
         // K-safety: read-only queries (on master) or write queries (on replica).
-        if (m_defaultConsistencyReadLevel == ReadLevel.SAFE && m_isLeader && m_sendToHSIds.length > 0
+        if (m_defaultConsistencyReadLevel.isSafe() && m_isLeader && m_sendToHSIds.length > 0
                 && message.getRespBufferable()
                 && (txn == null || txn.isReadOnly()) ) {
             // on k-safety leader with safe reads configuration: one shot reads + normal multi-fragments MP reads
@@ -1137,9 +1168,28 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                                                   "status", message.getStatusCode()));
         }
 
+        if (message.shouldHashDependencies()) {
+            replicaResultHashed(message.hashDependencies());
+        }
         m_mailbox.send(message.getDestinationSiteId(), message);
     }
 
+    private void replicaResultHashed(int bytesSaved)
+    {
+        m_replicaHashedResponses.incrementAndGet();
+        m_replicaResultBytesSaved.addAndGet(bytesSaved);
+    }
+
+    long getReplicaHashedResponses()
+    {
+        return m_replicaHashedResponses.get();
+    }
+
+    long getReplicaResultBytesSaved()
+    {
+        return m_replicaResultBytesSaved.get();
+    }
+
     private void handleCompleteTransactionMessage(CompleteTransactionMessage message)
     {
         CompleteTransactionMessage msg = message;
@@ -1292,6 +1342,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         hostLog.warn(who + ": outstanding txns: " + m_outstandingTxns.keySet() + " " +
                 TxnEgo.txnIdCollectionToString(m_outstandingTxns.keySet()));
         hostLog.warn(who + ": TransactionTaskQueue: " + m_pendingTasks.toString());
+        hostLog.warn(who + ": result bytes not sent to the leader: " + m_replicaResultBytesSaved.get());
         if (m_duplicateCounters.size() > 0) {
             hostLog.warn(who + ": duplicate counters: ");
             for (Entry<DuplicateCounterKey, DuplicateCounter> e : m_duplicateCounters.entrySet()) {
@@ -1465,16 +1516,17 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         m_replaySequencer.dump(m_mailbox.getHSId());
         tmLog.info(String.format("%s: %s", CoreUtils.hsIdToString(m_mailbox.getHSId()), m_pendingTasks));
 
-        if (m_defaultConsistencyReadLevel == ReadLevel.SAFE) {
+        if (m_defaultConsistencyReadLevel.isSafe()) {
             tmLog.info("[dump] current truncation handle: " + TxnEgo.txnIdToString(m_repairLogTruncationHandle) + " "
-                + (m_defaultConsistencyReadLevel == Consistency.ReadLevel.SAFE ? m_bufferedReadLog.toString() : ""));
+                + "leader truncation handle: " + TxnEgo.txnIdToString(m_leaderTruncationHandle) + " "
+                + m_bufferedReadLog.toString());
         }
     }
 
     // This is for test only
     public void setConsistentReadLevelForTestOnly(ReadLevel readLevel) {
         m_defaultConsistencyReadLevel = readLevel;
-        if (m_defaultConsistencyReadLevel == ReadLevel.SAFE) {
+        if (m_defaultConsistencyReadLevel.isSafe()) {
             m_bufferedReadLog = new BufferedReadLog();
         }
     }
@@ -1504,7 +1556,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
             if (! m_isLeader) {
                 return;
             }
-            if (m_defaultConsistencyReadLevel == ReadLevel.SAFE) {
+            if (m_defaultConsistencyReadLevel.isSafe()) {
                 m_bufferedReadLog.releaseBufferedReads(m_mailbox, m_repairLogTruncationHandle);
             }
             scheduleRepairLogTruncateMsg();
@@ -1518,6 +1570,21 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         }
     }
 
+    /**
+     * On a replica, the leader's truncation handle says every write up to it has been
+     * acked by all replicas, so SAFE_REPLICA reads that could only have seen those
+     * writes can be returned.
+     */
+    private void setLeaderTruncationHandle(long newHandle)
+    {
+        if (newHandle > m_leaderTruncationHandle) {
+            m_leaderTruncationHandle = newHandle;
+            if (m_defaultConsistencyReadLevel == ReadLevel.SAFE_REPLICA) {
+                m_bufferedReadLog.releaseBufferedReads(m_mailbox, m_leaderTruncationHandle);
+            }
+        }
+    }
+
     /**
      * Schedules a task to be run on the site to send the latest truncation
      * handle to the replicas. This should be called whenever the local
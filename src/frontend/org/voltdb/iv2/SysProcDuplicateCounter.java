@@ -101,7 +101,7 @@ public class SysProcDuplicateCounter extends DuplicateCounter
             tables.add(dep);
         }
 
-        return checkCommon(hash, message.isRecovering(), null, message);
+        return checkCommon(hash, message.isRecovering(), message);
     }
 
     @Override
@@ -55,6 +55,12 @@ public class TickProducer extends SiteTasker implements Runnable
         m_taskQueue.offer(this);
     }
 
+    @Override
+    public SiteTaskerQueue.Lane getLane()
+    {
+        return SiteTaskerQueue.Lane.SYSTEM;
+    }
+
     @Override
     public void run(final SiteProcedureConnection siteConnection)
     {
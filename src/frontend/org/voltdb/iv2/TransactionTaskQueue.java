@@ -18,10 +18,15 @@
 package org.voltdb.iv2;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltdb.SiteProcedureConnection;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
 import org.voltdb.dtxn.TransactionState;
 
 public class TransactionTaskQueue
@@ -37,6 +42,32 @@ public class TransactionTaskQueue
      */
     private Deque<TransactionTask> m_backlog = new ArrayDeque<TransactionTask>();
 
+    /*
+     * Single part procedures may run speculatively behind a multi-part write once its final
+     * fragment has executed here, instead of waiting for the CompleteTransactionMessage.
+     * They run in undo quanta of their own above the multi-part's, keep those quanta and their
+     * responses until the multi-part commits, and are rolled back and run again if it doesn't.
+     */
+    static final boolean SPECULATIVE_EXECUTION = Boolean.getBoolean("SPECULATIVE_SP_EXECUTION");
+
+    // The multi-part transaction at the head of the backlog that speculated tasks run behind
+    private long m_speculatingTxnId = Long.MIN_VALUE;
+    // Whether newly arriving single parts may still be speculated. Every speculated task has to
+    // be queued ahead of the next task for the multi-part, which commits, aborts or undoes them,
+    // so this is closed as soon as anything more for the multi-part is offered.
+    private boolean m_acceptingSpeculation = false;
+    // The last task offered to the site for the multi-part at the head of the backlog
+    private TransactionTask m_lastHeadTask = null;
+    // First undo token the speculated tasks could have used
+    private long m_speculationUndoToken = Site.kInvalidUndoToken;
+    private final List<SpProcedureTask> m_speculated = new ArrayList<SpProcedureTask>();
+    private long m_speculatedCount = 0;
+    private long m_replayedCount = 0;
+
+    // Only touched on the site thread
+    private Database m_checkedDatabase = null;
+    private boolean m_hasNoStreams = false;
+
     TransactionTaskQueue(SiteTaskerQueue queue)
     {
         m_taskQueue = queue;
@@ -63,10 +94,19 @@ public class TransactionTaskQueue
              */
             if (task.getTxnId() != m_backlog.getFirst().getTxnId())
             {
-                m_backlog.addLast(task);
-                retval = true;
+                if (m_acceptingSpeculation && m_speculatingTxnId == m_backlog.getFirst().getTxnId() &&
+                        m_backlog.size() == 1 && isSpeculable(task)) {
+                    offerSpeculatively((SpProcedureTask)task);
+                }
+                else {
+                    m_backlog.addLast(task);
+                    retval = true;
+                }
             }
             else {
+                // Single parts arriving from now on would run after this task
+                m_acceptingSpeculation = false;
+                m_lastHeadTask = task;
                 taskQueueOffer(task);
             }
         }
@@ -79,6 +119,7 @@ public class TransactionTaskQueue
              */
             if (!txnState.isSinglePartition()) {
                 m_backlog.addLast(task);
+                m_lastHeadTask = task;
                 retval = true;
             }
             taskQueueOffer(task);
@@ -120,6 +161,7 @@ public class TransactionTaskQueue
             return offered;
         }
         m_backlog.removeFirst();
+        m_lastHeadTask = null;
         Iterator<TransactionTask> iter = m_backlog.iterator();
         while (iter.hasNext()) {
             TransactionTask task = iter.next();
@@ -134,11 +176,13 @@ public class TransactionTaskQueue
             else {
                 // leave the mp fragment at the head of the backlog but
                 // iterate and take care of the kooky case explained above.
+                m_lastHeadTask = task;
                 while (iter.hasNext()) {
                     task = iter.next();
                     if (task.getTxnId() == lastQueuedTxnId) {
                         iter.remove();
                         taskQueueOffer(task);
+                        m_lastHeadTask = task;
                         ++offered;
                     }
                 }
@@ -148,6 +192,141 @@ public class TransactionTaskQueue
         return offered;
     }
 
+    /**
+     * Whether speculative execution is safe with the current catalog. Export and DR streams
+     * take a newer spHandle as the commit of the older one, so work run behind an uncommitted
+     * transaction could not be taken back out of them.
+     */
+    boolean canSpeculate(SiteProcedureConnection siteConnection)
+    {
+        return SPECULATIVE_EXECUTION && hasNoStreams(siteConnection);
+    }
+
+    /**
+     * Whether the current catalog has no export or DR streams, which track transactions by
+     * spHandle and undo token and so rule out running transactions in anything but one at a time.
+     */
+    boolean hasNoStreams(SiteProcedureConnection siteConnection)
+    {
+        final Database db = siteConnection.getSystemProcedureExecutionContext().getDatabase();
+        if (db != m_checkedDatabase) {
+            boolean noStreams = db.getConnectors().isEmpty();
+            for (Table t : db.getTables()) {
+                noStreams &= !t.getIsdred();
+            }
+            m_checkedDatabase = db;
+            m_hasNoStreams = noStreams;
+        }
+        return m_hasNoStreams;
+    }
+
+    private static boolean isSpeculable(TransactionTask task)
+    {
+        // System procedures may register java undo actions which can't be deferred
+        return task instanceof SpProcedureTask && !((SpProcedureTask)task).m_procName.startsWith("@");
+    }
+
+    private void offerSpeculatively(SpProcedureTask task)
+    {
+        task.setSpeculative(true);
+        m_speculated.add(task);
+        m_speculatedCount++;
+        taskQueueOffer(task);
+    }
+
+    /**
+     * Called once the final fragment of the multi-part at the head of the backlog has executed.
+     * Offers the single part procedures queued right behind it to run speculatively, and any
+     * that arrive until something more for the multi-part, usually its completion, is offered.
+     * Nothing is speculated if that has already happened, the tasks would be queued behind it.
+     * @param fragment   The final fragment of the multi-part, which has just run
+     * @param undoToken  The first undo token not used by the multi-part
+     * @return the number of tasks offered
+     */
+    synchronized int speculate(TransactionTask fragment, long undoToken)
+    {
+        final long txnId = fragment.getTxnId();
+        if (m_backlog.isEmpty() || m_backlog.getFirst().getTxnId() != txnId ||
+                m_lastHeadTask != fragment) {
+            return 0;
+        }
+        if (m_speculatingTxnId != txnId) {
+            m_speculatingTxnId = txnId;
+            m_speculationUndoToken = undoToken;
+        }
+        m_acceptingSpeculation = true;
+        int offered = 0;
+        Iterator<TransactionTask> iter = m_backlog.iterator();
+        iter.next();
+        while (iter.hasNext()) {
+            TransactionTask task = iter.next();
+            // Keep the order, nothing runs ahead of a task that has to wait
+            if (!isSpeculable(task)) {
+                break;
+            }
+            iter.remove();
+            offerSpeculatively((SpProcedureTask)task);
+            ++offered;
+        }
+        return offered;
+    }
+
+    /**
+     * The multi-part that speculated tasks ran behind committed. The quanta of the tasks were
+     * released with its own, the caller completes the returned tasks in order.
+     */
+    synchronized List<SpProcedureTask> commitSpeculation(long txnId)
+    {
+        if (m_speculatingTxnId != txnId) {
+            return new ArrayList<SpProcedureTask>();
+        }
+        m_speculatingTxnId = Long.MIN_VALUE;
+        m_acceptingSpeculation = false;
+        // Everything speculated was queued ahead of the completion, so it has all run
+        List<SpProcedureTask> speculated = new ArrayList<SpProcedureTask>(m_speculated);
+        m_speculated.clear();
+        return speculated;
+    }
+
+    /**
+     * The multi-part that speculated tasks ran behind is rolling back, restarting or has more
+     * work after all. Undo whatever the tasks did, without touching the multi-part's own work,
+     * and put them back in the backlog right behind it to run again.
+     */
+    void abortSpeculation(SiteProcedureConnection siteConnection, long txnId)
+    {
+        final long undoToken;
+        final long spHandle;
+        final List<SpProcedureTask> undone;
+        synchronized (this) {
+            if (m_speculatingTxnId != txnId) {
+                return;
+            }
+            m_speculatingTxnId = Long.MIN_VALUE;
+            m_acceptingSpeculation = false;
+            if (m_speculated.isEmpty()) {
+                return;
+            }
+            undoToken = m_speculationUndoToken;
+            spHandle = m_speculated.get(0).getSpHandle();
+            undone = new ArrayList<SpProcedureTask>(m_speculated);
+            TransactionTask head = m_backlog.removeFirst();
+            for (int ii = m_speculated.size() - 1; ii >= 0; ii--) {
+                // Speculated tasks are queued ahead of the task calling this, so they have all run
+                assert(m_speculated.get(ii).hasRunSpeculatively());
+                m_backlog.addFirst(m_speculated.get(ii));
+            }
+            m_backlog.addFirst(head);
+            m_replayedCount += m_speculated.size();
+            m_speculated.clear();
+        }
+        siteConnection.truncateUndoLog(true, undoToken, spHandle, null);
+        for (int ii = undone.size() - 1; ii >= 0; ii--) {
+            undone.get(ii).undoSpeculation();
+            undone.get(ii).setSpeculative(false);
+        }
+    }
+
     /**
      * Restart the current task at the head of the queue.  This will be called
      * instead of flush by the currently blocking MP transaction in the event a
@@ -155,6 +334,8 @@ public class TransactionTaskQueue
      */
     synchronized void restart()
     {
+        m_acceptingSpeculation = false;
+        m_lastHeadTask = m_backlog.getFirst();
         taskQueueOffer(m_backlog.getFirst());
     }
 
@@ -176,6 +357,13 @@ public class TransactionTaskQueue
         if (!m_backlog.isEmpty()) {
             sb.append("\tHEAD: ").append(m_backlog.getFirst());
         }
+        synchronized (this) {
+            if (m_speculatedCount > 0) {
+                sb.append("\tSPECULATING: ").append(m_speculated.size());
+                sb.append("\tSPECULATED: ").append(m_speculatedCount);
+                sb.append("\tREPLAYED: ").append(m_replayedCount);
+            }
+        }
         return sb.toString();
     }
 }
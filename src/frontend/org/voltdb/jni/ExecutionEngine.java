@@ -752,6 +752,21 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
             boolean interval,
             Long now);
 
+    /**
+     * Retrieve a set of statistics like {@link #getStats(StatsSelector, int[], boolean, Long)}
+     * without copying the results out of the buffer shared with the EE. The returned
+     * tables are only valid until the next call into the EE, so callers that hold on
+     * to a table must copy it first.
+     * @return Array of results tables backed by the shared result buffer.
+     */
+    public VoltTable[] getStatsShared(
+            StatsSelector selector,
+            int locators[],
+            boolean interval,
+            Long now) {
+        return getStats(selector, locators, interval, now);
+    }
+
     /**
      * Instruct the EE to start/stop its profiler.
      */
@@ -526,6 +526,31 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             final int locators[],
             final boolean interval,
             final Long now)
+    {
+        return getStats(selector, locators, interval, now, true);
+    }
+
+    /**
+     * Same as {@link #getStats(StatsSelector, int[], boolean, Long)} except the result
+     * tables are slices of the shared deserializer buffer and are overwritten by the
+     * next call into the EE.
+     */
+    @Override
+    public VoltTable[] getStatsShared(
+            final StatsSelector selector,
+            final int locators[],
+            final boolean interval,
+            final Long now)
+    {
+        return getStats(selector, locators, interval, now, false);
+    }
+
+    private VoltTable[] getStats(
+            final StatsSelector selector,
+            final int locators[],
+            final boolean interval,
+            final Long now,
+            final boolean copyResults)
     {
         //Clear is destructive, do it before the native call
         m_nextDeserializer.clear();
@@ -538,10 +563,16 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             m_nextDeserializer.readInt();//Ignore the length of the result tables
             final VoltTable results[] = new VoltTable[numResults];
             for (int ii = 0; ii < numResults; ii++) {
-                int len = m_nextDeserializer.readInt();
-                byte[] bufCopy = new byte[len];
-                m_nextDeserializer.readFully(bufCopy, 0, len);
-                results[ii] = PrivateVoltTableFactory.createVoltTableFromBuffer(ByteBuffer.wrap(bufCopy), true);
+                if (copyResults) {
+                    int len = m_nextDeserializer.readInt();
+                    byte[] bufCopy = new byte[len];
+                    m_nextDeserializer.readFully(bufCopy, 0, len);
+                    results[ii] = PrivateVoltTableFactory.createVoltTableFromBuffer(ByteBuffer.wrap(bufCopy), true);
+                }
+                else {
+                    // Slices the table out of the shared buffer and advances past it
+                    results[ii] = PrivateVoltTableFactory.createVoltTableFromSharedBuffer(m_nextDeserializer.buffer());
+                }
             }
             return results;
         } catch (final IOException ex) {
@@ -28,6 +28,7 @@ import org.voltdb.PrivateVoltTableFactory;
 import org.voltdb.VoltTable;
 import org.voltdb.exceptions.SerializableException;
 import org.voltdb.iv2.TxnEgo;
+import org.voltdb.utils.VoltTableUtil;
 
 /**
  * Message from an execution site which is participating in a transaction
@@ -62,6 +63,12 @@ public class FragmentResponseMessage extends VoltMessage {
     short m_dependencyCount = 0;
     ArrayList<DependencyPair> m_dependencies = new ArrayList<DependencyPair>();
     SerializableException m_exception;
+    // A replica's response to a replicated fragment only needs to carry a hash of
+    // its dependency tables, the leader forwards its own. Only whether it was
+    // hashed goes on the wire.
+    boolean m_hashDependencies = false;
+    boolean m_dependenciesHashed = false;
+    int m_dependencyHash = 0;
 
     /** Empty constructor for de-serialization */
     FragmentResponseMessage() {
@@ -74,6 +81,7 @@ public class FragmentResponseMessage extends VoltMessage {
         m_spHandle = task.getSpHandle();
         m_destinationHSId = task.getCoordinatorHSId();
         m_subject = Subject.DEFAULT.getId();
+        m_hashDependencies = !task.shouldReturnResultTables();
     }
 
     // IV2 hacky constructor
@@ -173,6 +181,51 @@ public class FragmentResponseMessage extends VoltMessage {
         return m_exception;
     }
 
+    public boolean shouldHashDependencies() {
+        return m_hashDependencies;
+    }
+
+    /**
+     * Replace the dependency tables with their hash.
+     * @return the number of serialized bytes no longer sent
+     */
+    public int hashDependencies() {
+        if (m_dependenciesHashed) {
+            return 0;
+        }
+        int saved = 0;
+        VoltTable[] tables = new VoltTable[m_dependencyCount];
+        for (int i = 0; i < m_dependencyCount; i++) {
+            tables[i] = getTableAtIndex(i);
+            if (tables[i] != null) {
+                saved += tables[i].getSerializedSize();
+            }
+        }
+        m_dependencyHash = VoltTableUtil.hashTables(tables);
+        m_dependencies.clear();
+        m_dependencyCount = 0;
+        m_dependenciesHashed = true;
+        return saved;
+    }
+
+    /**
+     * @return true if this response carries the hash of the dependency tables rather than the tables
+     */
+    public boolean hasHashedDependencies() {
+        return m_dependenciesHashed;
+    }
+
+    public int getDependencyHash() {
+        if (m_dependenciesHashed) {
+            return m_dependencyHash;
+        }
+        VoltTable[] tables = new VoltTable[m_dependencyCount];
+        for (int i = 0; i < m_dependencyCount; i++) {
+            tables[i] = getTableAtIndex(i);
+        }
+        return VoltTableUtil.hashTables(tables);
+    }
+
     @Override
     public int getSerializedSize()
     {
@@ -185,6 +238,8 @@ public class FragmentResponseMessage extends VoltMessage {
             + 1 // status byte
             + 1 // dirty flag
             + 1 // node recovering flag
+            + 1 // dependencies replaced by their hash
+            + (m_dependenciesHashed ? 4 : 0)
             + 2; // dependency count
 
         // one int per dependency ID and table length (0 = null)
@@ -220,6 +275,10 @@ public class FragmentResponseMessage extends VoltMessage {
         buf.put(m_status);
         buf.put((byte) (m_dirty ? 1 : 0));
         buf.put((byte) (m_recovering ? 1 : 0));
+        buf.put((byte) (m_dependenciesHashed ? 1 : 0));
+        if (m_dependenciesHashed) {
+            buf.putInt(m_dependencyHash);
+        }
         buf.putShort(m_dependencyCount);
         for (DependencyPair depPair : m_dependencies) {
             buf.putInt(depPair.depId);
@@ -252,6 +311,10 @@ public class FragmentResponseMessage extends VoltMessage {
         m_status = buf.get();
         m_dirty = buf.get() == 0 ? false : true;
         m_recovering = buf.get() == 0 ? false : true;
+        m_dependenciesHashed = buf.get() != 0;
+        if (m_dependenciesHashed) {
+            m_dependencyHash = buf.getInt();
+        }
         m_dependencyCount = buf.getShort();
         for (int i = 0; i < m_dependencyCount; i++) {
             int depId = buf.getInt();
@@ -298,6 +361,10 @@ public class FragmentResponseMessage extends VoltMessage {
         else
             sb.append("\n  NOT BUFFERABLE");
 
+        if (m_dependenciesHashed) {
+            sb.append("\n  DEPENDENCY HASH ").append(m_dependencyHash);
+        }
+
         for (int i = 0; i < m_dependencyCount; i++) {
             DependencyPair dep = m_dependencies.get(i);
             sb.append("\n  DEP ").append(dep.depId);
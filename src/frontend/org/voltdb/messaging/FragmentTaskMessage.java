@@ -152,6 +152,10 @@ public class FragmentTaskMessage extends TransactionInfoBaseMessage
     // If this flag = true, it means the current execution is being sampled.
     boolean m_perFragmentStatsRecording = false;
     boolean m_coordinatorTask = false;
+    // Cleared on the copies a partition leader sends its replicas, which then
+    // answer with a hash of their dependency tables instead of the tables.
+    // Not carried over by the copy constructor.
+    boolean m_shouldReturnResultTables = true;
 
     int m_inputDepCount = 0;
     Iv2InitiateTaskMessage m_initiateTask;
@@ -188,6 +192,14 @@ public class FragmentTaskMessage extends TransactionInfoBaseMessage
         return m_coordinatorTask;
     }
 
+    public void setShouldReturnResultTables(boolean shouldReturnResultTables) {
+        m_shouldReturnResultTables = shouldReturnResultTables;
+    }
+
+    public boolean shouldReturnResultTables() {
+        return m_shouldReturnResultTables;
+    }
+
     public int getCurrentBatchIndex() {
         return m_currentBatchIndex;
     }
@@ -648,10 +660,10 @@ public class FragmentTaskMessage extends TransactionInfoBaseMessage
             msgsize += m_procNameToLoad.length;
         }
 
-        // perFragmentStatsRecording and coordinatorTask.
+        // perFragmentStatsRecording, coordinatorTask and shouldReturnResultTables.
         // TODO: We could use only one byte and bitmasks to represent all the
         // boolean values used in this class, it can save a little bit space.
-        msgsize += 2;
+        msgsize += 3;
 
         // Fragment ID block (20 bytes per sha1-hash)
         msgsize += 20 * m_items.size();
@@ -783,6 +795,7 @@ public class FragmentTaskMessage extends TransactionInfoBaseMessage
         }
         buf.put(m_perFragmentStatsRecording ? (byte) 1 : (byte) 0);
         buf.put(m_coordinatorTask ? (byte) 1 : (byte) 0);
+        buf.put(m_shouldReturnResultTables ? (byte) 1 : (byte) 0);
 
         // Plan Hash block
         for (FragmentData item : m_items) {
@@ -916,6 +929,7 @@ public class FragmentTaskMessage extends TransactionInfoBaseMessage
         }
         m_perFragmentStatsRecording = buf.get() != 0;
         m_coordinatorTask = buf.get() != 0;
+        m_shouldReturnResultTables = buf.get() != 0;
 
         m_items = new ArrayList<FragmentData>(fragCount);
 
@@ -29,6 +29,7 @@ import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltTable;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.iv2.TxnEgo;
+import org.voltdb.utils.VoltTableUtil;
 
 /**
  * Message from an execution site to initiator with the final response for
@@ -52,6 +53,13 @@ public class InitiateResponseMessage extends VoltMessage {
     private StoredProcedureInvocation m_invocation;
     private Pair<Long, byte[]> m_currentHashinatorConfig;
 
+    // A replica's response to a replicated write only needs to carry a hash of its
+    // result tables, the leader answers the client with its own. Only whether it
+    // was hashed goes on the wire.
+    private boolean m_hashResultTables = false;
+    private boolean m_resultsHashed = false;
+    private int m_resultHash = 0;
+
     /** Empty constructor for de-serialization */
     public InitiateResponseMessage()
     {
@@ -94,6 +102,7 @@ public class InitiateResponseMessage extends VoltMessage {
         m_clientInterfaceHandle = task.getClientInterfaceHandle();
         m_connectionId = task.getConnectionId();
         m_readOnly = task.isReadOnly();
+        m_hashResultTables = !task.shouldReturnResultTables() && !task.isReadOnly();
     }
 
     /**
@@ -205,6 +214,49 @@ public class InitiateResponseMessage extends VoltMessage {
         return m_readOnly;
     }
 
+    public boolean shouldHashResultTables() {
+        return m_hashResultTables;
+    }
+
+    /**
+     * Replace the result tables with their hash. The client response is copied
+     * so anything else holding it keeps the tables.
+     * @return the number of serialized bytes no longer sent
+     */
+    public int hashResultTables() {
+        if (m_resultsHashed) {
+            return 0;
+        }
+        final VoltTable[] results = m_response.getResults();
+        int saved = 0;
+        for (VoltTable vt : results) {
+            saved += vt.getSerializedSize();
+        }
+        m_resultHash = VoltTableUtil.hashTables(results);
+        ClientResponseImpl hashed = new ClientResponseImpl(m_response.getStatus(),
+                m_response.getAppStatus(),
+                m_response.getAppStatusString(),
+                new VoltTable[0],
+                m_response.getStatusString(),
+                m_response.getClientHandle());
+        hashed.setHash(m_response.getHash());
+        hashed.setClusterRoundtrip(m_response.getClusterRoundtrip());
+        m_response = hashed;
+        m_resultsHashed = true;
+        return saved;
+    }
+
+    /**
+     * @return true if this response carries the hash of the result tables rather than the tables
+     */
+    public boolean hasHashedResults() {
+        return m_resultsHashed;
+    }
+
+    public int getResultHash() {
+        return m_resultsHashed ? m_resultHash : VoltTableUtil.hashTables(m_response.getResults());
+    }
+
     @Override
     public int getSerializedSize()
     {
@@ -218,6 +270,8 @@ public class InitiateResponseMessage extends VoltMessage {
             + 1 // read only
             + 1 // node recovering indication
             + 1 // mispartitioned invocation
+            + 1 // result tables replaced by their hash
+            + (m_resultsHashed ? 4 : 0)
             + m_response.getSerializedSize();
 
         if (m_mispartitioned) {
@@ -243,6 +297,10 @@ public class InitiateResponseMessage extends VoltMessage {
         buf.put((byte) (m_readOnly == true ? 1 : 0));
         buf.put((byte) (m_recovering == true ? 1 : 0));
         buf.put((byte) (m_mispartitioned == true ? 1 : 0));
+        buf.put((byte) (m_resultsHashed == true ? 1 : 0));
+        if (m_resultsHashed) {
+            buf.putInt(m_resultHash);
+        }
         m_response.flattenToBuffer(buf);
         if (m_mispartitioned) {
             buf.putLong(m_currentHashinatorConfig.getFirst());
@@ -266,6 +324,10 @@ public class InitiateResponseMessage extends VoltMessage {
         m_readOnly = buf.get() == 1;
         m_recovering = buf.get() == 1;
         m_mispartitioned = buf.get() == 1;
+        m_resultsHashed = buf.get() == 1;
+        if (m_resultsHashed) {
+            m_resultHash = buf.getInt();
+        }
         m_response = new ClientResponseImpl();
         m_response.initFromBuffer(buf);
         m_commit = (m_response.getStatus() == ClientResponseImpl.SUCCESS);
@@ -294,6 +356,9 @@ public class InitiateResponseMessage extends VoltMessage {
         sb.append("\n READ-ONLY: ").append(m_readOnly);
         sb.append("\n RECOVERING: ").append(m_recovering);
         sb.append("\n MISPARTITIONED: ").append(m_mispartitioned);
+        if (m_resultsHashed) {
+            sb.append("\n RESULT HASH: ").append(m_resultHash);
+        }
         if (m_commit)
             sb.append("\n  COMMIT");
         else
@@ -45,7 +45,7 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
     long m_connectionId;
     boolean m_isSinglePartition;
     //Flag to indicate the the replica applying the write transaction
-    //doesn't need to send back the result tables
+    //doesn't need to send back the result tables, only their hash
     boolean m_shouldReturnResultTables = true;
     StoredProcedureInvocation m_invocation;
 
@@ -104,6 +104,10 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
         return m_shouldReturnResultTables;
     }
 
+    public void setShouldReturnResultTables(boolean shouldReturnResultTables) {
+        m_shouldReturnResultTables = shouldReturnResultTables;
+    }
+
     public StoredProcedureInvocation getStoredProcedureInvocation() {
         return m_invocation;
     }
@@ -151,7 +155,7 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
         msgsize += 8; // m_clientInterfaceHandle
         msgsize += 8; // m_connectionId
         msgsize += 1; // is single partition flag
-        msgsize += 1; // should generate a response
+        msgsize += 1; // should return result tables
         msgsize += m_invocation.getSerializedSize();
         return msgsize;
     }
@@ -164,7 +168,7 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
         buf.putLong(m_clientInterfaceHandle);
         buf.putLong(m_connectionId);
         buf.put(m_isSinglePartition ? (byte) 1 : (byte) 0);
-        buf.put((byte)0);//Should never generate a response if we have to forward to a replica
+        buf.put(m_shouldReturnResultTables ? (byte) 1 : (byte) 0);
         m_invocation.flattenToBuffer(buf);
 
         assert(buf.capacity() == buf.position());
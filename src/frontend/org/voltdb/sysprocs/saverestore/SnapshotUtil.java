@@ -96,6 +96,9 @@ public class SnapshotUtil {
     public final static String HASH_EXTENSION = ".hash";
     public final static String COMPLETION_EXTENSION = ".finished";
 
+    // Chunks of a table file decompressed in parallel while validating
+    private static final int VALIDATE_READ_AHEAD_CHUNKS = Integer.getInteger("SNAPSHOT_VALIDATE_READ_AHEAD_CHUNKS", 8);
+
     public static final String JSON_PATH = "path";
     public static final String JSON_PATH_TYPE = "pathType";
     public static final String JSON_NONCE = "nonce";
@@ -863,7 +866,8 @@ public class SnapshotUtil {
                     }
                 } else {
                     HashSet<Integer> partitionIds = new HashSet<Integer>();
-                    TableSaveFile saveFile = new TableSaveFile(fis, 1, null, true);
+                    // Validation only checks chunks so order doesn't matter, decompress several at once
+                    TableSaveFile saveFile = new TableSaveFile(fis, VALIDATE_READ_AHEAD_CHUNKS, null, true, false);
                     try {
                         for (Integer partitionId : saveFile.getPartitionIds()) {
                             partitionIds.add(partitionId);
@@ -875,6 +879,10 @@ public class SnapshotUtil {
                                     cont.discard();
                                 }
                             }
+                            if (logger.isDebugEnabled()) {
+                                logger.debug(String.format("Validated %s, %d bytes at %.1f MB/s", f.getPath(),
+                                        saveFile.getBytesRead(), saveFile.getReadThroughputMBps()));
+                            }
                         }
                         partitionIds.removeAll(saveFile.getCorruptedPartitionIds());
                         String nonce = parseNonceFromSnapshotFilename(f.getName());
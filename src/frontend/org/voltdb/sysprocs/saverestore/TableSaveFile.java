@@ -28,6 +28,7 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.zip.Checksum;
@@ -98,12 +99,29 @@ public class TableSaveFile
         this(fis, readAheadChunks, relevantPartitionIds, false);
     }
 
+    public TableSaveFile(
+            FileInputStream fis,
+            int readAheadChunks,
+            Integer[] relevantPartitionIds,
+            boolean continueOnCorruptedChunk) throws IOException {
+        this(fis, readAheadChunks, relevantPartitionIds, continueOnCorruptedChunk, true);
+    }
+
+    /**
+     * @param readAheadChunks  Most chunks read ahead of the consumer. With more than one the
+     *                         chunks are checked and decompressed in parallel on the compression
+     *                         service while the file is read.
+     * @param inOrder          Whether chunks are returned in file order. Consumers that don't care,
+     *                         e.g. because they load chunks of different partitions independently,
+     *                         get each chunk as soon as it is decompressed.
+     */
     // XXX maybe consider an IOException subclass at some point
     public TableSaveFile(
             FileInputStream fis,
             int readAheadChunks,
             Integer[] relevantPartitionIds,
-            boolean continueOnCorruptedChunk) throws IOException
+            boolean continueOnCorruptedChunk,
+            boolean inOrder) throws IOException
             {
                 m_fd = fis.getFD();
                 FileChannel dataIn = fis.getChannel();
@@ -118,6 +136,8 @@ public class TableSaveFile
                 }
             }
             m_chunkReads = new Semaphore(readAheadChunks);
+            m_parallelDecompression = readAheadChunks > 1;
+            m_inOrder = inOrder;
             m_saveFile = dataIn;
             m_continueOnCorruptedChunk = continueOnCorruptedChunk;
 
@@ -402,6 +422,14 @@ public class TableSaveFile
         }
 
         synchronized (this) {
+            // Chunks still being decompressed end up in the available chunks
+            while (m_pendingChunks > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
             while (!m_availableChunks.isEmpty()) {
                 m_availableChunks.poll().discard();
             }
@@ -415,6 +443,29 @@ public class TableSaveFile
         while ((cont = m_buffers.poll()) != null) {
             cont.discard();
         }
+        while ((cont = m_inputBuffers.poll()) != null) {
+            cont.discard();
+        }
+    }
+
+    /**
+     * @return the number of bytes of chunks read from the file so far
+     */
+    public long getBytesRead() {
+        return m_bytesRead;
+    }
+
+    /**
+     * @return the rate chunks were read from the file at, in MB/s, from the first chunk
+     * requested until the end of the file, or until now if it hasn't been reached
+     */
+    public double getReadThroughputMBps() {
+        final long start = m_readStartNanos;
+        if (start == 0) {
+            return 0;
+        }
+        final long end = m_readEndNanos != 0 ? m_readEndNanos : System.nanoTime();
+        return (m_bytesRead / (1024.0 * 1024.0)) / (Math.max(1, end - start) / 1000000000.0);
     }
 
     public Set<Integer> getCorruptedPartitionIds() {
@@ -431,7 +482,7 @@ public class TableSaveFile
         if (m_chunkReaderException != null) {
             throw m_chunkReaderException;
         }
-        if (!m_hasMoreChunks) {
+        if (!m_hasMoreChunks && m_pendingChunks == 0) {
             final Container c = m_availableChunks.poll();
             return c;
         }
@@ -443,7 +494,10 @@ public class TableSaveFile
         }
 
         Container c = null;
-        while (c == null && (m_hasMoreChunks || !m_availableChunks.isEmpty())) {
+        while (c == null && (m_hasMoreChunks || m_pendingChunks > 0 || !m_availableChunks.isEmpty())) {
+            if (m_chunkReaderException != null) {
+                throw m_chunkReaderException;
+            }
             c = m_availableChunks.poll();
             if (c == null) {
                 try {
@@ -468,7 +522,65 @@ public class TableSaveFile
         if (m_chunkReaderException != null) {
             throw m_chunkReaderException;
         }
-        return m_hasMoreChunks || !m_availableChunks.isEmpty();
+        return m_hasMoreChunks || m_pendingChunks > 0 || !m_availableChunks.isEmpty();
+    }
+
+    /**
+     * Hand a chunk decompressed on the compression service to the consumers, in file order
+     * if required.
+     *
+     * @param c the chunk, null if it was skipped or failed
+     */
+    private synchronized void chunkDecompressed(PendingChunk pending, Container c, IOException failure) {
+        m_pendingChunks--;
+        if (failure != null) {
+            if (m_chunkReaderException == null) {
+                m_chunkReaderException = failure;
+            }
+            m_hasMoreChunks = false;
+        } else if (c == null) {
+            m_chunkReads.release();
+        }
+
+        if (m_inOrder) {
+            pending.m_chunk = c;
+            pending.m_done = true;
+            while (!m_pendingInOrder.isEmpty() && m_pendingInOrder.peek().m_done) {
+                final Container head = m_pendingInOrder.poll().m_chunk;
+                if (head != null) {
+                    m_availableChunks.offer(head);
+                }
+            }
+        } else if (c != null) {
+            m_availableChunks.offer(c);
+        }
+        notifyAll();
+    }
+
+    private synchronized void markPartitionCorrupted(int partitionId) {
+        m_corruptedPartitions.add(partitionId);
+    }
+
+    private synchronized void markAllPartitionsCorrupted() {
+        for (int partitionId : m_partitionIds) {
+            m_corruptedPartitions.add(partitionId);
+        }
+    }
+
+    private BBContainer getInputBuffer() {
+        final BBContainer c = m_inputBuffers.poll();
+        if (c != null) {
+            return c;
+        }
+        return DBBPool.allocateDirect(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
+    }
+
+    /**
+     * A chunk being decompressed, holds its place in file order
+     */
+    private static class PendingChunk {
+        Container m_chunk = null;
+        boolean m_done = false;
     }
 
     private final FileChannel m_saveFile;
@@ -487,9 +599,25 @@ public class TableSaveFile
     private final int m_totalPartitions;
     private final long m_txnId;
     private final long m_timestamp;
-    private boolean m_hasMoreChunks = true;
+    private volatile boolean m_hasMoreChunks = true;
     private ConcurrentLinkedQueue<BBContainer> m_buffers = new ConcurrentLinkedQueue<BBContainer>();
     private final ArrayDeque<Container> m_availableChunks = new ArrayDeque<Container>();
+
+    /*
+     * Compressed chunks are decompressed on the compression service when reading ahead
+     * more than one chunk. Each one in flight has its own input buffer.
+     */
+    private final boolean m_parallelDecompression;
+    private final boolean m_inOrder;
+    private final ConcurrentLinkedQueue<BBContainer> m_inputBuffers = new ConcurrentLinkedQueue<BBContainer>();
+    // Guarded by this
+    private int m_pendingChunks = 0;
+    private final ArrayDeque<PendingChunk> m_pendingInOrder = new ArrayDeque<PendingChunk>();
+
+    // Written by the chunk reader only
+    private volatile long m_bytesRead = 0;
+    private volatile long m_readStartNanos = 0;
+    private volatile long m_readEndNanos = 0;
     private final HashSet<Integer> m_relevantPartitionIds;
     private final ChecksumType m_checksumType;
 
@@ -530,10 +658,9 @@ public class TableSaveFile
          * that should be easier to understand and validate.
          */
         private void readChunksV2() {
-            //For reading the compressed input.
-            final BBContainer fileInputBufferC =
+            //For reading the compressed input, when decompressing in parallel each chunk in flight has its own
+            final BBContainer fileInputBufferC = m_parallelDecompression ? null :
                     DBBPool.allocateDirect(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
-            final ByteBuffer fileInputBuffer = fileInputBufferC.b();
             long sinceLastFAdvise = Long.MAX_VALUE;
             long positionAtLastFAdvise = 0;
             while (m_hasMoreChunks) {
@@ -579,10 +706,13 @@ public class TableSaveFile
                 try {
                     m_chunkReads.acquire();
                 } catch (InterruptedException e) {
-                    fileInputBufferC.discard();
+                    if (fileInputBufferC != null) {
+                        fileInputBufferC.discard();
+                    }
                     return;
                 }
                 boolean expectedAnotherChunk = false;
+                BBContainer inputC = null;
                 Container c = null;
                 try {
 
@@ -616,9 +746,7 @@ public class TableSaveFile
                     int generatedValue = (int)partitionIdCRC.getValue();
                     if (generatedValue != nextChunkPartitionIdCRC) {
                         chunkLengthB.position(0);
-                        for (int partitionId : m_partitionIds) {
-                            m_corruptedPartitions.add(partitionId);
-                        }
+                        markAllPartitionsCorrupted();
                         throw new IOException("Chunk partition ID CRC check failed. " +
                                 "This corrupts all partitions in this file");
                     }
@@ -628,6 +756,9 @@ public class TableSaveFile
                      */
                     final int nextChunkCRC = chunkLengthB.getInt(12);
 
+                    inputC = fileInputBufferC != null ? fileInputBufferC : getInputBuffer();
+                    final ByteBuffer fileInputBuffer = inputC.b();
+
                     /*
                      * Sanity check the length value to ensure there isn't
                      * a runtime exception or OOM.
@@ -642,10 +773,8 @@ public class TableSaveFile
                     }
 
                     /*
-                     * Go fetch the compressed data so that the uncompressed size is known
-                     * and use that to set nextChunkLength to be the uncompressed length,
-                     * the code ahead that constructs the volt table is expecting
-                     * the uncompressed size/data since it is producing an uncompressed table
+                     * Go fetch the compressed data, it is checked and decompressed by
+                     * decompressChunkV2, either right here or on the compression service.
                      */
                     fileInputBuffer.clear();
                     fileInputBuffer.limit(nextChunkLength);
@@ -657,84 +786,20 @@ public class TableSaveFile
                         sinceLastFAdvise += read;
                     }
                     fileInputBuffer.flip();
-                    nextChunkLength = CompressionService.uncompressedLength(fileInputBuffer);
-
-                    /*
-                     * Validate the rest of the chunk. This can fail if the data is corrupted
-                     * or the length value was corrupted.
-                     */
-                    final int calculatedCRC =
-                            DBBPool.getBufferCRC32C(fileInputBuffer, 0, fileInputBuffer.remaining());
-                    if (calculatedCRC != nextChunkCRC) {
-                        m_corruptedPartitions.add(nextChunkPartitionId);
-                        if (m_continueOnCorruptedChunk) {
-                            m_chunkReads.release();
-                            continue;
-                        } else {
-                            throw new IOException("CRC mismatch in saved table chunk");
-                        }
-                    }
-
-                    /*
-                     * Now allocate space to store the chunk using the VoltTable serialization representation.
-                     * The chunk will contain an integer row count preceding it so it can
-                     * be sucked straight in. There is a little funny business to overwrite the
-                     * partition id that is not part of the serialization format
-                     */
-                    c = getOutputBuffer(nextChunkPartitionId);
+                    m_bytesRead += chunkLengthB.capacity() + nextChunkLength;
 
-                    /*
-                     * If the length value is wrong or not all data made it to disk this read will
-                     * not complete correctly. There could be overflow, underflow etc.
-                     * so use a try finally block to indicate that all partitions are now corrupt.
-                     * The enclosing exception handlers will do the right thing WRT to
-                     * propagating the error and closing the file.
-                     */
-                    boolean completedRead = false;
-                    try {
-                        final ByteBuffer buf = c.b();
-                        /*
-                         * Assemble a VoltTable out of the chunk of tuples.
-                         * Put in the header that was cached in the constructor,
-                         * then copy the tuple data.
-                         */
-                        buf.clear();
-                        buf.limit(nextChunkLength  + m_tableHeader.capacity());
-                        m_tableHeader.position(0);
-                        buf.put(m_tableHeader);
-                        //Doesn't move buffer position, does change the limit
-                        CompressionService.decompressBuffer(fileInputBuffer, buf);
-                        completedRead = true;
-                    } finally {
-                        if (!completedRead) {
-                            for (int partitionId : m_partitionIds) {
-                                m_corruptedPartitions.add(partitionId);
-                            }
-                            if (m_continueOnCorruptedChunk) {
-                                m_chunkReads.release();
-                                continue;
-                            } else {
-                                throw new IOException("Failed decompression of saved table chunk");
-                            }
-                        }
+                    if (fileInputBufferC == null) {
+                        submitChunkV2(inputC, nextChunkPartitionId, nextChunkCRC);
+                        inputC = null;
+                        continue;
                     }
 
-                    /*
-                     * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
-                     * in case it is the length value that is corrupted
-                     */
-                    if (m_relevantPartitionIds != null) {
-                        if (!m_relevantPartitionIds.contains(nextChunkPartitionId)) {
-                            m_chunkReads.release();
-                            continue;
-                        }
+                    c = decompressChunkV2(fileInputBuffer, nextChunkPartitionId, nextChunkCRC);
+                    if (c == null) {
+                        m_chunkReads.release();
+                        continue;
                     }
 
-                    /*
-                     * VoltTable wants the buffer at the home position 0
-                     */
-                    c.b().position(0);
-
                     synchronized (TableSaveFile.this) {
                         m_availableChunks.offer(c);
                         c = null;
@@ -776,9 +841,135 @@ public class TableSaveFile
                     }
                 } finally {
                     if (c != null) c.discard();
+                    if (inputC != null && inputC != fileInputBufferC) m_inputBuffers.offer(inputC);
                 }
             }
-            fileInputBufferC.discard();
+            if (fileInputBufferC != null) {
+                fileInputBufferC.discard();
+            }
+        }
+
+        /**
+         * Check the CRC of a chunk's compressed data and decompress it into a VoltTable with
+         * the table header. Safe to call from several threads at once.
+         *
+         * @return the chunk positioned for VoltTable, or null if the chunk is to be skipped because
+         * it is corrupt and corrupt chunks are skipped or because its partition is not relevant
+         */
+        private Container decompressChunkV2(ByteBuffer fileInputBuffer, int partitionId, int expectedCRC)
+                throws IOException {
+            /*
+             * The uncompressed length is needed for the buffer, the code ahead that constructs
+             * the volt table is expecting the uncompressed size/data since it is producing
+             * an uncompressed table
+             */
+            final int uncompressedLength = CompressionService.uncompressedLength(fileInputBuffer);
+
+            /*
+             * Validate the rest of the chunk. This can fail if the data is corrupted
+             * or the length value was corrupted.
+             */
+            final int calculatedCRC =
+                    DBBPool.getBufferCRC32C(fileInputBuffer, 0, fileInputBuffer.remaining());
+            if (calculatedCRC != expectedCRC) {
+                markPartitionCorrupted(partitionId);
+                if (m_continueOnCorruptedChunk) {
+                    return null;
+                } else {
+                    throw new IOException("CRC mismatch in saved table chunk");
+                }
+            }
+
+            /*
+             * Now allocate space to store the chunk using the VoltTable serialization representation.
+             * The chunk will contain an integer row count preceding it so it can
+             * be sucked straight in. There is a little funny business to overwrite the
+             * partition id that is not part of the serialization format
+             */
+            final Container c = getOutputBuffer(partitionId);
+
+            /*
+             * If the length value is wrong or not all data made it to disk this read will
+             * not complete correctly. There could be overflow, underflow etc.
+             * so use a try finally block to indicate that all partitions are now corrupt.
+             */
+            boolean completedRead = false;
+            try {
+                final ByteBuffer buf = c.b();
+                /*
+                 * Assemble a VoltTable out of the chunk of tuples.
+                 * Put in the header that was cached in the constructor,
+                 * then copy the tuple data. The header is duplicated because
+                 * other chunks may be assembled concurrently.
+                 */
+                buf.clear();
+                buf.limit(uncompressedLength  + m_tableHeader.capacity());
+                final ByteBuffer tableHeader = m_tableHeader.duplicate();
+                tableHeader.position(0);
+                buf.put(tableHeader);
+                //Doesn't move buffer position, does change the limit
+                CompressionService.decompressBuffer(fileInputBuffer, buf);
+                completedRead = true;
+            } finally {
+                if (!completedRead) {
+                    c.discard();
+                    markAllPartitionsCorrupted();
+                    if (m_continueOnCorruptedChunk) {
+                        return null;
+                    } else {
+                        throw new IOException("Failed decompression of saved table chunk");
+                    }
+                }
+            }
+
+            /*
+             * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
+             * in case it is the length value that is corrupted
+             */
+            if (m_relevantPartitionIds != null) {
+                if (!m_relevantPartitionIds.contains(partitionId)) {
+                    c.discard();
+                    return null;
+                }
+            }
+
+            /*
+             * VoltTable wants the buffer at the home position 0
+             */
+            c.b().position(0);
+            return c;
+        }
+
+        /**
+         * Check and decompress a chunk on the compression service. The input buffer is
+         * returned to the pool once the chunk is decompressed.
+         */
+        private void submitChunkV2(final BBContainer inputC, final int partitionId, final int expectedCRC) {
+            final PendingChunk pending = new PendingChunk();
+            synchronized (TableSaveFile.this) {
+                m_pendingChunks++;
+                if (m_inOrder) {
+                    m_pendingInOrder.offer(pending);
+                }
+            }
+            CompressionService.submitCompressionTask(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Container c = null;
+                    IOException failure = null;
+                    try {
+                        c = decompressChunkV2(inputC.b(), partitionId, expectedCRC);
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = new IOException(e);
+                    } finally {
+                        m_inputBuffers.offer(inputC);
+                    }
+                    chunkDecompressed(pending, c, failure);
+                    return null;
+                }
+            });
         }
 
         private void readChunks() {
@@ -808,6 +999,7 @@ public class TableSaveFile
                         if (read == -1) {
                             throw new EOFException();
                         }
+                        m_bytesRead += read;
                     }
                     chunkLengthB.flip();
                     int nextChunkLength = chunkLengthB.getInt();
@@ -877,6 +1069,7 @@ public class TableSaveFile
                             if (read == -1) {
                                 throw new EOFException();
                             }
+                            m_bytesRead += read;
                         }
                         fileInputBuffer.flip();
                         nextChunkLength = CompressionService.uncompressedLength(fileInputBuffer);
@@ -933,6 +1126,7 @@ public class TableSaveFile
                                 if (read == -1) {
                                     throw new EOFException();
                                 }
+                                m_bytesRead += read;
                             }
                         }
                         c.b().position(c.b().position() - 4);
@@ -1062,6 +1256,7 @@ public class TableSaveFile
 
         @Override
         public void run() {
+            m_readStartNanos = System.nanoTime();
             try {
                 if (m_hasVersion2FormatChunks) {
                     readChunksV2();
@@ -1069,6 +1264,7 @@ public class TableSaveFile
                     readChunks();
                 }
             } finally {
+                m_readEndNanos = System.nanoTime();
                 synchronized (TableSaveFile.this) {
                     m_hasMoreChunks = false;
                     TableSaveFile.this.notifyAll();
@@ -23,6 +23,8 @@ import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltcore.utils.Pair;
 
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
 /**
  * Specialized deque interface for storing binary objects. Objects can be provided as a buffer chain
  * and will be returned as a single buffer. Technically not a deque because removal at
@@ -92,6 +94,14 @@ public interface BinaryDeque {
      */
     public void sync() throws IOException;
 
+    /**
+     * Start persisting all objects in the queue to the backing store without waiting for it.
+     * Objects offered after this returns are not covered by the returned future.
+     * @return future that completes once the objects are persisted, or fails with the IOException
+     * @throws IOException if the deque is closed
+     */
+    public ListenableFuture<?> syncAsync() throws IOException;
+
     public void parseAndTruncate(BinaryDequeTruncator truncator) throws IOException;
 
     /**
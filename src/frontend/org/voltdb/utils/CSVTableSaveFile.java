@@ -49,7 +49,8 @@ public class CSVTableSaveFile {
             throws IOException {
         m_delimiter = delimiter;
         final FileInputStream fis = new FileInputStream(saveFile);
-        m_saveFile = new TableSaveFile(fis, 10, partitions);
+        // Several converter threads take chunks, so there is no point keeping them in file order
+        m_saveFile = new TableSaveFile(fis, 10, partitions, false, false);
         for (int ii = 0; ii < m_converterThreads.length; ii++) {
             m_converterThreads[ii] = new Thread(new ConverterThread());
             m_converterThreads[ii].start();
@@ -20,6 +20,7 @@ package org.voltdb.utils;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltcore.utils.DBBPool.MBBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltdb.utils.BinaryDeque.OutputContainerFactory;
 
@@ -30,8 +31,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Objects placed in the deque are stored in file segments that are up to 64 megabytes.
@@ -42,17 +45,27 @@ import java.util.Map;
 public class PBDRegularSegment extends PBDSegment {
     private static final VoltLogger LOG = new VoltLogger("HOST");
 
+    // Sealed segments are read through a read only memory mapping unless this is set
+    private static final boolean MMAP_SEALED_SEGMENTS = !Boolean.getBoolean("PBD_DISABLE_MMAP");
+
     private final Map<String, SegmentReader> m_readCursors = new HashMap<>();
     private final Map<String, SegmentReader> m_closedCursors = new HashMap<>();
 
     //ID of this segment
     private final Long m_index;
 
-    private int m_numOfEntries = -1;
-    private int m_size = -1;
+    // Published after the entry bytes are written so a reader polling outside the deque lock
+    // never sees a count that covers a partially written entry
+    private volatile int m_numOfEntries = -1;
+    private volatile int m_size = -1;
 
     private DBBPool.BBContainer m_tmpHeaderBuf = null;
 
+    // Set while the file is open read only, which only happens once the segment is no longer
+    // written to. Guarded by this segment's monitor, readers map the file outside the deque lock
+    private boolean m_sealed = false;
+    private MappedRegion m_mapped = null;
+
     public PBDRegularSegment(Long index, File file) {
         super(file);
         m_index = index;
@@ -84,21 +97,31 @@ public class PBDRegularSegment extends PBDSegment {
     @Override
     public int getNumEntries() throws IOException
     {
+        // Every write through this segment keeps the header and the in memory count in step, so once
+        // the header has been read there is no need to reopen the file or race the writer on the
+        // header buffer for something that is already known
+        if (m_numOfEntries >= 0) {
+            return m_numOfEntries;
+        }
         boolean wasClosed = false;
         if (m_closed) {
             wasClosed = true;
             open(false, false);
         }
-        if (m_fc.size() > 0) {
-            m_tmpHeaderBuf.b().clear();
-            PBDUtils.readBufferFully(m_fc, m_tmpHeaderBuf.b(), COUNT_OFFSET);
-            m_numOfEntries = m_tmpHeaderBuf.b().getInt();
-            m_size = m_tmpHeaderBuf.b().getInt();
-        } else {
-            m_numOfEntries = 0;
-            m_size = 0;
-        }
-        if (wasClosed) closeReadersAndFile();
+        try {
+            if (m_fc.size() > 0) {
+                m_tmpHeaderBuf.b().clear();
+                PBDUtils.readBufferFully(m_fc, m_tmpHeaderBuf.b(), COUNT_OFFSET);
+                m_numOfEntries = m_tmpHeaderBuf.b().getInt();
+                m_size = m_tmpHeaderBuf.b().getInt();
+            } else {
+                m_numOfEntries = 0;
+                m_size = 0;
+            }
+        } finally {
+            // Don't leak the file or header buffer if the header is cut short
+            if (wasClosed) closeReadersAndFile();
+        }
         return m_numOfEntries;
     }
 
@@ -154,6 +177,9 @@ public class PBDRegularSegment extends PBDSegment {
         assert(m_ras == null);
         m_ras = new RandomAccessFile( m_file, forWrite ? "rw" : "r");
         m_fc = m_ras.getChannel();
+        synchronized (this) {
+            m_sealed = !forWrite;
+        }
         m_tmpHeaderBuf = DBBPool.allocateDirect(SEGMENT_HEADER_BYTES);
 
         if (emptyFile) {
@@ -180,8 +206,8 @@ public class PBDRegularSegment extends PBDSegment {
 
     private void incrementNumEntries(int size) throws IOException
     {
-        m_numOfEntries++;
         m_size += size;
+        m_numOfEntries++;
 
         m_tmpHeaderBuf.b().clear();
         m_tmpHeaderBuf.b().putInt(m_numOfEntries);
@@ -223,6 +249,7 @@ public class PBDRegularSegment extends PBDSegment {
 
     private void closeReadersAndFile() throws IOException {
         m_readCursors.clear();
+        unmap();
         try {
             if (m_ras != null) {
                 m_ras.close();
@@ -235,6 +262,26 @@ public class PBDRegularSegment extends PBDSegment {
         }
     }
 
+    /**
+     * Map the segment for reading the first time a reader needs it, if the segment is sealed.
+     * The segment is usually opened read only just to look at the header, which is why this
+     * isn't done in open.
+     */
+    private synchronized MappedRegion mappedRegion() throws IOException {
+        if (m_mapped == null && m_sealed && MMAP_SEALED_SEGMENTS) {
+            m_mapped = new MappedRegion(m_fc);
+        }
+        return m_mapped;
+    }
+
+    private synchronized void unmap() {
+        m_sealed = false;
+        if (m_mapped != null) {
+            m_mapped.close();
+            m_mapped = null;
+        }
+    }
+
     @Override
     public void sync() throws IOException {
         if (m_closed) throw new IOException("Segment closed");
@@ -244,6 +291,18 @@ public class PBDRegularSegment extends PBDSegment {
         m_syncedSinceLastEdit = true;
     }
 
+    @Override
+    PBDSyncScheduler.SyncTarget prepareSync() throws IOException {
+        if (m_closed) throw new IOException("Segment closed");
+        if (m_syncedSinceLastEdit) {
+            return null;
+        }
+        m_syncedSinceLastEdit = true;
+        final long bytes = m_unsyncedBytes;
+        m_unsyncedBytes = 0;
+        return new PBDSyncScheduler.SyncTarget(m_file, m_fc, bytes);
+    }
+
     @Override
     public boolean hasAllFinishedReading() throws IOException {
         if (m_closed) throw new IOException("Segment closed");
@@ -297,6 +356,7 @@ public class PBDRegularSegment extends PBDSegment {
                 m_fc.write(destBuf.b());
             }
 
+            m_unsyncedBytes += OBJECT_HEADER_BYTES + destBuf.b().limit();
             incrementNumEntries(remaining);
         } finally {
             destBuf.discard();
@@ -326,6 +386,7 @@ public class PBDRegularSegment extends PBDSegment {
                 m_fc.write(destBuf.b());
             }
 
+            m_unsyncedBytes += destBuf.b().limit();
             incrementNumEntries(written);
             return written;
         } finally {
@@ -359,11 +420,16 @@ public class PBDRegularSegment extends PBDSegment {
     private class SegmentReader implements PBDSegmentReader {
         private final String m_cursorId;
         private long m_readOffset = SEGMENT_HEADER_BYTES;
-        //Index of the next object to read, not an offset into the file
-        private int m_objectReadIndex = 0;
+        //Index of the next object to read, not an offset into the file.
+        //Only advanced by this cursor's poll, but read by the deque when checking
+        //whether every cursor is done with the segment
+        private volatile int m_objectReadIndex = 0;
         private int m_bytesRead = 0;
-        private int m_discardCount = 0;
+        //Entries are discarded by whichever thread consumed them
+        private final AtomicInteger m_discardCount = new AtomicInteger(0);
         private boolean m_closed = false;
+        // Not shared with the writer's header buffer, reads and appends may overlap
+        private final ByteBuffer m_headerBuf = ByteBuffer.allocate(OBJECT_HEADER_BYTES);
 
         public SegmentReader(String cursorId) {
             assert(cursorId != null);
@@ -374,7 +440,7 @@ public class PBDRegularSegment extends PBDSegment {
             m_objectReadIndex = 0;
             m_bytesRead = 0;
             m_readOffset = SEGMENT_HEADER_BYTES;
-            m_discardCount = 0;
+            m_discardCount.set(0);
         }
 
         @Override
@@ -384,7 +450,7 @@ public class PBDRegularSegment extends PBDSegment {
 
         @Override
         public boolean allReadAndDiscarded() throws IOException {
-            return m_discardCount == m_numOfEntries;
+            return m_discardCount.get() == m_numOfEntries;
         }
 
         @Override
@@ -395,82 +461,128 @@ public class PBDRegularSegment extends PBDSegment {
                 return null;
             }
 
-            final long writePos = m_fc.position();
-            m_fc.position(m_readOffset);
+            final MappedRegion region = mappedRegion();
+            final BBContainer retcont = (region == null) ? readFromChannel(factory) : readFromMapping(region, factory);
+            m_objectReadIndex++;
 
-            try {
-                //Get the length and size prefix and then read the object
-                m_tmpHeaderBuf.b().clear();
-                while (m_tmpHeaderBuf.b().hasRemaining()) {
-                    int read = m_fc.read(m_tmpHeaderBuf.b());
-                    if (read == -1) {
-                        throw new EOFException();
+            return new DBBPool.BBContainer(retcont.b()) {
+                private boolean m_discarded = false;
+
+                @Override
+                public void discard() {
+                    checkDoubleFree();
+                    if (m_discarded) {
+                        LOG.error("PBD Container discarded more than once");
+                        return;
                     }
+
+                    m_discarded = true;
+                    retcont.discard();
+                    m_discardCount.incrementAndGet();
+                }
+            };
+        }
+
+        private BBContainer readFromChannel(OutputContainerFactory factory) throws IOException {
+            // Positional reads leave the channel position to the writer, which may be appending
+            // to this segment concurrently
+            final FileChannel fc = m_fc;
+            if (fc == null) {
+                throw new IOException("Segment closed");
+            }
+            long readOffset = m_readOffset;
+
+            //Get the length and size prefix and then read the object
+            m_headerBuf.clear();
+            PBDUtils.readBufferFully(fc, m_headerBuf, readOffset);
+            readOffset += OBJECT_HEADER_BYTES;
+            final int length = m_headerBuf.getInt();
+            final int flags = m_headerBuf.getInt();
+            final boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+            final int uncompressedLen;
+
+            if (length < 1) {
+                throw new IOException("Read an invalid length");
+            }
+
+            final DBBPool.BBContainer retcont;
+            if (compressed) {
+                final DBBPool.BBContainer compressedBuf = DBBPool.allocateDirectAndPool(length);
+                try {
+                    PBDUtils.readBufferFully(fc, compressedBuf.b(), readOffset);
+
+                    uncompressedLen = CompressionService.uncompressedLength(compressedBuf.bDR());
+                    retcont = factory.getContainer(uncompressedLen);
+                    retcont.b().limit(uncompressedLen);
+                    CompressionService.decompressBuffer(compressedBuf.bDR(), retcont.b());
+                } finally {
+                    compressedBuf.discard();
+                }
+            } else {
+                uncompressedLen = length;
+                retcont = factory.getContainer(length);
+                retcont.b().limit(length);
+                try {
+                    PBDUtils.readBufferFully(fc, retcont.b(), readOffset);
+                } catch (IOException e) {
+                    retcont.discard();
+                    throw e;
+                }
+            }
+
+            m_readOffset = readOffset + length;
+            m_bytesRead += uncompressedLen;
+            return retcont;
+        }
+
+        /*
+         * Entries are copied, or decompressed, straight out of the mapping into a container from
+         * the factory. Consumers get the same writable containers as from the channel, the mapping
+         * is read only.
+         */
+        private BBContainer readFromMapping(final MappedRegion region, OutputContainerFactory factory) throws IOException {
+            region.retain();
+            try {
+                final ByteBuffer mapping = region.m_buf;
+                final int offset = (int)m_readOffset;
+                if (offset + OBJECT_HEADER_BYTES > mapping.limit()) {
+                    throw new EOFException();
                 }
-                m_tmpHeaderBuf.b().flip();
-                final int length = m_tmpHeaderBuf.b().getInt();
-                final int flags = m_tmpHeaderBuf.b().getInt();
+                final int length = mapping.getInt(offset);
+                final int flags = mapping.getInt(offset + 4);
                 final boolean compressed = (flags & FLAG_COMPRESSED) != 0;
                 final int uncompressedLen;
 
                 if (length < 1) {
                     throw new IOException("Read an invalid length");
                 }
+                if (offset + OBJECT_HEADER_BYTES + length > mapping.limit()) {
+                    throw new EOFException();
+                }
+
+                final ByteBuffer entry = mapping.duplicate();
+                entry.position(offset + OBJECT_HEADER_BYTES);
+                entry.limit(offset + OBJECT_HEADER_BYTES + length);
 
-                final DBBPool.BBContainer retcont;
+                final BBContainer retcont;
                 if (compressed) {
-                    final DBBPool.BBContainer compressedBuf = DBBPool.allocateDirectAndPool(length);
-                    try {
-                        while (compressedBuf.b().hasRemaining()) {
-                            int read = m_fc.read(compressedBuf.b());
-                            if (read == -1) {
-                                throw new EOFException();
-                            }
-                        }
-                        compressedBuf.b().flip();
-
-                        uncompressedLen = CompressionService.uncompressedLength(compressedBuf.bDR());
-                        retcont = factory.getContainer(uncompressedLen);
-                        retcont.b().limit(uncompressedLen);
-                        CompressionService.decompressBuffer(compressedBuf.bDR(), retcont.b());
-                    } finally {
-                        compressedBuf.discard();
-                    }
+                    uncompressedLen = CompressionService.uncompressedLength(entry.duplicate());
+                    retcont = factory.getContainer(uncompressedLen);
+                    retcont.b().limit(uncompressedLen);
+                    CompressionService.decompressBuffer(entry, retcont.b());
                 } else {
                     uncompressedLen = length;
                     retcont = factory.getContainer(length);
                     retcont.b().limit(length);
-                    while (retcont.b().hasRemaining()) {
-                        int read = m_fc.read(retcont.b());
-                        if (read == -1) {
-                            throw new EOFException();
-                        }
-                    }
+                    retcont.b().put(entry);
                     retcont.b().flip();
                 }
 
+                m_readOffset = offset + OBJECT_HEADER_BYTES + length;
                 m_bytesRead += uncompressedLen;
-                m_objectReadIndex++;
-
-                return new DBBPool.BBContainer(retcont.b()) {
-                    private boolean m_discarded = false;
-
-                    @Override
-                    public void discard() {
-                        checkDoubleFree();
-                        if (m_discarded) {
-                            LOG.error("PBD Container discarded more than once");
-                            return;
-                        }
-
-                        m_discarded = true;
-                        retcont.discard();
-                        m_discardCount++;
-                    }
-                };
+                return retcont;
             } finally {
-                m_readOffset = m_fc.position();
-                m_fc.position(writePos);
+                region.release();
             }
         }
 
@@ -511,4 +623,59 @@ public class PBDRegularSegment extends PBDSegment {
             return m_closed;
         }
     }
+
+    /**
+     * Read only mapping of a sealed segment. Readers copy entries out of it while holding a
+     * reference, so it is only unmapped once the segment has been closed and no read is using it.
+     */
+    private static class MappedRegion {
+        private final MBBContainer m_mapping;
+        private final ByteBuffer m_buf;
+        private int m_refs = 0;
+        private boolean m_closed = false;
+
+        MappedRegion(FileChannel fc) throws IOException {
+            m_mapping = DBBPool.wrapMBB(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+            m_buf = m_mapping.b();
+            // Cursors read a segment front to back, let the kernel read ahead aggressively
+            advise(PosixAdvise.POSIX_MADV_SEQUENTIAL);
+        }
+
+        synchronized void retain() throws IOException {
+            if (m_closed) {
+                throw new IOException("Segment closed");
+            }
+            m_refs++;
+        }
+
+        synchronized void release() {
+            assert(m_refs > 0);
+            if (--m_refs == 0 && m_closed) {
+                m_mapping.discard();
+            }
+        }
+
+        synchronized void close() {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            // Every cursor is done with the segment, drop the cached pages now rather than
+            // waiting for a read that is still copying out of it
+            advise(PosixAdvise.POSIX_MADV_DONTNEED);
+            if (m_refs == 0) {
+                m_mapping.discard();
+            }
+        }
+
+        private void advise(int advice) {
+            if (m_buf.capacity() == 0) {
+                return;
+            }
+            final long retval = PosixAdvise.madvise(m_mapping.address(), m_buf.capacity(), advice);
+            if (retval != 0) {
+                LOG.warn("Failed to madvise PBD segment mapping: " + retval);
+            }
+        }
+    }
 }
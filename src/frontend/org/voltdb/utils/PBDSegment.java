@@ -114,6 +114,8 @@ public abstract class PBDSegment {
     protected FileChannel m_fc;
     //Avoid unecessary sync with this flag
     protected boolean m_syncedSinceLastEdit = true;
+    //Bytes written since the last sync, reported by the sync scheduler
+    protected long m_unsyncedBytes = 0;
 
     public PBDSegment(File file)
     {
@@ -156,6 +158,14 @@ public abstract class PBDSegment {
 
     abstract void sync() throws IOException;
 
+    /**
+     * Mark the segment synced and return what the sync scheduler has to force for that to be true,
+     * or null if nothing was written since the last sync. Writes after this mark the segment dirty
+     * again and are picked up by the next sync. The segment is marked synced before the target is
+     * forced, the deque keeps targets whose fsync failed and requests them again.
+     */
+    abstract PBDSyncScheduler.SyncTarget prepareSync() throws IOException;
+
     abstract boolean hasAllFinishedReading() throws IOException;
 
     abstract boolean offer(DBBPool.BBContainer cont, boolean compress) throws IOException;
@@ -0,0 +1,275 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
+
+/**
+ * Issues the fsyncs for every PersistentBinaryDeque in the process. Sync requests are queued
+ * per volume and a volume only ever has one batch of fsyncs in flight. Requests that arrive
+ * while a batch is being forced are all picked up by the next batch, so when many deques
+ * sync at once, e.g. every export stream during a snapshot, the device sees a steady stream
+ * of fsyncs instead of one per stream all at the same time. Volumes are synced in parallel
+ * by a small shared pool.
+ */
+public class PBDSyncScheduler {
+    private static final VoltLogger LOG = new VoltLogger("HOST");
+
+    private static final int SYNC_THREADS = Integer.getInteger("PBD_SYNC_THREADS", 4);
+    private static final PBDSyncScheduler s_instance = new PBDSyncScheduler(SYNC_THREADS);
+
+    // Test hook, forces fail with this while it is set
+    static volatile IOException m_simulateForceFailure = null;
+
+    public static PBDSyncScheduler instance() {
+        return s_instance;
+    }
+
+    /**
+     * A segment file with writes that have not been forced yet.
+     */
+    static class SyncTarget {
+        final File m_file;
+        final FileChannel m_fc;
+        final long m_bytes;
+
+        SyncTarget(File file, FileChannel fc, long bytes) {
+            m_file = file;
+            m_fc = fc;
+            m_bytes = bytes;
+        }
+    }
+
+    private static class Request {
+        final List<SyncTarget> m_targets;
+        final SettableFuture<Object> m_future = SettableFuture.create();
+        final long m_enqueuedNanos = System.nanoTime();
+
+        Request(List<SyncTarget> targets) {
+            m_targets = targets;
+        }
+    }
+
+    private final ThreadPoolExecutor m_es;
+    private final Map<Object, Volume> m_volumes = new HashMap<>();
+
+    PBDSyncScheduler(int threads) {
+        m_es = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>(), CoreUtils.getThreadFactory("PBD Sync"));
+        m_es.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the key requests for files under path are batched by, the file store if it can be found
+     */
+    public static Object volumeOf(File path) {
+        try {
+            return Files.getFileStore(path.toPath());
+        } catch (IOException e) {
+            LOG.warn("Unable to determine the volume of " + path + ", PBD syncs for it will be batched separately", e);
+            return path.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Force the targets to disk.
+     *
+     * @return a future that completes once every target has been forced, or with the first
+     *         IOException from forcing one of them
+     */
+    ListenableFuture<?> sync(Object volumeKey, List<SyncTarget> targets) {
+        final Request request = new Request(targets);
+        final Volume volume;
+        synchronized (this) {
+            Volume v = m_volumes.get(volumeKey);
+            if (v == null) {
+                v = new Volume(volumeKey.toString());
+                m_volumes.put(volumeKey, v);
+            }
+            volume = v;
+        }
+        if (volume.enqueue(request)) {
+            m_es.execute(volume);
+        }
+        return request.m_future;
+    }
+
+    /**
+     * Per volume counters, SYNC_REQUESTS, SYNC_BATCHES, FSYNCS, BYTES_SYNCED, TOTAL_LATENCY_NANOS
+     * and MAX_LATENCY_NANOS in that order, keyed by volume name. With interval the counts are since
+     * the previous interval collection.
+     */
+    public synchronized Map<String, long[]> getStats(boolean interval) {
+        final Map<String, long[]> stats = new TreeMap<>();
+        for (Volume volume : m_volumes.values()) {
+            stats.put(volume.m_name, volume.getStats(interval));
+        }
+        return stats;
+    }
+
+    private static void force(SyncTarget target) throws IOException {
+        final IOException simulated = m_simulateForceFailure;
+        if (simulated != null) {
+            throw simulated;
+        }
+        try {
+            target.m_fc.force(true);
+        } catch (ClosedChannelException e) {
+            // The segment was closed after the sync was requested and closing doesn't force,
+            // an fsync through any descriptor flushes the file
+            try (RandomAccessFile raf = new RandomAccessFile(target.m_file, "r")) {
+                raf.getChannel().force(true);
+            } catch (FileNotFoundException notFound) {
+                // Deleted because every entry in it was consumed, nothing left to make durable
+            }
+        }
+    }
+
+    private static class Volume implements Runnable {
+        private static final int STAT_COUNT = 6;
+
+        final String m_name;
+        private List<Request> m_pending = new ArrayList<>();
+        private boolean m_scheduled = false;
+
+        // Guarded by this
+        private final long[] m_totals = new long[STAT_COUNT];
+        private final long[] m_lastInterval = new long[STAT_COUNT];
+        private long m_intervalMaxLatencyNanos = 0;
+
+        Volume(String name) {
+            m_name = name;
+        }
+
+        /**
+         * @return true if the volume has to be scheduled to pick up the request
+         */
+        synchronized boolean enqueue(Request request) {
+            m_pending.add(request);
+            if (m_scheduled) {
+                return false;
+            }
+            m_scheduled = true;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final List<Request> batch;
+                synchronized (this) {
+                    if (m_pending.isEmpty()) {
+                        m_scheduled = false;
+                        return;
+                    }
+                    batch = m_pending;
+                    m_pending = new ArrayList<>();
+                }
+                syncBatch(batch);
+            }
+        }
+
+        private void syncBatch(List<Request> batch) {
+            // A deque synced twice in one batch only needs each file forced once
+            final Map<FileChannel, SyncTarget> targets = new IdentityHashMap<>();
+            long bytes = 0;
+            for (Request request : batch) {
+                for (SyncTarget target : request.m_targets) {
+                    if (targets.put(target.m_fc, target) == null) {
+                        bytes += target.m_bytes;
+                    }
+                }
+            }
+
+            final Map<FileChannel, IOException> failures = new IdentityHashMap<>();
+            for (SyncTarget target : targets.values()) {
+                try {
+                    force(target);
+                } catch (IOException e) {
+                    failures.put(target.m_fc, e);
+                }
+            }
+
+            final long now = System.nanoTime();
+            long totalLatency = 0;
+            long maxLatency = 0;
+            for (Request request : batch) {
+                IOException failure = null;
+                for (SyncTarget target : request.m_targets) {
+                    failure = failures.get(target.m_fc);
+                    if (failure != null) {
+                        break;
+                    }
+                }
+                final long latency = now - request.m_enqueuedNanos;
+                totalLatency += latency;
+                maxLatency = Math.max(maxLatency, latency);
+                if (failure == null) {
+                    request.m_future.set(null);
+                } else {
+                    request.m_future.setException(failure);
+                }
+            }
+
+            synchronized (this) {
+                m_totals[0] += batch.size();
+                m_totals[1]++;
+                m_totals[2] += targets.size();
+                m_totals[3] += bytes;
+                m_totals[4] += totalLatency;
+                m_totals[5] = Math.max(m_totals[5], maxLatency);
+                m_intervalMaxLatencyNanos = Math.max(m_intervalMaxLatencyNanos, maxLatency);
+            }
+        }
+
+        synchronized long[] getStats(boolean interval) {
+            if (!interval) {
+                return m_totals.clone();
+            }
+            final long[] stats = new long[STAT_COUNT];
+            for (int ii = 0; ii < STAT_COUNT - 1; ii++) {
+                stats[ii] = m_totals[ii] - m_lastInterval[ii];
+                m_lastInterval[ii] = m_totals[ii];
+            }
+            stats[STAT_COUNT - 1] = m_intervalMaxLatencyNanos;
+            m_intervalMaxLatencyNanos = 0;
+            return stats;
+        }
+    }
+}
@@ -50,9 +50,9 @@ public class PBDUtils {
         }
     }
 
-    public static void readBufferFully(FileChannel fc, ByteBuffer buf, int startPos) throws IOException
+    public static void readBufferFully(FileChannel fc, ByteBuffer buf, long startPos) throws IOException
     {
-        int pos = startPos;
+        long pos = startPos;
         while (buf.hasRemaining()) {
             int read = fc.read(buf, pos);
             if (read == -1) {
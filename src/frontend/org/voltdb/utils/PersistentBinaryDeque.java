@@ -21,14 +21,23 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
@@ -39,6 +48,10 @@ import org.voltdb.utils.PBDSegment.PBDSegmentReader;
 
 import com.google_voltpatches.common.base.Joiner;
 import com.google_voltpatches.common.base.Throwables;
+import com.google_voltpatches.common.util.concurrent.Futures;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.MoreExecutors;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
 
 /**
  * A deque that specializes in providing persistence of binary objects to disk. Any object placed
@@ -76,8 +89,10 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     /**
-     * Used to read entries from the PBD. Multiple readers may be active at the same time,
-     * but only one read or write may happen concurrently.
+     * Used to read entries from the PBD. Multiple readers may be active at the same time
+     * and a poll only holds the deque lock to find the next entry, the entry itself is read
+     * and decompressed while appends and other cursors proceed. A single cursor must not be
+     * polled from more than one thread at a time.
      */
     private class ReadCursor implements BinaryDequeReader {
         private final String m_cursorId;
@@ -86,6 +101,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
         //that were deleted at the time this cursor was created
         private final int m_numObjectsDeleted;
         private int m_numRead;
+        // Set while this cursor reads an entry outside the deque lock
+        private boolean m_pollInFlight;
 
         public ReadCursor(String cursorId, int numObjectsDeleted) throws IOException {
             m_cursorId = cursorId;
@@ -94,6 +111,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
         @Override
         public BBContainer poll(OutputContainerFactory ocf) throws IOException {
+            final PBDSegment segment;
+            final PBDSegmentReader reader;
             synchronized (PersistentBinaryDeque.this) {
                 if (m_closed) {
                     throw new IOException("PBD.ReadCursor.poll(): " + m_cursorId + " - Reader has been closed");
@@ -117,13 +136,29 @@ public class PersistentBinaryDeque implements BinaryDeque {
                     segmentReader = m_segment.getReader(m_cursorId);
                     if (segmentReader == null) segmentReader = m_segment.openForRead(m_cursorId);
                 }
-                BBContainer retcont = segmentReader.poll(ocf);
+                segment = m_segment;
+                reader = segmentReader;
+                m_pollInFlight = true;
+            }
 
-                m_numRead++;
-                assertions();
-                assert (retcont.b() != null);
-                return wrapRetCont(m_segment, retcont);
+            // The entry is fully written and counted, and the segment can't be deleted until this
+            // cursor discards it, so it can be read without holding the deque lock
+            BBContainer retcont = null;
+            try {
+                retcont = reader.poll(ocf);
+            } finally {
+                synchronized (PersistentBinaryDeque.this) {
+                    m_pollInFlight = false;
+                    if (retcont != null) {
+                        m_numRead++;
+                        assertions();
+                    }
+                    // Anything waiting to close segments or move cursors
+                    PersistentBinaryDeque.this.notifyAll();
+                }
             }
+            assert (retcont.b() != null);
+            return wrapRetCont(segment, retcont);
         }
 
         private void moveToValidSegment() {
@@ -237,6 +272,17 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     public static final OutputContainerFactory UNSAFE_CONTAINER_FACTORY = new UnsafeOutputContainerFactory();
 
+    // Shared by every deque, many of them are recovered at once when a node starts. It is never
+    // shut down: the threads are daemon threads from CoreUtils' factory and exit after a minute
+    // idle, so the pool costs nothing once startup is over and doesn't hold the JVM open
+    private static final ThreadPoolExecutor s_recoveryPool;
+    static {
+        final int threads = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        s_recoveryPool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>(), CoreUtils.getThreadFactory("PBD Recovery"));
+        s_recoveryPool.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * Processors also log using this facility.
      */
@@ -252,6 +298,17 @@ public class PersistentBinaryDeque implements BinaryDeque {
     private final TreeMap<Long, PBDSegment> m_segments = new TreeMap<>();
     private volatile boolean m_closed = false;
     private final HashMap<String, ReadCursor> m_readCursors = new HashMap<>();
+    // Held for the whole of an append, and by anything else that writes, syncs or closes the tail
+    // segment. Always taken before the deque lock, which appends only hold to find the tail and
+    // to publish the new object count
+    private final Object m_appendLock = new Object();
+    private boolean m_appendInFlight = false;
+    // Syncs are batched with other deques on the same volume
+    private final Object m_syncVolume;
+    private ListenableFuture<?> m_lastSync = null;
+    // Targets whose fsync failed, their segments are already marked synced so they are
+    // requested again by the next sync. Guarded by this
+    private final List<PBDSyncScheduler.SyncTarget> m_failedSyncs = new ArrayList<>();
     private int m_numObjects;
     private int m_numDeleted;
 
@@ -288,72 +345,86 @@ public class PersistentBinaryDeque implements BinaryDeque {
             throw new IOException(path + " is not usable ( !exists || !readable " +
                     "|| !writable || !executable || !directory)");
         }
+        m_syncVolume = PBDSyncScheduler.volumeOf(path);
 
-        final TreeMap<Long, PBDSegment> segments = new TreeMap<Long, PBDSegment>();
+        final long recoveryStart = System.nanoTime();
+        final TreeMap<Long, File> segmentFiles = new TreeMap<Long, File>();
         //Parse the files in the directory by name to find files
         //that are part of this deque
-        try {
-            path.listFiles(new FileFilter() {
-
-                @Override
-                public boolean accept(File pathname) {
-                    // PBD file names have three parts: nonce.seq.pbd
-                    // nonce may contain '.', seq is a sequence number.
-                    String[] parts = pathname.getName().split("\\.");
-                    String parsedNonce = null;
-                    String seqNum = null;
-                    String extension = null;
-
-                    // If more than 3 parts, it means nonce contains '.', assemble them.
-                    if (parts.length > 3) {
-                        Joiner joiner = Joiner.on('.').skipNulls();
-                        parsedNonce = joiner.join(Arrays.asList(parts).subList(0, parts.length - 2));
-                        seqNum = parts[parts.length - 2];
-                        extension = parts[parts.length - 1];
-                    } else if (parts.length == 3) {
-                        parsedNonce = parts[0];
-                        seqNum = parts[1];
-                        extension = parts[2];
-                    }
+        path.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(File pathname) {
+                // PBD file names have three parts: nonce.seq.pbd
+                // nonce may contain '.', seq is a sequence number.
+                String[] parts = pathname.getName().split("\\.");
+                String parsedNonce = null;
+                String seqNum = null;
+                String extension = null;
+
+                // If more than 3 parts, it means nonce contains '.', assemble them.
+                if (parts.length > 3) {
+                    Joiner joiner = Joiner.on('.').skipNulls();
+                    parsedNonce = joiner.join(Arrays.asList(parts).subList(0, parts.length - 2));
+                    seqNum = parts[parts.length - 2];
+                    extension = parts[parts.length - 1];
+                } else if (parts.length == 3) {
+                    parsedNonce = parts[0];
+                    seqNum = parts[1];
+                    extension = parts[2];
+                }
 
-                    if (nonce.equals(parsedNonce) && "pbd".equals(extension)) {
-                        if (pathname.length() == 4) {
-                            //Doesn't have any objects, just the object count
-                            pathname.delete();
-                            return false;
-                        }
-                        Long index = Long.valueOf(seqNum);
-                        PBDSegment qs = newSegment( index, pathname );
-                        try {
-                            m_initializedFromExistingFiles = true;
-                            if (deleteEmpty) {
-                                if (qs.getNumEntries() == 0) {
-                                    LOG.info("Found Empty Segment with entries: " + qs.getNumEntries() + " For: " + pathname.getName());
-                                    if (m_usageSpecificLog.isDebugEnabled()) {
-                                        m_usageSpecificLog.debug("Segment " + qs.file() + " has been closed and deleted during init");
-                                    }
-                                    qs.closeAndDelete();
-                                    return false;
-                                }
-                            }
-                            if (m_usageSpecificLog.isDebugEnabled()) {
-                                m_usageSpecificLog.debug("Segment " + qs.file() + " has been recovered");
-                            }
-                            qs.close();
-                            segments.put(index, qs);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
+                if (nonce.equals(parsedNonce) && "pbd".equals(extension)) {
+                    if (pathname.length() == 4) {
+                        //Doesn't have any objects, just the object count
+                        pathname.delete();
+                        return false;
                     }
-                    return false;
+                    segmentFiles.put(Long.valueOf(seqNum), pathname);
                 }
+                return false;
+            }
 
-            });
-        } catch (RuntimeException e) {
-            if (e.getCause() instanceof IOException) {
-                throw new IOException(e);
+        });
+        m_initializedFromExistingFiles = !segmentFiles.isEmpty();
+
+        // Reading the header of each segment is a file open and read apiece, which adds up
+        // with thousands of overflow segments, so the headers are read in parallel
+        final List<Future<PBDSegment>> recovered = new ArrayList<>();
+        for (final Map.Entry<Long, File> e : segmentFiles.entrySet()) {
+            recovered.add(s_recoveryPool.submit(new Callable<PBDSegment>() {
+                @Override
+                public PBDSegment call() throws IOException {
+                    return recoverSegment(e.getKey(), e.getValue(), deleteEmpty);
+                }
+            }));
+        }
+        final TreeMap<Long, PBDSegment> segments = new TreeMap<Long, PBDSegment>();
+        IOException recoveryFailure = null;
+        for (Future<PBDSegment> f : recovered) {
+            try {
+                PBDSegment qs = f.get();
+                if (qs != null) {
+                    segments.put(qs.segmentId(), qs);
+                }
+            } catch (ExecutionException e) {
+                if (recoveryFailure == null) {
+                    recoveryFailure = (e.getCause() instanceof IOException) ?
+                            (IOException)e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                if (recoveryFailure == null) {
+                    recoveryFailure = new IOException("Interrupted recovering PBD segments", e);
+                }
+            }
+        }
+        if (recoveryFailure != null) {
+            for (PBDSegment pbds : segments.values()) {
+                try {
+                    pbds.close();
+                } catch (Exception ex) {}
             }
-            Throwables.propagate(e);
+            throw recoveryFailure;
         }
 
         Long lastKey = null;
@@ -392,6 +463,35 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
         m_numObjects = countNumObjects();
         assertions();
+
+        if (m_initializedFromExistingFiles) {
+            m_usageSpecificLog.info("Recovered " + segments.size() + " segments with " + m_numObjects +
+                    " objects for PBD " + m_nonce + " in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recoveryStart) + " ms");
+        }
+    }
+
+    /**
+     * Read the header of an existing segment, which is all recovery needs since the header
+     * holds the entry count and size. The segment is left closed.
+     * @return the segment or null if it was empty and has been deleted
+     */
+    private PBDSegment recoverSegment(long index, File file, boolean deleteEmpty) throws IOException {
+        PBDSegment qs = newSegment( index, file );
+        final int numEntries = qs.getNumEntries();
+        if (deleteEmpty && numEntries == 0) {
+            LOG.info("Found Empty Segment with entries: " + numEntries + " For: " + file.getName());
+            if (m_usageSpecificLog.isDebugEnabled()) {
+                m_usageSpecificLog.debug("Segment " + qs.file() + " has been closed and deleted during init");
+            }
+            qs.closeAndDelete();
+            return null;
+        }
+        if (m_usageSpecificLog.isDebugEnabled()) {
+            m_usageSpecificLog.debug("Segment " + qs.file() + " has been recovered");
+        }
+        qs.close();
+        return qs;
     }
 
     private int countNumObjects() throws IOException {
@@ -404,7 +504,15 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     @Override
-    public synchronized void parseAndTruncate(BinaryDequeTruncator truncator) throws IOException {
+    public void parseAndTruncate(BinaryDequeTruncator truncator) throws IOException {
+        // Truncation closes and reopens the tail segment
+        synchronized (m_appendLock) {
+            parseAndTruncateSegments(truncator);
+        }
+    }
+
+    private synchronized void parseAndTruncateSegments(BinaryDequeTruncator truncator) throws IOException {
+        awaitPollsInFlight();
         if (m_closed) {
             throw new IOException("Cannot parseAndTruncate(): PBD has been closed");
         }
@@ -533,52 +641,74 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     @Override
-    public synchronized void offer(BBContainer object) throws IOException {
+    public void offer(BBContainer object) throws IOException {
         offer(object, true);
     }
 
     @Override
-    public synchronized void offer(BBContainer object, boolean allowCompression) throws IOException {
-        assertions();
-        if (m_closed) {
-            throw new IOException("Closed");
+    public void offer(BBContainer object, boolean allowCompression) throws IOException {
+        synchronized (m_appendLock) {
+            PBDSegment tail = beginAppend("Closed");
+            boolean success = false;
+            try {
+                final boolean compress = object.b().isDirect() && allowCompression;
+                if (!tail.offer(object, compress)) {
+                    tail = addSegment(tail);
+                    if (!tail.offer(object, compress)) {
+                        throw new IOException("Failed to offer object in PBD");
+                    }
+                }
+                success = true;
+            } finally {
+                endAppend(success);
+            }
         }
+    }
 
-        PBDSegment tail = peekLastSegment();
-        final boolean compress = object.b().isDirect() && allowCompression;
-        if (!tail.offer(object, compress)) {
-            tail = addSegment(tail);
-            final boolean success = tail.offer(object, compress);
-            if (!success) {
-                throw new IOException("Failed to offer object in PBD");
+    @Override
+    public int offer(DeferredSerialization ds) throws IOException {
+        synchronized (m_appendLock) {
+            PBDSegment tail = beginAppend("Cannot offer(): PBD has been Closed");
+            boolean success = false;
+            try {
+                int written = tail.offer(ds);
+                if (written < 0) {
+                    tail = addSegment(tail);
+                    written = tail.offer(ds);
+                    if (written < 0) {
+                        throw new IOException("Failed to offer object in PBD");
+                    }
+                }
+                success = true;
+                return written;
+            } finally {
+                endAppend(success);
             }
         }
-        m_numObjects++;
-        assertions();
     }
 
-    @Override
-    public synchronized int offer(DeferredSerialization ds) throws IOException {
+    /**
+     * Start an append with the append lock held. The returned tail segment is only written by
+     * the holder of the append lock, so the write itself happens outside the deque lock.
+     */
+    private synchronized PBDSegment beginAppend(String closedMessage) throws IOException {
         assertions();
         if (m_closed) {
-            throw new IOException("Cannot offer(): PBD has been Closed");
+            throw new IOException(closedMessage);
         }
+        m_appendInFlight = true;
+        return peekLastSegment();
+    }
 
-        PBDSegment tail = peekLastSegment();
-        int written = tail.offer(ds);
-        if (written < 0) {
-            tail = addSegment(tail);
-            written = tail.offer(ds);
-            if (written < 0) {
-                throw new IOException("Failed to offer object in PBD");
-            }
+    private synchronized void endAppend(boolean success) {
+        m_appendInFlight = false;
+        if (success) {
+            m_numObjects++;
         }
-        m_numObjects++;
         assertions();
-        return written;
     }
 
-    private PBDSegment addSegment(PBDSegment tail) throws IOException {
+    private synchronized PBDSegment addSegment(PBDSegment tail) throws IOException {
         //Check to see if the tail is completely consumed so we can close and delete it
         if (tail.hasAllFinishedReading() && canDeleteSegment(tail)) {
             pollLastSegment();
@@ -605,6 +735,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     @Override
     public synchronized void push(BBContainer objects[]) throws IOException {
+        // Cursors are rewound once the objects are pushed
+        awaitPollsInFlight();
         assertions();
         if (m_closed) {
             throw new IOException("Cannot push(): PBD has been Closed");
@@ -678,6 +810,36 @@ public class PersistentBinaryDeque implements BinaryDeque {
         }
     }
 
+    /**
+     * Wait, with the deque lock held, until no cursor is reading an entry outside the lock.
+     * Anything that closes segment files or moves cursors calls this before it checks or
+     * changes any state. Waiting releases the deque lock so the polls can finish, and no new
+     * one can start once this returns.
+     */
+    private void awaitPollsInFlight() {
+        assert(Thread.holdsLock(this));
+        boolean interrupted = false;
+        while (pollInFlight()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean pollInFlight() {
+        for (ReadCursor cursor : m_readCursors.values()) {
+            if (cursor.m_pollInFlight) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public synchronized BinaryDequeReader openForRead(String cursorId) throws IOException {
         if (m_closed) {
@@ -695,6 +857,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     @Override
     public synchronized void closeCursor(String cursorId) {
+        awaitPollsInFlight();
         if (m_closed) {
             return;
         }
@@ -756,28 +919,120 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     @Override
-    public synchronized void sync() throws IOException {
-        if (m_closed) {
-            throw new IOException("Cannot sync(): PBD has been Closed");
+    public void sync() throws IOException {
+        final ListenableFuture<?> future = syncAsync();
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted waiting for PBD sync", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
         }
-        for (PBDSegment segment : m_segments.values()) {
-            if (!segment.isClosed()) {
-                segment.sync();
+    }
+
+    /**
+     * Hand the segments written since the last sync to the shared sync scheduler. The fsyncs
+     * happen there, batched with those of other deques on the same volume, without holding
+     * either of this deque's locks.
+     */
+    @Override
+    public ListenableFuture<?> syncAsync() throws IOException {
+        synchronized (m_appendLock) {
+            synchronized (this) {
+                if (m_closed) {
+                    throw new IOException("Cannot sync(): PBD has been Closed");
+                }
+                final List<PBDSyncScheduler.SyncTarget> targets = new ArrayList<>(m_failedSyncs);
+                m_failedSyncs.clear();
+                for (PBDSegment segment : m_segments.values()) {
+                    if (!segment.isClosed()) {
+                        PBDSyncScheduler.SyncTarget target = segment.prepareSync();
+                        if (target != null) {
+                            addSyncTarget(targets, target);
+                        }
+                    }
+                }
+
+                // A segment already marked synced may still be waiting on an earlier request
+                final ListenableFuture<?> pending =
+                        (m_lastSync == null || m_lastSync.isDone()) ? null : m_lastSync;
+                if (targets.isEmpty()) {
+                    return pending == null ? Futures.immediateFuture(null) : pending;
+                }
+                final ListenableFuture<?> requested = retryIfFailed(
+                        PBDSyncScheduler.instance().sync(m_syncVolume, targets), targets);
+                m_lastSync = (pending == null) ? requested : Futures.allAsList(pending, requested);
+                return m_lastSync;
             }
         }
     }
 
-    @Override
-    public synchronized void close() throws IOException {
-        if (m_closed) {
-            return;
+    /**
+     * Add a target to a sync request, folding it into a failed target for the same file so
+     * the file is only counted once.
+     */
+    private static void addSyncTarget(List<PBDSyncScheduler.SyncTarget> targets, PBDSyncScheduler.SyncTarget target) {
+        for (int ii = 0; ii < targets.size(); ii++) {
+            final PBDSyncScheduler.SyncTarget existing = targets.get(ii);
+            if (existing.m_fc == target.m_fc) {
+                targets.set(ii, new PBDSyncScheduler.SyncTarget(
+                        existing.m_file, existing.m_fc, existing.m_bytes + target.m_bytes));
+                return;
+            }
         }
-        m_readCursors.clear();
+        targets.add(target);
+    }
 
-        for (PBDSegment segment : m_segments.values()) {
-            segment.close();
+    /**
+     * The segments in a sync request were marked synced before the fsync ran. If it fails keep
+     * the targets, with their unsynced bytes, for the next sync so the failure isn't lost once it
+     * has been reported. The returned future only completes after that, so a caller retrying
+     * straight away is guaranteed to force the files again.
+     */
+    private ListenableFuture<?> retryIfFailed(final ListenableFuture<?> requested,
+            final List<PBDSyncScheduler.SyncTarget> targets) {
+        final SettableFuture<Object> result = SettableFuture.create();
+        requested.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    requested.get();
+                    result.set(null);
+                } catch (InterruptedException e) {
+                    // Not possible, the request is done
+                    result.setException(e);
+                } catch (ExecutionException e) {
+                    synchronized (PersistentBinaryDeque.this) {
+                        if (!m_closed) {
+                            for (PBDSyncScheduler.SyncTarget target : targets) {
+                                addSyncTarget(m_failedSyncs, target);
+                            }
+                        }
+                    }
+                    result.setException(e.getCause());
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (m_appendLock) {
+            synchronized (this) {
+                awaitPollsInFlight();
+                if (m_closed) {
+                    return;
+                }
+                m_readCursors.clear();
+
+                for (PBDSegment segment : m_segments.values()) {
+                    segment.close();
+                }
+                m_closed = true;
+            }
         }
-        m_closed = true;
     }
 
     @Override
@@ -792,18 +1047,23 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     @Override
-    public synchronized void closeAndDelete() throws IOException {
-        if (m_closed) {
-            return;
-        }
-        m_readCursors.clear();
+    public void closeAndDelete() throws IOException {
+        synchronized (m_appendLock) {
+            synchronized (this) {
+                awaitPollsInFlight();
+                if (m_closed) {
+                    return;
+                }
+                m_readCursors.clear();
 
-        for (PBDSegment qs : m_segments.values()) {
-            m_usageSpecificLog.debug("Segment " + qs.file() + " has been closed and deleted due to delete all");
-            closeAndDeleteSegment(qs);
+                for (PBDSegment qs : m_segments.values()) {
+                    m_usageSpecificLog.debug("Segment " + qs.file() + " has been closed and deleted due to delete all");
+                    closeAndDeleteSegment(qs);
+                }
+                m_segments.clear();
+                m_closed = true;
+            }
         }
-        m_segments.clear();
-        m_closed = true;
     }
 
     public static class ByteBufferTruncatorResponse extends TruncatorResponse {
@@ -866,8 +1126,12 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     private void assertions() {
-        if (!assertionsOn || m_closed) return;
+        // Counts are only consistent when no append or poll is part way through outside the deque lock
+        if (!assertionsOn || m_closed || m_appendInFlight) return;
         for (ReadCursor cursor : m_readCursors.values()) {
+            if (cursor.m_pollInFlight) {
+                continue;
+            }
             int numObjects = 0;
             try {
                 for (PBDSegment segment : m_segments.values()) {
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Spliterator;
 import java.util.TimeZone;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -224,6 +225,23 @@ public class VoltTableUtil {
         return result;
     }
 
+    /**
+     * Hash the serialized form of the tables, so replicas can compare results
+     * without shipping them. A null table hashes the same as no table.
+     */
+    public static int hashTables(VoltTable... tables) {
+        CRC32 crc = new CRC32();
+        if (tables == null) {
+            return (int)crc.getValue();
+        }
+        for (VoltTable vt : tables) {
+            if (vt != null) {
+                crc.update(vt.getBuffer());
+            }
+        }
+        return (int)crc.getValue();
+    }
+
     /**
      * Extract a table's schema.
      * @param vt  input table with source schema
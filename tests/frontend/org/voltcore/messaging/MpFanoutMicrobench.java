@@ -0,0 +1,206 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.voltdb.DependencyPair;
+import org.voltdb.ParameterSet;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.messaging.CompleteTransactionMessage;
+import org.voltdb.messaging.FragmentResponseMessage;
+import org.voltdb.messaging.FragmentTaskMessage;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.VoltDbMessageFactory;
+
+/**
+ * Measures the messaging CPU cost of one MP round trip as the partition count
+ * grows: the MPI framing a FragmentTaskMessage and a CompleteTransactionMessage
+ * for every foreign host, each host deserializing them once, and every remote
+ * partition answering with a FragmentResponseMessage. Frames are built the way
+ * ForeignHost builds them, once flattening the message per host and once
+ * sharing a single FanoutSerialization across hosts.
+ *
+ * Usage: MpFanoutMicrobench [round trips] [sites per host]
+ */
+public class MpFanoutMicrobench {
+
+    private static final VoltDbMessageFactory s_factory = new VoltDbMessageFactory();
+    // Keeps the received messages from being optimized away
+    static volatile long s_sink;
+
+    private static int frameSize(long[] dests, VoltMessage message, FanoutSerialization shared) {
+        return 4 + 8 + 4 + 8 * dests.length
+                + (shared != null ? shared.getSerializedSize() : message.getSerializedSize());
+    }
+
+    // Same layout as ForeignHost.send(), serialized into an exactly sized slice like the network does
+    private static void frame(ByteBuffer wire, long[] dests, VoltMessage message, FanoutSerialization shared)
+            throws IOException {
+        final int size = frameSize(dests, message, shared);
+        final int oldLimit = wire.limit();
+        wire.limit(wire.position() + size);
+        final ByteBuffer buf = wire.slice();
+        wire.position(wire.limit());
+        wire.limit(oldLimit);
+
+        buf.putInt(size - 4);
+        buf.putLong(message.m_sourceHSId);
+        buf.putInt(dests.length);
+        for (long dest : dests) {
+            buf.putLong(dest);
+        }
+        if (shared != null) {
+            shared.serialize(buf);
+        } else {
+            message.flattenToBuffer(buf);
+        }
+    }
+
+    // Same parsing as ForeignHost.handleRead(), the message is deserialized once for all its destinations
+    private static VoltMessage receive(ByteBuffer wire) throws IOException {
+        final int length = wire.getInt();
+        final int end = wire.position() + length;
+        final int oldLimit = wire.limit();
+        wire.limit(end);
+        final ByteBuffer buf = wire.slice();
+        wire.position(end);
+        wire.limit(oldLimit);
+
+        final long source = buf.getLong();
+        final int destCount = buf.getInt();
+        buf.position(buf.position() + 8 * destCount);
+        return s_factory.createMessageFromBuffer(buf, source);
+    }
+
+    private static FragmentTaskMessage createFragment(long txnId) throws IOException {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName("MultiPartitionUpdate");
+        spi.setParams(txnId, "some text parameter", 42.0d);
+        Iv2InitiateTaskMessage initiate =
+            new Iv2InitiateTaskMessage(0, 0, txnId - 1, txnId, txnId, false, false, spi, 0, 0, false);
+
+        ParameterSet params = ParameterSet.fromArrayNoCopy(txnId, "some text parameter");
+        ByteBuffer paramBuf = ByteBuffer.allocate(params.getSerializedSize());
+        params.flattenToBuffer(paramBuf);
+        paramBuf.flip();
+
+        FragmentTaskMessage ft = new FragmentTaskMessage(0, 0, txnId, txnId, false, true, false);
+        ft.addFragment(new byte[20], 1, paramBuf);
+        ft.addFragment(new byte[20], 2, paramBuf.duplicate());
+        ft.setStateForDurability(initiate, Arrays.asList(0, 1, 2));
+        ft.m_sourceHSId = 0;
+        return ft;
+    }
+
+    private static FragmentResponseMessage createResponse(FragmentTaskMessage ft, long site) {
+        VoltTable modified = new VoltTable(new VoltTable.ColumnInfo("modified_tuples", VoltType.BIGINT));
+        modified.addRow(1);
+        FragmentResponseMessage resp = new FragmentResponseMessage(ft, site);
+        resp.setStatus(FragmentResponseMessage.SUCCESS, null);
+        resp.addDependency(new DependencyPair.TableDependencyPair(1, modified));
+        resp.m_sourceHSId = site;
+        return resp;
+    }
+
+    /**
+     * @return nanoseconds per round trip, total and spent framing the fan-out at the MPI
+     */
+    static long[] run(int partitions, int sitesPerHost, int roundTrips, boolean shareSerialization)
+            throws IOException {
+        final int hosts = (partitions + sitesPerHost - 1) / sitesPerHost;
+        // The MPI's own host is delivered to without serialization
+        final long[][] hostDests = new long[hosts - 1][];
+        for (int h = 1; h < hosts; h++) {
+            final int sites = Math.min(sitesPerHost, partitions - h * sitesPerHost);
+            hostDests[h - 1] = new long[sites];
+            for (int s = 0; s < sites; s++) {
+                hostDests[h - 1][s] = ((long)s << 32) | h;
+            }
+        }
+        final ByteBuffer wire = ByteBuffer.allocateDirect(1024 * 1024);
+
+        long consumed = 0;
+        long sendNanos = 0;
+        final long start = System.nanoTime();
+        for (int ii = 0; ii < roundTrips; ii++) {
+            final FragmentTaskMessage ft = createFragment(ii + 1);
+            final CompleteTransactionMessage ctm =
+                new CompleteTransactionMessage(0, 0, ii + 1, false, 0, false, false, false, false);
+            ctm.m_sourceHSId = 0;
+
+            for (VoltMessage fanout : new VoltMessage[] { ft, ctm }) {
+                final FanoutSerialization shared =
+                    shareSerialization && hostDests.length > 1 ? new FanoutSerialization(fanout) : null;
+                wire.clear();
+                final long sendStart = System.nanoTime();
+                for (long[] dests : hostDests) {
+                    frame(wire, dests, fanout, shared);
+                }
+                sendNanos += System.nanoTime() - sendStart;
+                wire.flip();
+                while (wire.hasRemaining()) {
+                    consumed += receive(wire).getSerializedSize();
+                }
+            }
+
+            // Every remote partition answers the fragment on its own
+            for (long[] dests : hostDests) {
+                for (long dest : dests) {
+                    final FragmentResponseMessage resp = createResponse(ft, dest);
+                    wire.clear();
+                    frame(wire, new long[] { 0 }, resp, null);
+                    wire.flip();
+                    consumed += receive(wire).getSerializedSize();
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        s_sink += consumed;
+        return new long[] { elapsed / roundTrips, sendNanos / roundTrips };
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final int sitesPerHost = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+
+        // Warm up before measuring
+        for (int partitions = 6; partitions <= 60; partitions += 6) {
+            run(partitions, sitesPerHost, roundTrips / 10, false);
+            run(partitions, sitesPerHost, roundTrips / 10, true);
+        }
+        for (int partitions : new int[] { 6, 12, 24, 36, 48, 60 }) {
+            final long[] perHost = run(partitions, sitesPerHost, roundTrips, false);
+            final long[] shared = run(partitions, sitesPerHost, roundTrips, true);
+            System.out.printf("%2d partitions, %2d hosts: flatten per host %7d ns (fan-out %6d ns),"
+                    + " shared serialization %7d ns (fan-out %6d ns) per round trip%n",
+                    partitions, (partitions + sitesPerHost - 1) / sitesPerHost,
+                    perHost[0], perHost[1], shared[0], shared[1]);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltcore.messaging;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.voltcore.network.PicoNetwork;
+import org.voltcore.utils.DeferredSerialization;
+
+public class TestMessageBatcher extends TestCase {
+
+    private ScheduledExecutorService m_ses;
+    private PicoNetwork m_network;
+    private final LinkedBlockingQueue<ByteBuffer> m_written = new LinkedBlockingQueue<>();
+
+    @Override
+    public void setUp() {
+        m_ses = Executors.newSingleThreadScheduledExecutor();
+        m_network = mock(PicoNetwork.class);
+        // Serialize what is enqueued the way the network thread would
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                DeferredSerialization ds = (DeferredSerialization)invocation.getArguments()[0];
+                ByteBuffer buf = ByteBuffer.allocate(ds.getSerializedSize());
+                ds.serialize(buf);
+                buf.flip();
+                m_written.offer(buf);
+                return null;
+            }
+        }).when(m_network).enqueue(any(DeferredSerialization.class));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        m_ses.shutdownNow();
+    }
+
+    private static HeartbeatMessage message(long txnId) {
+        return new HeartbeatMessage(1, txnId, txnId - 1);
+    }
+
+    private static int frameSize(int destinations) {
+        return 4 + 8 + 4 + 8 * destinations + message(0).getSerializedSize();
+    }
+
+    /*
+     * Split a batch back into frames, check their destinations and return the txn ids
+     */
+    private static List<Long> txnIds(ByteBuffer batch, long[] destinations) throws Exception {
+        List<Long> txnIds = new ArrayList<>();
+        VoltMessageFactory factory = new VoltMessageFactory();
+        while (batch.hasRemaining()) {
+            final int length = batch.getInt();
+            final int end = batch.position() + length;
+            final long sourceHSId = batch.getLong();
+            assertEquals(destinations.length, batch.getInt());
+            for (long destination : destinations) {
+                assertEquals(destination, batch.getLong());
+            }
+            ByteBuffer payload = batch.slice();
+            payload.limit(end - batch.position());
+            HeartbeatMessage message = (HeartbeatMessage)factory.createMessageFromBuffer(payload, sourceHSId);
+            txnIds.add(message.getTxnId());
+            batch.position(end);
+        }
+        return txnIds;
+    }
+
+    public void testFlushWhenFull() throws Exception {
+        final long[] destinations = new long[] { 7, 8 };
+        // room for three frames
+        MessageBatcher batcher = new MessageBatcher(m_network, frameSize(2) * 3 + 1,
+                TimeUnit.SECONDS.toNanos(60), m_ses);
+
+        for (long txnId = 0; txnId < 7; txnId++) {
+            assertTrue(batcher.add(destinations, message(txnId), null));
+        }
+        assertEquals(2, m_written.size());
+        assertEquals(frameSize(2) * 3, m_written.peek().remaining());
+
+        batcher.flush();
+        List<Long> txnIds = new ArrayList<>();
+        ByteBuffer buf;
+        while ((buf = m_written.poll()) != null) {
+            txnIds.addAll(txnIds(buf, destinations));
+        }
+        assertEquals(7, txnIds.size());
+        for (int ii = 0; ii < 7; ii++) {
+            assertEquals(ii, txnIds.get(ii).longValue());
+        }
+
+        // nothing pending, nothing written
+        batcher.flush();
+        assertTrue(m_written.isEmpty());
+
+        long[] stats = batcher.getStats(false);
+        assertEquals(3, stats[0]);
+        assertEquals(7, stats[1]);
+        assertTrue(stats[3] <= stats[2]);
+    }
+
+    public void testFlushAfterDelay() throws Exception {
+        final long[] destinations = new long[] { 7 };
+        MessageBatcher batcher = new MessageBatcher(m_network, 16 * 1024, TimeUnit.MILLISECONDS.toNanos(10), m_ses);
+        assertTrue(batcher.add(destinations, message(1), null));
+        assertTrue(batcher.add(destinations, message(2), null));
+        assertTrue(m_written.isEmpty());
+
+        ByteBuffer buf = m_written.poll(10, TimeUnit.SECONDS);
+        assertNotNull(buf);
+        assertEquals(2, txnIds(buf, destinations).size());
+
+        // the next message schedules another flush
+        assertTrue(batcher.add(destinations, message(3), null));
+        buf = m_written.poll(10, TimeUnit.SECONDS);
+        assertNotNull(buf);
+        assertEquals(3, txnIds(buf, destinations).get(0).longValue());
+
+        long[] stats = batcher.getStats(true);
+        assertEquals(2, stats[0]);
+        assertEquals(3, stats[1]);
+        assertTrue(stats[3] >= TimeUnit.MILLISECONDS.toNanos(10));
+        stats = batcher.getStats(true);
+        assertEquals(0, stats[0]);
+        assertEquals(0, stats[1]);
+        assertEquals(0, stats[3]);
+    }
+
+    public void testSharedSerialization() throws Exception {
+        final long[] destinations = new long[] { 7 };
+        MessageBatcher batcher = new MessageBatcher(m_network, 16 * 1024, TimeUnit.SECONDS.toNanos(60), m_ses);
+        HeartbeatMessage message = message(5);
+        assertTrue(batcher.add(destinations, message, new FanoutSerialization(message)));
+        batcher.flush();
+        assertEquals(5, txnIds(m_written.poll(), destinations).get(0).longValue());
+    }
+
+    public void testUnbatchedWrittenInOrder() throws Exception {
+        final long[] destinations = new long[] { 7 };
+        MessageBatcher batcher = new MessageBatcher(m_network, 16 * 1024, TimeUnit.SECONDS.toNanos(60), m_ses);
+        assertTrue(batcher.add(destinations, message(1), null));
+        batcher.enqueue(new DeferredSerialization() {
+            @Override
+            public void serialize(ByteBuffer buf) {
+                buf.putInt(42);
+            }
+
+            @Override
+            public void cancel() {}
+
+            @Override
+            public int getSerializedSize() {
+                return 4;
+            }
+        });
+        assertEquals(2, m_written.size());
+        assertEquals(1, txnIds(m_written.poll(), destinations).get(0).longValue());
+        assertEquals(42, m_written.poll().getInt());
+    }
+
+    public void testTooLargeToBatch() throws Exception {
+        MessageBatcher batcher = new MessageBatcher(m_network, frameSize(1) - 1, TimeUnit.SECONDS.toNanos(60), m_ses);
+        assertFalse(batcher.add(new long[] { 7 }, message(1), null));
+        batcher.flush();
+        assertTrue(m_written.isEmpty());
+        assertEquals(0, batcher.getStats(false)[0]);
+    }
+}
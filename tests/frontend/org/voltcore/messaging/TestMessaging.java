@@ -114,6 +114,28 @@ public class TestMessaging extends TestCase {
         return configs;
     }
 
+    public void testFanoutSerialization() throws Exception {
+        MsgTest.initWithSize(1000);
+        MsgTest msg = new MsgTest();
+        msg.setValues();
+
+        ByteBuffer flattened = ByteBuffer.allocate(msg.getSerializedSize());
+        msg.flattenToBuffer(flattened);
+        flattened.flip();
+
+        // Every host sending the message gets the same bytes, framed after its own header
+        FanoutSerialization shared = new FanoutSerialization(msg);
+        assertEquals(msg.getSerializedSize(), shared.getSerializedSize());
+        for (int host = 0; host < 3; host++) {
+            ByteBuffer buf = ByteBuffer.allocate(4 + shared.getSerializedSize());
+            buf.putInt(host);
+            shared.serialize(buf);
+            assertFalse(buf.hasRemaining());
+            buf.position(4);
+            assertEquals(flattened, buf);
+        }
+    }
+
     public void testSimple() throws Exception {
         List<HostMessenger.Config> configs = getConfigs(2);
         HostMessenger msg1 = new HostMessenger(configs.get(0), null);
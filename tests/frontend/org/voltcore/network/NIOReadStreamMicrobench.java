@@ -0,0 +1,166 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Measures how many framed messages per second a single network thread can pull
+ * out of an NIOReadStream with VoltProtocolHandler. The "legacy" mode reproduces
+ * the old length reader, which allocated a byte[4] per message, for comparison.
+ *
+ * Usage: NIOReadStreamMicrobench [message size in bytes] [seconds per run]
+ */
+public class NIOReadStreamMicrobench {
+
+    /**
+     * Endless channel serving back to back length prefixed messages
+     * out of a preformatted block.
+     */
+    static class FramedChannel implements ReadableByteChannel {
+        private final ByteBuffer m_block;
+
+        FramedChannel(int messageSize) {
+            final int framed = messageSize + 4;
+            final int count = Math.max(1, (256 * 1024) / framed);
+            m_block = ByteBuffer.allocate(framed * count);
+            for (int i = 0; i < count; i++) {
+                m_block.putInt(messageSize);
+                m_block.position(m_block.position() + messageSize);
+            }
+            m_block.flip();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int read = 0;
+            while (dst.hasRemaining()) {
+                if (!m_block.hasRemaining()) {
+                    m_block.rewind();
+                }
+                final int length = Math.min(dst.remaining(), m_block.remaining());
+                final ByteBuffer src = m_block.duplicate();
+                src.limit(src.position() + length);
+                dst.put(src);
+                m_block.position(m_block.position() + length);
+                read += length;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static class LegacyHandler extends VoltProtocolHandler {
+        private int m_legacyNextLength = 0;
+
+        @Override
+        public ByteBuffer retrieveNextMessage(final NIOReadStream inputStream) {
+            ByteBuffer result = null;
+            if (m_legacyNextLength == 0 && inputStream.dataAvailable() > (Integer.SIZE/8)) {
+                byte[] intbytes = new byte[4];
+                inputStream.getBytes(intbytes);
+                for (int i = 0; i < intbytes.length; ++i) {
+                    m_legacyNextLength <<= 8;
+                    m_legacyNextLength |= (intbytes[i]) & 0xff;
+                }
+            }
+            if (m_legacyNextLength > 0 && inputStream.dataAvailable() >= m_legacyNextLength) {
+                result = ByteBuffer.allocate(m_legacyNextLength);
+                inputStream.getBytes(result.array());
+                m_legacyNextLength = 0;
+            }
+            return result;
+        }
+
+        @Override
+        public int getMaxRead() { return Integer.MAX_VALUE; }
+        @Override
+        public void handleMessage(ByteBuffer message, Connection c) {}
+        @Override
+        public Runnable offBackPressure() { return null; }
+        @Override
+        public Runnable onBackPressure() { return null; }
+        @Override
+        public QueueMonitor writestreamMonitor() { return null; }
+    }
+
+    static class CurrentHandler extends VoltProtocolHandler {
+        @Override
+        public int getMaxRead() { return Integer.MAX_VALUE; }
+        @Override
+        public void handleMessage(ByteBuffer message, Connection c) {}
+        @Override
+        public Runnable offBackPressure() { return null; }
+        @Override
+        public Runnable onBackPressure() { return null; }
+        @Override
+        public QueueMonitor writestreamMonitor() { return null; }
+    }
+
+    static long run(VoltProtocolHandler handler, int messageSize, long durationMillis) throws IOException {
+        final FramedChannel channel = new FramedChannel(messageSize);
+        final NIOReadStream stream = new NIOReadStream();
+        final NetworkDBBPool pool = new NetworkDBBPool();
+        long messages = 0;
+        final long end = System.currentTimeMillis() + durationMillis;
+        try {
+            while (System.currentTimeMillis() < end) {
+                for (int i = 0; i < 1000; i++) {
+                    stream.read(channel, 64 * 1024, pool);
+                    while (handler.retrieveNextMessage(stream) != null) {
+                        messages++;
+                    }
+                }
+            }
+        } finally {
+            stream.shutdown();
+        }
+        return messages;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int messageSize = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // Warm up both paths before measuring
+        run(new LegacyHandler(), messageSize, 2000);
+        run(new CurrentHandler(), messageSize, 2000);
+
+        final long legacy = run(new LegacyHandler(), messageSize, seconds * 1000L);
+        final long current = run(new CurrentHandler(), messageSize, seconds * 1000L);
+        System.out.printf("%d byte messages, legacy: %d msgs/sec, current: %d msgs/sec (%.1f%%)%n",
+                messageSize, legacy / seconds, current / seconds,
+                (current - legacy) * 100.0 / legacy);
+    }
+}
@@ -300,6 +300,31 @@ public class TestNIOReadStream extends TestCase {
         assertEquals(252, stream.getInt());
     }
 
+    public void testReadIntSpanningBuffers() throws IOException {
+        final int BORDER = 32 * 1024;
+        ByteBuffer netbb = ByteBuffer.allocate(BORDER + 8);
+        channel.nextRead = netbb.array();
+        netbb.putInt(2121);
+        netbb.position(BORDER - 2);
+        netbb.putInt(0x01020304);
+        netbb.putInt(-5555);
+
+        assertEquals(BORDER + 8, stream.read(channel, BORDER + 8, pool));
+        assertEquals(2121, stream.getInt());
+        byte[] fillah = new byte[BORDER - 6];
+        stream.getBytes(fillah);
+
+        // Straddles the first and second pool buffers
+        assertEquals(0x01020304, stream.getInt());
+        assertEquals(-5555, stream.getInt());
+        assertEquals(2, stream.dataAvailable());
+
+        try {
+            stream.getInt();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {}
+    }
+
     public void testEndReadComplete() throws IOException {
         channel.nextRead = new byte[]{1, 2, 3,4 };
         channel.end = true;
@@ -0,0 +1,133 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import org.voltdb.utils.MiscUtils;
+
+/**
+ * Measures the CPU and garbage cost of turning one importer row into an invocation ready
+ * for the command log, the way InternalConnectionHandler.callProcedure() does it. Each row
+ * is either set as parameters and round tripped through MiscUtils.roundTripForCL(), or
+ * serialized once with StoredProcedureInvocation.setSerializedParams(). Both then read the
+ * partition parameter back, as the partition lookup does.
+ *
+ * Rows are a long partition key followed by string fields, like a CSV line split by an
+ * importer formatter.
+ *
+ * Usage: ImporterInvocationMicrobench [rows] [string fields per row] [bytes per field]
+ */
+public class ImporterInvocationMicrobench {
+
+    // Keeps the invocations from being optimized away
+    static volatile long s_sink;
+
+    private static Object[][] createRows(int count, int fields, int fieldSize) {
+        final Random random = new Random(0);
+        final Object[][] rows = new Object[count][];
+        final char[] chars = new char[fieldSize];
+        for (int ii = 0; ii < count; ii++) {
+            final Object[] row = new Object[fields + 1];
+            row[0] = random.nextLong();
+            for (int jj = 1; jj <= fields; jj++) {
+                for (int kk = 0; kk < fieldSize; kk++) {
+                    chars[kk] = (char)('a' + random.nextInt(26));
+                }
+                row[jj] = new String(chars);
+            }
+            rows[ii] = row;
+        }
+        return rows;
+    }
+
+    private static StoredProcedureInvocation roundTrip(Object[] row) throws IOException {
+        StoredProcedureInvocation task = new StoredProcedureInvocation();
+        task.setProcName("ImportInsert");
+        task.setParams(row);
+        return MiscUtils.roundTripForCL(task);
+    }
+
+    private static StoredProcedureInvocation direct(Object[] row) throws IOException {
+        StoredProcedureInvocation task = new StoredProcedureInvocation();
+        task.setProcName("ImportInsert");
+        task.setSerializedParams(row);
+        return task;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * @return nanoseconds and bytes allocated per row
+     */
+    static long[] run(Object[][] rows, int passes, boolean serializeDirectly) throws IOException {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long consumed = 0;
+        final long startBytes = allocatedBytes(threads);
+        final long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (Object[] row : rows) {
+                final StoredProcedureInvocation task = serializeDirectly ? direct(row) : roundTrip(row);
+                consumed += (Long)task.getParameterAtIndex(0);
+                consumed += task.getSerializedSize();
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long bytes = allocatedBytes(threads) - startBytes;
+        s_sink += consumed;
+        final long count = (long)rows.length * passes;
+        return new long[] { elapsed / count, bytes / count };
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int fields = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final int fieldSize = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        // Rows are reused across passes so creating them isn't measured
+        final Object[][] rows = createRows(Math.min(count, 10000), fields, fieldSize);
+        final int passes = Math.max(1, count / rows.length);
+
+        // Warm up before measuring
+        for (int ii = 0; ii < 5; ii++) {
+            run(rows, Math.max(1, passes / 10), false);
+            run(rows, Math.max(1, passes / 10), true);
+        }
+        final long[] roundTrip = run(rows, passes, false);
+        final long[] direct = run(rows, passes, true);
+        System.out.printf("%d rows of a long and %d %d character strings:%n", rows.length * passes, fields, fieldSize);
+        System.out.printf("  roundTripForCL       %6d ns/row, %6d bytes allocated/row, %.0f rows/sec%n",
+                roundTrip[0], roundTrip[1], 1000000000.0 / roundTrip[0]);
+        System.out.printf("  setSerializedParams  %6d ns/row, %6d bytes allocated/row, %.0f rows/sec%n",
+                direct[0], direct[1], 1000000000.0 / direct[0]);
+    }
+}
@@ -0,0 +1,130 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.VoltTable.ColumnInfo;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
+/**
+ * Measures how fast DefaultSnapshotDataTarget writes the chunks of many tables spread
+ * over one or more directories, the way a native snapshot does. Every round hands each
+ * table one chunk of half compressible data and waits for the previous round to be
+ * written, like a site that runs out of snapshot buffers.
+ *
+ * The writer is configured with the snapshot system properties, so compare runs with
+ * different settings, e.g. -DSNAPSHOT_WRITER_PER_VOLUME=true -DSNAPSHOT_WRITE_GATHER_CHUNKS=8
+ * -DSNAPSHOT_SYNC_POLICY=fsync
+ *
+ * Usage: SnapshotWriteMicrobench [comma separated directories] [tables] [chunk size in bytes] [seconds]
+ */
+public class SnapshotWriteMicrobench {
+
+    static void run(List<File> dirs, int tables, int chunkSize, int seconds) throws Exception {
+        final VoltTable schema = new VoltTable(new ColumnInfo("C", VoltType.VARBINARY));
+        final List<DefaultSnapshotDataTarget> targets = new ArrayList<>();
+        for (int ii = 0; ii < tables; ii++) {
+            final File file = new File(dirs.get(ii % dirs.size()), "microbench-TABLE" + ii + ".vpt");
+            targets.add(new DefaultSnapshotDataTarget(file, 0, "cluster", "database", "TABLE" + ii,
+                    1, false, Arrays.asList(0), schema, 0, System.currentTimeMillis()));
+        }
+
+        // First 4 bytes are the partition id, the rest half random and half zeroes
+        final byte[] data = new byte[chunkSize];
+        new Random(0).nextBytes(data);
+        Arrays.fill(data, 0, 4, (byte)0);
+        Arrays.fill(data, chunkSize / 2, chunkSize, (byte)0);
+
+        final long start = System.nanoTime();
+        final long end = start + seconds * 1000000000L;
+        long chunks = 0;
+        List<ListenableFuture<?>> previous = new ArrayList<>();
+        while (System.nanoTime() < end) {
+            final List<ListenableFuture<?>> round = new ArrayList<>(tables);
+            for (int ii = 0; ii < tables; ii++) {
+                final BBContainer chunk = DBBPool.allocateDirect(chunkSize);
+                chunk.b().put(data).flip();
+                round.add(targets.get(ii).write(new Callable<BBContainer>() {
+                    @Override
+                    public BBContainer call() {
+                        return chunk;
+                    }
+                }, ii));
+            }
+            for (ListenableFuture<?> f : previous) {
+                f.get();
+            }
+            chunks += previous.size();
+            previous = round;
+        }
+        for (ListenableFuture<?> f : previous) {
+            f.get();
+        }
+        chunks += previous.size();
+
+        long bytes = 0;
+        for (DefaultSnapshotDataTarget target : targets) {
+            target.close();
+            bytes += target.getBytesWritten();
+        }
+        final double elapsedSeconds = (System.nanoTime() - start) / 1000000000.0;
+        for (int ii = 0; ii < tables; ii++) {
+            new File(dirs.get(ii % dirs.size()), "microbench-TABLE" + ii + ".vpt").delete();
+        }
+
+        System.out.printf("%d tables in %d directories, %d byte chunks: %.0f chunks/sec, %.1f MB/sec written%n",
+                tables, dirs.size(), chunkSize, chunks / elapsedSeconds,
+                bytes / (1024.0 * 1024.0) / elapsedSeconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<File> dirs = new ArrayList<>();
+        final String dirNames = args.length > 0 ? args[0] : "/tmp/" + System.getProperty("user.name") + "/snapshotbench";
+        for (String dirName : dirNames.split(",")) {
+            final File dir = new File(dirName);
+            dir.mkdirs();
+            dirs.add(dir);
+        }
+        final int tables = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        final int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 512 * 1024;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        System.out.println("Writer per volume " + DefaultSnapshotDataTarget.SNAPSHOT_WRITER_PER_VOLUME +
+                ", gathering up to " + DefaultSnapshotDataTarget.SNAPSHOT_WRITE_GATHER_CHUNKS + " chunks" +
+                ", sync policy " + DefaultSnapshotDataTarget.SNAPSHOT_SYNC_POLICY);
+        // Warm up before measuring
+        run(dirs, tables, chunkSize, 2);
+        run(dirs, tables, chunkSize, seconds);
+    }
+}
@@ -28,7 +28,14 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 import org.voltcore.network.Connection;
@@ -116,4 +123,138 @@ public class TestClientInterfaceHandleManager {
             assertEquals(31337 + i, inf.m_clientHandle);
         }
     }
+
+    @Test
+    public void testOutstandingCounts() throws Exception
+    {
+        Connection mockConnection = mock(Connection.class);
+        doReturn(mock(org.voltcore.network.WriteStream.class)).when(mockConnection).writeStream();
+        ClientInterfaceHandleManager dut =
+                new ClientInterfaceHandleManager(
+                        false,
+                        mockConnection,
+                        null,
+                        AdmissionControlGroup.getDummy());
+        List<Long> handles = new ArrayList<Long>();
+        for (int i = 0; i < 10; i++) {
+            handles.add(dut.getHandle(true, 7, 31337 + i, 10, 10l, "yankeefoo", 0, i % 2 == 0, false));
+        }
+        handles.add(dut.getHandle(false, 0, 42, 10, 10l, "mp", 0, false, false));
+        long shortCircuit = dut.getHandle(true, 3, 43, 10, 10l, "sc", 0, true, true);
+        assertEquals(12, dut.getOutstandingTxns());
+
+        Map<Integer, long[]> counts = new HashMap<Integer, long[]>();
+        dut.addOutstandingHandlesByPartition(counts);
+        assertEquals(2, counts.size());
+        assertArrayEquals(new long[] {5, 5}, counts.get(7));
+        assertArrayEquals(new long[] {0, 1}, counts.get(ClientInterfaceHandleManager.MP_PART_ID));
+
+        assertNotNull(dut.findHandle(shortCircuit));
+        // finding handle 3 drops the lost write before it
+        assertNotNull(dut.findHandle(handles.get(3)));
+        assertNotNull(dut.removeHandle(handles.get(10)));
+        assertEquals(8, dut.getOutstandingTxns());
+
+        counts.clear();
+        dut.addOutstandingHandlesByPartition(counts);
+        assertArrayEquals(new long[] {5, 3}, counts.get(7));
+        assertNull(counts.get(ClientInterfaceHandleManager.MP_PART_ID));
+
+        dut.freeOutstandingTxns();
+        assertEquals(0, dut.getOutstandingTxns());
+    }
+
+    @Test
+    public void testThreadSafeConcurrentPartitions() throws Exception
+    {
+        Connection mockConnection = mock(Connection.class);
+        final ClientInterfaceHandleManager dut =
+                ClientInterfaceHandleManager.makeThreadSafeCIHM(
+                        true,
+                        mockConnection,
+                        null,
+                        AdmissionControlGroup.getDummy());
+        final int partitions = 8;
+        final int txnsPerPartition = 10000;
+        ExecutorService es = Executors.newFixedThreadPool(partitions);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int p = 0; p < partitions; p++) {
+            final int partition = p;
+            futures.add(es.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < txnsPerPartition; i++) {
+                        long handle = dut.getHandle(true, partition, i, 10, 10l, "foo", 0, i % 2 == 0, i % 7 == 0);
+                        ClientInterfaceHandleManager.Iv2InFlight inflight = dut.findHandle(handle);
+                        assertNotNull(inflight);
+                        assertEquals(i, inflight.m_clientHandle);
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        es.shutdown();
+        assertTrue(es.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(0, dut.getOutstandingTxns());
+    }
+
+    @Test
+    public void testThreadSafeAdmissionControl() throws Exception
+    {
+        // Counts like the real group does, with plain fields, and notices callers overlapping
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final AtomicBoolean inside = new AtomicBoolean(false);
+        final long[] pending = new long[2];
+        AdmissionControlGroup acg = new AdmissionControlGroup(Integer.MAX_VALUE, Integer.MAX_VALUE) {
+            private void enter() {
+                if (!inside.compareAndSet(false, true)) {
+                    overlapped.set(true);
+                }
+                // Give other callers a chance to overlap
+                Thread.yield();
+            }
+            @Override
+            public void increaseBackpressure(int messageSize) {
+                enter();
+                pending[0]++;
+                pending[1] += messageSize;
+                inside.set(false);
+            }
+            @Override
+            public void reduceBackpressure(int messageSize) {
+                enter();
+                pending[0]--;
+                pending[1] -= messageSize;
+                inside.set(false);
+            }
+        };
+        Connection mockConnection = mock(Connection.class);
+        final ClientInterfaceHandleManager dut =
+                ClientInterfaceHandleManager.makeThreadSafeCIHM(true, mockConnection, null, acg);
+        final int partitions = 8;
+        ExecutorService es = Executors.newFixedThreadPool(partitions);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int p = 0; p < partitions; p++) {
+            final int partition = p;
+            futures.add(es.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        long handle = dut.getHandle(true, partition, i, 10, 10l, "foo", 0, i % 2 == 0, i % 7 == 0);
+                        assertNotNull(dut.findHandle(handle));
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        es.shutdown();
+        assertTrue(es.awaitTermination(1, TimeUnit.MINUTES));
+        assertFalse(overlapped.get());
+        assertEquals(0, pending[0]);
+        assertEquals(0, pending[1]);
+    }
 }
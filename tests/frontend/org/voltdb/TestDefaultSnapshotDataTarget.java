@@ -0,0 +1,274 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget.SyncPolicy;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.sysprocs.saverestore.TableSaveFile;
+import org.voltdb.utils.VoltFile;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
+public class TestDefaultSnapshotDataTarget extends TestCase
+{
+    private static final int PARTITIONS = 4;
+    private static final int ROWS = 64;
+
+    private File m_dir;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("TestDefaultSnapshotDataTarget", "");
+        m_dir.delete();
+        m_dir.mkdir();
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        DefaultSnapshotDataTarget.m_simulateBlockedWrite = null;
+        DefaultSnapshotDataTarget.m_writeGatherBytes = DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC / 4;
+        VoltFile.recursivelyDelete(m_dir);
+    }
+
+    private static VoltTable createTable()
+    {
+        return new VoltTable(new ColumnInfo("ID", VoltType.BIGINT), new ColumnInfo("DATA", VoltType.VARBINARY));
+    }
+
+    // The same random bytes every time for a given row
+    private static byte[] rowData(long id, int rowBytes)
+    {
+        byte data[] = new byte[rowBytes];
+        new Random(id).nextBytes(data);
+        return data;
+    }
+
+    private DefaultSnapshotDataTarget createTarget(String name, boolean writerPerVolume, int writeGatherChunks,
+            SyncPolicy syncPolicy) throws Exception
+    {
+        List<Integer> partitionIds = new ArrayList<Integer>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitionIds.add(i);
+        }
+        return new DefaultSnapshotDataTarget(new File(m_dir, name), 0, "cluster", "database", name, PARTITIONS,
+                false, partitionIds, createTable(), 0, 0, new int[] { 0, 0, 0, 2 }, writerPerVolume,
+                writeGatherChunks, syncPolicy);
+    }
+
+    // Chunk i belongs to partition i % PARTITIONS and holds the ids i * ROWS up to (i + 1) * ROWS
+    private static List<ListenableFuture<?>> writeChunks(DefaultSnapshotDataTarget target, int chunks,
+            int rowBytes)
+    {
+        List<ListenableFuture<?>> writes = new ArrayList<ListenableFuture<?>>();
+        for (int i = 0; i < chunks; i++) {
+            VoltTable table = createTable();
+            for (int r = 0; r < ROWS; r++) {
+                long id = i * ROWS + r;
+                table.addRow(id, rowData(id, rowBytes));
+            }
+            // Like the EE, the row count and the rows without the length and header that are in the file header
+            ByteBuffer rows = ByteBuffer.allocate(table.getSerializedSize());
+            table.flattenToBuffer(rows);
+            rows.position(8 + rows.getInt(4));
+            final BBContainer c = DBBPool.allocateDirect(4 + rows.remaining());
+            c.b().putInt(i % PARTITIONS);
+            c.b().put(rows);
+            c.b().flip();
+            writes.add(target.write(new Callable<BBContainer>() {
+                @Override
+                public BBContainer call() {
+                    return c;
+                }
+            }, 0));
+        }
+        return writes;
+    }
+
+    private static void writeFile(DefaultSnapshotDataTarget target, int chunks, int rowBytes) throws Exception
+    {
+        for (ListenableFuture<?> write : writeChunks(target, chunks, rowBytes)) {
+            write.get();
+        }
+        target.close();
+    }
+
+    // Read the file back and check it has every chunk, in the order they were written
+    private void checkFile(String name, int chunks, int rowBytes) throws Exception
+    {
+        TableSaveFile saveFile = new TableSaveFile(new FileInputStream(new File(m_dir, name)), 1, null);
+        try {
+            assertTrue(saveFile.getCompleted());
+            assertEquals(name.toUpperCase(), saveFile.getTableName());
+            for (int i = 0; i < chunks; i++) {
+                BBContainer c = saveFile.getNextChunk();
+                assertNotNull(c);
+                try {
+                    assertEquals(i % PARTITIONS, ((TableSaveFile.Container)c).partitionId);
+                    VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b(), true);
+                    assertEquals(ROWS, table.getRowCount());
+                    for (int r = 0; r < ROWS; r++) {
+                        long id = i * ROWS + r;
+                        assertEquals(id, table.fetchRow(r).getLong(0));
+                        assertTrue(Arrays.equals(rowData(id, rowBytes), table.fetchRow(r).getVarbinary(1)));
+                    }
+                } finally {
+                    c.discard();
+                }
+            }
+            assertNull(saveFile.getNextChunk());
+            assertTrue(saveFile.getCorruptedPartitionIds().isEmpty());
+        } finally {
+            saveFile.close();
+        }
+    }
+
+    public void testGatheredWritesReadBack() throws Exception
+    {
+        DefaultSnapshotDataTarget target = createTarget("gathered", false, 8, SyncPolicy.RANGE);
+        // Hold the first chunk so the ones behind it are compressed and written together
+        CountDownLatch blocked = new CountDownLatch(1);
+        DefaultSnapshotDataTarget.m_simulateBlockedWrite = blocked;
+        List<ListenableFuture<?>> writes = writeChunks(target, 32, 16);
+        blocked.countDown();
+        for (ListenableFuture<?> write : writes) {
+            write.get();
+        }
+        target.close();
+        checkFile("gathered", 32, 16);
+    }
+
+    public void testWriterPerVolume() throws Exception
+    {
+        DefaultSnapshotDataTarget first = createTarget("first", true, 4, SyncPolicy.RANGE);
+        DefaultSnapshotDataTarget second = createTarget("second", true, 4, SyncPolicy.RANGE);
+        // Files on the same volume share a writer of their own
+        assertNotSame(DefaultSnapshotDataTarget.m_es, first.m_writeService);
+        assertSame(first.m_writeService, second.m_writeService);
+        DefaultSnapshotDataTarget shared = createTarget("shared", false, 1, SyncPolicy.RANGE);
+        assertSame(DefaultSnapshotDataTarget.m_es, shared.m_writeService);
+        shared.close();
+        writeFile(first, 16, 16);
+        writeFile(second, 16, 16);
+        checkFile("first", 16, 16);
+        checkFile("second", 16, 16);
+    }
+
+    public void testFsyncPolicy() throws Exception
+    {
+        // Enough data for the sync task to fsync, which gives back the bytes allowed before sync
+        final int rowBytes = 16 * 1024;
+        final int chunks = (2 * DefaultSnapshotDataTarget.SNAPSHOT_SYNC_BYTES) / (ROWS * rowBytes) + 1;
+        DefaultSnapshotDataTarget target = createTarget("fsync", false, 4, SyncPolicy.FSYNC);
+        for (ListenableFuture<?> write : writeChunks(target, chunks, rowBytes)) {
+            write.get();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.availablePermits() <
+                DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC - DefaultSnapshotDataTarget.SNAPSHOT_SYNC_BYTES) {
+            assertTrue("Snapshot data wasn't synced", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+        target.close();
+        assertEquals(DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC,
+                DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.availablePermits());
+        checkFile("fsync", chunks, rowBytes);
+    }
+
+    public void testBlockedWritersSyncedBeforeThreshold() throws Exception
+    {
+        // Other targets have written almost all the bytes allowed before sync
+        final int held = DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC - 1024 * 1024;
+        DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.acquire(held);
+        try {
+            DefaultSnapshotDataTarget target = createTarget("blocked", false, 1, SyncPolicy.FSYNC);
+            // Less than SNAPSHOT_SYNC_BYTES, the writes only finish if it is synced for the blocked writer
+            for (ListenableFuture<?> write : writeChunks(target, 4, 8 * 1024)) {
+                write.get(10, TimeUnit.SECONDS);
+            }
+            target.close();
+        } finally {
+            DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.release(held);
+        }
+        assertEquals(DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC,
+                DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.availablePermits());
+        checkFile("blocked", 4, 8 * 1024);
+    }
+
+    public void testGatheredWritesLargerThanBytesAllowedBeforeSync() throws Exception
+    {
+        // Leave 2MB allowed before sync, and let a gathering write take at most 512KB of it
+        final int held = DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC - 2 * 1024 * 1024;
+        DefaultSnapshotDataTarget.m_writeGatherBytes = 512 * 1024;
+        DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.acquire(held);
+        try {
+            DefaultSnapshotDataTarget target = createTarget("largebatch", false, 1000, SyncPolicy.FSYNC);
+            // About 8MB of chunks queue up behind the first, more than one write could ever take
+            CountDownLatch blocked = new CountDownLatch(1);
+            DefaultSnapshotDataTarget.m_simulateBlockedWrite = blocked;
+            List<ListenableFuture<?>> writes = writeChunks(target, 32, 4 * 1024);
+            blocked.countDown();
+            for (ListenableFuture<?> write : writes) {
+                write.get(10, TimeUnit.SECONDS);
+            }
+            target.close();
+        } finally {
+            DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.release(held);
+        }
+        assertEquals(DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC,
+                DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.availablePermits());
+        checkFile("largebatch", 32, 4 * 1024);
+    }
+
+    public void testNoSyncPolicy() throws Exception
+    {
+        DefaultSnapshotDataTarget target = createTarget("nosync", false, 4, SyncPolicy.NONE);
+        for (ListenableFuture<?> write : writeChunks(target, 16, 1024)) {
+            write.get();
+        }
+        // Nothing waits on a sync before close
+        assertEquals(DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC,
+                DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.availablePermits());
+        target.close();
+        assertEquals(DefaultSnapshotDataTarget.BYTES_ALLOWED_BEFORE_SYNC,
+                DefaultSnapshotDataTarget.m_bytesAllowedBeforeSync.availablePermits());
+        checkFile("nosync", 16, 1024);
+    }
+}
@@ -0,0 +1,300 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import junit.framework.TestCase;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+import org.voltdb.iv2.MpInitiator;
+
+/**
+ * Rows importers submit in batches through {@link InternalConnectionHandler#callProcedures}
+ */
+public class TestInternalConnectionHandler extends TestCase {
+
+    private static final int PARTITIONS = 4;
+
+    // What the handler asked an adapter to run
+    static class Submitted {
+        final String m_proc;
+        final int m_partition;
+        final ProcedureCallback m_callback;
+        final Object[] m_params;
+        final AuthSystem.AuthUser m_user;
+        final Function<Integer, Boolean> m_backPressurePredicate;
+        final Thread m_thread = Thread.currentThread();
+
+        Submitted(String proc, int partition, ProcedureCallback callback, StoredProcedureInvocation task,
+                AuthSystem.AuthUser user, Function<Integer, Boolean> backPressurePredicate) {
+            m_proc = proc;
+            m_partition = partition;
+            m_callback = callback;
+            m_params = task.getParams().toArray();
+            m_user = user;
+            m_backPressurePredicate = backPressurePredicate;
+        }
+
+        VoltTable table() {
+            return (VoltTable)m_params[m_params.length - 1];
+        }
+    }
+
+    class RecordingAdapter extends InternalClientResponseAdapter {
+        RecordingAdapter(long connectionId) {
+            super(connectionId);
+        }
+
+        @Override
+        public boolean createTransaction(InternalAdapterTaskAttributes kattrs, String procName, Procedure catProc,
+                ProcedureCallback proccb, InternalConnectionStatsCollector statsCollector,
+                StoredProcedureInvocation task, AuthSystem.AuthUser user, int partition, boolean ntPriority,
+                Function<Integer, Boolean> backPressurePredicate) {
+            synchronized (m_submitted) {
+                m_submitted.add(new Submitted(procName, partition, proccb, task, user, backPressurePredicate));
+                m_submitted.notifyAll();
+            }
+            return !Long.valueOf(m_refusedId).equals(task.getParams().toArray()[0]);
+        }
+    }
+
+    static class RecordingCallback implements ProcedureCallback {
+        final List<ClientResponse> m_responses = new ArrayList<>();
+
+        @Override
+        public void clientCallback(ClientResponse response) {
+            m_responses.add(response);
+        }
+    }
+
+    private final InternalConnectionContext m_caller = new InternalConnectionContext() {
+        @Override
+        public String getName() {
+            return "TestImporter";
+        }
+    };
+    private final Function<Integer, Boolean> m_backPressurePredicate = (x) -> true;
+
+    private MockVoltDB m_voltdb;
+    private InternalConnectionHandler m_handler;
+    private final List<Submitted> m_submitted = new ArrayList<>();
+    // Id of the row the adapters refuse to queue, if any
+    private long m_refusedId = Long.MIN_VALUE;
+
+    @Override
+    public void setUp() {
+        m_voltdb = new MockVoltDB();
+        m_voltdb.addTable("PARTED", false);
+        m_voltdb.addColumnToTable("PARTED", "ID", VoltType.BIGINT, false, "", VoltType.BIGINT);
+        m_voltdb.addColumnToTable("PARTED", "AMOUNT", VoltType.INTEGER, true, "", VoltType.INTEGER);
+        m_voltdb.getTable("PARTED").setPartitioncolumn(m_voltdb.getColumnFromTable("PARTED", "ID"));
+        m_voltdb.addTable("REPL", true);
+        m_voltdb.addColumnToTable("REPL", "ID", VoltType.BIGINT, false, "", VoltType.BIGINT);
+        m_voltdb.addColumnToTable("REPL", "NAME", VoltType.STRING, true, "", VoltType.STRING);
+        VoltDB.replaceVoltDBInstanceForTest(m_voltdb);
+        TheHashinator.initialize(TheHashinator.getConfiguredHashinatorClass(),
+                TheHashinator.getConfigureBytes(PARTITIONS));
+
+        m_handler = new InternalConnectionHandler();
+        for (int pid = 0; pid < PARTITIONS; pid++) {
+            m_handler.addAdapter(pid, new RecordingAdapter(pid));
+        }
+        m_handler.addAdapter(MpInitiator.MP_INIT_PID, new RecordingAdapter(MpInitiator.MP_INIT_PID));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        m_voltdb.shutdown(null);
+    }
+
+    private static List<RecordingCallback> callbacks(int count) {
+        List<RecordingCallback> callbacks = new ArrayList<>();
+        for (int ii = 0; ii < count; ii++) {
+            callbacks.add(new RecordingCallback());
+        }
+        return callbacks;
+    }
+
+    private static ClientResponse response(byte status) {
+        return new ClientResponseImpl(status, new VoltTable[0], null);
+    }
+
+    private boolean[] call(String proc, List<Object[]> rows, List<RecordingCallback> callbacks) {
+        return m_handler.callProcedures(m_caller, m_backPressurePredicate, null, proc, rows, callbacks);
+    }
+
+    private List<Submitted> awaitSubmitted(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        synchronized (m_submitted) {
+            while (m_submitted.size() < count && System.currentTimeMillis() < deadline) {
+                m_submitted.wait(100);
+            }
+            assertEquals(count, m_submitted.size());
+            return new ArrayList<>(m_submitted);
+        }
+    }
+
+    private static void assertAllQueued(boolean[] queued) {
+        for (boolean q : queued) {
+            assertTrue(q);
+        }
+    }
+
+    public void testPartitionedRowsLoadPerPartition() throws Exception {
+        final int rowCount = 40;
+        List<Object[]> rows = new ArrayList<>();
+        Set<Integer> partitions = new HashSet<>();
+        for (long id = 0; id < rowCount; id++) {
+            // Integer ids are converted to the column type before hashing
+            rows.add(new Object[] { (int)id, (int)id * 10 });
+            partitions.add(TheHashinator.getPartitionForParameter(VoltType.BIGINT, id));
+        }
+        assertTrue(partitions.size() > 1);
+        List<RecordingCallback> callbacks = callbacks(rowCount);
+
+        assertAllQueued(call("PARTED.insert", rows, callbacks));
+
+        List<Submitted> loads = awaitSubmitted(partitions.size());
+        int loaded = 0;
+        for (Submitted load : loads) {
+            assertEquals("@LoadSinglepartitionTable", load.m_proc);
+            assertTrue(partitions.remove(load.m_partition));
+            assertEquals("PARTED", load.m_params[1]);
+            assertEquals((byte)0, load.m_params[2]);
+            assertTrue(load.m_user instanceof AuthSystem.InternalAdminUser);
+            assertSame(m_backPressurePredicate, load.m_backPressurePredicate);
+            VoltTable table = load.table();
+            while (table.advanceRow()) {
+                assertEquals(load.m_partition,
+                        TheHashinator.getPartitionForParameter(VoltType.BIGINT, table.getLong(0)));
+                assertEquals(table.getLong(0) * 10, table.getLong(1));
+                loaded++;
+            }
+            load.m_callback.clientCallback(response(ClientResponse.SUCCESS));
+        }
+        assertEquals(rowCount, loaded);
+
+        // Every row hears from the load it was in, once
+        for (RecordingCallback cb : callbacks) {
+            assertEquals(1, cb.m_responses.size());
+            assertEquals(ClientResponse.SUCCESS, cb.m_responses.get(0).getStatus());
+        }
+    }
+
+    public void testReplicatedRowsLoadInOneTransaction() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 0; id < 5; id++) {
+            rows.add(new Object[] { id, "name" + id });
+        }
+        List<RecordingCallback> callbacks = callbacks(rows.size());
+
+        assertAllQueued(call("REPL.insert", rows, callbacks));
+
+        Submitted load = awaitSubmitted(1).get(0);
+        assertEquals("@LoadMultipartitionTable", load.m_proc);
+        assertEquals(MpInitiator.MP_INIT_PID, load.m_partition);
+        assertEquals("REPL", load.m_params[0]);
+        assertEquals((byte)0, load.m_params[1]);
+        assertEquals(rows.size(), load.table().getRowCount());
+
+        load.m_callback.clientCallback(response(ClientResponse.SUCCESS));
+        for (RecordingCallback cb : callbacks) {
+            assertEquals(1, cb.m_responses.size());
+        }
+    }
+
+    public void testUnconvertibleRowsCalledOneByOne() throws Exception {
+        List<Object[]> rows = Arrays.asList(
+                new Object[] { 1L, 10 },
+                new Object[] { 2L, "not a number" },
+                new Object[] { 3L },
+                new Object[] { 4L, 40 });
+        List<RecordingCallback> callbacks = callbacks(rows.size());
+
+        assertAllQueued(call("PARTED.insert", rows, callbacks));
+
+        int loaded = 0;
+        List<Object> single = new ArrayList<>();
+        for (Submitted submitted : m_submitted) {
+            if (submitted.m_proc.equals("@LoadSinglepartitionTable")) {
+                loaded += submitted.table().getRowCount();
+            } else {
+                // The regular path reports why these rows fail
+                assertEquals("PARTED.insert", submitted.m_proc);
+                assertTrue(submitted.m_user instanceof AuthSystem.InternalImporterUser);
+                final long id = (Long)submitted.m_params[0];
+                assertSame(callbacks.get((int)id - 1), submitted.m_callback);
+                single.add(id);
+            }
+        }
+        assertEquals(2, loaded);
+        assertEquals(new HashSet<Object>(Arrays.asList(2L, 3L)), new HashSet<Object>(single));
+
+        // A lone row isn't worth a load
+        m_submitted.clear();
+        assertAllQueued(call("PARTED.insert", rows.subList(0, 1), callbacks.subList(0, 1)));
+        assertEquals("PARTED.insert", awaitSubmitted(1).get(0).m_proc);
+    }
+
+    public void testFailedLoadRetriedPerRow() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 0; id < 3; id++) {
+            rows.add(new Object[] { id, "name" + id });
+        }
+        List<RecordingCallback> callbacks = callbacks(rows.size());
+        assertAllQueued(call("REPL.insert", rows, callbacks));
+        Submitted load = awaitSubmitted(1).get(0);
+
+        // The adapter resubmits loads with an unknown outcome itself
+        load.m_callback.clientCallback(response(ClientResponse.RESPONSE_UNKNOWN));
+        Thread.sleep(100);
+        assertEquals(1, m_submitted.size());
+
+        // A failed load is retried one row at a time, off the response thread and with back pressure.
+        // A row that can't be queued again gets the failure of the load.
+        m_refusedId = 1;
+        final ClientResponse failure = response(ClientResponse.GRACEFUL_FAILURE);
+        load.m_callback.clientCallback(failure);
+        List<Submitted> retries = awaitSubmitted(1 + rows.size()).subList(1, 1 + rows.size());
+        for (int ii = 0; ii < rows.size(); ii++) {
+            Submitted retry = retries.get(ii);
+            assertEquals("REPL.insert", retry.m_proc);
+            assertEquals((long)ii, retry.m_params[0]);
+            assertSame(callbacks.get(ii), retry.m_callback);
+            assertSame(m_backPressurePredicate, retry.m_backPressurePredicate);
+            assertNotSame(Thread.currentThread(), retry.m_thread);
+        }
+        assertTrue(callbacks.get(0).m_responses.isEmpty());
+        assertEquals(Arrays.asList(failure), callbacks.get(1).m_responses);
+        assertTrue(callbacks.get(2).m_responses.isEmpty());
+    }
+}
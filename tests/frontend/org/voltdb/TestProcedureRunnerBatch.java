@@ -0,0 +1,217 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.voltdb.CatalogContext.ProcedurePartitionInfo;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.dtxn.UndoAction;
+import org.voltdb.exceptions.EEException;
+import org.voltdb.iv2.Site;
+import org.voltdb.jni.ExecutionEngine;
+import org.voltdb.types.QueryType;
+import org.voltdb.utils.Encoder;
+
+public class TestProcedureRunnerBatch extends TestCase
+{
+    private MockVoltDB m_voltdb;
+    private Site m_site;
+    private ExecutionEngine m_ee;
+    private int m_procs = 0;
+
+    @Override
+    public void setUp()
+    {
+        m_voltdb = new MockVoltDB();
+        VoltDB.replaceVoltDBInstanceForTest(m_voltdb);
+        m_ee = mock(ExecutionEngine.class);
+        m_site = mock(Site.class);
+        when(m_site.getExecutionEngine()).thenReturn(m_ee);
+        m_voltdb.addTable("T", false);
+        m_voltdb.addColumnToTable("T", "A", VoltType.BIGINT, false, null, VoltType.INVALID);
+        m_voltdb.addColumnToTable("T", "B", VoltType.TIMESTAMP, true, "2017-01-01 00:00:00.000", VoltType.TIMESTAMP);
+        m_voltdb.addTable("S", false);
+        m_voltdb.addColumnToTable("S", "A", VoltType.BIGINT, false, null, VoltType.INVALID);
+        m_voltdb.addColumnToTable("S", "B", VoltType.TIMESTAMP, false, "1483228800000000", VoltType.TIMESTAMP);
+        m_voltdb.addTable("STAMPED", false);
+        m_voltdb.addColumnToTable("STAMPED", "A", VoltType.BIGINT, false, null, VoltType.INVALID);
+        m_voltdb.addColumnToTable("STAMPED", "B", VoltType.TIMESTAMP, false, "CURRENT_TIMESTAMP:43", VoltType.TIMESTAMP);
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        m_voltdb.shutdown(null);
+    }
+
+    // A single statement procedure, the way the DDL compiler lays it out
+    private ProcedureRunner createRunner(String sql, QueryType type, boolean singlePartition, int fragments)
+    {
+        return createRunner(sql, type, singlePartition, fragments, "T");
+    }
+
+    private ProcedureRunner createRunner(String sql, QueryType type, boolean singlePartition, int fragments,
+            String tablesUpdated)
+    {
+        Procedure catProc = m_voltdb.addProcedureForTest("Proc" + m_procs);
+        catProc.setHasjava(false);
+        catProc.setSinglepartition(singlePartition);
+        catProc.setReadonly(type == QueryType.SELECT);
+        catProc.setAttachment(new ProcedurePartitionInfo(VoltType.BIGINT, 0));
+        ProcParameter param = catProc.getParameters().add("0");
+        param.setIndex(0);
+        param.setType(VoltType.BIGINT.getValue());
+
+        Statement stmt = catProc.getStatements().add(VoltDB.ANON_STMT_NAME);
+        stmt.setSqltext(sql);
+        stmt.setQuerytype(type.getValue());
+        stmt.setReadonly(type == QueryType.SELECT);
+        stmt.setTablesupdated(type == QueryType.SELECT ? "" : tablesUpdated);
+        StmtParameter stmtParam = stmt.getParameters().add("0");
+        stmtParam.setIndex(0);
+        stmtParam.setJavatype(VoltType.BIGINT.getValue());
+        for (int i = 0; i < fragments; i++) {
+            PlanFragment frag = stmt.getFragments().add(String.valueOf(i));
+            byte[] planHash = new byte[20];
+            planHash[0] = (byte)m_procs;
+            planHash[1] = (byte)i;
+            frag.setPlanhash(Encoder.hexEncode(planHash));
+            frag.setPlannodetree(Encoder.compressAndBase64Encode("{}"));
+            frag.setHasdependencies(i == 0 && fragments > 1);
+        }
+        m_procs++;
+        return new ProcedureRunner(new ProcedureRunner.StmtProcedure(), m_site, catProc, null);
+    }
+
+    private ProcedureRunner createInsertRunner()
+    {
+        return createRunner("INSERT INTO T VALUES (?);", QueryType.INSERT, true, 1);
+    }
+
+    private void executeThrows(RuntimeException e)
+    {
+        when(m_site.executePlanFragments(anyInt(), any(long[].class), any(long[].class), any(Object[].class),
+                any(boolean[].class), any(HybridCrc32.class), any(String[].class), anyLong(), anyLong(), anyLong(),
+                anyBoolean(), anyBoolean())).thenThrow(e);
+    }
+
+    private void verifyNotExecuted()
+    {
+        verify(m_site, never()).executePlanFragments(anyInt(), any(long[].class), any(long[].class),
+                any(Object[].class), any(boolean[].class), any(HybridCrc32.class), any(String[].class),
+                anyLong(), anyLong(), anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    private static List<Object[]> params(Object... values)
+    {
+        List<Object[]> paramLists = new ArrayList<Object[]>();
+        for (Object value : values) {
+            paramLists.add(new Object[] { value });
+        }
+        return paramLists;
+    }
+
+    public void testCheckBatchable()
+    {
+        assertTrue(createInsertRunner().isBatchable());
+        assertTrue(createRunner("UPSERT INTO T VALUES (?);", QueryType.UPSERT, true, 1).isBatchable());
+        // Reads, deletes, multi-part and multi-fragment statements run one at a time
+        assertFalse(createRunner("SELECT * FROM T WHERE A = ?;", QueryType.SELECT, true, 1).isBatchable());
+        assertFalse(createRunner("DELETE FROM T WHERE A = ?;", QueryType.DELETE, true, 1).isBatchable());
+        assertFalse(createRunner("INSERT INTO T VALUES (?);", QueryType.INSERT, false, 1).isBatchable());
+        assertFalse(createRunner("INSERT INTO T SELECT * FROM S WHERE A = ?;", QueryType.INSERT, true, 2)
+                .isBatchable());
+        // The time comes from the unique id of the transaction
+        assertFalse(createRunner("INSERT INTO T VALUES (?, NOW);", QueryType.INSERT, true, 1).isBatchable());
+        assertFalse(createRunner("INSERT INTO T VALUES (?, current_timestamp);", QueryType.INSERT, true, 1)
+                .isBatchable());
+        // Including when the EE fills in a NOW default, but not for literal timestamp defaults
+        assertFalse(createRunner("INSERT INTO STAMPED (A) VALUES (?);", QueryType.INSERT, true, 1, "STAMPED")
+                .isBatchable());
+        assertFalse(createRunner("UPSERT INTO STAMPED (A) VALUES (?);", QueryType.UPSERT, true, 1, "stamped")
+                .isBatchable());
+        assertTrue(createRunner("INSERT INTO S (A) VALUES (?);", QueryType.INSERT, true, 1, "S").isBatchable());
+        // Nothing to check the defaults of
+        assertFalse(createRunner("INSERT INTO T VALUES (?);", QueryType.INSERT, true, 1, "").isBatchable());
+        assertFalse(createRunner("INSERT INTO U VALUES (?);", QueryType.INSERT, true, 1, "U").isBatchable());
+    }
+
+    public void testUnconvertibleParametersFallBack()
+    {
+        ProcedureRunner runner = createInsertRunner();
+        assertNull(runner.callBatch(params(1L, "not a number"), 10, 10, 10));
+        assertNull(runner.callBatch(Arrays.asList(new Object[] { 1L }, new Object[] { 1L, 2L }), 10, 10, 10));
+        verifyNotExecuted();
+        verify(m_site, never()).truncateUndoLog(anyBoolean(), anyLong(), anyLong(), anyListOf(UndoAction.class));
+    }
+
+    public void testEEFailureRollsBack()
+    {
+        ProcedureRunner runner = createInsertRunner();
+        // The EE takes the next undo token for the batch
+        when(m_site.getLatestUndoToken()).thenReturn(9L, 10L);
+        executeThrows(new EEException(ExecutionEngine.ERRORCODE_ERROR));
+        assertNull(runner.callBatch(params(1L, 2L), 10, 10, 10));
+        verify(m_site).truncateUndoLog(true, 10L, 10L, null);
+    }
+
+    public void testUnexpectedFailureRollsBack()
+    {
+        ProcedureRunner runner = createInsertRunner();
+        when(m_site.getLatestUndoToken()).thenReturn(9L, 10L);
+        executeThrows(new IllegalStateException("Not an EE error"));
+        assertNull(runner.callBatch(params(1L, 2L), 10, 10, 10));
+        verify(m_site).truncateUndoLog(true, 10L, 10L, null);
+    }
+
+    public void testFailureBeforeExecutionDoesNotRollBack()
+    {
+        when(m_site.getExecutionEngine()).thenReturn(null);
+        ProcedureRunner runner = createInsertRunner();
+        when(m_site.getLatestUndoToken()).thenReturn(9L);
+        assertNull(runner.callBatch(params(1L, 2L), 10, 10, 10));
+        verifyNotExecuted();
+        // The undo token before the batch belongs to a transaction that already committed
+        verify(m_site, never()).truncateUndoLog(anyBoolean(), anyLong(), anyLong(), anyListOf(UndoAction.class));
+    }
+}
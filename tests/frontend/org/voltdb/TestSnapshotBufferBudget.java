@@ -0,0 +1,95 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import junit.framework.TestCase;
+
+public class TestSnapshotBufferBudget extends TestCase {
+
+    // Take and return a round of buffers, turning one request away first
+    private static void starvedRound(SnapshotBufferBudget budget, long latencyNanos) {
+        final int limit = budget.getLimit();
+        assertTrue(budget.tryAcquire(limit));
+        assertFalse(budget.tryAcquire(1));
+        for (int ii = 0; ii < limit; ii++) {
+            budget.release(latencyNanos);
+        }
+    }
+
+    public void testFixedBudget() {
+        final SnapshotBufferBudget budget = new SnapshotBufferBudget(16, 16);
+        assertTrue(budget.tryAcquire(10));
+        assertTrue(budget.tryAcquire(6));
+        assertFalse(budget.tryAcquire(1));
+        assertEquals(16, budget.getInUse());
+        for (int ii = 0; ii < 16; ii++) {
+            budget.release(1000000000L);
+        }
+        assertEquals(0, budget.getInUse());
+        assertEquals(16, budget.getLimit());
+    }
+
+    public void testOversizedRequestWhenIdle() {
+        final SnapshotBufferBudget budget = new SnapshotBufferBudget(4, 4);
+        assertTrue(budget.tryAcquire(6));
+        assertFalse(budget.tryAcquire(1));
+        for (int ii = 0; ii < 6; ii++) {
+            budget.release(0);
+        }
+        assertTrue(budget.tryAcquire(1));
+    }
+
+    public void testGrowsWhileLatencyIsFlat() {
+        final SnapshotBufferBudget budget = new SnapshotBufferBudget(4, 8);
+        for (int ii = 0; ii < 10; ii++) {
+            starvedRound(budget, 1000000);
+        }
+        assertEquals(8, budget.getLimit());
+
+        // Not turning anyone away, no reason to grow
+        final SnapshotBufferBudget idle = new SnapshotBufferBudget(4, 8);
+        for (int ii = 0; ii < 10; ii++) {
+            assertTrue(idle.tryAcquire(4));
+            for (int jj = 0; jj < 4; jj++) {
+                idle.release(1000000);
+            }
+        }
+        assertEquals(4, idle.getLimit());
+    }
+
+    public void testShrinksWhenLatencyClimbs() {
+        final SnapshotBufferBudget budget = new SnapshotBufferBudget(4, 32);
+        for (int ii = 0; ii < 20; ii++) {
+            starvedRound(budget, 1000000);
+        }
+        assertEquals(24, budget.getLimit());
+
+        starvedRound(budget, 5000000);
+        assertEquals(18, budget.getLimit());
+        for (int ii = 0; ii < 10; ii++) {
+            starvedRound(budget, 50000000);
+        }
+        assertEquals(4, budget.getLimit());
+    }
+}
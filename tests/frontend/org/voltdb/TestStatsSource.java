@@ -0,0 +1,86 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.voltdb.VoltTable.ColumnInfo;
+
+public class TestStatsSource {
+
+    private VoltTable m_expected;
+
+    @Before
+    public void setUp() {
+        MockStatsSource.columns = new ArrayList<ColumnInfo>();
+        MockStatsSource.columns.add(new ColumnInfo("TABLE_NAME", VoltType.STRING));
+        MockStatsSource.columns.add(new ColumnInfo("TUPLE_COUNT", VoltType.BIGINT));
+        m_expected = new VoltTable(MockStatsSource.columns.toArray(new ColumnInfo[0]));
+        for (int i = 0; i < 100; i++) {
+            m_expected.addRow("TABLE" + i, (long) i);
+        }
+    }
+
+    /**
+     * Lay the table out the way the EE does in its shared result buffer,
+     * length prefixed, and slice it back out without copying.
+     */
+    private static VoltTable sharedTable(ByteBuffer shared, VoltTable table) {
+        ByteBuffer data = table.getBuffer();
+        shared.clear();
+        shared.putInt(data.remaining());
+        shared.put(data);
+        shared.flip();
+        return PrivateVoltTableFactory.createVoltTableFromSharedBuffer(shared);
+    }
+
+    @Test
+    public void testSharedTableSurvivesBufferReuse() {
+        ByteBuffer shared = ByteBuffer.allocateDirect(64 * 1024);
+        MockStatsSource source = new MockStatsSource(new Object[0][]);
+
+        source.setStatsTableFromSharedBuffer(sharedTable(shared, m_expected));
+
+        // The EE overwrites its buffer on the next call
+        VoltTable other = new VoltTable(MockStatsSource.columns.toArray(new ColumnInfo[0]));
+        other.addRow("OTHER", 1L);
+        sharedTable(shared, other);
+
+        VoltTable first = source.getStatsTable();
+        assertTrue(first.hasSameContents(m_expected));
+
+        // Updating the source again recycles the pooled buffer but the copy handed out is unaffected
+        source.setStatsTableFromSharedBuffer(sharedTable(shared, other));
+        assertTrue(first.hasSameContents(m_expected));
+        assertEquals(1, source.getStatsTable().getRowCount());
+
+        source.resetStatsTable();
+        assertEquals(0, source.getStatsTable().getRowCount());
+    }
+}
@@ -34,6 +34,7 @@ import org.voltdb.client.BatchTimeoutOverrideType;
 import org.voltdb.client.ProcedureInvocation;
 import org.voltdb.client.ProcedureInvocationExtensions;
 import org.voltdb.client.ProcedureInvocationType;
+import org.voltdb.utils.MiscUtils;
 import org.voltdb.utils.SerializationHelper;
 
 /**
@@ -292,4 +293,38 @@ public class TestStoredProcedureInvocation extends TestCase {
             }
         }
     }
+
+    public void testSetSerializedParams() throws IOException {
+        Object[] fields = new Object[] { 42L, "row", null, new byte[] { 1, 2, 3 }, 3.5 };
+
+        StoredProcedureInvocation direct = new StoredProcedureInvocation();
+        direct.setProcName("Foo");
+        direct.setSerializedParams(fields);
+
+        StoredProcedureInvocation roundTripped = new StoredProcedureInvocation();
+        roundTripped.setProcName("Foo");
+        roundTripped.setParams(fields);
+        roundTripped = MiscUtils.roundTripForCL(roundTripped);
+
+        assertEquals(roundTripped.getSerializedParams(), direct.getSerializedParams());
+        assertEquals(roundTripped.getSerializedSize(), direct.getSerializedSize());
+        assertEquals(42L, direct.getParameterAtIndex(0));
+        assertEquals("row", direct.getParameterAtIndex(1));
+        assertEquals(roundTripped.getParams(), direct.getParams());
+        // already serialized, so the round trip is a no-op
+        assertSame(direct, MiscUtils.roundTripForCL(direct));
+
+        ByteBuffer buf = ByteBuffer.allocate(direct.getSerializedSize());
+        direct.flattenToBuffer(buf);
+        buf.flip();
+        roundTripBuffer(true, buf, "Foo", direct.getClientHandle(), BatchTimeoutOverrideType.NO_TIMEOUT, false);
+
+        try {
+            new StoredProcedureInvocation().setSerializedParams(new TreeMap<Integer,Integer>());
+            fail();
+        }
+        catch (Exception e) {
+            // unsupported type
+        }
+    }
 }
@@ -0,0 +1,187 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestCallbackTable extends TestCase {
+
+    static class TestEntry extends CallbackTable.Entry {
+        TestEntry(long handle, long deadlineNanos) {
+            super(handle, deadlineNanos);
+        }
+    }
+
+    private static final long TICK = TimeUnit.SECONDS.toNanos(1);
+
+    public void testPutGetRemove() {
+        CallbackTable<TestEntry> table = new CallbackTable<>(0, TICK);
+        // enough to force several resizes in every segment
+        for (long handle = 0; handle < 10000; handle++) {
+            table.put(new TestEntry(handle, TICK * 10));
+        }
+        assertEquals(10000, table.size());
+        for (long handle = 0; handle < 10000; handle++) {
+            assertEquals(handle, table.get(handle).handle);
+        }
+        assertNull(table.get(10000));
+        assertNull(table.get(-1));
+
+        for (long handle = 0; handle < 10000; handle += 2) {
+            assertEquals(handle, table.remove(handle).handle);
+            assertNull(table.remove(handle));
+        }
+        assertEquals(5000, table.size());
+        for (long handle = 0; handle < 10000; handle++) {
+            assertEquals(handle % 2 == 1, table.containsKey(handle));
+        }
+    }
+
+    public void testExpireOnlyPastDeadline() {
+        CallbackTable<TestEntry> table = new CallbackTable<>(0, TICK);
+        for (long handle = 0; handle < 100; handle++) {
+            table.put(new TestEntry(handle, handle * TICK / 10));
+        }
+
+        List<TestEntry> expired = new ArrayList<>();
+        table.expire(0, expired);
+        assertTrue(expired.isEmpty());
+
+        // deadlines 0 .. 4.9s have passed at 5s, 5s itself has not
+        table.expire(5 * TICK, expired);
+        assertEquals(50, expired.size());
+        for (TestEntry e : expired) {
+            assertTrue(e.handle < 50);
+            assertFalse(table.containsKey(e.handle));
+        }
+        assertEquals(50, table.size());
+
+        // answered calls never expire
+        table.remove(75);
+        expired.clear();
+        table.expire(100 * TICK, expired);
+        assertEquals(49, expired.size());
+        assertEquals(0, table.size());
+    }
+
+    public void testExpireBeyondWheelSpan() {
+        CallbackTable<TestEntry> table = new CallbackTable<>(0, TICK);
+        final long farDeadline = (CallbackTable.WHEEL_SLOTS * 3 + 7) * TICK;
+        table.put(new TestEntry(1, farDeadline));
+
+        // sweep every tick, the entry must survive every rotation before its deadline
+        List<TestEntry> expired = new ArrayList<>();
+        for (long tick = 0; tick <= CallbackTable.WHEEL_SLOTS * 3 + 7; tick++) {
+            table.expire(tick * TICK, expired);
+            assertTrue(expired.isEmpty());
+        }
+        table.expire(farDeadline + 1, expired);
+        assertEquals(1, expired.size());
+
+        // skipping many ticks at once still finds it
+        table.put(new TestEntry(2, farDeadline * 2));
+        expired.clear();
+        table.expire(farDeadline * 10, expired);
+        assertEquals(1, expired.size());
+        assertEquals(2, expired.get(0).handle);
+    }
+
+    public void testAddedAfterDeadlinePassed() {
+        CallbackTable<TestEntry> table = new CallbackTable<>(0, TICK);
+        List<TestEntry> expired = new ArrayList<>();
+        table.expire(20 * TICK, expired);
+
+        // already overdue when added, scheduled on the current tick instead of a past one
+        table.put(new TestEntry(1, 5 * TICK));
+        table.expire(20 * TICK + 1, expired);
+        assertEquals(1, expired.size());
+    }
+
+    public void testDrain() {
+        CallbackTable<TestEntry> table = new CallbackTable<>(0, TICK);
+        for (long handle = 0; handle < 1000; handle++) {
+            table.put(new TestEntry(handle, handle * TICK));
+        }
+        List<TestEntry> drained = new ArrayList<>();
+        table.drain(drained);
+        assertEquals(1000, drained.size());
+        assertEquals(0, table.size());
+
+        List<TestEntry> expired = new ArrayList<>();
+        table.expire(2000 * TICK, expired);
+        assertTrue(expired.isEmpty());
+    }
+
+    /*
+     * Every entry must be handed out exactly once when responses, expiration and
+     * a final drain all race for it.
+     */
+    public void testConcurrentRemoveAndExpire() throws Exception {
+        final int threads = 4;
+        final int perThread = 50000;
+        final CallbackTable<TestEntry> table = new CallbackTable<>(0, TICK);
+        final AtomicInteger removed = new AtomicInteger();
+        final Set<Long> seen = new HashSet<>();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final long base = t * (long)perThread;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (long handle = base; handle < base + perThread; handle++) {
+                        table.put(new TestEntry(handle, (handle % 50) * TICK));
+                        if (handle % 3 == 0 && table.remove(handle) != null) {
+                            removed.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        List<TestEntry> expired = new ArrayList<>();
+        long now = 0;
+        while (done.getCount() > 0) {
+            table.expire(now, expired);
+            now += TICK / 4;
+        }
+        done.await();
+        table.drain(expired);
+
+        for (TestEntry e : expired) {
+            assertTrue(seen.add(e.handle));
+        }
+        assertEquals(threads * perThread, removed.get() + expired.size());
+        assertEquals(0, table.size());
+    }
+}
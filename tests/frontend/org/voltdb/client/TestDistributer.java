@@ -31,6 +31,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -47,6 +48,7 @@ import org.voltdb.ClientResponseImpl;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
+import org.voltdb.common.Constants;
 
 import junit.framework.TestCase;
 
@@ -60,6 +62,13 @@ public class TestDistributer extends TestCase {
         volatile Semaphore invokedSubscribe = new Semaphore(0);
         volatile Semaphore invokedTopology = new Semaphore(0);
         volatile Semaphore invokedSystemInformation = new Semaphore(0);
+        // Answers to the client affinity queries, the defaults are empty
+        volatile VoltTable[] topology = null;
+        volatile VoltTable procedures = null;
+        volatile boolean deferTopology = false;
+        volatile ByteBuffer deferredTopology = null;
+        volatile Connection deferredTopologyConnection = null;
+        final ConcurrentHashMap<String, AtomicInteger> invocations = new ConcurrentHashMap<>();
 
         @Override
         public int getMaxRead() {
@@ -78,14 +87,23 @@ public class TestDistributer extends TestCase {
                 if (proc.equals("@Ping"))
                     gotPing = true;
 
+                invocations.putIfAbsent(proc, new AtomicInteger());
+                invocations.get(proc).incrementAndGet();
+
                 if (sendResponses.get()) {
                     VoltTable vt[] = new VoltTable[0];
                     if (proc.equals("@Subscribe")) {
                         invokedSubscribe.release();
                     } else if (proc.equals("@Statistics")) {
                         invokedTopology.release();
+                        if (topology != null) {
+                            vt = topology;
+                        }
                     } else if (proc.equals("@SystemCatalog")) {
                         invokedSystemInformation.release();
+                        if (procedures != null) {
+                            vt = new VoltTable[] { procedures };
+                        }
                     } else {
                         vt = new VoltTable[1];
                         vt[0] = new VoltTable(new VoltTable.ColumnInfo("Foo", VoltType.BIGINT));
@@ -103,6 +121,11 @@ public class TestDistributer extends TestCase {
                     buf.putInt(buf.capacity() - 4);
                     response.flattenToBuffer(buf);
                     buf.clear();
+                    if (proc.equals("@Statistics") && deferTopology) {
+                        deferredTopologyConnection = c;
+                        deferredTopology = buf;
+                        return;
+                    }
                     c.writeStream().enqueue(buf);
                     roundTrips.incrementAndGet();
                     System.err.println("Sending response.");
@@ -165,12 +188,32 @@ public class TestDistributer extends TestCase {
         public void stopResponding() {
 
         }
+
+        int invocationCount(String proc) {
+            AtomicInteger count = invocations.get(proc);
+            return count == null ? 0 : count.get();
+        }
+
+        void releaseTopology() {
+            deferredTopologyConnection.writeStream().enqueue(deferredTopology);
+            roundTrips.incrementAndGet();
+        }
     }
 
     // A fake server.
     class MockVolt extends Thread {
         boolean handleConnection = true;
+        final int hostId;
+        volatile VoltTable[] topology = null;
+        volatile VoltTable procedures = null;
+        volatile boolean deferTopology = false;
+
         MockVolt(int port) throws IOException {
+            this(port, 0);
+        }
+
+        MockVolt(int port, int hostId) throws IOException {
+            this.hostId = hostId;
             network = new VoltNetworkPool();
             network.start();
             socket = ServerSocketChannel.open();
@@ -231,13 +274,17 @@ public class TestDistributer extends TestCase {
                         responseBuffer.putInt(30);
                         responseBuffer.put((byte)0);//version
                         responseBuffer.put((byte)0);//success response
-                        responseBuffer.putInt(0);//hostId
+                        responseBuffer.putInt(hostId);//hostId
                         responseBuffer.putLong(0);//connectionId
                         responseBuffer.putLong(0);//instanceId
                         responseBuffer.putInt(0);//instanceId pt 2
                         responseBuffer.putInt(0);
                         responseBuffer.flip();
-                        handler = new MockInputHandler();
+                        MockInputHandler handler = new MockInputHandler();
+                        handler.topology = topology;
+                        handler.procedures = procedures;
+                        handler.deferTopology = deferTopology;
+                        this.handler = handler;
                         client.write(responseBuffer);
 
                         client.configureBlocking(false);
@@ -500,6 +547,40 @@ public class TestDistributer extends TestCase {
         }
     }
 
+    @Test
+    public void testQueueBatched() throws Exception {
+        // TODO: write a mock server that can grock ssl
+        if (ClientConfig.ENABLE_SSL_FOR_TEST) return;
+
+        MockVolt volt0 = null;
+        try {
+            volt0 = new MockVolt(20000);
+            volt0.start();
+
+            Distributer dist = new Distributer(false,
+                    ClientConfig.DEFAULT_PROCEDURE_TIMOUT_NANOS,
+                    ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                    false, false, null /* subject */, null);
+            // only fills and drain flush the batch
+            dist.setInvocationBatching(1024, TimeUnit.MINUTES.toNanos(10));
+            dist.createConnection("localhost", "", "", 20000, ClientAuthScheme.HASH_SHA1);
+            assertTrue(volt0.handler != null);
+
+            for (int handle = 1; handle <= 100; handle++) {
+                ProcedureInvocation pi = new ProcedureInvocation(handle, "i1", new Integer(1));
+                dist.queue(pi, new ProcCallback(), true, System.nanoTime(), 0);
+            }
+            dist.drain();
+
+            assertEquals(100, volt0.handler.roundTrips.get());
+        }
+        finally {
+            if (volt0 != null) {
+                volt0.shutdown();
+            }
+        }
+    }
+
     @Test
     public void testQueueMixed() throws Exception {
         // TODO: write a mock server that can grock ssl
@@ -578,6 +659,211 @@ public class TestDistributer extends TestCase {
      * Wait for the connection timeout to kill the connection and
      * call the appropriate callbacks.
      */
+    /*
+     * Topology with partition 0 led by host 1 and the MPI on mpiHost, and a catalog with
+     * a single partition write, an MP read and an NT procedure.
+     */
+    private static VoltTable[] affinityTopology(int mpiHost) {
+        VoltTable partitions = new VoltTable(
+                new VoltTable.ColumnInfo("Partition", VoltType.BIGINT),
+                new VoltTable.ColumnInfo("Sites", VoltType.STRING),
+                new VoltTable.ColumnInfo("Leader", VoltType.STRING));
+        partitions.addRow(0, "1:0", "1:0");
+        partitions.addRow(Constants.MP_INIT_PID, mpiHost + ":0", mpiHost + ":0");
+        VoltTable hashinator = new VoltTable(
+                new VoltTable.ColumnInfo("HASHTYPE", VoltType.STRING),
+                new VoltTable.ColumnInfo("HASHCONFIG", VoltType.VARBINARY));
+        hashinator.addRow("LEGACY", HashinatorLite.getLegacyConfigureBytes(1));
+        return new VoltTable[] { partitions, hashinator };
+    }
+
+    private static VoltTable affinityProcedures() {
+        VoltTable procedures = new VoltTable(
+                new VoltTable.ColumnInfo("PROCEDURE_CAT", VoltType.STRING),
+                new VoltTable.ColumnInfo("PROCEDURE_SCHEM", VoltType.STRING),
+                new VoltTable.ColumnInfo("PROCEDURE_NAME", VoltType.STRING),
+                new VoltTable.ColumnInfo("RESERVED1", VoltType.STRING),
+                new VoltTable.ColumnInfo("RESERVED2", VoltType.STRING),
+                new VoltTable.ColumnInfo("RESERVED3", VoltType.STRING),
+                new VoltTable.ColumnInfo("REMARKS", VoltType.STRING));
+        procedures.addRow("", "", "SpWrite", "", "", "",
+                "{\"" + Constants.JSON_READ_ONLY + "\":false,\"" + Constants.JSON_SINGLE_PARTITION + "\":true,\"" +
+                Constants.JSON_PARTITION_PARAMETER + "\":0,\"" +
+                Constants.JSON_PARTITION_PARAMETER_TYPE + "\":" + VoltType.INTEGER.getValue() + "}");
+        procedures.addRow("", "", "MpRead", "", "", "",
+                "{\"" + Constants.JSON_READ_ONLY + "\":true,\"" + Constants.JSON_SINGLE_PARTITION + "\":false}");
+        procedures.addRow("", "", "NtProc", "", "", "",
+                "{\"" + Constants.JSON_READ_ONLY + "\":false,\"" + Constants.JSON_SINGLE_PARTITION + "\":false,\"" +
+                Constants.JSON_TRANSACTIONAL + "\":false}");
+        return procedures;
+    }
+
+    /*
+     * Connect a client affinity distributer to hosts 0, 1 and 2 and wait for it to load the
+     * topology and catalog. The topology answer is held back until every host is connected
+     * so that all of them are known as partition leaders. The hosts stop responding afterwards
+     * so that every later invocation stays outstanding.
+     */
+    private Distributer connectWithAffinity(MockVolt volts[], int mpiHost) throws Exception {
+        for (int i = 0; i < volts.length; i++) {
+            volts[i] = new MockVolt(20000 + i, i);
+            volts[i].topology = affinityTopology(mpiHost);
+            volts[i].procedures = affinityProcedures();
+            volts[i].deferTopology = (i == 0);
+            volts[i].start();
+        }
+
+        Distributer dist = new Distributer(false,
+                ClientConfig.DEFAULT_PROCEDURE_TIMOUT_NANOS,
+                ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                true, false, null /* subject */, null);
+        dist.createConnection("localhost", "", "", 20000, ClientAuthScheme.HASH_SHA1);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (volts[0].handler.deferredTopology == null) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        for (int i = 1; i < volts.length; i++) {
+            dist.createConnection("localhost", "", "", 20000 + i, ClientAuthScheme.HASH_SHA1);
+        }
+
+        // The catalog was answered ahead of the topology on the same connection
+        volts[0].handler.releaseTopology();
+        while (!dist.isHashinatorInitialized()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        // @Subscribe, @Statistics, @SystemCatalog and a @GetPartitionKeys for each of the
+        // subscription and the topology update
+        int roundTrips = 0;
+        while (roundTrips < 5) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+            roundTrips = 0;
+            for (MockVolt volt : volts) {
+                roundTrips += volt.handler.roundTrips.get();
+            }
+        }
+        dist.drain();
+
+        for (MockVolt volt : volts) {
+            volt.handler.sendResponses.set(false);
+        }
+        return dist;
+    }
+
+    /*
+     * Queue an invocation and wait until a host has received it, so that nothing is
+     * left in a write stream when the next invocation picks a connection.
+     */
+    private static void queueAndAwait(Distributer dist, MockVolt volts[], ProcedureInvocation invocation)
+            throws Exception {
+        int received = 0;
+        for (MockVolt volt : volts) {
+            received += volt.handler.invocationCount(invocation.getProcName());
+        }
+        assertTrue(dist.queue(invocation, new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse clientResponse) {}
+        }, true, System.nanoTime(), 0));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        int nowReceived = 0;
+        while (nowReceived <= received) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.yield();
+            nowReceived = 0;
+            for (MockVolt volt : volts) {
+                nowReceived += volt.handler.invocationCount(invocation.getProcName());
+            }
+        }
+    }
+
+    @Test
+    public void testLeastLoadedRouting() throws Exception {
+        // TODO: write a mock server that can grock ssl
+        if (ClientConfig.ENABLE_SSL_FOR_TEST) return;
+
+        // The MPI is on a host the client isn't connected to, so MP reads have no affinity
+        MockVolt volts[] = new MockVolt[3];
+        Distributer dist = null;
+        int handle = 0;
+        try {
+            dist = connectWithAffinity(volts, 3);
+
+            // Back up host 1 behind writes to the partition it leads
+            for (int i = 0; i < 3; i++) {
+                queueAndAwait(dist, volts, new ProcedureInvocation(++handle, "SpWrite", i));
+            }
+            assertEquals(3, volts[1].handler.invocationCount("SpWrite"));
+
+            // Round-robin would have sent some of these to host 1
+            for (int i = 0; i < 4; i++) {
+                queueAndAwait(dist, volts, new ProcedureInvocation(++handle, "NtProc"));
+            }
+            assertEquals(0, volts[1].handler.invocationCount("NtProc"));
+            assertEquals(4, volts[0].handler.invocationCount("NtProc") + volts[2].handler.invocationCount("NtProc"));
+
+            for (int i = 0; i < 2; i++) {
+                queueAndAwait(dist, volts, new ProcedureInvocation(++handle, "MpRead"));
+            }
+            assertEquals(0, volts[1].handler.invocationCount("MpRead"));
+            assertEquals(2, volts[0].handler.invocationCount("MpRead") + volts[2].handler.invocationCount("MpRead"));
+
+            ClientAffinityStats stats = dist.getAffinityStatsSnapshot().get(Constants.MP_INIT_PID);
+            assertEquals(4, stats.getLeastLoadedWrites());
+            assertEquals(2, stats.getLeastLoadedReads());
+            assertEquals(0, stats.getRrReads());
+            assertEquals(0, stats.getRrWrites());
+        } finally {
+            if (dist != null) {
+                dist.shutdown();
+            }
+            for (MockVolt volt : volts) {
+                if (volt != null) {
+                    volt.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMpReadAffinity() throws Exception {
+        // TODO: write a mock server that can grock ssl
+        if (ClientConfig.ENABLE_SSL_FOR_TEST) return;
+
+        MockVolt volts[] = new MockVolt[3];
+        Distributer dist = null;
+        int handle = 0;
+        try {
+            dist = connectWithAffinity(volts, 2);
+
+            // MP reads stick to the MPI host while it isn't backed up, however busy it is
+            for (int i = 0; i < 3; i++) {
+                queueAndAwait(dist, volts, new ProcedureInvocation(++handle, "MpRead"));
+            }
+            assertEquals(3, volts[2].handler.invocationCount("MpRead"));
+
+            // NT procedures still go by load
+            queueAndAwait(dist, volts, new ProcedureInvocation(++handle, "NtProc"));
+            assertEquals(0, volts[2].handler.invocationCount("NtProc"));
+
+            ClientAffinityStats stats = dist.getAffinityStatsSnapshot().get(Constants.MP_INIT_PID);
+            assertEquals(3, stats.getAffinityReads());
+            assertEquals(0, stats.getLeastLoadedReads());
+            assertEquals(1, stats.getLeastLoadedWrites());
+        } finally {
+            if (dist != null) {
+                dist.shutdown();
+            }
+            for (MockVolt volt : volts) {
+                if (volt != null) {
+                    volt.shutdown();
+                }
+            }
+        }
+    }
+
     @Test
     public void testResponseTimeout() throws Exception {
         // TODO: write a mock server that can grock ssl
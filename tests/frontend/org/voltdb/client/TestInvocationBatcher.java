@@ -0,0 +1,187 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.voltcore.network.MockWriteStream;
+import org.voltcore.network.QueueMonitor;
+
+public class TestInvocationBatcher extends TestCase {
+
+    private ScheduledExecutorService m_ses;
+    private MockWriteStream m_stream;
+    private final AtomicInteger m_queuedBytes = new AtomicInteger();
+    private final QueueMonitor m_monitor = new QueueMonitor() {
+        @Override
+        public boolean queue(int bytes) {
+            m_queuedBytes.addAndGet(bytes);
+            return false;
+        }
+    };
+
+    @Override
+    public void setUp() {
+        m_ses = Executors.newSingleThreadScheduledExecutor();
+        m_stream = new MockWriteStream();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        m_ses.shutdownNow();
+    }
+
+    private static ProcedureInvocation invocation(long handle) {
+        return new ProcedureInvocation(handle, "Vote", 5551234567L, 3, 20000);
+    }
+
+    /*
+     * Split a batch back into invocations and return their client handles
+     */
+    private static List<Long> handles(ByteBuffer batch) {
+        List<Long> handles = new ArrayList<>();
+        batch.flip();
+        while (batch.hasRemaining()) {
+            final int length = batch.getInt();
+            final int start = batch.position();
+            batch.get(); // version
+            final int nameLength = batch.getInt();
+            batch.position(batch.position() + nameLength);
+            handles.add(batch.getLong());
+            batch.position(start + length);
+        }
+        return handles;
+    }
+
+    public void testFlushWhenFull() throws Exception {
+        final int size = 4 + invocation(0).getSerializedSize();
+        // room for three invocations
+        InvocationBatcher batcher = new InvocationBatcher(m_stream, m_monitor, size * 3 + 1, TimeUnit.SECONDS.toNanos(60), m_ses);
+
+        for (long handle = 0; handle < 7; handle++) {
+            assertTrue(batcher.add(invocation(handle)));
+        }
+        assertEquals(2, m_stream.m_messages.size());
+        assertEquals(1, batcher.pendingInvocations());
+        assertEquals(size * 3, m_stream.m_messages.peek().position());
+
+        batcher.flush();
+        assertEquals(0, batcher.pendingInvocations());
+        List<Long> handles = new ArrayList<>();
+        ByteBuffer buf;
+        while ((buf = m_stream.m_messages.poll()) != null) {
+            handles.addAll(handles(buf));
+        }
+        assertEquals(7, handles.size());
+        for (int ii = 0; ii < 7; ii++) {
+            assertEquals(ii, handles.get(ii).longValue());
+        }
+
+        // nothing pending, nothing written
+        batcher.flush();
+        assertTrue(m_stream.m_messages.isEmpty());
+    }
+
+    public void testPendingInvocationsCountAsQueued() throws Exception {
+        final int size = 4 + invocation(0).getSerializedSize();
+        InvocationBatcher batcher = new InvocationBatcher(m_stream, m_monitor, 16 * 1024, TimeUnit.SECONDS.toNanos(60), m_ses);
+        assertTrue(batcher.add(invocation(1)));
+        assertTrue(batcher.add(invocation(2)));
+        assertTrue(m_stream.m_messages.isEmpty());
+        assertEquals(size * 2, m_queuedBytes.get());
+
+        // Written, so the write stream accounts for them instead
+        batcher.flush();
+        assertEquals(1, m_stream.m_messages.size());
+        assertEquals(0, m_queuedBytes.get());
+
+        // Not counted if it doesn't go in the batch
+        InvocationBatcher tooSmall = new InvocationBatcher(m_stream, m_monitor, size - 1, TimeUnit.SECONDS.toNanos(60), m_ses);
+        assertFalse(tooSmall.add(invocation(3)));
+        assertEquals(0, m_queuedBytes.get());
+    }
+
+    public void testFlushAfterDelay() throws Exception {
+        InvocationBatcher batcher = new InvocationBatcher(m_stream, m_monitor, 16 * 1024, TimeUnit.MILLISECONDS.toNanos(10), m_ses);
+        assertTrue(batcher.add(invocation(1)));
+        assertTrue(batcher.add(invocation(2)));
+        assertTrue(m_stream.m_messages.isEmpty());
+
+        ByteBuffer buf = m_stream.m_messages.poll(10, TimeUnit.SECONDS);
+        assertNotNull(buf);
+        assertEquals(2, handles(buf).size());
+        assertEquals(0, batcher.pendingInvocations());
+
+        // the next invocation schedules another flush
+        assertTrue(batcher.add(invocation(3)));
+        buf = m_stream.m_messages.poll(10, TimeUnit.SECONDS);
+        assertNotNull(buf);
+        assertEquals(3, handles(buf).get(0).longValue());
+    }
+
+    public void testNoDelay() throws Exception {
+        InvocationBatcher batcher = new InvocationBatcher(m_stream, m_monitor, 16 * 1024, 0, m_ses);
+        assertTrue(batcher.add(invocation(1)));
+        assertEquals(1, m_stream.m_messages.size());
+        assertEquals(0, batcher.pendingInvocations());
+    }
+
+    public void testTooLargeToBatch() throws Exception {
+        final int size = 4 + invocation(0).getSerializedSize();
+        InvocationBatcher batcher = new InvocationBatcher(m_stream, m_monitor, size - 1, TimeUnit.SECONDS.toNanos(60), m_ses);
+        assertFalse(batcher.add(invocation(1)));
+        assertEquals(0, batcher.pendingInvocations());
+        batcher.flush();
+        assertTrue(m_stream.m_messages.isEmpty());
+    }
+
+    public void testUnbatchedWaitsForBatch() throws Exception {
+        InvocationBatcher batcher = new InvocationBatcher(m_stream, m_monitor, 16 * 1024, TimeUnit.SECONDS.toNanos(60), m_ses);
+        assertTrue(batcher.add(invocation(1)));
+        assertTrue(batcher.add(invocation(2)));
+
+        final ProcedureInvocation unbatched = invocation(3);
+        ByteBuffer buf = ByteBuffer.allocate(4 + unbatched.getSerializedSize());
+        buf.putInt(buf.capacity() - 4);
+        unbatched.flattenToBuffer(buf);
+        batcher.enqueueUnbatched(buf);
+
+        assertEquals(0, batcher.pendingInvocations());
+        assertEquals(2, m_stream.m_messages.size());
+        List<Long> handles = handles(m_stream.m_messages.poll());
+        handles.addAll(handles(m_stream.m_messages.poll()));
+        assertEquals(3, handles.size());
+        for (int ii = 0; ii < 3; ii++) {
+            assertEquals(ii + 1, handles.get(ii).longValue());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.importer;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import junit.framework.TestCase;
+
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+public class TestImporterBatching extends TestCase {
+
+    /**
+     * Adapter that only implements single invocations, so batches go through the default
+     * per-row fallback. Rows whose first field is "bad" are refused.
+     */
+    static class RecordingAdapter implements ImporterServerAdapter {
+        final List<Object[]> m_called = new ArrayList<>();
+        final List<ProcedureCallback> m_callbacks = new ArrayList<>();
+        int m_queued = 0;
+        int m_failed = 0;
+
+        @Override
+        public boolean callProcedure(AbstractImporter importer, Function<Integer, Boolean> backPressurePredicate,
+                ProcedureCallback callback, String proc, Object... fieldList) {
+            if ("bad".equals(fieldList[0])) {
+                return false;
+            }
+            m_called.add(fieldList);
+            m_callbacks.add(callback);
+            return true;
+        }
+
+        @Override
+        public void reportFailure(String importerName, String procName, boolean decrementPending) {
+            m_failed++;
+        }
+
+        @Override
+        public void reportQueued(String importerName, String procName) {
+            m_queued++;
+        }
+    }
+
+    static class BatchingImporter extends AbstractImporter {
+        @Override
+        public String getName() {
+            return "BatchingImporter";
+        }
+
+        @Override
+        public URI getResourceID() {
+            return URI.create("test://batching");
+        }
+
+        @Override
+        protected void accept() {
+        }
+
+        @Override
+        protected void stop() {
+        }
+
+        boolean[] submit(List<Object[]> rows, List<? extends ProcedureCallback> callbacks) {
+            return callProcedures("T.insert", rows, callbacks);
+        }
+    }
+
+    static class NullCallback implements ProcedureCallback {
+        @Override
+        public void clientCallback(ClientResponse response) {
+        }
+    }
+
+    public void testPerRowFallback() {
+        RecordingAdapter adapter = new RecordingAdapter();
+        BatchingImporter importer = new BatchingImporter();
+        importer.setImportServerAdapter(adapter);
+
+        List<Object[]> rows = Arrays.asList(
+                new Object[] { "a", 1 },
+                new Object[] { "bad", 2 },
+                new Object[] { "c", 3 });
+        List<ProcedureCallback> callbacks = Arrays.<ProcedureCallback>asList(
+                new NullCallback(), new NullCallback(), new NullCallback());
+
+        boolean[] queued = importer.submit(rows, callbacks);
+        assertTrue(Arrays.equals(new boolean[] { true, false, true }, queued));
+        assertEquals(2, adapter.m_called.size());
+        assertSame(rows.get(2), adapter.m_called.get(1));
+        // each row keeps its own callback
+        assertSame(callbacks.get(0), adapter.m_callbacks.get(0));
+        assertSame(callbacks.get(2), adapter.m_callbacks.get(1));
+        // stats are reported per row
+        assertEquals(2, adapter.m_queued);
+        assertEquals(1, adapter.m_failed);
+
+        adapter.m_callbacks.clear();
+        importer.submit(rows.subList(0, 1), null);
+        assertNull(adapter.m_callbacks.get(0));
+    }
+}
@@ -0,0 +1,116 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.StarvationTracker;
+
+/**
+ * Measures offer cost and offer to take latency of the linked and the ring
+ * backed SiteTaskerQueue with 1, 4 and 16 producer threads feeding the one
+ * consuming site thread. Producers pause briefly between offers so the
+ * consumer goes through its idle path as well as draining bursts.
+ *
+ * Usage: SiteTaskerQueueMicrobench [tasks per producer] [ring size]
+ */
+public class SiteTaskerQueueMicrobench {
+
+    private static class TimedTask extends SiteTasker.SiteTaskerRunnable {
+        final long offeredAt = System.nanoTime();
+
+        @Override
+        void run() {}
+    }
+
+    static void run(String name, final SiteTaskerQueue queue, int producers, final int tasksPerProducer)
+            throws Exception {
+        queue.setStarvationTracker(new StarvationTracker(0));
+        final int total = producers * tasksPerProducer;
+        final long[] latencies = new long[total];
+        final AtomicLong offerNanos = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread("producer" + p) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long spent = 0;
+                    for (int ii = 0; ii < tasksPerProducer; ii++) {
+                        final long before = System.nanoTime();
+                        queue.offer(new TimedTask());
+                        spent += System.nanoTime() - before;
+                        if ((ii & 63) == 63) {
+                            Thread.yield();
+                        }
+                    }
+                    offerNanos.addAndGet(spent);
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (int ii = 0; ii < total; ii++) {
+            final TimedTask task = (TimedTask)queue.take();
+            latencies[ii] = System.nanoTime() - task.offeredAt;
+        }
+        final long elapsed = System.nanoTime() - begin;
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-6s %2d producers: %8d tasks/sec, offer avg %5d ns, take latency p50 %7d ns p99 %8d ns max %9d ns%n",
+                name, producers, (long)(total / (elapsed / 1e9)), offerNanos.get() / total,
+                latencies[total / 2], latencies[(int)(total * 0.99)], latencies[total - 1]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int tasksPerProducer = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int ringSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+        for (int producers : new int[] { 1, 4, 16 }) {
+            // Warm up before measuring
+            run("linked", new SiteTaskerQueue(), producers, tasksPerProducer / 10);
+            run("ring", new RingSiteTaskerQueue(ringSize), producers, tasksPerProducer / 10);
+
+            run("linked", new SiteTaskerQueue(), producers, tasksPerProducer);
+            run("ring", new RingSiteTaskerQueue(ringSize), producers, tasksPerProducer);
+        }
+    }
+}
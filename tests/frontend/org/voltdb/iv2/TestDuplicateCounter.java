@@ -0,0 +1,125 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.messaging.InitiateResponseMessage;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+public class TestDuplicateCounter extends TestCase
+{
+    private static final long LEADER = 1;
+    private static final long REPLICA = 2;
+    private static final long TXNID = 100;
+
+    private Iv2InitiateTaskMessage createTask(boolean shouldReturnResultTables)
+    {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName("DuplicateCounterProc");
+        spi.setParams(1);
+        Iv2InitiateTaskMessage task =
+            new Iv2InitiateTaskMessage(LEADER, LEADER, TXNID - 1, TXNID, 0, false, true,
+                                       spi, Long.MAX_VALUE, Long.MAX_VALUE, false);
+        task.setSpHandle(TXNID);
+        task.setShouldReturnResultTables(shouldReturnResultTables);
+        return task;
+    }
+
+    private InitiateResponseMessage createResponse(long sourceHSId, boolean shouldReturnResultTables,
+                                                   int sqlHash, String value)
+    {
+        VoltTable table = new VoltTable(new VoltTable.ColumnInfo("value", VoltType.STRING));
+        table.addRow(value);
+        ClientResponseImpl cr = new ClientResponseImpl(ClientResponse.SUCCESS,
+                new VoltTable[] { table }, null);
+        cr.setHash(sqlHash);
+        InitiateResponseMessage response = new InitiateResponseMessage(createTask(shouldReturnResultTables));
+        response.setResults(cr);
+        response.m_sourceHSId = sourceHSId;
+        if (response.shouldHashResultTables()) {
+            assertTrue(response.hashResultTables() > 0);
+        }
+        return response;
+    }
+
+    private DuplicateCounter createCounter()
+    {
+        return new DuplicateCounter(LEADER, TXNID, Arrays.asList(LEADER, REPLICA), createTask(true));
+    }
+
+    public void testLeaderResultsKeptOverHashedReplica()
+    {
+        DuplicateCounter counter = createCounter();
+        InitiateResponseMessage leader = createResponse(LEADER, true, 7, "same");
+        InitiateResponseMessage replica = createResponse(REPLICA, false, 7, "same");
+        assertTrue(replica.hasHashedResults());
+        assertEquals(leader.getResultHash(), replica.getResultHash());
+
+        assertEquals(DuplicateCounter.WAITING, counter.offer(leader));
+        assertEquals(DuplicateCounter.DONE, counter.offer(replica));
+        assertSame(leader, counter.getLastResponse());
+        assertEquals(1, leader.getClientResponseData().getResults().length);
+    }
+
+    public void testHashedReplicaFirst()
+    {
+        DuplicateCounter counter = createCounter();
+        InitiateResponseMessage replica = createResponse(REPLICA, false, 7, "same");
+        InitiateResponseMessage leader = createResponse(LEADER, true, 7, "same");
+
+        assertEquals(DuplicateCounter.WAITING, counter.offer(replica));
+        assertEquals(DuplicateCounter.DONE, counter.offer(leader));
+        assertSame(leader, counter.getLastResponse());
+    }
+
+    public void testSqlMismatchDetectedFromHash()
+    {
+        DuplicateCounter counter = createCounter();
+        InitiateResponseMessage leader = createResponse(LEADER, true, 7, "same");
+        InitiateResponseMessage replica = createResponse(REPLICA, false, 8, "same");
+
+        assertEquals(DuplicateCounter.WAITING, counter.offer(leader));
+        assertEquals(DuplicateCounter.MISMATCH, counter.offer(replica));
+    }
+
+    public void testResultMismatchIsNotFatal()
+    {
+        DuplicateCounter counter = createCounter();
+        InitiateResponseMessage leader = createResponse(LEADER, true, 7, "leader");
+        InitiateResponseMessage replica = createResponse(REPLICA, false, 7, "replica");
+        assertFalse(leader.getResultHash() == replica.getResultHash());
+
+        assertEquals(DuplicateCounter.WAITING, counter.offer(leader));
+        assertEquals(DuplicateCounter.DONE, counter.offer(replica));
+        assertSame(leader, counter.getLastResponse());
+    }
+}
@@ -106,6 +106,42 @@ public class TestMpTransactionTaskQueue extends TestCase
 
     }
 
+    // Reads left waiting on a full pool are counted once each, and their wait recorded once they start
+    @Test
+    public void testReadQueueStats()
+    {
+        TxnEgo txnId = TxnEgo.makeZero(MpInitiator.MP_INIT_PID);
+        txnId = txnId.makeNext();
+        long first = txnId.getTxnId();
+        m_dut.offer(makeTransactionTask(first, true));
+        verify(m_MPpool).recordQueueWait(anyLong());
+        verify(m_MPpool, never()).recordRejection();
+
+        // Only the read at the head is held up by the pool, and it is counted once however
+        // many times the backlog is looked at while it waits
+        when(m_MPpool.canAcceptWork()).thenReturn(false);
+        List<Long> waiting = new ArrayList<Long>();
+        for (int i = 0; i < 5; i++) {
+            txnId = txnId.makeNext();
+            waiting.add(txnId.getTxnId());
+            m_dut.offer(makeTransactionTask(txnId.getTxnId(), true));
+        }
+        verify(m_MPpool, times(1)).recordRejection();
+        verify(m_MPpool, times(1)).recordQueueWait(anyLong());
+
+        // One site frees up, the next read in line is then held up and counted
+        when(m_MPpool.canAcceptWork()).thenReturn(true, false);
+        m_dut.flush(first);
+        verify(m_MPpool, times(2)).recordQueueWait(anyLong());
+        verify(m_MPpool, times(2)).recordRejection();
+
+        when(m_MPpool.canAcceptWork()).thenReturn(true);
+        m_dut.flush(waiting.get(0));
+        verify(m_MPpool, times(6)).recordQueueWait(anyLong());
+        verify(m_MPpool, times(2)).recordRejection();
+        assertEquals(0, m_dut.size());
+    }
+
     // Single write completes before any more reads are executed but after pending reads finish
     @Test
     public void testReadWriteBlocking()
@@ -26,12 +26,14 @@ package org.voltdb.iv2;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -46,6 +48,7 @@ import org.voltdb.ParameterSet;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.TheHashinator;
 import org.voltdb.TheHashinator.HashinatorType;
+import org.voltdb.VoltDB;
 import org.voltdb.messaging.CompleteTransactionMessage;
 import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
@@ -375,6 +378,114 @@ public class TestRepairLog
         validateRepairLog(log.contents(1l, false), endSpUniqueId, endMpUniqueId);
     }
 
+    Iv2InitiateTaskMessage initMsg(long truncPt, long spHandle, byte[] payload)
+    {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName("Insert");
+        spi.setParams(spHandle, payload);
+        Iv2InitiateTaskMessage msg =
+                new Iv2InitiateTaskMessage(0l, 0l, truncPt, spHandle, 0l, false, true,
+                        spi, 0l, 0l, false);
+        msg.setSpHandle(spHandle);
+        return msg;
+    }
+
+    @Test
+    public void testOffHeap() throws Exception
+    {
+        // Large enough that the messages span several segments
+        final byte[] payload = new byte[RepairLog.SEGMENT_SIZE / 3];
+        new Random(0).nextBytes(payload);
+        RepairLog dut = new RepairLog(true);
+        for (long i = 1; i <= 10; i++) {
+            dut.deliver(initMsg(Long.MIN_VALUE, i, payload));
+        }
+        long[] stats = dut.getStats();
+        assertEquals(10, stats[0]);
+        assertEquals(0, stats[1]);
+        assertTrue(stats[2] > 10 * payload.length);
+        assertTrue(stats[3] >= stats[2]);
+
+        List<Iv2RepairLogResponseMessage> contents = dut.contents(1l, false);
+        assertEquals(11, contents.size());
+        for (int i = 1; i <= 10; i++) {
+            Iv2InitiateTaskMessage msg = (Iv2InitiateTaskMessage)contents.get(i).getPayload();
+            assertEquals(i, contents.get(i).getHandle());
+            assertEquals(i, msg.getSpHandle());
+            Object[] params = msg.getParameters();
+            assertEquals(i, ((Number)params[0]).longValue());
+            assertTrue(Arrays.equals(payload, (byte[])params[1]));
+        }
+
+        // Truncated segments are freed
+        dut.deliver(truncMsg(6));
+        stats = dut.getStats();
+        assertEquals(4, stats[0]);
+        assertTrue(stats[3] < 3 * RepairLog.SEGMENT_SIZE);
+        assertEquals(7, dut.contents(1l, false).get(1).getHandle());
+
+        // An empty log keeps only the segment being appended to
+        dut.deliver(truncMsg(10));
+        stats = dut.getStats();
+        assertEquals(0, stats[0]);
+        assertEquals(0, stats[2]);
+        assertEquals(RepairLog.SEGMENT_SIZE, stats[3]);
+
+        // Which is reused
+        dut.deliver(initMsg(Long.MIN_VALUE, 11, payload));
+        assertEquals(RepairLog.SEGMENT_SIZE, dut.getStats()[3]);
+
+        dut.shutdown();
+        stats = dut.getStats();
+        assertEquals(0, stats[0]);
+        assertEquals(0, stats[3]);
+    }
+
+    @Test
+    public void testOffHeapCap() throws Exception
+    {
+        final byte[] payload = new byte[RepairLog.SEGMENT_SIZE / 3];
+        RepairLog dut = new RepairLog(true, 2 * RepairLog.SEGMENT_SIZE);
+        // Two segments worth fit, as long as they are truncated any number do
+        for (long i = 1; i <= 20; i++) {
+            dut.deliver(initMsg(i - 1, i, payload));
+        }
+        for (long i = 21; i <= 24; i++) {
+            dut.deliver(initMsg(i == 21 ? 20 : Long.MIN_VALUE, i, payload));
+        }
+        assertEquals(2 * RepairLog.SEGMENT_SIZE, dut.getStats()[3]);
+
+        VoltDB.ignoreCrash = true;
+        try {
+            dut.deliver(initMsg(Long.MIN_VALUE, 25, payload));
+            fail("Exceeding the cap should crash");
+        } catch (AssertionError expected) {
+            assertTrue(VoltDB.wasCrashCalled);
+            assertTrue(VoltDB.crashMessage.contains("REPAIR_LOG_MAX_OFF_HEAP_BYTES"));
+        } finally {
+            VoltDB.ignoreCrash = false;
+            VoltDB.wasCrashCalled = false;
+            dut.shutdown();
+        }
+    }
+
+    @Test
+    public void testOffHeapLargeMessage() throws Exception
+    {
+        final byte[] payload = new byte[RepairLog.SEGMENT_SIZE * 2];
+        RepairLog dut = new RepairLog(true);
+        dut.deliver(initMsg(Long.MIN_VALUE, 1, new byte[0]));
+        dut.deliver(initMsg(Long.MIN_VALUE, 2, payload));
+        assertTrue(dut.getStats()[3] > RepairLog.SEGMENT_SIZE * 3);
+        Iv2InitiateTaskMessage msg = (Iv2InitiateTaskMessage)dut.contents(1l, false).get(2).getPayload();
+        assertEquals(payload.length, ((byte[])msg.getParameters()[1]).length);
+
+        dut.deliver(truncMsg(2));
+        assertEquals(0, dut.getStats()[2]);
+        dut.shutdown();
+        assertEquals(0, dut.getStats()[3]);
+    }
+
     @Test
     public void testTruncationWithInterest()
     {
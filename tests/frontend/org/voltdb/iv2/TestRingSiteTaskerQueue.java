@@ -0,0 +1,172 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.voltdb.StarvationTracker;
+
+public class TestRingSiteTaskerQueue extends TestCase
+{
+    private static class Task extends SiteTasker.SiteTaskerRunnable {
+        final int producer;
+        final int seq;
+
+        Task(int producer, int seq) {
+            this.producer = producer;
+            this.seq = seq;
+        }
+
+        @Override
+        void run() {}
+    }
+
+    private static RingSiteTaskerQueue getQueue(int size) {
+        RingSiteTaskerQueue queue = new RingSiteTaskerQueue(size);
+        queue.setStarvationTracker(new StarvationTracker(0));
+        return queue;
+    }
+
+    public void testFifoThroughOverflow() {
+        RingSiteTaskerQueue queue = getQueue(4);
+        assertTrue(queue.isEmpty());
+        for (int ii = 0; ii < 10; ii++) {
+            assertTrue(queue.offer(new Task(0, ii)));
+        }
+        assertFalse(queue.isEmpty());
+        // Freeing ring slots must not let new tasks overtake the overflow
+        assertEquals(0, ((Task)queue.poll()).seq);
+        assertEquals(1, ((Task)queue.poll()).seq);
+        queue.offer(new Task(0, 10));
+        for (int ii = 2; ii <= 10; ii++) {
+            assertEquals(ii, ((Task)queue.poll()).seq);
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+
+        // Back on the ring once the overflow drained
+        queue.offer(new Task(0, 11));
+        assertEquals(11, ((Task)queue.poll()).seq);
+    }
+
+    public void testPeekThenPoll() {
+        RingSiteTaskerQueue queue = getQueue(4);
+        assertNull(queue.peek());
+        Task first = new Task(0, 0);
+        queue.offer(first);
+        assertSame(first, queue.peek());
+        assertSame(first, queue.peek());
+        assertFalse(queue.isEmpty());
+        queue.offer(new Task(0, 1));
+        assertSame(first, queue.poll());
+        assertEquals(1, ((Task)queue.poll()).seq);
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testConcurrentProducersKeepOrder() throws Exception {
+        final int producers = 4;
+        final int perProducer = 50000;
+        final RingSiteTaskerQueue queue = getQueue(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int ii = 0; ii < perProducer; ii++) {
+                        queue.offer(new Task(producer, ii));
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+
+        int[] next = new int[producers];
+        for (int ii = 0; ii < producers * perProducer; ii++) {
+            Task task = (Task)queue.take();
+            assertEquals(next[task.producer]++, task.seq);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testTakeWakesUpAfterPark() throws Exception {
+        final RingSiteTaskerQueue queue = getQueue(8);
+        final AtomicReference<SiteTasker> taken = new AtomicReference<SiteTasker>();
+        final long initialSpin = queue.getSpinNanos();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(queue.take());
+                } catch (InterruptedException e) {}
+            }
+        };
+        consumer.start();
+        // Long enough for the consumer to get past spinning and park
+        Thread.sleep(100);
+        Task task = new Task(0, 0);
+        queue.offer(task);
+        consumer.join(10000);
+        assertFalse(consumer.isAlive());
+        assertSame(task, taken.get());
+        // The long starvation should have shortened the spin
+        assertTrue(queue.getSpinNanos() < initialSpin);
+    }
+
+    public void testTakeIsInterruptible() throws Exception {
+        final RingSiteTaskerQueue queue = getQueue(8);
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.take();
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        };
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join(10000);
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+}
@@ -0,0 +1,165 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.HdrHistogram_voltpatches.HistogramIterationValue;
+import org.voltdb.StarvationTracker;
+
+public class TestSiteTaskerQueue extends TestCase
+{
+    private static class Task extends SiteTasker.SiteTaskerRunnable {
+        final SiteTaskerQueue.Lane lane;
+        final int seq;
+
+        Task(SiteTaskerQueue.Lane lane, int seq) {
+            this.lane = lane;
+            this.seq = seq;
+        }
+
+        @Override
+        public SiteTaskerQueue.Lane getLane() {
+            return lane;
+        }
+
+        @Override
+        void run() {}
+    }
+
+    private static SiteTaskerQueue[] getQueues(boolean priorityLanes) {
+        SiteTaskerQueue[] queues = new SiteTaskerQueue[] {
+                new SiteTaskerQueue(priorityLanes), new RingSiteTaskerQueue(4, priorityLanes) };
+        for (SiteTaskerQueue queue : queues) {
+            queue.setStarvationTracker(new StarvationTracker(0));
+        }
+        return queues;
+    }
+
+    private static void offerMix(SiteTaskerQueue queue) {
+        queue.offer(new Task(SiteTaskerQueue.Lane.ORDERED, 0));
+        queue.offer(new Task(SiteTaskerQueue.Lane.BULK, 1));
+        queue.offer(new Task(SiteTaskerQueue.Lane.ORDERED, 2));
+        queue.offer(new Task(SiteTaskerQueue.Lane.SYSTEM, 3));
+        queue.offer(new Task(SiteTaskerQueue.Lane.ORDERED, 4));
+    }
+
+    public void testFifoWithoutLanes() {
+        for (SiteTaskerQueue queue : getQueues(false)) {
+            offerMix(queue);
+            for (int ii = 0; ii < 5; ii++) {
+                assertEquals(ii, ((Task)queue.poll()).seq);
+            }
+            assertNull(queue.poll());
+            assertNull(queue.getQueueTimes(SiteTaskerQueue.Lane.ORDERED));
+        }
+    }
+
+    public void testLaneOrder() {
+        for (SiteTaskerQueue queue : getQueues(true)) {
+            offerMix(queue);
+            assertFalse(queue.isEmpty());
+            // System first, ordered tasks in order, bulk once nothing else is left
+            assertEquals(3, ((Task)queue.peek()).seq);
+            assertEquals(3, ((Task)queue.poll()).seq);
+            assertEquals(0, ((Task)queue.poll()).seq);
+            assertEquals(2, ((Task)queue.poll()).seq);
+            assertEquals(4, ((Task)queue.poll()).seq);
+            assertEquals(1, ((Task)queue.poll()).seq);
+            // Only wakeups left behind
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+
+            assertEquals(1, queue.getQueueTimes(SiteTaskerQueue.Lane.SYSTEM).getTotalCount());
+            assertEquals(3, queue.getQueueTimes(SiteTaskerQueue.Lane.ORDERED).getTotalCount());
+            assertEquals(1, queue.getQueueTimes(SiteTaskerQueue.Lane.BULK).getTotalCount());
+        }
+    }
+
+    public void testOverdueBulkGoesFirst() throws InterruptedException {
+        for (SiteTaskerQueue queue : getQueues(true)) {
+            queue.offer(new Task(SiteTaskerQueue.Lane.BULK, 0));
+            Thread.sleep(SiteTaskerQueue.BULK_MAX_DELAY_NANOS / 1000000 + 1);
+            queue.offer(new Task(SiteTaskerQueue.Lane.ORDERED, 1));
+            assertEquals(0, ((Task)queue.poll()).seq);
+            assertEquals(1, ((Task)queue.poll()).seq);
+            assertNull(queue.poll());
+        }
+    }
+
+    public void testTakeWakesForEveryLane() throws Exception {
+        for (SiteTaskerQueue.Lane lane : SiteTaskerQueue.Lane.values()) {
+            for (final SiteTaskerQueue queue : getQueues(true)) {
+                final AtomicReference<SiteTasker> taken = new AtomicReference<SiteTasker>();
+                Thread consumer = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            taken.set(queue.take());
+                        } catch (InterruptedException e) {}
+                    }
+                };
+                consumer.start();
+                Thread.sleep(10);
+                Task task = new Task(lane, 0);
+                queue.offer(task);
+                consumer.join(10000);
+                assertSame(task, taken.get());
+            }
+        }
+    }
+
+    public void testQueueTimesWhileRecording() throws Exception {
+        final int tasks = 200000;
+        for (final SiteTaskerQueue queue : getQueues(true)) {
+            // Stands in for the site thread, recording a queue time for every task it takes
+            Thread site = new Thread() {
+                @Override
+                public void run() {
+                    for (int ii = 0; ii < tasks; ii++) {
+                        queue.offer(new Task(SiteTaskerQueue.Lane.ORDERED, ii));
+                        queue.poll();
+                    }
+                }
+            };
+            site.start();
+            long lastCount = 0;
+            do {
+                AbstractHistogram times = queue.getQueueTimes(SiteTaskerQueue.Lane.ORDERED);
+                long counted = 0;
+                for (HistogramIterationValue value : times.recordedValues()) {
+                    counted += value.getCountAddedInThisIterationStep();
+                }
+                assertEquals(times.getTotalCount(), counted);
+                assertTrue(times.getTotalCount() >= lastCount);
+                lastCount = times.getTotalCount();
+            } while (site.isAlive());
+            site.join();
+            assertEquals(tasks, queue.getQueueTimes(SiteTaskerQueue.Lane.ORDERED).getTotalCount());
+        }
+    }
+}
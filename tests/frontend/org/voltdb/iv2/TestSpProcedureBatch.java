@@ -0,0 +1,268 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.voltcore.messaging.VoltMessage;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.ProcedureRunner;
+import org.voltdb.SiteProcedureConnection;
+import org.voltdb.StarvationTracker;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.SystemProcedureExecutionContext;
+import org.voltdb.TheHashinator;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.dtxn.TransactionState;
+import org.voltdb.dtxn.UndoAction;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+public class TestSpProcedureBatch extends TestCase
+{
+    private static final String INSERT = "Insert";
+    private static final String OTHER_INSERT = "OtherInsert";
+    private static final String READ = "Read";
+
+    private SiteTaskerQueue m_scheduler;
+    private TransactionTaskQueue m_queue;
+    private SiteProcedureConnection m_site;
+    private long m_spHandle = 0;
+
+    @Override
+    public void setUp()
+    {
+        m_scheduler = new SiteTaskerQueue();
+        m_scheduler.setStarvationTracker(new StarvationTracker(0));
+        m_queue = new TransactionTaskQueue(m_scheduler);
+
+        // A catalog without export or DR streams
+        Catalog catalog = new Catalog();
+        Database db = catalog.getClusters().add("cluster").getDatabases().add("database");
+        SystemProcedureExecutionContext context = mock(SystemProcedureExecutionContext.class);
+        when(context.getDatabase()).thenReturn(db);
+
+        ProcedureRunner insert = createRunner(true);
+        ProcedureRunner otherInsert = createRunner(true);
+        ProcedureRunner read = createRunner(false);
+        m_site = mock(SiteProcedureConnection.class);
+        when(m_site.getSystemProcedureExecutionContext()).thenReturn(context);
+        when(m_site.getLatestUndoToken()).thenReturn(9L);
+        when(m_site.getProcedureRunner(INSERT)).thenReturn(insert);
+        when(m_site.getProcedureRunner(OTHER_INSERT)).thenReturn(otherInsert);
+        when(m_site.getProcedureRunner(READ)).thenReturn(read);
+    }
+
+    private static ProcedureRunner createRunner(boolean batchable)
+    {
+        ProcedureRunner runner = mock(ProcedureRunner.class);
+        when(runner.isBatchable()).thenReturn(batchable);
+        when(runner.checkPartition(any(TransactionState.class), any(TheHashinator.class))).thenReturn(true);
+        when(runner.call(Matchers.<Object[]>anyVararg())).thenReturn(success());
+        return runner;
+    }
+
+    private static ClientResponseImpl success()
+    {
+        return new ClientResponseImpl(ClientResponse.SUCCESS, new VoltTable[0], null);
+    }
+
+    private SpProcedureTask createTask(String procName, boolean readOnly)
+    {
+        Iv2InitiateTaskMessage init = mock(Iv2InitiateTaskMessage.class);
+        when(init.getTxnId()).thenReturn(Iv2InitiateTaskMessage.UNUSED_MP_TXNID);
+        when(init.getSpHandle()).thenReturn(m_spHandle++);
+        when(init.isReadOnly()).thenReturn(readOnly);
+        when(init.getParameters()).thenReturn(new Object[] { m_spHandle });
+        when(init.getStoredProcedureInvocation()).thenReturn(new StoredProcedureInvocation());
+
+        InitiatorMailbox mbox = mock(InitiatorMailbox.class);
+        when(mbox.getHSId()).thenReturn(1337l);
+
+        return new SpProcedureTask(mbox, procName, m_queue, init);
+    }
+
+    private SpProcedureTask createInsert()
+    {
+        return createTask(INSERT, false);
+    }
+
+    private static Object[] parameters(SpProcedureTask task)
+    {
+        return ((SpTransactionState)task.m_txnState).m_initiationMsg.getParameters();
+    }
+
+    private SpProcedureTask runBatch(SpProcedureTask first)
+    {
+        return Site.runSpBatch(m_site, m_scheduler, first, 4);
+    }
+
+    private static void verifyResponded(SpProcedureTask... tasks)
+    {
+        for (SpProcedureTask task : tasks) {
+            verify(task.m_initiator).deliver(any(VoltMessage.class));
+        }
+    }
+
+    @Test
+    public void testCanBatchWith()
+    {
+        SpProcedureTask insert = createInsert();
+        assertTrue(insert.isBatchable(m_site));
+        assertTrue(insert.canBatchWith(createInsert()));
+        assertFalse(insert.canBatchWith(createTask(OTHER_INSERT, false)));
+        assertFalse(insert.canBatchWith(createTask(READ, true)));
+
+        SpProcedureTask speculative = createInsert();
+        speculative.setSpeculative(true);
+        assertFalse(speculative.isBatchable(m_site));
+        assertFalse(insert.canBatchWith(speculative));
+
+        // Reads and procedures the runner can't batch don't start batches
+        assertFalse(createTask(READ, true).isBatchable(m_site));
+        assertFalse(createTask(READ, false).isBatchable(m_site));
+    }
+
+    @Test
+    public void testBatchStopsAtOtherWork() throws InterruptedException
+    {
+        SpProcedureTask first = createInsert();
+        SpProcedureTask second = createInsert();
+        SpProcedureTask read = createTask(READ, true);
+        SpProcedureTask third = createInsert();
+        FragmentTask fragment = mock(FragmentTask.class);
+        SpProcedureTask other = createTask(OTHER_INSERT, false);
+        SpProcedureTask fourth = createInsert();
+        for (SiteTasker task : Arrays.asList(second, read, third, fragment, fourth, other)) {
+            m_scheduler.offer(task);
+        }
+        ProcedureRunner runner = m_site.getProcedureRunner(INSERT);
+        when(runner.callBatch(anyListOf(Object[].class), anyLong(), anyLong(), anyLong()))
+            .thenReturn(new ClientResponseImpl[] { success(), success() });
+
+        // Stops at a read
+        assertSame(second, runBatch(first));
+        verify(runner).callBatch(Arrays.asList(parameters(first), parameters(second)),
+                second.getTxnId(), second.getSpHandle(), second.m_txnState.uniqueId);
+        verifyResponded(first, second);
+        assertSame(read, m_scheduler.poll());
+
+        // Stops at a multi-part fragment, a batch of one runs on its own
+        assertSame(third, runBatch((SpProcedureTask)m_scheduler.poll()));
+        verify(runner, times(1)).call(Matchers.<Object[]>anyVararg());
+        verifyResponded(third);
+        assertSame(fragment, m_scheduler.poll());
+
+        // Stops at another procedure
+        assertSame(fourth, runBatch((SpProcedureTask)m_scheduler.poll()));
+        verify(runner, times(2)).call(Matchers.<Object[]>anyVararg());
+        assertSame(other, m_scheduler.poll());
+        assertNull(m_scheduler.poll());
+        verify(runner, times(1)).callBatch(anyListOf(Object[].class), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testUnbatchableTaskRunsAlone()
+    {
+        SpProcedureTask read = createTask(READ, true);
+        SpProcedureTask next = createTask(READ, true);
+        m_scheduler.offer(next);
+
+        assertSame(read, runBatch(read));
+        ProcedureRunner runner = m_site.getProcedureRunner(READ);
+        verify(runner).call(Matchers.<Object[]>anyVararg());
+        verify(runner, never()).callBatch(anyListOf(Object[].class), anyLong(), anyLong(), anyLong());
+        verifyResponded(read);
+        // Nothing was taken off the queue
+        assertSame(next, m_scheduler.poll());
+    }
+
+    @Test
+    public void testFailedBatchRunsEachTask()
+    {
+        SpProcedureTask first = createInsert();
+        SpProcedureTask second = createInsert();
+        SpProcedureTask third = createInsert();
+        m_scheduler.offer(second);
+        m_scheduler.offer(third);
+        // The batch could not run as a whole, see ProcedureRunner.callBatch()
+        ProcedureRunner runner = m_site.getProcedureRunner(INSERT);
+        when(runner.callBatch(anyListOf(Object[].class), anyLong(), anyLong(), anyLong())).thenReturn(null);
+
+        assertSame(third, runBatch(first));
+        verify(runner).callBatch(anyListOf(Object[].class), anyLong(), anyLong(), anyLong());
+        verify(runner, times(3)).call(Matchers.<Object[]>anyVararg());
+        verifyResponded(first, second, third);
+        // Each ran as its own transaction, none was completed as part of the batch
+        for (SpProcedureTask task : Arrays.asList(first, second, third)) {
+            verify(m_site).truncateUndoLog(eq(false), anyLong(), eq(task.getSpHandle()),
+                    anyListOf(UndoAction.class));
+        }
+        verify(m_site, never()).truncateUndoLog(eq(false), eq(Site.kInvalidUndoToken), anyLong(),
+                anyListOf(UndoAction.class));
+    }
+
+    @Test
+    public void testUndoQuantumReleasedWithLastTask()
+    {
+        SpProcedureTask first = createInsert();
+        SpProcedureTask second = createInsert();
+        SpProcedureTask third = createInsert();
+        m_scheduler.offer(second);
+        m_scheduler.offer(third);
+        ProcedureRunner runner = m_site.getProcedureRunner(INSERT);
+        when(runner.callBatch(anyListOf(Object[].class), anyLong(), anyLong(), anyLong()))
+            .thenReturn(new ClientResponseImpl[] { success(), success(), success() });
+
+        assertSame(third, runBatch(first));
+        verify(runner, never()).call(Matchers.<Object[]>anyVararg());
+        verifyResponded(first, second, third);
+        // Every transaction records its commit, only the last releases the batch's quantum
+        List<SpProcedureTask> leading = Arrays.asList(first, second);
+        for (SpProcedureTask task : leading) {
+            verify(m_site).truncateUndoLog(eq(false), eq(Site.kInvalidUndoToken), eq(task.getSpHandle()),
+                    anyListOf(UndoAction.class));
+        }
+        verify(m_site).truncateUndoLog(eq(false), eq(9L), eq(third.getSpHandle()), anyListOf(UndoAction.class));
+        verify(m_site, times(3)).truncateUndoLog(anyBoolean(), anyLong(), anyLong(), anyListOf(UndoAction.class));
+    }
+}
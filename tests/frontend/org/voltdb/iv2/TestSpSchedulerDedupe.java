@@ -56,10 +56,14 @@ import org.voltdb.SnapshotCompletionMonitor;
 import org.voltdb.StarvationTracker;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltDBInterface;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
 import org.voltdb.messaging.FragmentResponseMessage;
 import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.InitiateResponseMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.RepairLogTruncationMessage;
 
 import com.google_voltpatches.common.collect.ImmutableMap;
 
@@ -165,6 +169,27 @@ public class TestSpSchedulerDedupe extends TestCase
         verify(mbox, times(1)).send(eq(primary_hsid), eq(resp));
     }
 
+    @Test
+    public void testReplicaHashedResultBytesCounted() throws Exception
+    {
+        long txnid = TxnEgo.makeZero(0).getTxnId();
+        long primary_hsid = 1111l;
+
+        createObjs();
+        Iv2InitiateTaskMessage sptask = createMsg(txnid, false, true, primary_hsid);
+        sptask.setSpHandle(txnid);
+        sptask.setShouldReturnResultTables(false);
+        dut.deliver(sptask);
+        VoltTable result = new VoltTable(new ColumnInfo("ID", VoltType.BIGINT));
+        result.addRow(1L);
+        InitiateResponseMessage resp = new InitiateResponseMessage(sptask);
+        resp.setResults(new ClientResponseImpl(ClientResponseImpl.SUCCESS, new VoltTable[] { result }, ""));
+        dut.deliver(resp);
+        verify(mbox, times(1)).send(eq(primary_hsid), eq(resp));
+        assertEquals(1, ((SpScheduler)dut).getReplicaHashedResponses());
+        assertEquals(result.getSerializedSize(), ((SpScheduler)dut).getReplicaResultBytesSaved());
+    }
+
     @Test
     public void testReplicaInitiateTaskResponseShortCircuitRead() throws Exception
     {
@@ -187,6 +212,35 @@ public class TestSpSchedulerDedupe extends TestCase
         m_readLevel = Consistency.ReadLevel.SAFE;
     }
 
+    @Test
+    public void testReplicaInitiateTaskResponseSafeReplicaRead() throws Exception
+    {
+        m_readLevel = Consistency.ReadLevel.SAFE_REPLICA;
+
+        long writeTxnId = TxnEgo.makeZero(0).makeNext().getTxnId();
+        long primary_hsid = 1111l;
+
+        createObjs();
+        Iv2InitiateTaskMessage write = createMsg(writeTxnId, false, true, primary_hsid);
+        dut.deliver(write);
+
+        // the read runs after the write, so it is held until the leader says the write is everywhere
+        Iv2InitiateTaskMessage read = createMsg(writeTxnId, true, true, dut_hsid);
+        dut.deliver(read);
+        assertEquals(writeTxnId, ((SpScheduler)dut).m_maxScheduledTxnSpHandle);
+        InitiateResponseMessage resp = new InitiateResponseMessage(read);
+        dut.deliver(resp);
+        verify(mbox, times(0)).send(eq(dut_hsid), eq(resp));
+
+        dut.deliver(new RepairLogTruncationMessage(writeTxnId - 1));
+        verify(mbox, times(0)).send(eq(dut_hsid), eq(resp));
+
+        dut.deliver(new RepairLogTruncationMessage(writeTxnId));
+        verify(mbox, times(1)).send(eq(dut_hsid), eq(resp));
+
+        m_readLevel = Consistency.ReadLevel.SAFE;
+    }
+
     @Test
     public void testReplicaFragmentTaskResponse() throws Exception
     {
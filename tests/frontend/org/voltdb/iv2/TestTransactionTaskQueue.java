@@ -23,17 +23,35 @@
 
 package org.voltdb.iv2;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.junit.Test;
+import org.mockito.Matchers;
+import org.voltcore.messaging.VoltMessage;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.ProcedureRunner;
+import org.voltdb.SiteProcedureConnection;
 import org.voltdb.StarvationTracker;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.TheHashinator;
+import org.voltdb.VoltTable;
+import org.voltdb.client.ClientResponse;
 import org.voltdb.dtxn.TransactionState;
+import org.voltdb.dtxn.UndoAction;
 import org.voltdb.messaging.CompleteTransactionMessage;
 import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
@@ -196,4 +214,178 @@ public class TestTransactionTaskQueue extends TestCase
             assertEquals(expected.getTxnId(), next_poll.getTxnId());
         }
     }
+
+    // A single part procedure that can really be run against a mocked site
+    private SpProcedureTask createRunnableSpProc(long localTxnId,
+                                                 TransactionTaskQueue queue)
+    {
+        Iv2InitiateTaskMessage init = mock(Iv2InitiateTaskMessage.class);
+        when(init.getTxnId()).thenReturn(Iv2InitiateTaskMessage.UNUSED_MP_TXNID);
+        when(init.getSpHandle()).thenReturn(localTxnId);
+        when(init.getParameters()).thenReturn(new Object[0]);
+        when(init.getStoredProcedureInvocation()).thenReturn(new StoredProcedureInvocation());
+
+        InitiatorMailbox mbox = mock(InitiatorMailbox.class);
+        when(mbox.getHSId()).thenReturn(1337l);
+
+        return new SpProcedureTask(mbox, "TestProc", queue, init);
+    }
+
+    private SiteProcedureConnection createSite(long latestUndoToken)
+    {
+        ProcedureRunner runner = mock(ProcedureRunner.class);
+        when(runner.checkPartition(any(TransactionState.class), any(TheHashinator.class))).thenReturn(true);
+        when(runner.call(Matchers.<Object[]>anyVararg())).thenReturn(
+                new ClientResponseImpl(ClientResponse.SUCCESS, new VoltTable[0], null));
+        SiteProcedureConnection site = mock(SiteProcedureConnection.class);
+        when(site.getProcedureRunner("TestProc")).thenReturn(runner);
+        when(site.getLatestUndoToken()).thenReturn(latestUndoToken);
+        return site;
+    }
+
+    // Take the next task off the site queue, check it is the expected one and run it
+    private static void runNext(SiteTaskerQueue task_queue, SiteProcedureConnection site,
+                                SpProcedureTask expected) throws InterruptedException
+    {
+        assertSame(expected, task_queue.take());
+        expected.run(site);
+        assertTrue(expected.hasRunSpeculatively());
+        verify(expected.m_initiator, never()).deliver(any(VoltMessage.class));
+    }
+
+    @Test
+    public void testSpeculationCommit() throws InterruptedException
+    {
+        long localTxnId = 0;
+        SiteTaskerQueue task_queue = getSiteTaskerQueue();
+        TransactionTaskQueue dut = new TransactionTaskQueue(task_queue);
+        SiteProcedureConnection site = createSite(9);
+
+        // MP blocks the queue, the SPs wait behind it
+        TransactionTask block = createFrag(localTxnId++, 100, dut);
+        addTask(block, dut, null);
+        SpProcedureTask sp1 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp1, dut, null);
+        SpProcedureTask sp2 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp2, dut, null);
+        assertEquals(3, dut.size());
+        assertSame(block, task_queue.take());
+
+        // Final fragment done, the waiting SPs and any new ones run and hold their responses
+        assertEquals(2, dut.speculate(block, 10));
+        assertEquals(1, dut.size());
+        runNext(task_queue, site, sp1);
+        UndoAction undo = mock(UndoAction.class);
+        sp1.getTransactionState().registerUndoAction(undo);
+        runNext(task_queue, site, sp2);
+        SpProcedureTask sp3 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp3, dut, null);
+        assertEquals(1, dut.size());
+        runNext(task_queue, site, sp3);
+
+        // The completion arrives, SPs offered after it wait for it instead of speculating
+        CompleteTransactionTask complete = createComplete(block.getTransactionState(), block.getTxnId(), dut);
+        dut.offer(complete);
+        SpProcedureTask sp4 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp4, dut, null);
+        assertEquals(2, dut.size());
+        assertSame(complete, task_queue.take());
+        assertNull(task_queue.poll());
+
+        // Commit, as the completion would. Everything handed back has run, and completing it
+        // records the commit and releases the java undo actions without releasing EE quanta again
+        List<SpProcedureTask> speculated = dut.commitSpeculation(block.getTxnId());
+        assertEquals(Arrays.asList(sp1, sp2, sp3), speculated);
+        for (SpProcedureTask task : speculated) {
+            task.completeSpeculation(site);
+            verify(site).truncateUndoLog(false, Site.kInvalidUndoToken, task.getSpHandle(), null);
+            verify(task.m_initiator).deliver(any(VoltMessage.class));
+        }
+        verify(undo).release();
+        verify(undo, never()).undo();
+        verify(site, never()).truncateUndoLog(eq(true), anyLong(), anyLong(), anyListOf(UndoAction.class));
+        assertTrue(dut.commitSpeculation(block.getTxnId()).isEmpty());
+
+        // Once the MP is done, the SP that waited for it runs as usual
+        block.getTransactionState().setDone();
+        dut.flush(block.getTxnId());
+        assertEquals(0, dut.size());
+        assertSame(sp4, task_queue.take());
+        assertFalse(sp4.hasRunSpeculatively());
+    }
+
+    @Test
+    public void testSpeculationAbort() throws InterruptedException
+    {
+        long localTxnId = 0;
+        SiteTaskerQueue task_queue = getSiteTaskerQueue();
+        TransactionTaskQueue dut = new TransactionTaskQueue(task_queue);
+        SiteProcedureConnection site = createSite(9);
+
+        TransactionTask block = createFrag(localTxnId++, 100, dut);
+        addTask(block, dut, null);
+        SpProcedureTask sp1 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp1, dut, null);
+        SpProcedureTask sp2 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp2, dut, null);
+        assertSame(block, task_queue.take());
+
+        assertEquals(2, dut.speculate(block, 10));
+        runNext(task_queue, site, sp1);
+        UndoAction undo = mock(UndoAction.class);
+        sp1.getTransactionState().registerUndoAction(undo);
+        runNext(task_queue, site, sp2);
+
+        // The MP rolls back. Its completion is offered behind the speculated SPs, so they have
+        // all run when it undoes them from the first speculative token and puts them back in order
+        CompleteTransactionTask complete = createComplete(block.getTransactionState(), block.getTxnId(), dut);
+        dut.offer(complete);
+        assertSame(complete, task_queue.take());
+        dut.abortSpeculation(site, block.getTxnId());
+        verify(site).truncateUndoLog(true, 10, sp1.getSpHandle(), null);
+        verify(undo).undo();
+        verify(undo, never()).release();
+        assertTrue(sp1.getTransactionState().getUndoLog().isEmpty());
+        assertFalse(sp1.hasRunSpeculatively());
+        assertFalse(sp2.hasRunSpeculatively());
+        assertEquals(3, dut.size());
+        assertTrue(dut.commitSpeculation(block.getTxnId()).isEmpty());
+
+        // Nothing more is speculated behind the MP, the SPs run for real once it is done
+        SpProcedureTask sp3 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp3, dut, null);
+        assertEquals(4, dut.size());
+        assertNull(task_queue.poll());
+        block.getTransactionState().setDone();
+        assertEquals(3, dut.flush(block.getTxnId()));
+        assertSame(sp1, task_queue.take());
+        assertSame(sp2, task_queue.take());
+        assertSame(sp3, task_queue.take());
+    }
+
+    @Test
+    public void testNoSpeculationBehindQueuedCompletion() throws InterruptedException
+    {
+        long localTxnId = 0;
+        SiteTaskerQueue task_queue = getSiteTaskerQueue();
+        TransactionTaskQueue dut = new TransactionTaskQueue(task_queue);
+
+        TransactionTask block = createFrag(localTxnId++, 100, dut);
+        addTask(block, dut, null);
+        SpProcedureTask sp1 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp1, dut, null);
+        assertSame(block, task_queue.take());
+
+        // The completion was queued while the final fragment ran, anything speculated now would
+        // run after the completion had already committed or aborted the speculation
+        CompleteTransactionTask complete = createComplete(block.getTransactionState(), block.getTxnId(), dut);
+        dut.offer(complete);
+        assertEquals(0, dut.speculate(block, 10));
+        SpProcedureTask sp2 = createRunnableSpProc(localTxnId++, dut);
+        addTask(sp2, dut, null);
+        assertEquals(3, dut.size());
+        assertSame(complete, task_queue.take());
+        assertNull(task_queue.poll());
+        assertTrue(dut.commitSpeculation(block.getTxnId()).isEmpty());
+    }
 }
@@ -156,6 +156,41 @@ public class TestVoltMessageSerialization extends TestCase {
         assertTrue(iresponse2.isReadOnly());
     }
 
+    public void testHashedInitiateResponse() throws IOException {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setClientHandle(25);
+        spi.setProcName("elmerfudd");
+        spi.setParams(57, "wrascallywabbit");
+
+        Iv2InitiateTaskMessage itask = new Iv2InitiateTaskMessage(23, 8, 10L, 100045, 99, false, true, spi, 2101, 3101, false);
+        itask.setShouldReturnResultTables(false);
+        Iv2InitiateTaskMessage itask2 = (Iv2InitiateTaskMessage) checkVoltMessage(itask);
+        assertFalse(itask2.shouldReturnResultTables());
+
+        VoltTable table = new VoltTable(
+                new VoltTable.ColumnInfo("foobar", VoltType.STRING)
+        );
+        table.addRow("howmanylicksdoesittaketogettothecenterofatootsiepop");
+
+        InitiateResponseMessage iresponse = new InitiateResponseMessage(itask2);
+        ClientResponseImpl cr = new ClientResponseImpl(ClientResponse.SUCCESS,
+                new VoltTable[] { table, table }, "knockknockbananna");
+        cr.setHash(1234);
+        iresponse.setResults(cr);
+        assertTrue(iresponse.shouldHashResultTables());
+        int resultHash = iresponse.getResultHash();
+
+        assertTrue(iresponse.hashResultTables() > 0);
+        assertEquals(0, iresponse.hashResultTables());
+
+        InitiateResponseMessage iresponse2 = (InitiateResponseMessage) checkVoltMessage(iresponse);
+
+        assertTrue(iresponse2.hasHashedResults());
+        assertEquals(resultHash, iresponse2.getResultHash());
+        assertEquals(0, iresponse2.getClientResponseData().getResults().length);
+        assertEquals(Integer.valueOf(1234), iresponse2.getClientResponseData().getHash());
+    }
+
     public void testMispartitionedResponse() throws IOException {
         StoredProcedureInvocation spi = new StoredProcedureInvocation();
         spi.setClientHandle(25);
@@ -333,6 +368,31 @@ public class TestVoltMessageSerialization extends TestCase {
         assertEquals(t1.fetchRow(0).getString(0), t2.fetchRow(0).getString(0));
     }
 
+    public void testHashedFragmentResponse() throws IOException {
+        FragmentTaskMessage ft = new FragmentTaskMessage(15, 12, 37, 99, false, false, false);
+        ft.setShouldReturnResultTables(false);
+
+        VoltTable table = new VoltTable(
+                new VoltTable.ColumnInfo("bearhugg", VoltType.STRING)
+        );
+        table.addRow("sandimashighschoolfootballrules");
+
+        FragmentResponseMessage fr = new FragmentResponseMessage(ft, 23);
+        fr.setStatus(FragmentResponseMessage.SUCCESS, null);
+        fr.addDependency(new DependencyPair.TableDependencyPair(99, table));
+        assertTrue(fr.shouldHashDependencies());
+        int dependencyHash = fr.getDependencyHash();
+
+        assertTrue(fr.hashDependencies() > 0);
+
+        FragmentResponseMessage fr2 = (FragmentResponseMessage) checkVoltMessage(fr);
+
+        assertTrue(fr2.hasHashedDependencies());
+        assertEquals(dependencyHash, fr2.getDependencyHash());
+        assertEquals(0, fr2.getTableCount());
+        assertEquals(fr.getStatusCode(), fr2.getStatusCode());
+    }
+
     public void testMembershipNotice() throws IOException {
         MultiPartitionParticipantMessage mn = new MultiPartitionParticipantMessage(100222, -75, 555555555555L, false);
 
@@ -0,0 +1,285 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.sysprocs.saverestore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
+public class TestTableSaveFile extends TestCase
+{
+    private static final int PARTITIONS = 4;
+    private static final int CHUNKS = 32;
+    private static final int ROWS = 100;
+    private static final int READ_AHEAD = 4;
+
+    private File m_file;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        m_file = File.createTempFile("TestTableSaveFile", ".vpt");
+        writeSaveFile(m_file);
+    }
+
+    @Override
+    public void tearDown()
+    {
+        m_file.delete();
+    }
+
+    private static VoltTable createTable()
+    {
+        return new VoltTable(new ColumnInfo("ID", VoltType.BIGINT));
+    }
+
+    // Chunk i belongs to partition i % PARTITIONS and holds the ids i * ROWS up to (i + 1) * ROWS
+    private static void writeSaveFile(File file) throws Exception
+    {
+        List<Integer> partitionIds = new ArrayList<Integer>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitionIds.add(i);
+        }
+        DefaultSnapshotDataTarget target = new DefaultSnapshotDataTarget(file, 0, "cluster", "database", "T",
+                PARTITIONS, false, partitionIds, createTable(), 0, 0);
+        List<ListenableFuture<?>> writes = new ArrayList<ListenableFuture<?>>();
+        for (int i = 0; i < CHUNKS; i++) {
+            VoltTable table = createTable();
+            for (int r = 0; r < ROWS; r++) {
+                table.addRow((long)(i * ROWS + r));
+            }
+            // Like the EE, the row count and the rows without the length and header that are in the file header
+            ByteBuffer rows = ByteBuffer.allocate(table.getSerializedSize());
+            table.flattenToBuffer(rows);
+            rows.position(8 + rows.getInt(4));
+            final BBContainer c = DBBPool.allocateDirect(4 + rows.remaining());
+            c.b().putInt(i % PARTITIONS);
+            c.b().put(rows);
+            c.b().flip();
+            writes.add(target.write(new Callable<BBContainer>() {
+                @Override
+                public BBContainer call() {
+                    return c;
+                }
+            }, 0));
+        }
+        for (ListenableFuture<?> write : writes) {
+            write.get();
+        }
+        target.close();
+    }
+
+    // Flip a byte of the compressed data of a chunk, its CRC no longer matches
+    private void corruptChunk(int chunk) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try {
+            raf.seek(4);
+            long position = 8 + raf.readInt();
+            raf.seek(position);
+            // The VoltTable header
+            position += 4 + raf.readInt();
+            for (int i = 0; i < chunk; i++) {
+                raf.seek(position);
+                // Length prefix, partition id, partition id CRC and data CRC
+                position += 16 + raf.readInt();
+            }
+            raf.seek(position + 16 + 8);
+            int b = raf.read();
+            raf.seek(position + 16 + 8);
+            raf.write(~b);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private TableSaveFile open(boolean continueOnCorruptedChunk, boolean inOrder) throws IOException
+    {
+        return new TableSaveFile(new FileInputStream(m_file), READ_AHEAD, null, continueOnCorruptedChunk, inOrder);
+    }
+
+    // Check the content of each chunk and return the chunks in the order they were read
+    private static List<Integer> readChunks(TableSaveFile saveFile) throws IOException
+    {
+        List<Integer> chunks = new ArrayList<Integer>();
+        BBContainer c;
+        while ((c = saveFile.getNextChunk()) != null) {
+            try {
+                VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b(), true);
+                assertEquals(ROWS, table.getRowCount());
+                int chunk = (int)(table.fetchRow(0).getLong(0) / ROWS);
+                for (int r = 0; r < ROWS; r++) {
+                    assertEquals(chunk * ROWS + r, table.fetchRow(r).getLong(0));
+                }
+                assertEquals(chunk % PARTITIONS, ((TableSaveFile.Container)c).partitionId);
+                chunks.add(chunk);
+            } finally {
+                c.discard();
+            }
+        }
+        assertFalse(saveFile.hasMoreChunks());
+        return chunks;
+    }
+
+    private static List<Integer> allChunksExcept(Integer... skipped)
+    {
+        List<Integer> chunks = new ArrayList<Integer>();
+        for (int i = 0; i < CHUNKS; i++) {
+            chunks.add(i);
+        }
+        chunks.removeAll(Arrays.asList(skipped));
+        return chunks;
+    }
+
+    private static List<Integer> sorted(List<Integer> chunks)
+    {
+        List<Integer> copy = new ArrayList<Integer>(chunks);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    public void testReadAheadInOrder() throws Exception
+    {
+        TableSaveFile saveFile = open(false, true);
+        try {
+            assertTrue(saveFile.isCompressed());
+            assertTrue(saveFile.getCompleted());
+            assertEquals(allChunksExcept(), readChunks(saveFile));
+            assertTrue(saveFile.getCorruptedPartitionIds().isEmpty());
+        } finally {
+            saveFile.close();
+        }
+    }
+
+    public void testReadAheadUnordered() throws Exception
+    {
+        TableSaveFile saveFile = open(false, false);
+        try {
+            assertEquals(allChunksExcept(), sorted(readChunks(saveFile)));
+            assertTrue(saveFile.getCorruptedPartitionIds().isEmpty());
+        } finally {
+            saveFile.close();
+        }
+    }
+
+    public void testSkipIrrelevantPartitions() throws Exception
+    {
+        // Most chunks are skipped, each one has to give back its read ahead permit
+        for (boolean inOrder : new boolean[] { true, false }) {
+            TableSaveFile saveFile =
+                new TableSaveFile(new FileInputStream(m_file), 2, new Integer[] { 1 }, false, inOrder);
+            try {
+                List<Integer> chunks = readChunks(saveFile);
+                assertEquals(CHUNKS / PARTITIONS, chunks.size());
+                for (int chunk : chunks) {
+                    assertEquals(1, chunk % PARTITIONS);
+                }
+                if (inOrder) {
+                    assertEquals(sorted(chunks), chunks);
+                }
+            } finally {
+                saveFile.close();
+            }
+        }
+    }
+
+    public void testContinueOnCorruptedChunk() throws Exception
+    {
+        corruptChunk(5);
+        for (boolean inOrder : new boolean[] { true, false }) {
+            TableSaveFile saveFile = open(true, inOrder);
+            try {
+                List<Integer> chunks = readChunks(saveFile);
+                // The rest of the chunks still come out in file order
+                assertEquals(allChunksExcept(5), inOrder ? chunks : sorted(chunks));
+                assertEquals(Collections.singleton(5 % PARTITIONS), saveFile.getCorruptedPartitionIds());
+            } finally {
+                saveFile.close();
+            }
+        }
+    }
+
+    public void testFailOnCorruptedChunk() throws Exception
+    {
+        corruptChunk(5);
+        for (boolean inOrder : new boolean[] { true, false }) {
+            TableSaveFile saveFile = open(false, inOrder);
+            List<Integer> chunks = new ArrayList<Integer>();
+            try {
+                BBContainer c;
+                while ((c = saveFile.getNextChunk()) != null) {
+                    VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b(), true);
+                    chunks.add((int)(table.fetchRow(0).getLong(0) / ROWS));
+                    c.discard();
+                }
+                fail("Read the corrupted chunk");
+            } catch (IOException expected) {
+                assertTrue(saveFile.getCorruptedPartitionIds().contains(5 % PARTITIONS));
+                assertFalse(chunks.contains(5));
+                if (inOrder) {
+                    // Nothing after the corrupted chunk is handed out
+                    assertTrue(chunks.size() <= 5);
+                    assertEquals(allChunksExcept().subList(0, chunks.size()), chunks);
+                }
+            } finally {
+                // Waits for the chunks still being decompressed
+                saveFile.close();
+            }
+        }
+    }
+
+    public void testCloseWithChunksInFlight() throws Exception
+    {
+        for (boolean inOrder : new boolean[] { true, false }) {
+            TableSaveFile saveFile = open(false, inOrder);
+            BBContainer c = saveFile.getNextChunk();
+            assertNotNull(c);
+            // Returns once the chunks read ahead are decompressed and freed
+            saveFile.close();
+            // A chunk handed out before the close is still the consumer's
+            VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b(), true);
+            assertEquals(ROWS, table.getRowCount());
+            c.discard();
+        }
+    }
+}
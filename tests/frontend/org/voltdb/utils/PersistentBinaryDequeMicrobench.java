@@ -0,0 +1,126 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
+
+/**
+ * Measures offer and poll throughput of a PersistentBinaryDeque with one
+ * producer appending while several cursors poll concurrently, the way export
+ * and DR use it. Each cursor runs on its own thread.
+ *
+ * Usage: PersistentBinaryDequeMicrobench [directory] [object size in bytes] [cursors] [seconds]
+ */
+public class PersistentBinaryDequeMicrobench {
+
+    private static final VoltLogger LOG = new VoltLogger("HOST");
+    private static final String NONCE = "pbd_microbench";
+
+    static void run(File dir, int objectSize, int cursors, int seconds) throws Exception {
+        final PersistentBinaryDeque pbd = new PersistentBinaryDeque(NONCE, dir, LOG);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong offered = new AtomicLong();
+        final AtomicLong polled = new AtomicLong();
+        final List<Thread> threads = new ArrayList<>();
+
+        final List<BinaryDequeReader> readers = new ArrayList<>();
+        for (int i = 0; i < cursors; i++) {
+            readers.add(pbd.openForRead("cursor" + i));
+        }
+
+        threads.add(new Thread("producer") {
+            @Override
+            public void run() {
+                final ByteBuffer template = ByteBuffer.allocateDirect(objectSize);
+                while (template.hasRemaining()) {
+                    template.put((byte)template.position());
+                }
+                try {
+                    while (!done.get()) {
+                        template.clear();
+                        pbd.offer(DBBPool.wrapBB(template), false);
+                        offered.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        for (final BinaryDequeReader reader : readers) {
+            threads.add(new Thread("consumer") {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+                            if (cont == null) {
+                                Thread.yield();
+                                continue;
+                            }
+                            cont.discard();
+                            polled.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        done.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        pbd.closeAndDelete();
+
+        System.out.printf("%d byte objects, %d cursors: %d offers/sec, %d polls/sec%n",
+                objectSize, cursors, offered.get() / seconds, polled.get() / seconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File dir = new File(args.length > 0 ? args[0] : "/tmp/" + System.getProperty("user.name") + "/pbdbench");
+        final int objectSize = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        final int cursors = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        dir.mkdirs();
+
+        // Warm up before measuring
+        run(dir, objectSize, cursors, 2);
+        run(dir, objectSize, cursors, seconds);
+    }
+}
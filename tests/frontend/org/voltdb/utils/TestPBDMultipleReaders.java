@@ -24,9 +24,20 @@ package org.voltdb.utils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +46,7 @@ import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
+import org.voltdb.utils.BinaryDeque.OutputContainerFactory;
 
 public class TestPBDMultipleReaders {
 
@@ -100,6 +112,125 @@ public class TestPBDMultipleReaders {
         }
     }
 
+    @Test
+    public void testConcurrentWriterAndReaders() throws Exception {
+        final int numBuffers = 150;
+        final int numReaders = 3;
+        final BinaryDequeReader[] readers = new BinaryDequeReader[numReaders];
+        for (int i=0; i<numReaders; i++) {
+            readers[i] = m_pbd.openForRead("reader" + i);
+        }
+
+        ExecutorService es = Executors.newFixedThreadPool(numReaders + 1);
+        try {
+            Future<?> writer = es.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i=0; i<numBuffers; i++) {
+                        m_pbd.offer( DBBPool.wrapBB(TestPersistentBinaryDeque.getFilledBuffer(i)) );
+                    }
+                    return null;
+                }
+            });
+
+            List<Future<?>> pollers = new ArrayList<>();
+            for (final BinaryDequeReader reader : readers) {
+                pollers.add(es.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // Every reader sees every object, in order, while the writer is still appending
+                        int read = 0;
+                        while (read < numBuffers) {
+                            BBContainer bbC = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+                            if (bbC == null) {
+                                Thread.yield();
+                                continue;
+                            }
+                            try {
+                                assertEquals(read, bbC.b().getLong());
+                            } finally {
+                                bbC.discard();
+                            }
+                            read++;
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            writer.get();
+            for (Future<?> poller : pollers) {
+                poller.get();
+            }
+        } finally {
+            es.shutdownNow();
+        }
+
+        for (BinaryDequeReader reader : readers) {
+            assertTrue(reader.isEmpty());
+            assertEquals(0, reader.getNumObjects());
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForPollInFlight() throws Exception {
+        m_pbd.offer(DBBPool.wrapBB(TestPersistentBinaryDeque.getFilledBuffer(7)));
+        final BinaryDequeReader reader = m_pbd.openForRead("reader");
+
+        // Hold the poll while it reads the entry outside the deque lock
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final OutputContainerFactory blockingFactory = new OutputContainerFactory() {
+            @Override
+            public BBContainer getContainer(int minimumSize) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY.getContainer(minimumSize);
+            }
+        };
+
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            Future<Long> poller = es.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    BBContainer bbC = reader.poll(blockingFactory);
+                    try {
+                        return bbC.b().getLong();
+                    } finally {
+                        bbC.discard();
+                    }
+                }
+            });
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+            Future<?> closer = es.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    m_pbd.close();
+                    return null;
+                }
+            });
+            try {
+                closer.get(200, TimeUnit.MILLISECONDS);
+                fail("PBD closed while a poll was reading from it");
+            } catch (TimeoutException expected) {}
+
+            release.countDown();
+            Long value = poller.get(10, TimeUnit.SECONDS);
+            assertNotNull(value);
+            assertEquals(7, value.longValue());
+            closer.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            es.shutdownNow();
+        }
+    }
+
     @Test
     public void testOpenReaders() throws Exception {
         String cursorId = "reader";
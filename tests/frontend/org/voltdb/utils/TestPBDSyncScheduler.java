@@ -0,0 +1,120 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2017 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google_voltpatches.common.util.concurrent.Futures;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
+public class TestPBDSyncScheduler {
+
+    private static final String VOLUME = "test_volume";
+
+    private PBDSyncScheduler m_scheduler;
+    private final List<RandomAccessFile> m_files = new ArrayList<>();
+
+    private PBDSyncScheduler.SyncTarget newTarget(String name, int bytes) throws Exception {
+        File file = new File(TestPersistentBinaryDeque.TEST_DIR, name);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        m_files.add(raf);
+        raf.getChannel().write(ByteBuffer.allocate(bytes));
+        return new PBDSyncScheduler.SyncTarget(file, raf.getChannel(), bytes);
+    }
+
+    @Test
+    public void testRequestsCompleteAndAreCounted() throws Exception {
+        List<ListenableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            PBDSyncScheduler.SyncTarget target = newTarget("segment" + i, 1024);
+            futures.add(m_scheduler.sync(VOLUME, Arrays.asList(target)));
+        }
+        Futures.allAsList(futures).get();
+
+        Map<String, long[]> stats = m_scheduler.getStats(false);
+        assertEquals(1, stats.size());
+        long[] volume = stats.get(VOLUME);
+        assertEquals(20, volume[0]);
+        // Requests that queue up behind a batch in flight share the next one
+        assertTrue(volume[1] >= 1 && volume[1] <= 20);
+        assertEquals(20, volume[2]);
+        assertEquals(20 * 1024, volume[3]);
+        assertTrue(volume[5] > 0);
+
+        // Interval stats start over after being read
+        assertEquals(20, m_scheduler.getStats(true).get(VOLUME)[0]);
+        assertEquals(0, m_scheduler.getStats(true).get(VOLUME)[0]);
+        assertEquals(20, m_scheduler.getStats(false).get(VOLUME)[0]);
+    }
+
+    @Test
+    public void testClosedAndDeletedSegments() throws Exception {
+        PBDSyncScheduler.SyncTarget closed = newTarget("closed", 128);
+        PBDSyncScheduler.SyncTarget deleted = newTarget("deleted", 128);
+        // Segments closed, or consumed and deleted, after the sync was requested
+        closed.m_fc.close();
+        deleted.m_fc.close();
+        assertTrue(deleted.m_file.delete());
+
+        m_scheduler.sync(VOLUME, Arrays.asList(closed, deleted)).get();
+        assertEquals(2, m_scheduler.getStats(false).get(VOLUME)[2]);
+    }
+
+    @Test
+    public void testVolumesAreBatchedSeparately() throws Exception {
+        m_scheduler.sync("volume1", Arrays.asList(newTarget("a", 16))).get();
+        m_scheduler.sync("volume2", Arrays.asList(newTarget("b", 16), newTarget("c", 16))).get();
+
+        Map<String, long[]> stats = m_scheduler.getStats(false);
+        assertEquals(2, stats.size());
+        assertEquals(1, stats.get("volume1")[2]);
+        assertEquals(2, stats.get("volume2")[2]);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestPersistentBinaryDeque.setupTestDir();
+        m_scheduler = new PBDSyncScheduler(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (RandomAccessFile raf : m_files) {
+            raf.close();
+        }
+        TestPersistentBinaryDeque.tearDownTestDir();
+    }
+}
@@ -31,7 +31,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
@@ -647,6 +650,144 @@ public class TestPersistentBinaryDeque {
         assertTrue(names.first().equals("pbd_nonce.3.pbd"));
     }
 
+    @Test
+    public void testFailedSyncIsRetried() throws Exception {
+        System.out.println("Running testFailedSyncIsRetried");
+        m_pbd.offer(defaultContainer());
+
+        final IOException failure = new IOException("simulated fsync failure");
+        PBDSyncScheduler.m_simulateForceFailure = failure;
+        try {
+            m_pbd.sync();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e == failure);
+        } finally {
+            PBDSyncScheduler.m_simulateForceFailure = null;
+        }
+
+        // Nothing was written since, the failed segment still has to be forced with its bytes
+        final long[] before = totalSyncStats();
+        m_pbd.sync();
+        final long[] after = totalSyncStats();
+        assertEquals(1, after[2] - before[2]);
+        assertTrue(after[3] - before[3] >= defaultBuffer().capacity());
+
+        // Once that succeeds there is nothing left to force
+        m_pbd.sync();
+        assertEquals(after[2], totalSyncStats()[2]);
+    }
+
+    private static long[] totalSyncStats() {
+        final long[] totals = new long[6];
+        for (long[] volume : PBDSyncScheduler.instance().getStats(false).values()) {
+            for (int ii = 0; ii < totals.length; ii++) {
+                totals[ii] += volume[ii];
+            }
+        }
+        return totals;
+    }
+
+    @Test
+    public void testUncompressedReopenReadsFromMapping() throws Exception {
+        System.out.println("Running testUncompressedReopenReadsFromMapping");
+        for (int ii = 0; ii < 96; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)), false);
+        }
+        m_pbd.sync();
+        m_pbd.close();
+
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+
+        // Keep every container from the first segment until after the cursor has moved past it,
+        // they have to stay readable until they are discarded
+        List<BBContainer> held = new ArrayList<BBContainer>();
+        for (long ii = 0; ii < 96; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertNotNull(retval);
+            // Copied out of the read only mapping, consumers may still write to what they get
+            assertFalse(retval.b().isReadOnly());
+            assertEquals(1024 * 1024 * 2, retval.b().remaining());
+            assertEquals(ii, retval.b().getLong(0));
+            held.add(retval);
+        }
+        for (BBContainer cont : held) {
+            assertEquals(held.indexOf(cont), cont.b().getLong(0));
+            cont.discard();
+        }
+        assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+
+        //Expect just the current write segment
+        TreeSet<String> names = getSortedDirectoryListing();
+        assertEquals( 1, names.size());
+    }
+
+    @Test
+    public void testRecoverMultipleSegments() throws Exception {
+        System.out.println("Running testRecoverMultipleSegments");
+        for (int ii = 0; ii < 96; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)));
+        }
+        m_pbd.sync();
+        m_pbd.close();
+        assertTrue(TEST_DIR.listFiles().length > 2);
+
+        // The segment headers are read in parallel, the entries still have to come back in order
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        assertEquals(96, reader.getNumObjects());
+        for (long ii = 0; ii < 96; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertNotNull(retval);
+            assertEquals(ii, retval.b().getLong(0));
+            retval.discard();
+        }
+        assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+        assertEquals(0, reader.getNumObjects());
+    }
+
+    @Test
+    public void testRecoverWithTruncatedSegment() throws Exception {
+        System.out.println("Running testRecoverWithTruncatedSegment");
+        for (int ii = 0; ii < 96; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)));
+        }
+        m_pbd.sync();
+        m_pbd.close();
+
+        // Cut the last segment off in the middle of its header
+        TreeSet<String> before = getSortedDirectoryListing();
+        assertTrue(before.size() > 2);
+        File truncated = new File(TEST_DIR, TEST_NONCE + "." + (before.size() - 1) + ".pbd");
+        RandomAccessFile raf = new RandomAccessFile(truncated, "rw");
+        try {
+            raf.setLength(6);
+        } finally {
+            raf.close();
+        }
+        try {
+            m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+            fail();
+        } catch (IOException expected) {}
+        // A failed recovery leaves every segment alone
+        assertEquals(before, getSortedDirectoryListing());
+
+        // Without the broken segment the rest recovers, in order and with the right count
+        assertTrue(truncated.delete());
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        final int recovered = reader.getNumObjects();
+        assertTrue(recovered > 0 && recovered < 96);
+        for (long ii = 0; ii < recovered; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertNotNull(retval);
+            assertEquals(ii, retval.b().getLong(0));
+            retval.discard();
+        }
+        assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+    }
+
     @Test
     public void testInvalidDirectory() throws Exception {
         System.out.println("Running testInvalidDirectory");